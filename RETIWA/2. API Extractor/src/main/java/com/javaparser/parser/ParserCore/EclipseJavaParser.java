@@ -3,6 +3,7 @@ package com.javaparser.parser.ParserCore;
 import com.javaparser.parser.ParserCore.visitors.MethodDeclarationVisitor;
 import com.javaparser.parser.ParserCore.visitors.MethodInvocationVisitor;
 import com.javaparser.parser.ParserCore.visitors.UserTypesAndPackagesVisitor;
+import com.javaparser.parser.db.APISnapshotWriter;
 import com.javaparser.parser.db.ProjectParsingResultDB;
 import com.javaparser.parser.ds.*;
 import com.javaparser.parser.ds.PackageDeclarationInfo;
@@ -54,6 +55,8 @@ public class EclipseJavaParser {
         res = new ProjectParsingResult(projectName, new ArrayList<>(), new ArrayList<>(), new HashSet<>(), new HashSet<>());
         ProjectParsingResultDB.Report(res);
         ProjectParsingResultDB.WriteToSQLite(res, output);
+        if(parseMethodDeclaration && parsePackageAndTypeDeclaration)
+            APISnapshotWriter.Write(output, Paths.get(output + ".snapshot"));
     }
 
     /**
@@ -0,0 +1,146 @@
+package com.javaparser.parser.db;
+
+import com.javaparser.parser.ds.MethodDeclarationInfo;
+import com.javaparser.parser.ds.PackageDeclarationInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * Writes what the Client Projects Analyzer needs from an API database (public APIs and base package of each project)
+ * into one binary file that the analyzer memory-maps at startup, instead of reading the whole SQLite.
+ *
+ * Layout (big-endian ints):
+ *  header:   MAGIC, VERSION, nStrings, blobLength, nAPIs, nPackages
+ *  strings:  int[nStrings+1] offsets in blob, byte[blobLength] UTF-8 blob (padded to 4 bytes)
+ *  APIs:     int[nAPIs] ids, int[nAPIs] names, int[nAPIs] nArgs, int[nAPIs] qualifiedClassNames, int[nAPIs] projectNames
+ *  packages: int[nPackages] base package names
+ * Strings are stored once and referred to by index (-1 for null).
+ * APIs and packages are in the same order as MethodDeclarationInfoDB.ReadFromSqlite() and
+ * PackagesDeclarationDB.ReadPackagesFromSqlite_GroupByProject(), so reading a snapshot gives the same result as
+ * reading the database. The analyzer's reader (helpers/APISnapshot.java) must be updated together with this class.
+ */
+public class APISnapshotWriter {
+    private static final Logger logger = LoggerFactory.getLogger(APISnapshotWriter.class);
+
+    public static final int MAGIC = 0x41504953; // "APIS"
+    public static final int VERSION = 1;
+
+    public static void main(String[] args) {
+        if(args.length!=2)
+        {
+            System.err.println("Usage: <api-database.sqlite> <output-snapshot>");
+            return;
+        }
+        Write(Paths.get(args[0]), Paths.get(args[1]));
+    }
+
+    public static boolean Write(Path dbPath, Path snapshotPath)
+    {
+        List<MethodDeclarationInfo> declarations = MethodDeclarationInfoDB.ReadFromSqlite(dbPath);
+        Map<String, Set<PackageDeclarationInfo>> packagesPerProject = PackagesDeclarationDB.ReadPackagesFromSqlite_GroupByProject(dbPath);
+        if(declarations==null || packagesPerProject==null)
+            return false;
+
+        Map<String, Integer> stringIndex = new HashMap<>();
+        List<String> strings = new ArrayList<>();
+
+        List<MethodDeclarationInfo> apis = new ArrayList<>();
+        for(MethodDeclarationInfo m: declarations)
+            if(m.isPublic==1)
+                apis.add(m);
+        int[][] columns = new int[5][apis.size()];
+        for(int i=0; i<apis.size(); i++) {
+            MethodDeclarationInfo m = apis.get(i);
+            columns[0][i] = m.databaseId;
+            columns[1][i] = Index(m.name, stringIndex, strings);
+            columns[2][i] = m.nArgs;
+            columns[3][i] = Index(m.qualifiedClassName, stringIndex, strings);
+            columns[4][i] = Index(m.projectName, stringIndex, strings);
+        }
+
+        // Shortest package of each project, like the analyzer's TargetApacheCommonsAPIHelper.LoadPackages()
+        List<Integer> packages = new ArrayList<>();
+        for(Map.Entry<String, Set<PackageDeclarationInfo>> entry: packagesPerProject.entrySet())
+        {
+            int minPackageLen = 99999;
+            String minPackage = null;
+            for (PackageDeclarationInfo pdi : entry.getValue()) {
+                if(pdi.fullyQualifiedPackageName.length()<minPackageLen)
+                {
+                    minPackageLen = pdi.fullyQualifiedPackageName.length();
+                    minPackage=pdi.fullyQualifiedPackageName;
+                }
+            }
+            packages.add(Index(minPackage, stringIndex, strings));
+        }
+
+        byte[][] encoded = new byte[strings.size()][];
+        int blobLength = 0;
+        for(int i=0; i<strings.size(); i++) {
+            encoded[i] = strings.get(i).getBytes(StandardCharsets.UTF_8);
+            blobLength += encoded[i].length;
+        }
+
+        // Write next to the target and move, so a reader never maps a half-written file
+        Path tmp = snapshotPath.resolveSibling(snapshotPath.getFileName() + ".tmp");
+        try {
+            if(snapshotPath.toAbsolutePath().getParent()!=null)
+                Files.createDirectories(snapshotPath.toAbsolutePath().getParent());
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(strings.size());
+                out.writeInt(blobLength);
+                out.writeInt(apis.size());
+                out.writeInt(packages.size());
+
+                int offset = 0;
+                out.writeInt(offset);
+                for(byte[] s: encoded) {
+                    offset += s.length;
+                    out.writeInt(offset);
+                }
+                for(byte[] s: encoded)
+                    out.write(s);
+                for(int pad = (4 - blobLength % 4) % 4; pad>0; pad--)
+                    out.writeByte(0);
+
+                for(int[] column: columns)
+                    for(int v: column)
+                        out.writeInt(v);
+                for(int p: packages)
+                    out.writeInt(p);
+            }
+            Files.move(tmp, snapshotPath, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            logger.error("Failed to write API snapshot at {}", snapshotPath, e);
+            return false;
+        }
+
+        logger.info("API snapshot written at {}: {} APIs, {} packages, {} strings", snapshotPath, apis.size(), packages.size(), strings.size());
+        return true;
+    }
+
+    private static int Index(String s, Map<String, Integer> stringIndex, List<String> strings)
+    {
+        if(s==null)
+            return -1;
+        Integer idx = stringIndex.get(s);
+        if(idx==null) {
+            idx = strings.size();
+            strings.add(s);
+            stringIndex.put(s, idx);
+        }
+        return idx;
+    }
+}
@@ -0,0 +1,68 @@
+package sample;
+
+import java.util.*;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.apache.commons.lang3.StringUtils;
+
+@SuppressWarnings("unchecked")
+public class Calls<T extends Comparable<T>> extends Base implements Runnable {
+    private final Map<String, List<Integer>> index = new HashMap<String, List<Integer>>(16, 0.75f);
+    private static final int[] SIZES = new int[]{Math.max(1, 2), 3};
+
+    public Calls() {
+        this(10);
+    }
+
+    public Calls(int capacity) {
+        super(capacity, "calls");
+        init(capacity);
+    }
+
+    @Override
+    public void run() {
+        String s = String.valueOf(index.size()).trim();
+        if (StringUtils.isEmpty(s) || s.length() < 2 && check(s, 1) > 0)
+            System.out.println("empty: " + s + " (" + s.length() + ")");
+        List<String> names = index.keySet().stream().filter(k -> !k.isEmpty()).map(String::toUpperCase).collect(Collectors.toList());
+        Collections.<String>sort(names);
+        for (int i = 0; i < names.size(); i++)
+            process(names.get(i), i, new Object[]{names, i});
+    }
+
+    protected <R> R apply(Function<T, R> f, T value) {
+        return f.apply(value);
+    }
+
+    private int check(String a, int b) {
+        return a.compareTo(String.format("%d,%d", b, (b + 1))) / Math.abs(-b);
+    }
+
+    private void process(String name, int i, Object... rest) {
+        Runnable r = new Runnable() {
+            @Override
+            public void run() {
+                log(name.substring(0, Math.min(i, name.length())));
+            }
+        };
+        r.run();
+        // call(in, a, comment) and "call(in a string)" are not calls
+        char c = name.charAt(0);
+        synchronized (this) {
+            index.computeIfAbsent(name, k -> new ArrayList<>()).add((int) c);
+        }
+    }
+
+    private void init(int capacity) {
+        try {
+            Thread.sleep(capacity);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void log(Object o) {
+        System.err.println(Objects.toString(o, "null"));
+    }
+}
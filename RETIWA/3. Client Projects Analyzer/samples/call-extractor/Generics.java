@@ -0,0 +1,43 @@
+package sample;
+
+import java.util.*;
+
+public class Generics {
+    public static <K, V extends Comparable<? super V>> List<Map.Entry<K, V>> sortByValue(Map<K, V> map) {
+        List<Map.Entry<K, V>> list = new ArrayList<>(map.entrySet());
+        list.sort(Map.Entry.comparingByValue());
+        return Collections.unmodifiableList(list);
+    }
+
+    static boolean compare(int a, int b, int c, int d) {
+        return a < b && c > (d) || foo(a < b, c > d);
+    }
+
+    static boolean foo(boolean x, boolean y) {
+        return x ^ y;
+    }
+
+    static Optional<String> first(List<? extends CharSequence> items) {
+        return items.isEmpty() ? Optional.empty() : Optional.of(items.get(0).toString());
+    }
+
+    static int[][] grid(int n) {
+        int[][] g = new int[n][Integer.parseInt("3")];
+        Arrays.fill(g[0], Math.min(n, 1));
+        return g;
+    }
+
+    static <T> T[] copy(T[] a) {
+        return Arrays.<T>copyOf(a, a.length);
+    }
+
+    enum Kind {
+        A("a", 1), B("b", 2);
+
+        Kind(String s, int i) {
+            this.s = s.intern();
+        }
+
+        private final String s;
+    }
+}
@@ -5,12 +5,18 @@ import com.anon.datatype.RepositoryInfo;
 import com.anon.helpers.IO;
 import com.anon.helpers.InterestingCommitsLoader;
 import com.anon.cmdrunners.GitCmdRunner;
+import com.anon.cmdrunners.GitObjectReader;
+import com.anon.cmdrunners.GitObjectStore;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class CommitIterator {
     private static final Logger logger = LoggerFactory.getLogger(CommitIterator.class);
@@ -26,6 +32,19 @@ public class CommitIterator {
             return;
         }
 
+        // Git objects are read in-process, or by one long-lived "git cat-file" for the whole repository
+        if(Main.READ_GIT_OBJECTS_IN_PROCESS)
+            GitObjectStore.Open(repo.GetPath());
+        GitObjectReader.Open(repo.GetPath()); // if in-process reading fails, we fall back to this
+        try {
+            IterateCommits(ca);
+        } finally {
+            GitObjectStore.Close(repo.GetPath());
+            GitObjectReader.Close(repo.GetPath());
+        }
+    }
+
+    private void IterateCommits(CommitAnalyzer ca) {
         List<CommitInfo> allCommits = GitCmdRunner.GetListOfCommits_withMessage_FirstParent(this.repo, true, true);
         if(allCommits==null) {
             logger.error("({}/{}) {} Failed to retrieve list of commits!", Main.totalReposProcessed.get(), Main.totalRepos, repo);
@@ -40,16 +59,30 @@ public class CommitIterator {
 
 //        allCommits.set(0, new CommitInfo(EMPTY_TREE_SHA,"---"));
 //        boolean dontskip = false;
+        long deadline = Main.REPO_TIMEOUT_MIN > 0 ? System.nanoTime() + TimeUnit.MINUTES.toNanos(Main.REPO_TIMEOUT_MIN) : Long.MAX_VALUE;
+        if (ca instanceof PipelinedCommitAnalyzer && Main.COMMIT_PREPARE_POOL != null)
+            AnalyzeCommitsPipelined((PipelinedCommitAnalyzer<?>) ca, allCommits, deadline);
+        else
+            AnalyzeCommits(ca, allCommits, deadline);
+
+        try {
+            ca.Conclude(this.repo);
+        } catch (Exception e) {
+            logger.error("({}/{}) {} Analyzing All Commit Finished. Writing results FAILED", Main.totalReposProcessed.get(), Main.totalRepos, repo, e);
+        }
+    }
+
+    private void AnalyzeCommits(CommitAnalyzer ca, List<CommitInfo> allCommits, long deadline) {
         for (int cIndex = 1; cIndex < allCommits.size(); cIndex++) {
+            if (ShouldStop(cIndex, allCommits.size(), deadline))
+                break;
+
 //            if(allCommits.get(cIndex+1).commitSHA.startsWith("35bc87526def88a75230b863376e5c5827c7b205"))
 //                dontskip=true;
 //            if(!dontskip)
 //                continue;
 
-            CommitInfo curCommitBasicInfo = allCommits.get(cIndex);
-            String prevCommitSHA = allCommits.get(cIndex - 1).commitSHA;
-            CommitInfo commit = new CommitInfo(curCommitBasicInfo.commitSHA, prevCommitSHA, cIndex, allCommits.size(), curCommitBasicInfo.commitMessage_subject);
-
+            CommitInfo commit = NewCommitInfo(allCommits, cIndex);
             try {
                 logger.info("({}/{}) {} Analyzing Commit {}", Main.totalReposProcessed.get(), Main.totalRepos, repo, commit);
                 boolean res = ca.AnalyzeCommit(this.repo, commit);
@@ -59,14 +92,72 @@ public class CommitIterator {
                 logger.error("({}/{}) {} Analyzing Commit {} FAILED", Main.totalReposProcessed.get(), Main.totalRepos, repo, commit, e);
             }
         } // end of for loop
+    }
 
+    /**
+     * Same as `AnalyzeCommits`, but next commits are prepared on `Main.COMMIT_PREPARE_POOL` (a few commits ahead) while
+     * the current one is analyzed here, in order.
+     */
+    private <T> void AnalyzeCommitsPipelined(PipelinedCommitAnalyzer<T> ca, List<CommitInfo> allCommits, long deadline) {
+        int window = 2 * Main.COMMIT_WORKERS; // enough to keep workers busy, without holding too many parsed commits in memory
+        AtomicBoolean abandoned = new AtomicBoolean(false); // commits prepared after this is set are skipped
+        ArrayDeque<CompletableFuture<T>> ahead = new ArrayDeque<>();
+        int nextToPrepare = 1;
         try {
-            ca.Conclude(this.repo);
-        } catch (Exception e) {
-            logger.error("({}/{}) {} Analyzing All Commit Finished. Writing results FAILED", Main.totalReposProcessed.get(), Main.totalRepos, repo, e);
+            for (int cIndex = 1; cIndex < allCommits.size(); cIndex++) {
+                if (ShouldStop(cIndex, allCommits.size(), deadline))
+                    break;
+
+                for (; nextToPrepare < allCommits.size() && nextToPrepare < cIndex + window; nextToPrepare++) {
+                    CommitInfo toPrepare = NewCommitInfo(allCommits, nextToPrepare);
+                    ahead.add(CompletableFuture.supplyAsync(() -> abandoned.get() ? null : ca.PrepareCommit(this.repo, toPrepare), Main.COMMIT_PREPARE_POOL));
+                }
+
+                CommitInfo commit = NewCommitInfo(allCommits, cIndex);
+                CompletableFuture<T> prepared = ahead.poll();
+                try {
+                    logger.info("({}/{}) {} Analyzing Commit {}", Main.totalReposProcessed.get(), Main.totalRepos, repo, commit);
+                    boolean res = ca.AnalyzePreparedCommit(this.repo, prepared.join());
+                    if(!res)
+                        logger.error("({}/{}) {} Analyzing Commit {} FAILED ???", Main.totalReposProcessed.get(), Main.totalRepos, repo, commit);
+                } catch (Exception e) {
+                    Throwable cause = (e instanceof CompletionException && e.getCause() != null) ? e.getCause() : e;
+                    logger.error("({}/{}) {} Analyzing Commit {} FAILED", Main.totalReposProcessed.get(), Main.totalRepos, repo, commit, cause);
+                }
+            }
+        } finally {
+            // Wait for those already running: they use git objects of this repository, which are closed after we return
+            abandoned.set(true);
+            for (CompletableFuture<T> f : ahead) {
+                try {
+                    f.join();
+                } catch (Exception ignored) {
+                }
+            }
         }
     }
 
+    /**
+     * Checked before each commit. Commits analyzed so far are still concluded, so what we've found is written.
+     */
+    private boolean ShouldStop(int cIndex, int nCommits, long deadline) {
+        if (Main.STOP_REQUESTED) {
+            logger.warn("({}/{}) {} Stopping at commit {}/{}: shutting down", Main.totalReposProcessed.get(), Main.totalRepos, repo, cIndex, nCommits);
+            return true;
+        }
+        if (System.nanoTime() > deadline) {
+            logger.error("({}/{}) {} Stopping at commit {}/{}: timed out after {} minutes", Main.totalReposProcessed.get(), Main.totalRepos, repo, cIndex, nCommits, Main.REPO_TIMEOUT_MIN);
+            return true;
+        }
+        return false;
+    }
+
+    private CommitInfo NewCommitInfo(List<CommitInfo> allCommits, int cIndex) {
+        CommitInfo curCommitBasicInfo = allCommits.get(cIndex);
+        String prevCommitSHA = allCommits.get(cIndex - 1).commitSHA;
+        return new CommitInfo(curCommitBasicInfo.commitSHA, prevCommitSHA, cIndex, allCommits.size(), curCommitBasicInfo.commitMessage_subject);
+    }
+
     private List<CommitInfo> CherryPickCommitsBasedOnPreviousResults(String repo, List<CommitInfo> allCommits) {
         List<CommitInfo> commitsInvolvedInPreviousResultsAndTheirParent = new ArrayList<>();
         Set<Integer> selectedCommitIndices = new HashSet<>();
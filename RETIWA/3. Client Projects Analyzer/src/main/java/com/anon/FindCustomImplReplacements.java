@@ -6,6 +6,8 @@ import com.anonymous2.UtilsPom.PomInfo;
 import com.anonymous2.UtilsPom.PomUtilities;
 import com.anon.cmdrunners.GitCmdRunner;
 import com.anon.cmdrunners.SrcMLCmdRunner;
+import com.anon.cmdrunners.WordDiffEngine;
+import com.anon.extractors.CallPreFilter;
 import com.anonymous2.datatype.*;
 import com.anon.helpers.TargetApacheCommonsAPIHelper;
 import com.anonymous.parser.parser.ds.MethodDeclarationInfo;
@@ -16,6 +18,7 @@ import org.slf4j.LoggerFactory;
 
 import java.io.BufferedReader;
 import java.io.FileReader;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.util.*;
 import java.util.regex.Matcher;
@@ -33,7 +36,7 @@ import static com.anon.cmdrunners.GitCmdRunner.GetFileContentAtSpecificCommit;
  * 2. Otherwise, we split files to deleted/added (modified becomes both deleted and added). For deleted files, we remove all
  *      methods from "projectMethods". Then, for added files we add all existing methods to "projectMethods".
  */
-public class FindCustomImplReplacements implements CommitAnalyzer {
+public class FindCustomImplReplacements implements PipelinedCommitAnalyzer<FindCustomImplReplacements.PreparedCommit> {
     private static final Logger logger = LoggerFactory.getLogger(FindCustomImplReplacements.class);
 
     static int MAX_CHANGED_FILES = 20; // Note we still analyze huge commits and update database of project methods, but we do not find any replacement candidates from such commits
@@ -55,110 +58,118 @@ public class FindCustomImplReplacements implements CommitAnalyzer {
      * Check if the given commit contains a local method that is replaced with a non-local method and all other invocations of that local method in other files are also removed
      */
     public boolean AnalyzeCommit(RepositoryInfo repo, CommitInfo commit) {
+        return AnalyzePreparedCommit(repo, PrepareCommit(repo, commit));
+    }
 
+    /**
+     * Everything that doesn't depend on "projectMethods": changed files, parsing new/modified files, imports, word-diff,
+     * and pairs of calls that look like a replacement. It may run on any thread, ahead of commits not analyzed yet.
+     */
+    public PreparedCommit PrepareCommit(RepositoryInfo repo, CommitInfo commit) {
+        PreparedCommit p = new PreparedCommit(commit);
         GitCmdRunner.FilesStatus diffResult = GitCmdRunner.git_diff_GetFilesStatus(repo.GetPath(), commit.parentCommitSHA, commit.commitSHA, "java", true);
+        p.nChangedFiles = diffResult.totalCount;
+        if (diffResult.totalCount == 0)
+            return p;
+
+        // Why we don't skip commits with too many changed files? Because if we skip analyzing a commit, the method lists
+        //  in "projectMethods" goes out of sync with projects, and we'll have wrong list of in-project implemented methods.
+
+        p.deleted.addAll(diffResult.deleted);
+        p.deleted.addAll(diffResult.modified);
+        p.added.addAll(diffResult.added);
+        p.added.addAll(diffResult.modified);
+        for (GitCmdRunner.GitFilePath f : diffResult.renamed_from_to) {
+            p.deleted.add(f.oldFilePath);
+            p.added.add(f.filePath);
+            p.editedFiles.add(f);
+        }
+        for (Path f : diffResult.modified)
+            p.editedFiles.add(new GitCmdRunner.GitFilePath(f));
+
+        ParseAddedFiles(repo, p, diffResult.blobSHAs);
+
+        if (p.editedFiles.size() == 0 || p.editedFiles.size() > MAX_CHANGED_FILES)
+            return p;
+
+        // Why lines below commented? We will just check if org.apache.commons is imported and trust developers about how they manage dependencies
+        //Set<MavenLibInfo> projectDependencies = null; //ExtractDependencies_onlyApacheCommons(repo, commit);
+
+        // Pass 1: keep only files importing a target library
+        int nFileAnalyzed = 0;
+        for (GitCmdRunner.GitFilePath aEditedFilepath : p.editedFiles) {
+            if ((++nFileAnalyzed) % SHOW_SRCML_PROCESS_AFTER_N_FILE == 0)
+                logger.debug("({}/{}) {} Analyzing Commit {}: Looking for candidate replacements ... ({}/{})", Main.totalReposProcessed.get(), Main.totalRepos, repo, commit, nFileAnalyzed, p.editedFiles.size());
+
+
+            // Check which target library (Apache Commons) are imported
+            Set<String> importedPackages_onlyApacheCommons = new HashSet<>();
+            String header = GitCmdRunner.GetFileHeaderAtSpecificCommit(repo.GetPath(), commit.commitSHA, aEditedFilepath.filePath);
+            if(header!=null)
+                importedPackages_onlyApacheCommons = TargetApacheCommonsAPIHelper.FindImportedPackages(header);
+            else
+                logger.error("({}/{}) {} Analyzing Commit {}: Failed Fetching file content: {}", Main.totalReposProcessed.get(), Main.totalRepos, repo, commit, aEditedFilepath.filePath);
+
+            if(importedPackages_onlyApacheCommons.isEmpty())
+                continue;
 
-        if (diffResult.totalCount == 0) {
+            p.candidateFiles.put(aEditedFilepath, importedPackages_onlyApacheCommons);
+        }
+
+        // Pass 2: one word-diff for all candidate files, then look for pairs of calls in each
+        if (p.candidateFiles.isEmpty())
+            return p;
+        else if (Main.DIFF_IN_PROCESS)
+            p.commitDiff = WordDiffEngine.CommitWordDiff(true, repo.GetPath(), commit.parentCommitSHA, commit.commitSHA, new ArrayList<>(p.candidateFiles.keySet()), true);
+        else
+            p.commitDiff = GitCmdRunner.git_diff_CommitWordDiff(true, repo.GetPath(), commit.parentCommitSHA, commit.commitSHA, new ArrayList<>(p.candidateFiles.keySet()), true);
+        for (GitCmdRunner.GitFilePath aEditedFilepath : p.candidateFiles.keySet()) {
+            GitCmdRunner.FileDiff fileDiff = p.commitDiff.get(aEditedFilepath.filePath);
+            if (fileDiff == null)
+                continue; // no hunk, e.g. only whitespace changes
+
+            List<GitCmdRunner.CodeReplacement> codeChanges = fileDiff.codeReplacements;
+            if (codeChanges.size() > MAX_DIFF_CHANGES) {
+                logger.warn("({}/{}) {} Analyzing Commit {}: Skipping a file with too many changes ({}): {}", Main.totalReposProcessed.get(), Main.totalRepos, repo, commit, codeChanges.size(), aEditedFilepath.filePath);
+                continue;
+            } else if (codeChanges.size() > DIFF_CHANGES_WARNING_THRESHOLD)
+                logger.warn("({}/{}) {} Analyzing Commit {}: Analyzing a file with many changes ({}): {}", Main.totalReposProcessed.get(), Main.totalRepos, repo, commit, codeChanges.size(), aEditedFilepath.filePath);
+
+            p.candidateReplacements.put(aEditedFilepath, FindCandidateReplacements(aEditedFilepath, codeChanges));
+        }
+        return p;
+    }
+
+    /**
+     * Applies a prepared commit to "projectMethods" and keeps candidate replacements which are truly local method -> API.
+     * Must be called for commits in order, on the thread owning this object.
+     */
+    public boolean AnalyzePreparedCommit(RepositoryInfo repo, PreparedCommit p) {
+        CommitInfo commit = p.commit;
+
+        if (p.nChangedFiles == 0) {
             logger.debug("({}/{}) {} Analyzing Commit {}: No Java file changes [DONE]", Main.totalReposProcessed.get(), Main.totalRepos, repo, commit);
             return true;
         }
 
-        // Why code below commented out? Because if we skip analyzing a commit, the method lists in "projectMethods" goes
-        //  out of sync with projects, and we'll have wrong list of in-project implemented methods.
-//        if (diffResult.totalCount > MAX_CHANGED_FILES) {
-//            logger.info("{} {} Analyzing Commit {}: Too Many ({}) Java files changed -> SKIPPING COMMIT", repoLogInfo, repo, commit, diffResult.totalCount);
-//            return false;
-//        }
-
-        logger.debug("({}/{}) {} Analyzing Commit {}: {} Java files changes...", Main.totalReposProcessed.get(), Main.totalRepos, repo, commit, diffResult.totalCount);
-
-        List<GitCmdRunner.GitFilePath> editedFiles = new ArrayList<>(); // these files are where we look for replacements
-        List<Path> deleted = new ArrayList<>(); // methods for such files will be wiped out from ""projectMethods" object
-        List<Path> added = new ArrayList<>();   // methods for such files will be added to "projectMethods" object
-
-        deleted.addAll(diffResult.deleted);
-        deleted.addAll(diffResult.modified);
-        added.addAll(diffResult.added);
-        added.addAll(diffResult.modified);
-        for (GitCmdRunner.GitFilePath p : diffResult.renamed_from_to) {
-            deleted.add(p.oldFilePath);
-            added.add(p.filePath);
-            editedFiles.add(p);
-        }
-        for (Path p : diffResult.modified)
-            editedFiles.add(new GitCmdRunner.GitFilePath(p));
+        logger.debug("({}/{}) {} Analyzing Commit {}: {} Java files changes...", Main.totalReposProcessed.get(), Main.totalRepos, repo, commit, p.nChangedFiles);
 
         // Step 1/2: Update project's local method
         logger.debug("({}/{}) {} Analyzing Commit {}: Updating project methods...", Main.totalReposProcessed.get(), Main.totalRepos, repo, commit);
-        UpdateProjectMethods(repo, commit, deleted, added);
+        UpdateProjectMethods(repo, p);
 
         // Step 2/2: Among edited files (=renamed, modified), look for eligible replacements
-        if(editedFiles.size()==0)
+        if(p.editedFiles.size()==0)
             logger.debug("({}/{}) {} Analyzing Commit {}: No edited file [DONE]", Main.totalReposProcessed.get(), Main.totalRepos, repo, commit);
-        else if(editedFiles.size()>MAX_CHANGED_FILES)
-            logger.debug("({}/{}) {} Analyzing Commit {}: Too many edited file ({}) [DONE]", Main.totalReposProcessed.get(), Main.totalRepos, repo, commit, editedFiles.size());
+        else if(p.editedFiles.size()>MAX_CHANGED_FILES)
+            logger.debug("({}/{}) {} Analyzing Commit {}: Too many edited file ({}) [DONE]", Main.totalReposProcessed.get(), Main.totalRepos, repo, commit, p.editedFiles.size());
         else {
-
-            // Why lines below commented? We will just check if org.apache.commons is imported and trust developers about how they manage dependencies
-            //Set<MavenLibInfo> projectDependencies = null; //ExtractDependencies_onlyApacheCommons(repo, commit);
-//            if(projectDependencies==null)
-//                logger.info("({}/{}) {} Analyzing Commit {}: No 'pom.xml' or 'build.gradle' files [DONE]", Main.totalReposProcessed.get(), Main.totalRepos, repo, commit);
-//            else if(projectDependencies.size()==0)
-//                logger.info("({}/{}) {} Analyzing Commit {}: No Apache Commons library among dependencies [DONE]", Main.totalReposProcessed.get(), Main.totalRepos, repo, commit);
-
-            logger.debug("({}/{}) {} Analyzing Commit {}: Looking for candidate replacements in {} edited files...", Main.totalReposProcessed.get(), Main.totalRepos, repo, commit, editedFiles.size());
+            logger.debug("({}/{}) {} Analyzing Commit {}: Looking for candidate replacements in {} edited files...", Main.totalReposProcessed.get(), Main.totalRepos, repo, commit, p.editedFiles.size());
 
             List<MethodReplacement> method2APIReplacements_allFiles = new ArrayList<>();
-
-            int nFileAnalyzed = 0;
-            for (GitCmdRunner.GitFilePath aEditedFilepath : editedFiles) {
-                if ((++nFileAnalyzed) % SHOW_SRCML_PROCESS_AFTER_N_FILE == 0)
-                    logger.debug("({}/{}) {} Analyzing Commit {}: Looking for candidate replacements ... ({}/{})", Main.totalReposProcessed.get(), Main.totalRepos, repo, commit, nFileAnalyzed, editedFiles.size());
-
-
-                // Check which target library (Apache Commons) are imported
-                Set<String> importedPackages_onlyApacheCommons = new HashSet<>();
-                String content = GetFileContentAtSpecificCommit(repo.GetPath(), commit.commitSHA, aEditedFilepath.filePath);
-                if(content!=null) {
-                    String[] lines = content.split("\n");
-                    List<String> linesArray = Arrays.asList(lines);
-                    for(String line: linesArray) {
-                        if(line.contains("class ") || line.contains("interface ") )
-                            break; // most likely we reached end of import statements
-                        if(line.contains("import")==false)
-                            continue;
-//                        if(line.contains("org.apache.commons"))
-//                            debuggingImportPackages = true;
-                        for(String aTargetPackage: TargetApacheCommonsAPIHelper.packages)
-                            if(line.contains(aTargetPackage)) {
-                                importedPackages_onlyApacheCommons.add(aTargetPackage);
-                                break;
-                            }
-//                        Matcher matcher = importApacheCommonPattern.matcher(line);
-//                        if(matcher.find()) {
-//                            atLeastOneTargetLibraryImportted = true;
-//                            break;
-//                        }
-                    }
-                }
-                else
-                    logger.error("({}/{}) {} Analyzing Commit {}: Failed Fetching file content: {}", Main.totalReposProcessed.get(), Main.totalRepos, repo, commit, aEditedFilepath.filePath);
-
-                if(importedPackages_onlyApacheCommons.isEmpty())
-                {
-//                    if(debuggingImportPackages)
-//                        logger.error("({}/{}) {} Analyzing Commit {}: Skipping a file with no org.apache.commons import ---> BUG BUG BUG ERROR: {}", Main.totalReposProcessed.get(), Main.totalRepos, repo, commit, aEditedFilepath.filePath);
-                    continue;
-                }
-
-                List<GitCmdRunner.CodeReplacement> codeChanges = GitCmdRunner.git_diff_JustChanges(true, repo.GetPath(), commit.parentCommitSHA, commit.commitSHA, aEditedFilepath.oldFilePath, aEditedFilepath.filePath, true);
-                if (codeChanges.size() > MAX_DIFF_CHANGES) {
-                    logger.warn("({}/{}) {} Analyzing Commit {}: Skipping a file with too many changes ({}): {}", Main.totalReposProcessed.get(), Main.totalRepos, repo, commit, codeChanges.size(), aEditedFilepath.filePath);
-                    continue;
-                } else if (codeChanges.size() > DIFF_CHANGES_WARNING_THRESHOLD)
-                    logger.warn("({}/{}) {} Analyzing Commit {}: Analyzing a file with many changes ({}): {}", Main.totalReposProcessed.get(), Main.totalRepos, repo, commit, codeChanges.size(), aEditedFilepath.filePath);
-
-                List<MethodReplacement> method2APIReplacements = CheckForCustomImplReplacement(repo, commit, aEditedFilepath, codeChanges);
+            for (Map.Entry<GitCmdRunner.GitFilePath, List<MethodReplacement>> aCandidate : p.candidateReplacements.entrySet()) {
+                Set<String> importedPackages_onlyApacheCommons = p.candidateFiles.get(aCandidate.getKey());
+                List<MethodReplacement> method2APIReplacements = KeepCustomImplReplacements(aCandidate.getValue());
 
                 if (method2APIReplacements.size() > 0) {
                     for(MethodReplacement m: method2APIReplacements)
@@ -184,6 +195,7 @@ public class FindCustomImplReplacements implements CommitAnalyzer {
                     Set<GitCmdRunner.GitFilePath> finalSetOfFiles = new HashSet<>();
                     for(MethodReplacementGrouped m: method2APIReplacementsGrouped)
                     {
+                        m.nFilesCallingNewMethod = projectMethods.CountFilesCallingMethod(m.rep.newMethod);
 //                        m.hasFoundAnyDependencyFile = projectDependencies!=null;
 //                        m.nDependencies = projectDependencies.size();
                         finalSetOfFiles.addAll(m.filesAndLineNumbers.keySet());
@@ -191,9 +203,9 @@ public class FindCustomImplReplacements implements CommitAnalyzer {
 
 
                     List<ImportStatementChanges> importChanges = new ArrayList<>();
-                    for(GitCmdRunner.GitFilePath p: finalSetOfFiles){
-                        ImportStatementChanges importStatementChanges = GitCmdRunner.git_diff_JustImportsChanges(repo.GetPath(), commit.parentCommitSHA, commit.commitSHA, p.oldFilePath, p.filePath, true);
-                        importChanges.add(importStatementChanges);
+                    for(GitCmdRunner.GitFilePath f: finalSetOfFiles){
+                        GitCmdRunner.FileDiff fileDiff = p.commitDiff.get(f.filePath);
+                        importChanges.add(fileDiff != null ? fileDiff.importChanges : new ImportStatementChanges(f.filePath));
                     }
 
 
@@ -324,7 +336,7 @@ public class FindCustomImplReplacements implements CommitAnalyzer {
 //        List<MethodReplacementGrouped> method2APIReplacementsGrouped_filtered = new ArrayList<>();
         for(MethodReplacementGrouped aMethodReplacementGroup: method2APIReplacementsGrouped)
         {
-            List<MethodDeclarationInfo> candidateAPIs = TargetApacheCommonsAPIHelper.FindMatchingAPIs(aMethodReplacementGroup.rep.newMethod, aMethodReplacementGroup.rep.importedPackages);
+            List<Integer> candidateAPIs = TargetApacheCommonsAPIHelper.FindMatchingAPIs(aMethodReplacementGroup.rep.newMethod, aMethodReplacementGroup.rep.importedPackages);
 //            candidateAPIs = RemoveAPIsThatLibraryIsNotAmongDependencies(candidateAPIs, projectDependencies);
             aMethodReplacementGroup.AddCandidateAPis(candidateAPIs);
 //            method2APIReplacementsGrouped_filtered.add(aMethodReplacementGroup);
@@ -404,7 +416,7 @@ public class FindCustomImplReplacements implements CommitAnalyzer {
     private void AddOldMethodDeclarationInfo(RepositoryInfo repo, CommitInfo commit, List<MethodReplacementGrouped> method2APIReplacementsGrouped) {
         for(MethodReplacementGrouped aMethodReplacement_group: method2APIReplacementsGrouped)
         {
-            MethodDeclarationInfo oldMethodDecl = GetMethodDeclarationInfo(aMethodReplacement_group.rep.oldMethod, this.projectMethodsBefore);
+            MethodDeclarationInfo oldMethodDecl = this.projectMethodsBefore.FindMethodDeclaration(aMethodReplacement_group.rep.oldMethod);
 
             if(oldMethodDecl == null)
             {
@@ -481,17 +493,27 @@ public class FindCustomImplReplacements implements CommitAnalyzer {
      * Return a list of MethodReplacements that meet our criteria (i.e., old one is local and removed from all other files, and new one is non-local library API).
      */
     public List<MethodReplacement> CheckForCustomImplReplacement(RepositoryInfo repo, CommitInfo commit, GitCmdRunner.GitFilePath path, List<GitCmdRunner.CodeReplacement> codeChanges) {
+        return KeepCustomImplReplacements(FindCandidateReplacements(path, codeChanges));
+    }
 
-        List<MethodReplacement> method2APIReplacements = new ArrayList<>();
+    /**
+     * First part of `CheckForCustomImplReplacement`: pairs of calls where one replaced the other. It doesn't look at
+     * "projectMethods", so it can run ahead (see `PrepareCommit`).
+     */
+    private List<MethodReplacement> FindCandidateReplacements(GitCmdRunner.GitFilePath path, List<GitCmdRunner.CodeReplacement> codeChanges) {
+
+        List<MethodReplacement> candidates = new ArrayList<>();
 
         for(GitCmdRunner.CodeReplacement aReplace: codeChanges)
         {
             if(aReplace.removedCode==null || aReplace.addedCode==null)
                 continue;
+            if(!CallPreFilter.MayHaveReplacement(aReplace.removedCode, aReplace.addedCode))
+                continue; // saves two call extractions
 
-            List<MethodInvocationInfo> removedCalls = SrcMLCmdRunner.ExtractMethodsCallsFromText(aReplace.removedCode, "Java", path.oldFilePath);
+            List<MethodInvocationInfo> removedCalls = Main.CALL_EXTRACTOR.ExtractMethodsCallsFromText(aReplace.removedCode, path.oldFilePath);
             if (removedCalls.size() == 0)  continue;
-            List<MethodInvocationInfo> addedCalls = SrcMLCmdRunner.ExtractMethodsCallsFromText(aReplace.addedCode, "Java", path.filePath);
+            List<MethodInvocationInfo> addedCalls = Main.CALL_EXTRACTOR.ExtractMethodsCallsFromText(aReplace.addedCode, path.filePath);
             if (addedCalls.size() == 0) continue;
 
             if(removedCalls.equals(addedCalls))
@@ -583,21 +605,31 @@ public class FindCustomImplReplacements implements CommitAnalyzer {
             if(IsNewMethodTrulyAnAPI(newMethodAPI)==false)
                 continue;
 
-            boolean WasOldMethodLocal = IsMethodInvocationLocal(oldMethod, this.projectMethodsBefore.methodsDeclarationsInEachFile);
-            boolean DoesOldMethodExistAfter = IsMethodInvocationLocal(oldMethod, this.projectMethods.methodsDeclarationsInEachFile);
-            boolean isNewMethodLocal = IsMethodInvocationLocal(newMethodAPI, this.projectMethods.methodsDeclarationsInEachFile);
-            boolean isNewMethodCalled = IsMethodCalled(newMethodAPI, this.projectMethods.methodsCallsInEachFile); // Why "isNewMethodCalled"? sometimes we found a API call in comments
-
-            if (WasOldMethodLocal==false || DoesOldMethodExistAfter==true || isNewMethodLocal==true || isNewMethodCalled==false)
-                continue;
-
-
             String addedMethods = ConvertMethodListToString(addedCalls);
             String removedMethods = ConvertMethodListToString(removedCalls);
-            method2APIReplacements.add(new MethodReplacement(oldMethod, newMethodAPI, path, aReplace.lineStart_before, aReplace.lineStart_after, aReplace.removedCode, aReplace.addedCode, removedCalls.size(), addedCalls.size(), removedMethods, addedMethods));
+            candidates.add(new MethodReplacement(oldMethod, newMethodAPI, path, aReplace.lineStart_before, aReplace.lineStart_after, aReplace.removedCode, aReplace.addedCode, removedCalls.size(), addedCalls.size(), removedMethods, addedMethods));
             //System.out.printf("*********** Found a pair: %s - %s \n", oldMethod.methodName, newMethodAPI.methodName);
         }
 
+        return candidates;
+    }
+
+    /**
+     * Second part of `CheckForCustomImplReplacement`: keeps candidates where the old method was local (and is gone) and
+     * the new one is not.
+     */
+    private List<MethodReplacement> KeepCustomImplReplacements(List<MethodReplacement> candidates) {
+        List<MethodReplacement> method2APIReplacements = new ArrayList<>();
+        for (MethodReplacement c : candidates) {
+            boolean WasOldMethodLocal = this.projectMethodsBefore.IsMethodDeclared(c.oldMethod);
+            boolean DoesOldMethodExistAfter = this.projectMethods.IsMethodDeclared(c.oldMethod);
+            boolean isNewMethodLocal = this.projectMethods.IsMethodDeclared(c.newMethod);
+            boolean isNewMethodCalled = this.projectMethods.IsMethodCalled(c.newMethod); // Why "isNewMethodCalled"? sometimes we found a API call in comments
+
+            if (WasOldMethodLocal==false || DoesOldMethodExistAfter==true || isNewMethodLocal==true || isNewMethodCalled==false)
+                continue;
+            method2APIReplacements.add(c);
+        }
         return method2APIReplacements;
     }
 
@@ -655,52 +687,86 @@ public class FindCustomImplReplacements implements CommitAnalyzer {
     }
 
 
-    private void UpdateProjectMethods(RepositoryInfo repo, CommitInfo commit, List<Path> deleted, List<Path> added) {
-        int nExtractedMethodDeclarations = 0, nExtractedMethodCalls = 0;
-
-        ProjectMethods projectMethods_new = new ProjectMethods(this.projectMethodsBefore);
-
-        logger.debug("({}/{}) {} Analyzing Commit {}: Cleaning method calls/decls from deleted files... ", Main.totalReposProcessed.get(), Main.totalRepos, repo, commit);
-        for (Path p : deleted) {
-            projectMethods_new.methodsDeclarationsInEachFile.remove(p);
-            projectMethods_new.methodsCallsInEachFile.remove(p);
-        }
+    /**
+     * Fetches and parses new/modified files of the commit into `p.parsedFiles`
+     * @param blobSHAs  blob SHA of added files, to reuse what we've already parsed (see `Main.PARSE_CACHE`)
+     */
+    private void ParseAddedFiles(RepositoryInfo repo, PreparedCommit p, Map<Path, String> blobSHAs) {
+        CommitInfo commit = p.commit;
+        List<Path> added = p.added;
 
-        int nFileAnalyzed = 0;
+        // Fetch all new/modified files first (except those already parsed before), so srcML can parse them together
+        Map<Path, SrcMLCmdRunner.ParsedFile> parsedBefore = new HashMap<>(); // real file path -> cached result
+        Map<Path, byte[]> contents = new LinkedHashMap<>(); // real file path -> content
         for (Path addedFilePath : added) {
-            nFileAnalyzed++;
-            if (nFileAnalyzed % SHOW_SRCML_PROCESS_AFTER_N_FILE == 0)
-                logger.debug("({}/{}) {} Analyzing Commit {}: Extracting method calls/decls from new/modified files... ({}/{})", Main.totalReposProcessed.get(), Main.totalRepos, repo, commit, nFileAnalyzed, added.size());
-
 //            if(addedFilePath.toString().equals("core/java/android/view/ViewTreeObserver.java")==false)
 //                continue;
 
-            Path tmp_addedFilePath = GitCmdRunner.GetFileContentAtSpecificCommitAndSaveOnTempFile(repo.GetPath(), commit.commitSHA, addedFilePath);
-            if(tmp_addedFilePath == null)
+            String blobSHA = blobSHAs.get(addedFilePath);
+            if(Main.PARSE_CACHE != null && blobSHA != null) {
+                SrcMLCmdRunner.ParsedFile cached = Main.PARSE_CACHE.Get(blobSHA, addedFilePath);
+                if(cached != null) {
+                    parsedBefore.put(addedFilePath, cached);
+                    continue;
+                }
+            }
+
+            String content = GitCmdRunner.GetFileContentAtSpecificCommit(repo.GetPath(), commit.commitSHA, addedFilePath);
+            if(content == null)
             {
-                logger.error("({}/{}) {} Analyzing Commit {}: Failed to get content of a newly added file... ({}/{}): {}", Main.totalReposProcessed.get(), Main.totalRepos, repo, commit, nFileAnalyzed, added.size(), addedFilePath);
+                logger.error("({}/{}) {} Analyzing Commit {}: Failed to get content of a newly added file... ({}/{}): {}", Main.totalReposProcessed.get(), Main.totalRepos, repo, commit, contents.size()+1, added.size(), addedFilePath);
                 continue;
             }
+            contents.put(addedFilePath, content.getBytes(StandardCharsets.UTF_8)); // as temp files used to be written
+        }
+
+        Map<Path, SrcMLCmdRunner.ParsedFile> parsedFiles = SrcMLCmdRunner.ExtractFromContentsBatch(contents, "Java", false);
+
+        for (Path addedFilePath : added) {
+            SrcMLCmdRunner.ParsedFile parsed = parsedBefore.get(addedFilePath);
+            if (parsed == null) {
+                parsed = parsedFiles.get(addedFilePath);
+                if (parsed == null)
+                    continue; // failed fetching its content
+
+                String blobSHA = blobSHAs.get(addedFilePath);
+                if (Main.PARSE_CACHE != null && blobSHA != null)
+                    Main.PARSE_CACHE.Put(blobSHA, parsed); // before AddDefaultConstructors() changes it
+            }
 
-            List<MethodDeclarationInfo> methodDecls = SrcMLCmdRunner.ExtractMethodsDeclarations(tmp_addedFilePath, "Java", addedFilePath, false);
-            List<SrcMLCmdRunner.ClassInfo> classes = SrcMLCmdRunner.ExtractClassDeclarations(tmp_addedFilePath, "Java", addedFilePath);
-            AddDefaultConstructors(methodDecls, classes);
-            HashSet<MethodDeclarationInfo> methodDeclarations_set = new HashSet<>(methodDecls);
-            projectMethods_new.methodsDeclarationsInEachFile.put(addedFilePath, methodDeclarations_set);
+            AddDefaultConstructors(parsed.methodDeclarations, parsed.classes);
+            p.parsedFiles.put(addedFilePath, parsed);
+        }
+        p.nParsedBefore = parsedBefore.size();
+    }
+
+    private void UpdateProjectMethods(RepositoryInfo repo, PreparedCommit p) {
+        CommitInfo commit = p.commit;
+        int nExtractedMethodDeclarations = 0, nExtractedMethodCalls = 0;
+
+        ProjectMethods projectMethods_new = new ProjectMethods(this.projectMethodsBefore);
+
+        logger.debug("({}/{}) {} Analyzing Commit {}: Cleaning method calls/decls from deleted files... ", Main.totalReposProcessed.get(), Main.totalRepos, repo, commit);
+        for (Path f : p.deleted)
+            projectMethods_new.RemoveFile(f);
+
+        for (Map.Entry<Path, SrcMLCmdRunner.ParsedFile> aFile : p.parsedFiles.entrySet()) {
+            Path addedFilePath = aFile.getKey();
+            SrcMLCmdRunner.ParsedFile parsed = aFile.getValue();
+
+            HashSet<MethodDeclarationInfo> methodDeclarations_set = new HashSet<>(parsed.methodDeclarations);
+            projectMethods_new.PutMethodDeclarations(addedFilePath, methodDeclarations_set);
             nExtractedMethodDeclarations += methodDeclarations_set.size();
 
-            List<MethodInvocationInfo> methodCalls = SrcMLCmdRunner.ExtractMethodsCalls(tmp_addedFilePath, "Java", addedFilePath);
-            HashSet<MethodInvocationInfo> methodCalls_set = new HashSet<>(methodCalls);
-            projectMethods_new.methodsCallsInEachFile.put(addedFilePath, methodCalls_set);
+            HashSet<MethodInvocationInfo> methodCalls_set = new HashSet<>(parsed.methodCalls);
+            projectMethods_new.PutMethodCalls(addedFilePath, methodCalls_set);
             nExtractedMethodCalls += methodCalls_set.size();
-
-            tmp_addedFilePath.toFile().delete();
         }
 
         int nTotalMethodDecls = projectMethods_new.CountTotalMethodDeclarations();
         int nTotalMethodCalls = projectMethods_new.CountTotalMethodCalls();
-        logger.debug("({}/{}) {} Analyzing Commit {}: Extracting method calls/decls from {} new/modified files: {} new methods decl  {} new method calls | TOTAL: {} methods decl  {} method calls",
-                Main.totalReposProcessed.get(), Main.totalRepos, repo, commit, added.size(), nExtractedMethodDeclarations, nExtractedMethodCalls,
+        logger.debug("({}/{}) {} Analyzing Commit {}: Extracting method calls/decls from {} new/modified files ({} parsed before): {} new methods decl  {} new method calls | TOTAL: {} methods decl  {} method calls",
+                Main.totalReposProcessed.get(), Main.totalRepos, repo, commit, p.added.size(), p.nParsedBefore, nExtractedMethodDeclarations, nExtractedMethodCalls,
                 nTotalMethodDecls, nTotalMethodCalls);
 
         this.projectMethods = projectMethods_new;
@@ -726,47 +792,23 @@ public class FindCustomImplReplacements implements CommitAnalyzer {
     }
 
     /**
-     * Check if given method is among declared/implemented methods of the project (therefore, it is not an API from a library)
-     * @return true if such method is found, otherwise false.
+     * What `PrepareCommit` found for a commit, waiting to be applied in order by `AnalyzePreparedCommit`
      */
-    private boolean IsMethodInvocationLocal(MethodInvocationInfo methodInfo, Map<Path, Set<MethodDeclarationInfo>> projectMethodsDeclarations) {
-
-        for (Map.Entry<Path, Set<MethodDeclarationInfo>> entry : projectMethodsDeclarations.entrySet()) {
-            Set<MethodDeclarationInfo> methodDeclarations = entry.getValue();
-            for(MethodDeclarationInfo aDec: methodDeclarations)
-                if(aDec.MatchMethodInvocation(methodInfo))
-                    return true;
+    public static class PreparedCommit {
+        final CommitInfo commit;
+        int nChangedFiles = 0;
+        final List<Path> deleted = new ArrayList<>(); // methods for such files will be wiped out from ""projectMethods" object
+        final List<Path> added = new ArrayList<>();   // methods for such files will be added to "projectMethods" object
+        final Map<Path, SrcMLCmdRunner.ParsedFile> parsedFiles = new LinkedHashMap<>(); // added files we could parse
+        int nParsedBefore = 0;
+        final List<GitCmdRunner.GitFilePath> editedFiles = new ArrayList<>(); // these files are where we look for replacements
+        final Map<GitCmdRunner.GitFilePath, Set<String>> candidateFiles = new LinkedHashMap<>(); // edited files importing a target library -> imported packages
+        Map<Path, GitCmdRunner.FileDiff> commitDiff = new HashMap<>();
+        final Map<GitCmdRunner.GitFilePath, List<MethodReplacement>> candidateReplacements = new LinkedHashMap<>();
+
+        PreparedCommit(CommitInfo commit) {
+            this.commit = commit;
         }
-
-        return false;
-    }
-
-    /**
-     * Check if given method is among declared/implemented methods of the project (therefore, it is not an API from a library)
-     * @return returns if such matching method declaration is found, otherwise null.
-     */
-    private MethodDeclarationInfo GetMethodDeclarationInfo(MethodInvocationInfo methodInfo, ProjectMethods projectMethods) {
-        for (Map.Entry<Path, Set<MethodDeclarationInfo>> entry : projectMethods.methodsDeclarationsInEachFile.entrySet()) {
-            Set<MethodDeclarationInfo> methodDeclarations = entry.getValue();
-            for (MethodDeclarationInfo m : methodDeclarations)
-                if (m.MatchMethodInvocation(methodInfo))
-                    return m;
-        }
-
-        return null;
-    }
-
-    /**
-     * Check if given method is among method invocations of the project (therefore, it is not an API from a library)
-     */
-    private boolean IsMethodCalled(MethodInvocationInfo methodInfo, Map<Path, Set<MethodInvocationInfo>> projectMethodsCalls) {
-        for (Map.Entry<Path, Set<MethodInvocationInfo>> entry : projectMethodsCalls.entrySet()) {
-            Set<MethodInvocationInfo> methodCalls = entry.getValue();
-            if(methodCalls.contains(methodInfo))
-                return true;
-        }
-
-        return false;
     }
 
     /**
@@ -779,6 +821,7 @@ public class FindCustomImplReplacements implements CommitAnalyzer {
         int count;
         HashMap<GitCmdRunner.GitFilePath, List<ImmutablePair<Integer, Integer>>> filesAndLineNumbers;
         List<Integer> candidateAPIIDs = new ArrayList<>();
+        int nFilesCallingNewMethod; // after the commit, in the whole project
 //        boolean hasFoundAnyDependencyFile = false;
 //        int nDependencies = 0;
 
@@ -805,9 +848,8 @@ public class FindCustomImplReplacements implements CommitAnalyzer {
             count++;
         }
 
-        public void AddCandidateAPis(List<MethodDeclarationInfo> candidateAPIs) {
-            for(MethodDeclarationInfo m: candidateAPIs)
-                candidateAPIIDs.add(m.databaseId);
+        public void AddCandidateAPis(List<Integer> candidateAPIIDs) {
+            this.candidateAPIIDs.addAll(candidateAPIIDs);
         }
     }
 
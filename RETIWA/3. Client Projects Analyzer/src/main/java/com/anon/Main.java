@@ -6,18 +6,31 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.sql.*;
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 
 import com.anon.datatype.CommitInfo;
+import com.anon.cmdrunners.CmdRunner;
 import com.anon.cmdrunners.GitCmdRunner;
+import com.anon.cmdrunners.SrcMLWorkerPool;
 import com.anon.datatype.MethodReplacement;
 import com.anon.datatype.RepositoryInfo;
+import com.anon.extractors.CachingCallExtractor;
+import com.anon.extractors.CallExtractor;
+import com.anon.extractors.CallPreFilter;
+import com.anon.extractors.SrcMLCallExtractor;
 import com.anonymous2.git.GitCloner;
+import com.anon.helpers.IO;
 import com.anon.helpers.InterestingCommitsLoader;
+import com.anon.helpers.ParseCache;
 import com.anon.helpers.TargetApacheCommonsAPIHelper;
 import com.opencsv.CSVReader;
 import com.opencsv.CSVReaderBuilder;
@@ -39,7 +52,7 @@ import org.slf4j.LoggerFactory;
 public class Main {
     private static final Logger logger = LoggerFactory.getLogger(Main.class);
 
-    public static final AtomicInteger totalReposProcessed = new AtomicInteger(0);
+    public static final AtomicInteger totalReposProcessed = new AtomicInteger(0); // started so far, for logging
     public static int totalRepos = -1;
     public static boolean DELETE_REPO_AFTER_PROCESS = false;
     public static boolean DEBUG_MODE = false;
@@ -49,6 +62,22 @@ public class Main {
     public static Path PREV_RESULT_PATH;
     public static Path APIS_PATH;
     public static int N_THREADS;
+    public static int COMMIT_WORKERS = 1; // threads preparing commits ahead, shared by all repositories. 1 = no pipelining
+    public static ExecutorService COMMIT_PREPARE_POOL = null;
+    public static int REPO_TIMEOUT_MIN = 0; // 0 = no timeout
+    public static volatile boolean STOP_REQUESTED = false; // set on Ctrl-C, running repositories stop after their current commit
+    private static final int GRACEFUL_SHUTDOWN_SEC = 300;
+    private static final int FINISH_WAIT_SEC = 60; // on Ctrl-C, for closing result writers and saving caches
+    private static final AtomicBoolean finishStarted = new AtomicBoolean(false);
+    private static final CountDownLatch finishDone = new CountDownLatch(1);
+    private static final ThreadLocal<ResultWriter> threadResultWriter = ThreadLocal.withInitial(Main::NewResultWriter);
+    private static final List<Connection> openConnections = Collections.synchronizedList(new ArrayList<>());
+    public static CallExtractor CALL_EXTRACTOR = new SrcMLCallExtractor();
+    public static int CALL_CACHE_SIZE = 100_000; // snippets, 0 = no cache
+    public static Path CALL_CACHE_FILE = null;
+    public static ParseCache PARSE_CACHE = null; // null = no cache
+    public static boolean READ_GIT_OBJECTS_IN_PROCESS = false;
+    public static boolean DIFF_IN_PROCESS = false;
 
     public static void main2(String[] args) {
 //        List<GitCmdRunner.CodeReplacement> codeChanges = GitCmdRunner.git_diff_JustChanges(true, Path.of("/Users/emadpres/Downloads/iMRMC"),
@@ -83,28 +112,42 @@ public class Main {
         CreateReposOwnerFolders(repos);
 
 
-        Runnable r = createRunnable(CLONE_REPOSITORIES_AT, RESULT_PATH, repos);
-
-        List<Thread> threads = new ArrayList<>(N_THREADS);
-        for (int i=0; i<N_THREADS; i++)
-        {
-            Thread t = new Thread(r, "T"+Integer.toString(threads.size()+1));
-            threads.add(t);
-            t.start();
-        }
-
-        logger.info("============= All {} threads kicked off", threads.size());
-
-        for(Thread t: threads)
-        {
+        // Largest repositories first: a big one starting last would keep one thread busy long after the others are done
+        List<RepositoryInfo> schedule = new ArrayList<>(repos);
+        schedule.sort(Comparator.comparingLong(RepositoryInfo::GetSizeEstimate).reversed());
+
+        AtomicInteger nThreads = new AtomicInteger(0);
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(N_THREADS, N_THREADS, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+                task -> new Thread(task, "T" + nThreads.incrementAndGet()));
+        for (RepositoryInfo aRepoInfo : schedule)
+            pool.execute(() -> ProcessRepositoryTask(aRepoInfo));
+        pool.shutdown(); // no more tasks, threads exit when the queue is empty
+        logger.info("============= {} repositories scheduled on {} threads (largest first)", schedule.size(), N_THREADS);
+
+        // Ctrl-C: skip repositories not started yet, and let the running ones stop after their current commit and write their results.
+        // The JVM halts as soon as the hook returns, so the hook itself closes result writers and saves caches (`Finish`).
+        Thread shutdownHook = new Thread(() -> {
+            STOP_REQUESTED = true;
+            List<Runnable> skipped = new ArrayList<>();
+            pool.getQueue().drainTo(skipped);
+            logger.warn("============= Stopping: {} repositories skipped, waiting for {} running ones to write their results...", skipped.size(), pool.getActiveCount());
             try {
-                logger.info("============= Waiting for thread {}(/{}) ...", t.getName(), threads.size());
-                t.join();
-                logger.info("============= Thread {}(/{}) finished.", t.getName(), threads.size());
-            } catch (InterruptedException e) {
-                e.printStackTrace();
+                if(!pool.awaitTermination(GRACEFUL_SHUTDOWN_SEC, TimeUnit.SECONDS))
+                    logger.error("============= Running repositories didn't finish in {} seconds", GRACEFUL_SHUTDOWN_SEC);
+                Finish();
+                if(!finishDone.await(FINISH_WAIT_SEC, TimeUnit.SECONDS)) // main thread may be running it
+                    logger.error("============= Closing results and saving caches didn't finish in {} seconds", FINISH_WAIT_SEC);
+            } catch (InterruptedException ignored) {
             }
+        }, "shutdown");
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+
+        try {
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
         }
+        Finish();
 
         if(DELETE_REPO_AFTER_PROCESS) {
             logger.info("TODO: Clean up! Delete Owner directory with no repos inside"); //TODO
@@ -112,6 +155,36 @@ public class Main {
         logger.info("*********************");
         logger.info("*** We're done :) ***");
         logger.info("*********************");
+        if(!STOP_REQUESTED)
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+    }
+
+    /**
+     * Closes result writers, saves caches and prints stats. Runs once: at the end of `main`, or in the shutdown hook on
+     * Ctrl-C, whichever comes first.
+     */
+    private static void Finish() {
+        if(!finishStarted.compareAndSet(false, true))
+            return;
+        try {
+            CloseResultWriters();
+
+            logger.info("============= Call pre-filter: {}", CallPreFilter.Stats());
+            if(CALL_EXTRACTOR instanceof CachingCallExtractor) {
+                CachingCallExtractor cache = (CachingCallExtractor) CALL_EXTRACTOR;
+                logger.info("============= Call cache: {}", cache.Stats());
+                if(CALL_CACHE_FILE != null)
+                    cache.Save(CALL_CACHE_FILE);
+            }
+            if(PARSE_CACHE != null)
+                logger.info("============= Parse cache: {}", PARSE_CACHE.Stats());
+            logger.info("============= Processes: {}", CmdRunner.Stats());
+            if(SrcMLWorkerPool.Get() != null)
+                logger.info("============= srcML workers: {}", SrcMLWorkerPool.Get().Stats());
+            SrcMLWorkerPool.Stop();
+        } finally {
+            finishDone.countDown();
+        }
     }
 
     private static List<RepositoryInfo> CherryPickReposBasedOnPreviousResults(List<RepositoryInfo> repos) {
@@ -153,81 +226,83 @@ public class Main {
         return res;
     }
 
-    private static Runnable createRunnable(Path CLONE_REPOSITORIES_AT, Path RESULT_PATH, List<RepositoryInfo> repos) {
-        Runnable r = ()->{
-            Connection thread_db_conn = null;
-            ResultWriter resultWriter = null;
-
-            // Setup a new ResultWriter for each thread
-            try {
-                thread_db_conn = DriverManager.getConnection("jdbc:sqlite:" + RESULT_PATH);
-                PreparedStatement prep_stms_methods = ResultWriter.GetNewDBPreparedStatement_Methods(thread_db_conn);
-                PreparedStatement prep_stms_imports = ResultWriter.GetNewDBPreparedStatement_Imports(thread_db_conn);
-                resultWriter = new ResultWriter(prep_stms_methods, prep_stms_imports);
-            } catch (SQLException e) {
-                logger.error("Failed create DB connection => Exiting thread", e);
-                return;
-            }
-
-
-            while(true) // Process repos until they are all processed
-            {
-                // Check if all repos are processed
-                if(totalReposProcessed.get() == repos.size())
-                    break; // no more tasks
-                int repoIndex = totalReposProcessed.getAndIncrement();
-                if(repoIndex >= repos.size()) {
-                    totalReposProcessed.decrementAndGet();
-                    break;  // All tasks finished
-                }
+    /**
+     * Clones, analyzes, and (maybe) deletes one repository. Runs on a thread of the pool; each thread has its own ResultWriter.
+     */
+    private static void ProcessRepositoryTask(RepositoryInfo aRepoInfo) {
+        if(STOP_REQUESTED)
+            return;
+        totalReposProcessed.incrementAndGet();
+        ResultWriter resultWriter = threadResultWriter.get();
+        if(resultWriter == null) {
+            logger.error("({}/{}) {} No DB connection. Repo SKIPPED.", Main.totalReposProcessed.get(), Main.totalRepos, aRepoInfo);
+            return;
+        }
+        logger.info("({}/{}) {} Cloning... ", Main.totalReposProcessed.get(), Main.totalRepos, aRepoInfo);
 
-                // Get a new repo to process
-                RepositoryInfo aRepoInfo = repos.get(repoIndex);
-                logger.info("({}/{}) {} Cloning... ", Main.totalReposProcessed.get(), Main.totalRepos, aRepoInfo);
+        int cloningResult = -1;
+        try {
+            cloningResult = GitCloner.CloneRepo(aRepoInfo.GetFullName(), CLONE_REPOSITORIES_AT, false, aRepoInfo.GetDefaultBranch(), false, false);
+            if(cloningResult < 0)
+                throw new IOException();
 
+            logger.info("({}/{}) {} Cloning FINISHED", Main.totalReposProcessed.get(), Main.totalRepos, aRepoInfo);
 
-                int cloningResult = -1;
-                try {
-                    cloningResult = GitCloner.CloneRepo(aRepoInfo.GetFullName(), CLONE_REPOSITORIES_AT, false, aRepoInfo.GetDefaultBranch(), false, false);
-                    if(cloningResult < 0)
-                        throw new IOException();
+            aRepoInfo.SetPath(CLONE_REPOSITORIES_AT.resolve(aRepoInfo.GetFullName()));
 
-                    logger.info("({}/{}) {} Cloning FINISHED", Main.totalReposProcessed.get(), Main.totalRepos, aRepoInfo);
+            try {
+                ProcessRepository(aRepoInfo, resultWriter);
+            } catch (Exception e)
+            {
+                logger.error("({}/{}) {} Processing Repository FAILED", Main.totalReposProcessed.get(), Main.totalRepos, aRepoInfo, e);
+            }
 
-                    aRepoInfo.SetPath(CLONE_REPOSITORIES_AT.resolve(aRepoInfo.GetFullName()));
+            if(DELETE_REPO_AFTER_PROCESS) {
+                logger.info("({}/{}) {} Deleting repository", Main.totalReposProcessed.get(), Main.totalRepos, aRepoInfo);
 
-                    try {
-                        ProcessRepository(aRepoInfo, resultWriter);
-                    } catch (Exception e)
-                    {
-                        logger.error("({}/{}) {} Processing Repository FAILED", Main.totalReposProcessed.get(), Main.totalRepos, aRepoInfo, e);
-                    }
+                String repo_owner = aRepoInfo.GetOwner();
+                String repo_name = aRepoInfo.GetName();
+                Path repo_directory = CLONE_REPOSITORIES_AT.resolve(repo_owner).resolve(repo_name);
 
-                    if(DELETE_REPO_AFTER_PROCESS) {
-                        logger.info("({}/{}) {} Deleting repository", Main.totalReposProcessed.get(), Main.totalRepos, aRepoInfo);
+                FileUtils.deleteDirectory(repo_directory.toFile());
+            }
 
-                        String repo_owner = aRepoInfo.GetOwner();
-                        String repo_name = aRepoInfo.GetName();
-                        Path repo_directory = CLONE_REPOSITORIES_AT.resolve(repo_owner).resolve(repo_name);
+        } catch (Exception e) {
+            if(cloningResult<0)
+                logger.error("({}/{}) {} Cloning FAILED code={}", Main.totalReposProcessed.get(), Main.totalRepos, aRepoInfo, cloningResult);
+            else
+                logger.error("({}/{}) {} Processing Repository FAILED (for unknown error)", Main.totalReposProcessed.get(), Main.totalRepos, aRepoInfo, e);
+        }
+    }
 
-                        FileUtils.deleteDirectory(repo_directory.toFile());
-                    }
+    /**
+     * A new DB connection (and ResultWriter) for the calling thread
+     * @return  null if connection failed
+     */
+    private static ResultWriter NewResultWriter() {
+        try {
+            Connection thread_db_conn = DriverManager.getConnection("jdbc:sqlite:" + RESULT_PATH);
+            openConnections.add(thread_db_conn);
+            PreparedStatement prep_stms_methods = ResultWriter.GetNewDBPreparedStatement_Methods(thread_db_conn);
+            PreparedStatement prep_stms_imports = ResultWriter.GetNewDBPreparedStatement_Imports(thread_db_conn);
+            return new ResultWriter(prep_stms_methods, prep_stms_imports);
+        } catch (SQLException e) {
+            logger.error("Failed create DB connection", e);
+            return null;
+        }
+    }
 
-                } catch (Exception e) {
-                    if(cloningResult<0)
-                        logger.error("({}/{}) {} Cloning FAILED code={}", Main.totalReposProcessed.get(), Main.totalRepos, aRepoInfo, cloningResult);
-                    else
-                        logger.error("({}/{}) {} Processing Repository FAILED (for unknown error)", Main.totalReposProcessed.get(), Main.totalRepos, aRepoInfo, e);
+    private static void CloseResultWriters() {
+        synchronized (openConnections) { // on Ctrl-C, threads may still be running
+            for(Connection conn: openConnections) {
+                try {
+                    conn.close();
+                } catch (SQLException e) {
+                    logger.error("Failed closing DB connection !!!", e);
                 }
             }
-
-            try {
-                thread_db_conn.close();
-            } catch (SQLException e) {
-                logger.error("Failed closing DB connection !!!", e);
-            }
-        };
-        return r;
+            openConnections.clear();
+        }
     }
 
     public static void ProcessRepository(RepositoryInfo aRepoInfo, ResultWriter resultWriter) {
@@ -240,7 +315,8 @@ public class Main {
     }
 
     /**
-     * Return list of (repos,branch) pairs to be analyzed
+     * Return list of (repos,branch) pairs to be analyzed. Their number of commits (if the CSV has a "commits" column) is
+     * used as size estimate.
      */
     private static List<RepositoryInfo> ReadListOfRepos(Path path_csv) {
         List<RepositoryInfo> repos = new ArrayList<>();
@@ -248,10 +324,12 @@ public class Main {
         try (
                 Reader br = Files.newBufferedReader(path_csv);
                 CSVReader csvReader = new CSVReaderBuilder(br)
-                        .withSkipLines(1)
                         .build()
         ) {
 
+            String[] header = csvReader.readNext();
+            int commitsColumn = header == null ? -1 : Arrays.asList(header).indexOf("commits");
+
             int rIndex = 0;
             String[] nextRecord;
             while ((nextRecord = csvReader.readNext()) != null) {
@@ -263,6 +341,13 @@ public class Main {
                 }
                 RepositoryInfo r = new RepositoryInfo(repoFullName, repoBranch);
                 r.SetIndex(rIndex++);
+                if(commitsColumn != -1 && commitsColumn < nextRecord.length) {
+                    try {
+                        r.SetSizeEstimate(Long.parseLong(nextRecord[commitsColumn].trim()));
+                    } catch (NumberFormatException e) {
+                        logger.warn("Repo with invalid number of commits: {}", repoFullName);
+                    }
+                }
                 repos.add(r);
             }
         } catch (IOException | CsvValidationException e) {
@@ -300,9 +385,147 @@ public class Main {
 
         N_THREADS = Integer.parseInt(cmdline.getOptionValue("threads"));
 
+        if(cmdline.hasOption("repo-timeout")) {
+            try {
+                REPO_TIMEOUT_MIN = Integer.parseInt(cmdline.getOptionValue("repo-timeout"));
+            } catch (NumberFormatException e) {
+                help(options, args, 1);
+            }
+            if(REPO_TIMEOUT_MIN < 0)
+                help(options, args, 1);
+        }
+        if(REPO_TIMEOUT_MIN > 0)
+            logger.info("*** Repositories analysis stops after {} minutes", REPO_TIMEOUT_MIN);
+
+        if(cmdline.hasOption("commit-workers")) {
+            try {
+                COMMIT_WORKERS = Integer.parseInt(cmdline.getOptionValue("commit-workers"));
+            } catch (NumberFormatException e) {
+                help(options, args, 1);
+            }
+            if(COMMIT_WORKERS < 1)
+                help(options, args, 1);
+        }
+        if(COMMIT_WORKERS > 1) {
+            AtomicInteger nWorkers = new AtomicInteger(0);
+            COMMIT_PREPARE_POOL = Executors.newFixedThreadPool(COMMIT_WORKERS, task -> {
+                Thread t = new Thread(task, "P" + nWorkers.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+            logger.info("*** Commits prepared ahead by {} threads", COMMIT_WORKERS);
+        }
+        else
+            logger.info("*** Commits analyzed one by one");
+
+        if(cmdline.hasOption("max-cmd-output")) {
+            long maxOutputMB = -1;
+            try {
+                maxOutputMB = Long.parseLong(cmdline.getOptionValue("max-cmd-output"));
+            } catch (NumberFormatException e) {
+                help(options, args, 1);
+            }
+            if(maxOutputMB < 0)
+                help(options, args, 1);
+            CmdRunner.MAX_OUTPUT_CHARS = maxOutputMB == 0 ? -1 : maxOutputMB * 1024 * 1024;
+        }
+        if(CmdRunner.MAX_OUTPUT_CHARS != -1)
+            logger.info("*** Processes writing more than {}M characters are killed", CmdRunner.MAX_OUTPUT_CHARS / (1024 * 1024));
+        else
+            logger.info("*** No limit on output of processes");
+
+        if(cmdline.hasOption("timeout-scale")) {
+            try {
+                CmdRunner.TIMEOUT_SCALE = Double.parseDouble(cmdline.getOptionValue("timeout-scale"));
+            } catch (NumberFormatException e) {
+                help(options, args, 1);
+            }
+            if(!(CmdRunner.TIMEOUT_SCALE > 0))
+                help(options, args, 1);
+            logger.info("*** Timeouts of srcML and git diff scaled by {}", CmdRunner.TIMEOUT_SCALE);
+        }
+
         DELETE_REPO_AFTER_PROCESS = cmdline.hasOption("delrepos");
         DEBUG_MODE = cmdline.hasOption("debug");
 
+        if(cmdline.hasOption("extractor")) {
+            CALL_EXTRACTOR = CallExtractor.ForName(cmdline.getOptionValue("extractor"));
+            if(CALL_EXTRACTOR == null)
+                help(options, args, 1);
+        }
+        logger.info("*** Method calls extractor: {}", CALL_EXTRACTOR.getClass().getSimpleName());
+
+        if(cmdline.hasOption("call-cache")) {
+            try {
+                CALL_CACHE_SIZE = Integer.parseInt(cmdline.getOptionValue("call-cache"));
+            } catch (NumberFormatException e) {
+                help(options, args, 1);
+            }
+            if(CALL_CACHE_SIZE < 0)
+                help(options, args, 1);
+        }
+        if(cmdline.hasOption("call-cache-file"))
+            CALL_CACHE_FILE = Path.of(cmdline.getOptionValue("call-cache-file"));
+        if(CALL_CACHE_SIZE > 0) {
+            CachingCallExtractor cache = new CachingCallExtractor(CALL_EXTRACTOR, CALL_CACHE_SIZE);
+            if(CALL_CACHE_FILE != null)
+                cache.Load(CALL_CACHE_FILE);
+            CALL_EXTRACTOR = cache;
+            logger.info("*** Method calls cache: {} snippets{}", CALL_CACHE_SIZE, CALL_CACHE_FILE != null ? ", saved at " + CALL_CACHE_FILE : "");
+        }
+        else
+            logger.info("*** Method calls cache: OFF");
+
+        int parseCacheSize = 5_000;
+        if(cmdline.hasOption("parse-cache")) {
+            try {
+                parseCacheSize = Integer.parseInt(cmdline.getOptionValue("parse-cache"));
+            } catch (NumberFormatException e) {
+                help(options, args, 1);
+            }
+            if(parseCacheSize < 0)
+                help(options, args, 1);
+        }
+        Path parseCacheDir = cmdline.hasOption("parse-cache-dir") ? Path.of(cmdline.getOptionValue("parse-cache-dir")) : null;
+        if(parseCacheSize > 0 || parseCacheDir != null) {
+            PARSE_CACHE = new ParseCache(parseCacheSize, parseCacheDir);
+            logger.info("*** Parsed files cache: {} blobs in memory{}", parseCacheSize, parseCacheDir != null ? ", all on disk at " + parseCacheDir : "");
+        }
+        else
+            logger.info("*** Parsed files cache: OFF");
+
+        if(cmdline.hasOption("git")) {
+            String gitBackend = cmdline.getOptionValue("git");
+            if(gitBackend.equals("jvm")==false && gitBackend.equals("cli")==false)
+                help(options, args, 1);
+            READ_GIT_OBJECTS_IN_PROCESS = gitBackend.equals("jvm");
+        }
+        logger.info("*** Git objects read {}", READ_GIT_OBJECTS_IN_PROCESS ? "in-process" : "by git");
+
+        if(cmdline.hasOption("diff")) {
+            String diffBackend = cmdline.getOptionValue("diff");
+            if(diffBackend.equals("jvm")==false && diffBackend.equals("git")==false)
+                help(options, args, 1);
+            DIFF_IN_PROCESS = diffBackend.equals("jvm");
+        }
+        logger.info("*** Word diffs computed {}", DIFF_IN_PROCESS ? "in-process" : "by git");
+
+        if(cmdline.hasOption("srcml-worker")) {
+            List<String> workerCommand = Arrays.asList(cmdline.getOptionValue("srcml-worker").trim().split("\\s+"));
+            if(workerCommand.get(0).isEmpty())
+                help(options, args, 1);
+            SrcMLWorkerPool.Start(workerCommand, N_THREADS);
+            logger.info("*** srcML queries sent to {} resident workers: {}", N_THREADS, workerCommand);
+        }
+        else
+            logger.info("*** srcML queries run by srcml processes");
+
+        if(cmdline.hasOption("tmp-dir")) {
+            IO.TEMP_DIR = Path.of(cmdline.getOptionValue("tmp-dir"));
+            if(!Files.isDirectory(IO.TEMP_DIR))
+                help(options, args, 1);
+        }
+        logger.info("*** Temp files (only when parsing many files at once, or if srcml can't read stdin) in {}", IO.TEMP_DIR != null ? IO.TEMP_DIR : System.getProperty("java.io.tmpdir"));
 
         if(DEBUG_MODE) {
             logger.info("*** DEBUG MODE = ON ***\n\t\t- Repos not deleted\n\t\t- Results flushed immediately");
@@ -325,12 +548,38 @@ public class Main {
         options.addOption( "h", "help",false, "print this message");
         options.addOption("d", "debug", false, "print debugging information");
         options.addOption(null, "delrepos", false, "Delete repository after processing");
+        options.addOption(null, "repo-timeout", true, "Stop analyzing a repository after this many minutes (results found so far are kept). Default: no limit");
+        options.getOption("repo-timeout").setArgName("minutes");
+        options.addOption(null, "commit-workers", true, "Threads (shared by all repositories) fetching and parsing next commits while the current one is analyzed. Default: 1, no pipelining");
+        options.getOption("commit-workers").setArgName("N");
+        options.addOption(null, "max-cmd-output", true, "Kill git/srcML processes whose output, when kept in memory (not when parsed line by line), is larger than this, in MB of text (2^20 characters; default 64, 0 for no limit)");
+        options.getOption("max-cmd-output").setArgName("MB");
+        options.addOption(null, "timeout-scale", true, "Multiply timeouts of srcML and git diff (which grow with their input) by this, e.g. 2 on a slow machine. Default: 1");
+        options.getOption("timeout-scale").setArgName("X");
+        options.addOption(null, "extractor", true, "Backend to extract method calls from diff snippets: srcml (default) or jvm (in-process tokenizer, no srcml process per snippet)");
+        options.getOption("extractor").setArgName("srcml|jvm");
+        options.addOption(null, "call-cache", true, "Number of snippets whose method calls are cached, shared by all threads (default 100000, 0 to disable)");
+        options.getOption("call-cache").setArgName("N");
+        options.addOption(null, "call-cache-file", true, "Load the method calls cache from this file at startup, and save it there at the end");
+        options.getOption("call-cache-file").setArgName("./calls.cache");
+        options.addOption(null, "parse-cache", true, "Number of parsed files (by git blob SHA) kept in memory, shared by all threads (default 5000, 0 to disable)");
+        options.getOption("parse-cache").setArgName("N");
+        options.addOption(null, "parse-cache-dir", true, "Also keep parsed files on disk in this directory, reused by later runs");
+        options.getOption("parse-cache-dir").setArgName("./parse-cache/");
+        options.addOption(null, "git", true, "How to read files/trees/commits: cli (default, git processes) or jvm (read .git/objects in-process, no fork)");
+        options.getOption("git").setArgName("cli|jvm");
+        options.addOption(null, "diff", true, "How to word-diff edited files: git (default, one git diff per commit) or jvm (in-process, same output as git)");
+        options.getOption("diff").setArgName("git|jvm");
+        options.addOption(null, "srcml-worker", true, "Command starting a resident srcML worker (see SrcMLWorkerPool for its protocol, SrcMLWorker for a reference one). One worker per thread serves all srcML queries, instead of one srcml process per query");
+        options.getOption("srcml-worker").setArgName("\"command args\"");
+        options.addOption(null, "tmp-dir", true, "Directory for temp files given to srcML, better on a tmpfs (default: java.io.tmpdir). File contents are piped to srcML when possible.");
+        options.getOption("tmp-dir").setArgName("/dev/shm");
 
         options.addOption("r", "repos", true, "[REQUIRED] Path to list of repos (CSV output from GHS website)");
         options.addOption("c", "clone", true, "[REQUIRED] Path to clone repositories");
         options.addOption("o", "output", true, "[REQUIRED] Path to store SQLite result.");
         options.addOption("p", "prev_output", true, "[REQUIRED] Path to results collected prior to December, to extract interesting commits.");
-        options.addOption("a", "apis", true, "[REQUIRED] Path to APIs database.");
+        options.addOption("a", "apis", true, "[REQUIRED] Path to APIs database, or its snapshot made by the API Extractor (APISnapshotWriter, faster startup).");
         options.addOption("t", "threads", true, "[REQUIRED] Number of parallel repositories to be processed");
         options.getOption("repos").setRequired(true);
         options.getOption("repos").setArgName("path/to/repos.csv");
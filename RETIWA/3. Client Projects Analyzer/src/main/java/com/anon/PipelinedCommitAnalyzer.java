@@ -0,0 +1,21 @@
+package com.anon;
+
+import com.anon.datatype.CommitInfo;
+import com.anon.datatype.RepositoryInfo;
+
+/**
+ * A `CommitAnalyzer` whose work on a commit is split in two, so `CommitIterator` can prepare next commits in parallel
+ * while the current one is analyzed.
+ * @param <T>   what the first part gives to the second one
+ */
+public interface PipelinedCommitAnalyzer<T> extends CommitAnalyzer {
+    /**
+     * Everything that doesn't depend on previous commits. May be called from any thread, in any order.
+     */
+    T PrepareCommit(RepositoryInfo repo, CommitInfo commit);
+
+    /**
+     * Called once for each commit, in order, with the result of `PrepareCommit`. Same as `AnalyzeCommit` then.
+     */
+    boolean AnalyzePreparedCommit(RepositoryInfo repo, T prepared);
+}
@@ -85,8 +85,9 @@ public class ResultWriter {
                 stm_methods.setInt(20,  mr.nAddedMethods);
                 stm_methods.setInt(21,  entry.candidateAPIIDs.size());
                 stm_methods.setString(22, candidateAPIIDs_csv);
-//                stm_methods.setBoolean(23,  entry.hasFoundAnyDependencyFile);
-//                stm_methods.setInt(24,  entry.nDependencies);
+                stm_methods.setInt(23,  entry.nFilesCallingNewMethod);
+//                stm_methods.setBoolean(24,  entry.hasFoundAnyDependencyFile);
+//                stm_methods.setInt(25,  entry.nDependencies);
 
 
                 stm_methods.addBatch();
@@ -139,7 +140,7 @@ public class ResultWriter {
     }
 
     public static PreparedStatement GetNewDBPreparedStatement_Methods(Connection conn) throws SQLException {
-        String q_insert = "INSERT INTO APIReplacements VALUES(?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)";
+        String q_insert = "INSERT INTO APIReplacements VALUES(?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)";
         PreparedStatement prp_stm = conn.prepareStatement(q_insert);
         return prp_stm;
     }
@@ -165,7 +166,7 @@ public class ResultWriter {
             String q_dropTable_2 = "DROP TABLE IF EXISTS `ImportsChanges`;";
             stmt.execute(q_dropTable_2);
 
-            String q_createTable_1 = "CREATE TABLE IF NOT EXISTS `APIReplacements` (id INTEGER, repo_name TEXT, default_branch TEXT, prev_commit TEXT, cur_commit TEXT, commit_message TEXT, old_method TEXT, new_method TEXT, count INTEGER, replacement_paths TEXT, old_method_decl_path TEXT, old_method_decl_line_start INTEGER, old_method_decl_line_end INTEGER, old_method_decl_body TEXT, diffRemovedText TEXT, diffAddedText TEXT, removedMethods TEXT, addedMethods TEXT,nRemovedMethods INTEGER, nAddedMethods INTEGER, nCandidateAPIs INTEGER, candidateAPIs TEXT, PRIMARY KEY(id))"; //  dependencyFileFound INTEGER, nDependencies INTEGER,
+            String q_createTable_1 = "CREATE TABLE IF NOT EXISTS `APIReplacements` (id INTEGER, repo_name TEXT, default_branch TEXT, prev_commit TEXT, cur_commit TEXT, commit_message TEXT, old_method TEXT, new_method TEXT, count INTEGER, replacement_paths TEXT, old_method_decl_path TEXT, old_method_decl_line_start INTEGER, old_method_decl_line_end INTEGER, old_method_decl_body TEXT, diffRemovedText TEXT, diffAddedText TEXT, removedMethods TEXT, addedMethods TEXT,nRemovedMethods INTEGER, nAddedMethods INTEGER, nCandidateAPIs INTEGER, candidateAPIs TEXT, nFilesCallingNewMethod INTEGER, PRIMARY KEY(id))"; //  dependencyFileFound INTEGER, nDependencies INTEGER,
             stmt.execute(q_createTable_1);
             String q_createTable_2 = "CREATE TABLE IF NOT EXISTS `ImportsChanges` (id INTEGER, repo_name TEXT, default_branch TEXT, prev_commit TEXT, cur_commit TEXT, path TEXT, added TEXT, removed TEXT, PRIMARY KEY(id))";
             stmt.execute(q_createTable_2);
@@ -4,14 +4,32 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import java.io.*;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 
 /**
  * Always check for latest version of this class at: https://gist.github.com/emadpres/2334cc71e27ccc5055b062538c25f111
  *
+ * Version: 7.0 (2026-10-18)
+ * Change log:
+ * - Outputs are read by a shared pool of threads, instead of two new threads per process
+ * - NEW: `MAX_OUTPUT_CHARS`: processes writing more than we can keep in memory are killed (`RETURN_OUTPUT_TOO_LARGE`)
+ * - Timed-out processes are killed right away, with their children
+ * - NEW: `ScaledTimeout` and `TIMEOUT_SCALE`, for timeouts growing with the input
+ * - NEW: `Stats`: runs, timeouts, and run times per type of command
+ *
  * Version: 6.1 (2021-11-05)
  * Change log:
  * - BUG FIX: Waiting for output consumer to read the whole output
@@ -26,11 +44,57 @@ public class CmdRunner {
     public final static int RETURN_CODE_SUCCESS = 0;
     public final static int RETURN_FAILED = -1;
     public final static int RETURN_TIMEOUT = -2;
+    public final static int RETURN_OUTPUT_TOO_LARGE = -3;
+
+    /**
+     * Max number of characters of stdout (or stderr) of a process kept in memory. A process writing more is killed, so a
+     * single pathological diff or generated file can't take the whole heap. Outputs streamed to a `LineConsumer` are
+     * not limited: the consumer keeps what it needs. -1 for no limit.
+     */
+    public static volatile long MAX_OUTPUT_CHARS = 64L * 1024 * 1024;
+
+    /**
+     * All timeouts given to `ScaledTimeout` are multiplied by this, e.g., 2 on a slow or overloaded machine
+     */
+    public static volatile double TIMEOUT_SCALE = 1.0;
+    private static final int KILL_WAIT_SEC = 10;
+
+    private static final ConcurrentHashMap<String, CommandStats> statsByType = new ConcurrentHashMap<>();
+
+    // Threads reading stdout/stderr of processes. Idle ones are reused by next processes, so we don't start two threads per process.
+    private static final AtomicInteger nStreamReaders = new AtomicInteger(0);
+    private static final ExecutorService streamReaders = Executors.newCachedThreadPool(task -> {
+        Thread t = new Thread(task, "cmd-reader-" + nStreamReaders.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+    });
 
     public static CmdRunner getInstance() {
         return ourInstance;
     }
 
+    /**
+     * Timeout for a command whose run time grows with its input: `minSec`, plus one second for every `unitsPerSec`
+     * units of input (bytes, files, ...), but no more than `maxSec`. Multiplied by `TIMEOUT_SCALE`.
+     */
+    public static int ScaledTimeout(int minSec, long inputUnits, long unitsPerSec, int maxSec) {
+        double sec = Math.min(maxSec, minSec + (double) inputUnits / unitsPerSec);
+        return (int) Math.max(1, Math.ceil(sec * TIMEOUT_SCALE));
+    }
+
+    /**
+     * One line per type of command (e.g., "git diff", "srcml --xpath"), most timeouts first
+     */
+    public static String Stats() {
+        List<Map.Entry<String, CommandStats>> types = new ArrayList<>(statsByType.entrySet());
+        types.sort(Comparator.comparingLong((Map.Entry<String, CommandStats> e) -> e.getValue().timeouts.sum()).reversed()
+                .thenComparing(Map.Entry::getKey));
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, CommandStats> e : types)
+            sb.append('\n').append(e.getKey()).append(": ").append(e.getValue());
+        return sb.toString();
+    }
+
     public int RunCommand_ReturnErrCode(List<String> cmd, Path workingDir)
     {
         return RunCommand_ReturnErrCode(cmd, workingDir, null, -1);
@@ -69,28 +133,55 @@ public class CmdRunner {
      */
     public CmdRunnerResult RunCommand(List<String> cmd, Path workingDir, Map<String, String> environmentVariables, int timeout_sec)
     {
-        String[] cmd_array = cmd.toArray(new String[0]);
-        InputStreamConsumerThread inputConsumer = null;
-        InputStreamConsumerThread errorConsumer = null;
-        int returnCode = RETURN_FAILED;
-        try {
+        return RunCommand(cmd, workingDir, environmentVariables, timeout_sec, null, null);
+    }
 
-            ProcessBuilder pb = new ProcessBuilder(cmd_array);
-            if(workingDir!=null)
-                pb.directory(workingDir.toFile());
+    /**
+     * Like `RunCommand`, with `stdinContent` written to the stdin of the process (then it's closed). Useful to give
+     * content to a command which can read it from stdin (e.g., `srcml --language Java`), without a temp file.
+     * @param workingDir    If `null`, it mean it doesn't matter
+     * @param timeout_sec   pass -1 for no timeout
+     */
+    public CmdRunnerResult RunCommand(List<String> cmd, Path workingDir, Map<String, String> environmentVariables, int timeout_sec, byte[] stdinContent)
+    {
+        return RunCommand(cmd, workingDir, environmentVariables, timeout_sec, null, stdinContent);
+    }
 
-            if(environmentVariables!=null) {
-                for (Map.Entry<String, String> pair : environmentVariables.entrySet()) {
-                    pb.environment().put(pair.getKey(), pair.getValue());
-                }
-            }
+    /**
+     * Like `RunCommand`, but stdout is not kept in memory: each line is given to `stdoutConsumer` as soon as it's read.
+     * Useful for big outputs which are parsed line by line anyway (e.g., `git diff`). The process waits (full pipe) while
+     * the consumer is busy, so a slow consumer never makes us buffer more.
+     * @param workingDir    If `null`, it mean it doesn't matter
+     * @param timeout_sec   pass -1 for no timeout
+     * @return  the return code. If not `RETURN_CODE_SUCCESS`, what the consumer has seen so far may be incomplete.
+     */
+    public int RunCommand_StreamOutput(List<String> cmd, Path workingDir, Map<String, String> environmentVariables, int timeout_sec, LineConsumer stdoutConsumer)
+    {
+        return RunCommand(cmd, workingDir, environmentVariables, timeout_sec, stdoutConsumer, null).returnCode;
+    }
 
-            Process process = pb.start();
+    private CmdRunnerResult RunCommand(List<String> cmd, Path workingDir, Map<String, String> environmentVariables, int timeout_sec, LineConsumer stdoutConsumer, byte[] stdinContent)
+    {
+        long startTime = System.nanoTime();
+        CmdRunnerResult result = RunCommand_NotTimed(cmd, workingDir, environmentVariables, timeout_sec, stdoutConsumer, stdinContent);
+        Record(cmd, System.nanoTime() - startTime, result.returnCode == RETURN_TIMEOUT);
+        return result;
+    }
 
-            inputConsumer = new InputStreamConsumerThread(process.getInputStream());
-            errorConsumer = new InputStreamConsumerThread(process.getErrorStream());
-            inputConsumer.start();
-            errorConsumer.start();
+    private CmdRunnerResult RunCommand_NotTimed(List<String> cmd, Path workingDir, Map<String, String> environmentVariables, int timeout_sec, LineConsumer stdoutConsumer, byte[] stdinContent)
+    {
+        InputStreamConsumer inputConsumer = null;
+        InputStreamConsumer errorConsumer = null;
+        int returnCode = RETURN_FAILED;
+        try {
+            Process process = StartProcess(cmd, workingDir, environmentVariables);
+
+            inputConsumer = new InputStreamConsumer(process, process.getInputStream(), stdoutConsumer);
+            errorConsumer = new InputStreamConsumer(process, process.getErrorStream(), null);
+            streamReaders.execute(inputConsumer);
+            streamReaders.execute(errorConsumer);
+            if(stdinContent != null)
+                streamReaders.execute(() -> WriteStdin(process, stdinContent)); // not on this thread: it may block, and we must be able to time out
 
             if(timeout_sec == -1) {
                 returnCode = process.waitFor(); // This should be after reading output (aka readInputStream)
@@ -106,11 +197,7 @@ public class CmdRunner {
                     errorConsumer.join(timeout_sec* 1000L);
                 }
                 else {
-                    while(process.isAlive()) {
-                        logger.error("Trying to kill timed-out process PID={} ...",process.pid());
-                        Thread.sleep(1000);
-                        process.destroyForcibly();
-                    }
+                    Kill(process);
                     returnCode = RETURN_TIMEOUT;
                 }
             }
@@ -121,10 +208,87 @@ public class CmdRunner {
 
         if(inputConsumer==null || errorConsumer == null)
             return new CmdRunnerResult(returnCode, null, null);
+        else if(inputConsumer.tooLarge || errorConsumer.tooLarge) {
+            logger.error("Output of command is larger than {} characters. Process killed: {}", MAX_OUTPUT_CHARS, cmd);
+            return new CmdRunnerResult(RETURN_OUTPUT_TOO_LARGE, null, null);
+        }
+        else if(stdoutConsumer != null) {
+            if(returnCode == RETURN_CODE_SUCCESS && (!inputConsumer.isFinished() || inputConsumer.consumerFailed))
+                returnCode = RETURN_FAILED; // consumer didn't see the whole output
+            return new CmdRunnerResult(returnCode, null, errorConsumer.getOutput());
+        }
         else
             return new CmdRunnerResult(returnCode, inputConsumer.getOutput(), errorConsumer.getOutput());
     }
 
+    private static Process StartProcess(List<String> cmd, Path workingDir, Map<String, String> environmentVariables) throws IOException
+    {
+        ProcessBuilder pb = new ProcessBuilder(cmd.toArray(new String[0]));
+        if(workingDir!=null)
+            pb.directory(workingDir.toFile());
+
+        if(environmentVariables!=null) {
+            for (Map.Entry<String, String> pair : environmentVariables.entrySet()) {
+                pb.environment().put(pair.getKey(), pair.getValue());
+            }
+        }
+        return pb.start();
+    }
+
+    private static void WriteStdin(Process process, byte[] content)
+    {
+        try (OutputStream stdin = process.getOutputStream()) {
+            stdin.write(content);
+        } catch (IOException e) {
+            // process exited (or was killed) before reading it all: its return code tells what happened
+        }
+    }
+
+    private static void Kill(Process process) throws InterruptedException
+    {
+        logger.error("Killing timed-out process PID={} ...",process.pid());
+        DestroyTree(process);
+        if(!process.waitFor(KILL_WAIT_SEC, TimeUnit.SECONDS))
+            logger.error("Timed-out process PID={} still alive after {} seconds", process.pid(), KILL_WAIT_SEC);
+    }
+
+    /**
+     * Kills the process and its children (e.g., `git` runs other processes). Children first: once the parent is dead,
+     * they are not its descendants anymore.
+     */
+    static void DestroyTree(Process process)
+    {
+        process.descendants().forEach(ProcessHandle::destroyForcibly);
+        process.destroyForcibly();
+    }
+
+    private static void Record(List<String> cmd, long nanos, boolean timedOut)
+    {
+        statsByType.computeIfAbsent(CommandType(cmd), t -> new CommandStats()).Add(nanos, timedOut);
+    }
+
+    /**
+     * e.g., "git diff" for `git diff --no-color ...`, "srcml --xpath" for srcml running a query
+     */
+    static String CommandType(List<String> cmd)
+    {
+        if(cmd.isEmpty())
+            return "";
+        String program = Path.of(cmd.get(0)).getFileName().toString();
+        if(program.equals("git")) {
+            for(int i = 1; i < cmd.size(); i++) {
+                String arg = cmd.get(i);
+                if(arg.equals("-C") || arg.equals("-c"))
+                    i++; // followed by its value
+                else if(!arg.startsWith("-"))
+                    return program + " " + arg;
+            }
+        }
+        else if(program.equals("srcml") && cmd.contains("--xpath"))
+            return program + " --xpath";
+        return program;
+    }
+
 
 //    public String RunCommandAndReturnOutput(List<String> cmd, Path workingDir, long timeout_s)
 //    {
@@ -191,6 +355,26 @@ public class CmdRunner {
 //    }
 
 
+    private static class CommandStats {
+        final LongAdder runs = new LongAdder(), timeouts = new LongAdder(), totalNanos = new LongAdder();
+        final AtomicLong maxNanos = new AtomicLong(0);
+
+        void Add(long nanos, boolean timedOut) {
+            runs.increment();
+            if(timedOut)
+                timeouts.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+        }
+
+        @Override
+        public String toString() {
+            long n = runs.sum();
+            return String.format("%d runs, %d timeouts, avg %.1f ms, max %.1f s", n, timeouts.sum(),
+                    n == 0 ? 0 : totalNanos.sum() / 1e6 / n, maxNanos.get() / 1e9);
+        }
+    }
+
     public static class CmdRunnerResult {
         String output, err;
         int returnCode;
@@ -202,17 +386,64 @@ public class CmdRunner {
         }
     }
 
-    private static class InputStreamConsumerThread extends Thread
+    /**
+     * Receives output of a command line by line, see `RunCommand_StreamOutput`. It's called from the thread reading the output.
+     */
+    public interface LineConsumer {
+        /**
+         * The line is `buf[start, end)`, without '\n' and CR characters. `buf` is reused for next lines, so copy what you need.
+         */
+        void AcceptLine(char[] buf, int start, int end);
+    }
+
+    /**
+     * Reads a stream of a process until its end (or until `MAX_OUTPUT_CHARS`, if we keep it). Runs on `streamReaders`;
+     * `join()` waits for it like `Thread.join()`.
+     */
+    private static class InputStreamConsumer implements Runnable
     {
+        private final Process process;
+        private final long maxChars = MAX_OUTPUT_CHARS;
+        private long nRead = 0;
+        private volatile boolean tooLarge = false;
         private final InputStream is;
         private final StringBuilder output = new StringBuilder();
+        private final LineConsumer lineConsumer; // if not null, we pass lines to it instead of keeping them in `output`
+        private volatile boolean consumerFailed = false;
+        private final CountDownLatch finished = new CountDownLatch(1);
 
-        public InputStreamConsumerThread (InputStream is)
+        public InputStreamConsumer (Process process, InputStream is, LineConsumer lineConsumer)
         {
+            this.process=process;
             this.is=is;
+            this.lineConsumer=lineConsumer;
         }
 
         public void run()
+        {
+            try {
+                Consume();
+            } finally {
+                finished.countDown();
+            }
+        }
+
+        public void join() throws InterruptedException
+        {
+            finished.await();
+        }
+
+        public void join(long millis) throws InterruptedException
+        {
+            finished.await(millis, TimeUnit.MILLISECONDS);
+        }
+
+        public boolean isFinished()
+        {
+            return finished.getCount() == 0;
+        }
+
+        private void Consume()
         {
             /*
              *  Reading input is mandatory, otherwise we get stuck. See https://stackoverflow.com/questions/5483830
@@ -221,9 +452,17 @@ public class CmdRunner {
              *  in git-diff output we were getting newline at ^M positions which broke expected git-diff
              *  output syntax. So we now read char-by-char and ignore CR characters.
              */
+            if(lineConsumer != null) {
+                StreamLines();
+                return;
+            }
             try (final BufferedReader reader = new BufferedReader(new InputStreamReader(is))) {
                 int ch;
                 while ((ch = reader.read()) != -1) {
+                    if(maxChars != -1 && ++nRead > maxChars) {
+                        Abort();
+                        return;
+                    }
                     if((char)ch=='\r')
                         continue;
                     output.append((char) ch);
@@ -242,6 +481,59 @@ public class CmdRunner {
 //                logger.error("Exception while reading CmdRunner streams ",e);
 //            }
         }
+        private void StreamLines()
+        {
+            char[] chunk = new char[8192];
+            char[] line = new char[256];
+            int lineLen = 0;
+            try (final Reader reader = new InputStreamReader(is)) {
+                int n;
+                while ((n = reader.read(chunk)) != -1) {
+                    for (int i = 0; i < n; i++) {
+                        char ch = chunk[i];
+                        if (ch == '\r')
+                            continue;
+                        if (ch == '\n') {
+                            Deliver(line, lineLen);
+                            lineLen = 0;
+                            continue;
+                        }
+                        if (lineLen == line.length)
+                            line = Arrays.copyOf(line, line.length * 2);
+                        line[lineLen++] = ch;
+                    }
+                }
+                if (lineLen > 0)
+                    Deliver(line, lineLen);
+            } catch (final Exception e) {
+                logger.error("Exception while reading CmdRunner streams ",e);
+                consumerFailed = true;
+            }
+        }
+
+        private void Deliver(char[] line, int len)
+        {
+            if (consumerFailed)
+                return; // we still read everything, so the process doesn't block on a full pipe
+            try {
+                lineConsumer.AcceptLine(line, 0, len);
+            } catch (final Exception e) {
+                logger.error("Exception in CmdRunner line consumer ",e);
+                consumerFailed = true;
+            }
+        }
+
+        /**
+         * Too much output: we stop reading, kill the process and drop what we've kept
+         */
+        private void Abort()
+        {
+            tooLarge = true;
+            DestroyTree(process);
+            output.setLength(0);
+            output.trimToSize();
+        }
+
         public String getOutput(){
             return output.toString();
         }
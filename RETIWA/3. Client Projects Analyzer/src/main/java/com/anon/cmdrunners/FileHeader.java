@@ -0,0 +1,85 @@
+package com.anon.cmdrunners;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Beginning of a Java file, up to (and including) the first line containing "class " or "interface ". That's where the
+ * analyzer stops looking for import statements, so there's no need to read (and decode) the rest of big files.
+ *
+ * Lines are checked on raw bytes, which is fine as both markers are ASCII. CR characters are dropped like `CmdRunner` does.
+ */
+class FileHeader {
+    private static final byte[][] LAST_LINE_MARKERS = {"class ".getBytes(), "interface ".getBytes()};
+    private static final int CHUNK = 8192;
+
+    private byte[] data = new byte[CHUNK];
+    private int length = 0;
+    private int lineStart = 0;
+    private boolean complete = false; // we've seen the last line of the header
+    private long bytesRead = 0;
+
+    /**
+     * Reads `in` until the end of the header, but never more than `size` bytes (i.e., the whole file if it has no header end).
+     * It may read a bit past the header; see `BytesRead()`.
+     * @throws EOFException if `in` ends before `size` bytes and before the end of the header
+     */
+    static FileHeader Read(InputStream in, long size) throws IOException {
+        FileHeader header = new FileHeader();
+        byte[] chunk = new byte[CHUNK];
+        while (!header.complete && header.bytesRead < size) {
+            int n = in.read(chunk, 0, (int) Math.min(chunk.length, size - header.bytesRead));
+            if (n == -1)
+                throw new EOFException("Stream ended after " + header.bytesRead + " of " + size + " bytes");
+            header.bytesRead += n;
+            header.Append(chunk, n);
+        }
+        return header;
+    }
+
+    /**
+     * Same check on a line of text (without '\n'), for sources which give us lines
+     */
+    static boolean IsLastLine(String line) {
+        return line.contains("class ") || line.contains("interface ");
+    }
+
+    long BytesRead() {
+        return bytesRead;
+    }
+
+    @Override
+    public String toString() {
+        return new String(data, 0, length, Charset.defaultCharset());
+    }
+
+    private void Append(byte[] chunk, int n) {
+        for (int i = 0; i < n && !complete; i++) {
+            byte b = chunk[i];
+            if (b == '\r')
+                continue;
+            if (length == data.length)
+                data = Arrays.copyOf(data, data.length * 2);
+            data[length++] = b;
+            if (b == '\n') {
+                complete = IsLastLine(lineStart, length - 1);
+                lineStart = length;
+            }
+        }
+    }
+
+    private boolean IsLastLine(int from, int to) {
+        for (byte[] marker : LAST_LINE_MARKERS)
+            for (int i = from; i + marker.length <= to; i++) {
+                int k = 0;
+                while (k < marker.length && data[i + k] == marker[k])
+                    k++;
+                if (k == marker.length)
+                    return true;
+            }
+        return false;
+    }
+}
@@ -8,8 +8,12 @@ import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.function.Supplier;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -26,7 +30,10 @@ import java.util.regex.Pattern;
 public class GitCmdRunner {
     private static final Logger logger = LoggerFactory.getLogger(GitCmdRunner.class);
     final static public String EMPTY_TREE_SHA = "4b825dc642cb6eb9a060e54bf8d69288fbee4904";
-    final static public int TIMEOUT_SEC = 120;
+    final static private String NULL_BLOB_SHA = "0000000000000000000000000000000000000000"; // "after" SHA of deleted files in `git diff --raw`
+    final static public int TIMEOUT_SEC = 120; // for commands whose input size we don't know
+    // `git diff` of a commit: its time grows with the number of files
+    final static private int DIFF_MIN_TIMEOUT_SEC = 30, DIFF_FILES_PER_SEC = 2, DIFF_MAX_TIMEOUT_SEC = 600;
 
     // *************************************************************************
     // *********************** git-log operations ******************************
@@ -35,11 +42,12 @@ public class GitCmdRunner {
     public static List<String> git_log(Path repoPath) {
         List<String> command = List.of("git", "log", "--all", "--no-merges", "--pretty=format:%H");
 
-        //String output = CmdRunner.getInstance().RunCommandAndReturnOutput(cmd, repoPath);
-        String output = CmdRunner.getInstance().RunCommand_ReturnOutput(command, repoPath,null, TIMEOUT_SEC);
-        if(output==null)
+        // Streamed: histories of big repositories are larger than what we accept to keep as one output
+        List<String> allCommits = new ArrayList<>();
+        int res = CmdRunner.getInstance().RunCommand_StreamOutput(command, repoPath, null, TIMEOUT_SEC,
+                (buf, start, end) -> allCommits.add(new String(buf, start, end - start)));
+        if(res != CmdRunner.RETURN_CODE_SUCCESS)
             return null;
-        List<String> allCommits = Arrays.asList(output.split("\n"));
         return allCommits;
     }
 
@@ -49,21 +57,29 @@ public class GitCmdRunner {
         if(withCommitMessage)
             pretty_format = "--pretty=format:%H,%s";
 
-        List<String> command = List.of("git", "log", _repo.GetDefaultBranch(), "--first-parent", pretty_format);
+        List<CommitInfo> allCommits = null;
+        GitObjectStore store = GitObjectStore.Get(_repo.GetPath());
+        if(store != null) {
+            try {
+                allCommits = new ArrayList<>();
+                for (GitObjectStore.Commit c : store.GetFirstParentHistory(_repo.GetDefaultBranch()))
+                    AddCommit(allCommits, c.sha + (withCommitMessage ? "," + c.GetSubject() : ""), withCommitMessage);
+            } catch (Exception e) {
+                logger.warn("{} Failed reading history in-process. Falling back to git...", _repo, e);
+                allCommits = null;
+            }
+        }
 
-        //String output = CmdRunner.getInstance().RunCommandAndReturnOutput(command, _repo.GetPath());
-        String output = CmdRunner.getInstance().RunCommand_ReturnOutput(command,_repo.GetPath(),null, TIMEOUT_SEC);
-        if(output==null)
-            return null;
+        if(allCommits == null) {
+            List<String> command = List.of("git", "log", _repo.GetDefaultBranch(), "--first-parent", pretty_format);
 
-        List<CommitInfo> allCommits = new ArrayList<>();
-        for (String line : output.split("\n")) {
-            if(withCommitMessage) {
-                String[] split = line.split(",");
-                allCommits.add(new CommitInfo(split[0], split.length == 1 ? "" : split[1])); // check for cases when msg is empty
-            }
-            else
-                allCommits.add(new CommitInfo(line)); // check for cases when msg is empty
+            // Streamed, like `git_log`: no limit on the size of the history
+            List<CommitInfo> commits = new ArrayList<>();
+            int res = CmdRunner.getInstance().RunCommand_StreamOutput(command, _repo.GetPath(), null, TIMEOUT_SEC,
+                    (buf, start, end) -> AddCommit(commits, new String(buf, start, end - start), withCommitMessage));
+            if (res != CmdRunner.RETURN_CODE_SUCCESS)
+                return null;
+            allCommits = commits;
         }
 
         if(insertEmptyTreeSHA)
@@ -71,6 +87,18 @@ public class GitCmdRunner {
         return allCommits;
     }
 
+    /**
+     * @param line  "SHA" or "SHA,subject"
+     */
+    private static void AddCommit(List<CommitInfo> commits, String line, boolean withCommitMessage) {
+        if(withCommitMessage) {
+            String[] split = line.split(",");
+            commits.add(new CommitInfo(split[0], split.length == 1 ? "" : split[1])); // check for cases when msg is empty
+        }
+        else
+            commits.add(new CommitInfo(line));
+    }
+
 
 
     // *************************************************************************
@@ -84,7 +112,23 @@ public class GitCmdRunner {
         return (res == CmdRunner.RETURN_CODE_SUCCESS);
     }
 
+    /**
+     * If a `GitObjectStore` or a `GitObjectReader` is open for the repository, we read through it instead of forking `git show`.
+     */
     public static String GetFileContentAtSpecificCommit(Path repoPath, String commitSHA, Path filepath) {
+        GitObjectStore store = GitObjectStore.Get(repoPath);
+        if(store != null) {
+            try {
+                return store.ReadFile(commitSHA, filepath);
+            } catch (Exception e) {
+                logger.warn("{} Failed reading {}:{} in-process. Falling back to git...", repoPath, commitSHA, filepath, e);
+            }
+        }
+
+        GitObjectReader reader = GitObjectReader.Get(repoPath);
+        if(reader != null)
+            return reader.ReadFile(commitSHA, filepath);
+
         List<String> command = new ArrayList<>();
         command.add("git");
         command.add("show");
@@ -94,6 +138,43 @@ public class GitCmdRunner {
         return output;
     }
 
+    /**
+     * Like `GetFileContentAtSpecificCommit`, but stops after the import section, i.e., returns the file up to (and including)
+     * the first line containing "class " or "interface ". Enough to check imports, without reading the whole file.
+     * @return  null if the file can't be read
+     */
+    public static String GetFileHeaderAtSpecificCommit(Path repoPath, String commitSHA, Path filepath) {
+        GitObjectStore store = GitObjectStore.Get(repoPath);
+        if(store != null) {
+            try {
+                return store.ReadFileHeader(commitSHA, filepath);
+            } catch (Exception e) {
+                logger.warn("{} Failed reading header of {}:{} in-process. Falling back to git...", repoPath, commitSHA, filepath, e);
+            }
+        }
+
+        GitObjectReader reader = GitObjectReader.Get(repoPath);
+        if(reader != null)
+            return reader.ReadFileHeader(commitSHA, filepath);
+
+        List<String> command = new ArrayList<>();
+        command.add("git");
+        command.add("show");
+        command.add(String.format("%s:%s", commitSHA, filepath.toString()));
+
+        // git still writes the whole file, but we only keep lines of the header
+        StringBuilder header = new StringBuilder();
+        boolean[] complete = {false};
+        int res = CmdRunner.getInstance().RunCommand_StreamOutput(command, repoPath, null, TIMEOUT_SEC, (buf, start, end) -> {
+            if(complete[0])
+                return;
+            String line = new String(buf, start, end - start);
+            header.append(line).append('\n');
+            complete[0] = FileHeader.IsLastLine(line);
+        });
+        return (res == CmdRunner.RETURN_CODE_SUCCESS) ? header.toString() : null;
+    }
+
     /**
      *  List (ls) all files at specific commits
      * @param repoPath
@@ -109,10 +190,27 @@ public class GitCmdRunner {
         command.add("--name-only");
         command.add("--full-name");
         command.add(commitSHA);
-        String output = CmdRunner.getInstance().RunCommand_ReturnOutput(command, repoPath,null, TIMEOUT_SEC);
+
+        List<String> lines = null;
+        GitObjectStore store = GitObjectStore.Get(repoPath);
+        if(store != null) {
+            try {
+                lines = store.ListFiles(commitSHA);
+            } catch (Exception e) {
+                logger.warn("{} Failed listing files of {} in-process. Falling back to git...", repoPath, commitSHA, e);
+            }
+        }
+        if(lines == null) {
+            List<String> gitLines = new ArrayList<>();
+            int res = CmdRunner.getInstance().RunCommand_StreamOutput(command, repoPath, null, TIMEOUT_SEC,
+                    (buf, start, end) -> gitLines.add(new String(buf, start, end - start)));
+            if(res != CmdRunner.RETURN_CODE_SUCCESS)
+                logger.error("{} Failed listing files of {}", repoPath, commitSHA);
+            lines = gitLines;
+        }
 
         List<String> files = new ArrayList<>();
-        for (String line : output.split("\n")) {
+        for (String line : lines) {
             if(specificExtension==null)
                 files.add(line);
             else if(line.endsWith(specificExtension))
@@ -181,7 +279,7 @@ public class GitCmdRunner {
 
         List<Path> results = new ArrayList<>();
         for(String s: output.split("\n"))
-            results.add(Path.of(s));
+            results.add(ToPath(UnquotePath(s)));
         return results;
     }
 
@@ -201,7 +299,8 @@ public class GitCmdRunner {
             command.add("--ignore-submodules");
             command.add("--ignore-all-space");
         }
-        command.add("--name-status");
+        command.add("--raw"); // same as --name-status, plus modes and blob SHAs
+        command.add("--no-abbrev");
         command.add(beforeCommit);
         command.add(afterCommit);
         if(onlySpecificExtension != null && !onlySpecificExtension.isEmpty()) {
@@ -209,41 +308,51 @@ public class GitCmdRunner {
             command.add("*."+onlySpecificExtension);
         }
 
-        String output = CmdRunner.getInstance().RunCommand_ReturnOutput(command, repoPath,null, TIMEOUT_SEC);
-        if(output==null || output.isEmpty())
-            return new FilesStatus();
-
         FilesStatus result = new FilesStatus();
+        int res = CmdRunner.getInstance().RunCommand_StreamOutput(command, repoPath, null, TIMEOUT_SEC,
+                (buf, start, end) -> AddFileStatus(result, new String(buf, start, end - start)));
+        if(res != CmdRunner.RETURN_CODE_SUCCESS)
+            return new FilesStatus();
+        return result;
+    }
 
-        for(String s: output.split("\n")) {
-            // each line is like: "A    path/to/affected/file.java  path/to/renamed/file.java"
-            String[] split = s.split("\t");
-            String action = split[0];
-
-            // We might see such warnings at the end of diff result:
-            //  - "warning: inexact rename detection was skipped due to too many files."
-            //  - "warning: you may want to set your diff.renameLimit variable to at least 1239 and retry the command."
-            if(action.startsWith("warning"))
-                continue;
-
-            result.totalCount++;
-            if(action.equals("A"))
-                result.added.add(Path.of(split[1]));
-            else if(action.equals("D"))
-                result.deleted.add(Path.of(split[1]));
-            else if(action.equals("M"))
-                result.modified.add(Path.of(split[1]));
-            else if(action.startsWith("R")) {
-                Path oldPath = Path.of(split[1]);
-                Path newPath = Path.of(split[2]);
-                result.renamed_from_to.add(new GitFilePath( oldPath, newPath));
-            }
-            else if(action.startsWith("C"))
-                result.added.add(Path.of(split[2])); // we consider the copied file (third element in split) as a new file
-            else
-                result.other.add(Path.of(split[1]));
+    /**
+     * @param line  a line of `git diff --raw`, like: ":100644 100644 <old blob SHA> <new blob SHA> A    path/to/affected/file.java  path/to/renamed/file.java"
+     */
+    private static void AddFileStatus(FilesStatus result, String line) {
+        if(line.isEmpty())
+            return;
+        String[] split = line.split("\t");
+
+        // We might see such warnings at the end of diff result:
+        //  - "warning: inexact rename detection was skipped due to too many files."
+        //  - "warning: you may want to set your diff.renameLimit variable to at least 1239 and retry the command."
+        if(split[0].startsWith("warning"))
+            return;
+        for(int i = 1; i < split.length; i++)
+            split[i] = UnquotePath(split[i]); // paths with special/non-ASCII characters are quoted
+        String[] raw = split[0].split(" ");
+        String action = raw[raw.length-1];
+        String newBlobSHA = raw.length==5 ? raw[3] : null;
+        if(newBlobSHA!=null && split.length>1 && !newBlobSHA.equals(NULL_BLOB_SHA))
+            result.blobSHAs.put(ToPath(split[split.length-1]), newBlobSHA);
+
+        result.totalCount++;
+        if(action.equals("A"))
+            result.added.add(ToPath(split[1]));
+        else if(action.equals("D"))
+            result.deleted.add(ToPath(split[1]));
+        else if(action.equals("M"))
+            result.modified.add(ToPath(split[1]));
+        else if(action.startsWith("R")) {
+            Path oldPath = ToPath(split[1]);
+            Path newPath = ToPath(split[2]);
+            result.renamed_from_to.add(new GitFilePath( oldPath, newPath));
         }
-        return result;
+        else if(action.startsWith("C"))
+            result.added.add(ToPath(split[2])); // we consider the copied file (third element in split) as a new file
+        else
+            result.other.add(ToPath(split[1]));
     }
 
     /**
@@ -251,6 +360,14 @@ public class GitCmdRunner {
      * @param filePath_old  Useful when file is renamed, otherwise pass either `null` or the same filePath_new value
      */
     public static String git_diff(Path repoPath, String beforeCommit, String afterCommit, Path filePath_old, Path filePath_new, boolean wordDiff, boolean ignoreWhiteSpace) {
+        List<String> command = git_diff_Command(beforeCommit, afterCommit, filePath_old, filePath_new, wordDiff, ignoreWhiteSpace);
+        String output = CmdRunner.getInstance().RunCommand_ReturnOutput(command, repoPath,null, TIMEOUT_SEC);
+        if(output==null)
+            return "";
+        return output;
+    }
+
+    private static List<String> git_diff_Command(String beforeCommit, String afterCommit, Path filePath_old, Path filePath_new, boolean wordDiff, boolean ignoreWhiteSpace) {
         List<String> command = new ArrayList<>();
         command.add("git");
         command.add("diff");
@@ -268,11 +385,7 @@ public class GitCmdRunner {
         if(filePath_old!=null && filePath_old.equals(filePath_new)==false)
             command.add(String.valueOf(filePath_old));
         command.add(filePath_new.toString());
-
-        String output = CmdRunner.getInstance().RunCommand_ReturnOutput(command, repoPath,null, TIMEOUT_SEC);
-        if(output==null)
-            return "";
-        return output;
+        return command;
     }
 
     /**
@@ -290,103 +403,15 @@ public class GitCmdRunner {
      */
     public static List<CodeReplacement> git_diff_JustChanges(boolean onlyPairs, Path repoPath, String beforeCommit, String afterCommit, Path filePath_old, Path filePath_new, boolean ignoreWhiteSpace)
     {
-        String WordDiffCode = git_diff(repoPath, beforeCommit, afterCommit, filePath_old, filePath_new,true,ignoreWhiteSpace);
-
-        List<CodeReplacement> res = new ArrayList<>();
-
-        String GIT_DIFF__RM_PATTERN = "\\[-((?:(?!\\[-).)*?)-\\]"; // See https://stackoverflow.com/questions/70386440
-        String GIT_DIFF__ADD_PATTERN = "\\{\\+((?:(?!\\{\\+).)*?)\\+\\}";
-
-        Pattern line_numbers_pattern = Pattern.compile("@@ \\-(\\d+)(?:,\\d+)? \\+(\\d+)(?:,\\d+)? @@");
-        Pattern rm_add_pattern = Pattern.compile(String.format("%s%s", GIT_DIFF__RM_PATTERN, GIT_DIFF__ADD_PATTERN));
-        Pattern rm_pattern = Pattern.compile(String.format("%s(?!\\{)", GIT_DIFF__RM_PATTERN));
-        Pattern add_pattern = Pattern.compile(String.format("(?<!\\])%s", GIT_DIFF__ADD_PATTERN));
-
-        int before_startLine=-1, after_startLine=-1;
-        boolean foundHunkHeader = false;
-        for (String line : WordDiffCode.split("\n")) {
-            line = line.strip();
-            if(line.startsWith("diff --git") || line.startsWith("---") || line.startsWith("+++")) {
-                foundHunkHeader =  false; // now we start ignoring header lines until we get to hunks part
-                continue;
-            }
-
-            if(line.startsWith("@@"))
-            {
-                // range information part
-                Matcher line_matcher = line_numbers_pattern.matcher(line);
-                if(line_matcher.find())
-                {
-                    before_startLine = Integer.parseInt(line_matcher.group(1));
-                    after_startLine = Integer.parseInt(line_matcher.group(2));
-                    foundHunkHeader =  true;
-                }
-                else
-                {
-                    logger.error("Failed extract line numbers from git diff chunk: {}", line);
-                }
-            }
-            else if(foundHunkHeader)
-            {
-                // code diff part
-
-                if(before_startLine==-1 || after_startLine==-1) {
-                    logger.error("Line information is missing");
-                    continue;
-                }
-
-                if(line.strip().isEmpty()) // performance-wise I added this common special case to avoid below matchers
-                {
-                    before_startLine++;
-                    after_startLine++;
-                }
-                else {
-                    Matcher regex_rm_add_pair = rm_add_pattern.matcher(line); // [-XXX-]{+XXX+}
-
-                    while (true) {
-                        boolean success = regex_rm_add_pair.find();
-                        if (!success) break;
-                        String removedText = regex_rm_add_pair.group(1);
-                        String addedText = regex_rm_add_pair.group(2);
-                        res.add(new CodeReplacement(removedText, addedText, before_startLine, after_startLine));
-                    }
-
-                    if (onlyPairs == false) {
-                        Matcher regex_rm = rm_pattern.matcher(line); // [-XXX-] and no { after it
-                        Matcher regex_add = add_pattern.matcher(line); // {+XXX+} and no ] before it
-
-                        while (true) {
-                            boolean success = regex_rm.find();
-                            if (!success) break;
-                            String removedText = regex_rm.group(1);
-                            res.add(new CodeReplacement(removedText, null, before_startLine, after_startLine));
-                        }
-
-                        while (true) {
-                            boolean success = regex_add.find();
-                            if (!success) break;
-                            String addedText = regex_add.group(1);
-                            res.add(new CodeReplacement(null, addedText, before_startLine, after_startLine));
-                        }
-                    }
-
-                    if (line.startsWith("{+") && line.endsWith("+}"))
-                        after_startLine++;
-                    else if (line.startsWith("[-") && line.endsWith("-]"))
-                        before_startLine++;
-                    else {
-                        before_startLine++;
-                        after_startLine++;
-                    }
-                }
-
-            }
-        }
-
-        return res;
+        // We parse the output while git writes it, instead of keeping it all in memory first
+        WordDiffParser parser = new WordDiffParser(onlyPairs);
+        List<String> command = git_diff_Command(beforeCommit, afterCommit, filePath_old, filePath_new, true, ignoreWhiteSpace);
+        int returnCode = CmdRunner.getInstance().RunCommand_StreamOutput(command, repoPath, null, TIMEOUT_SEC, parser);
+        if(returnCode != CmdRunner.RETURN_CODE_SUCCESS)
+            return new ArrayList<>();
+        return parser.GetResult();
     }
 
-
     /**
      * Using `git diff`, return added/removed import lines.
      * @param filePath_old  Useful when file is renamed, otherwise pass either `null` or the same filePath_new value
@@ -394,12 +419,17 @@ public class GitCmdRunner {
     public static ImportStatementChanges git_diff_JustImportsChanges(Path repoPath, String beforeCommit, String afterCommit, Path filePath_old, Path filePath_new, boolean ignoreWhiteSpace) {
         String output = git_diff(repoPath, beforeCommit,afterCommit, filePath_old, filePath_new, false, ignoreWhiteSpace);
 
-        ImportStatementChanges res = new ImportStatementChanges(filePath_new);
         if(output==null)
-            return res;
+            return new ImportStatementChanges(filePath_new);
+        return ParseImportsChanges(output, filePath_new);
+    }
+
+    static ImportStatementChanges ParseImportsChanges(String diffOutput, Path filePath_new)
+    {
+        ImportStatementChanges res = new ImportStatementChanges(filePath_new);
 
-        Matcher regex_import_added = Pattern.compile("\\+import (.*)").matcher(output);
-        Matcher regex_import_removed = Pattern.compile("-import (.*)").matcher(output);
+        Matcher regex_import_added = Pattern.compile("\\+import (.*)").matcher(diffOutput);
+        Matcher regex_import_removed = Pattern.compile("-import (.*)").matcher(diffOutput);
         while(true)
         {
             boolean success = regex_import_added.find();
@@ -419,6 +449,346 @@ public class GitCmdRunner {
     }
 
 
+    /**
+     * Gives the same as calling `git_diff_JustChanges` and `git_diff_JustImportsChanges` for each file, but with two
+     * processes per commit instead of two per file: one `git diff --word-diff -M` (for code changes) and one plain
+     * `git diff -M` (for imports) over all given files, split per file by "diff --git" headers.
+     * @param files     files to diff (renamed files are diffed against their old path). If null, all Java files.
+     * @return  new file path -> its diff. Files with no hunk (e.g., only whitespace changes) are missing from the map.
+     */
+    public static Map<Path, FileDiff> git_diff_CommitWordDiff(boolean onlyPairs, Path repoPath, String beforeCommit, String afterCommit, List<GitFilePath> files, boolean ignoreWhiteSpace)
+    {
+        // Outputs are parsed while git writes them: we never keep the whole diff of a commit in memory
+        Map<Path, FileDiff> res = new HashMap<>();
+        DiffSectionSplitter<WordDiffParser> wordDiffs = new DiffSectionSplitter<>(() -> new WordDiffParser(onlyPairs));
+        if(!git_diff_Commit(repoPath, beforeCommit, afterCommit, files, true, ignoreWhiteSpace, wordDiffs) || wordDiffs.sections.isEmpty())
+            return res;
+        DiffSectionSplitter<ImportLines> lineDiffs = new DiffSectionSplitter<>(ImportLines::new);
+        if(!git_diff_Commit(repoPath, beforeCommit, afterCommit, files, false, ignoreWhiteSpace, lineDiffs))
+            lineDiffs.sections.clear();
+
+        for(Map.Entry<Path, WordDiffParser> e: wordDiffs.sections.entrySet()) {
+            GitFilePath path = wordDiffs.paths.get(e.getKey());
+            ImportLines lineDiff = lineDiffs.sections.get(e.getKey());
+            ImportStatementChanges imports = lineDiff==null ? new ImportStatementChanges(path.filePath) : ParseImportsChanges(lineDiff.lines.toString(), path.filePath);
+            res.put(path.filePath, new FileDiff(path, e.getValue().GetResult(), imports));
+        }
+        return res;
+    }
+
+    /**
+     * `git diff -M` of many files at once
+     * @param sections  gets lines of the output, split per file
+     * @return  false if git failed (then `sections` may be incomplete)
+     */
+    private static boolean git_diff_Commit(Path repoPath, String beforeCommit, String afterCommit, List<GitFilePath> files, boolean wordDiff, boolean ignoreWhiteSpace, DiffSectionSplitter<?> sections)
+    {
+        List<String> command = new ArrayList<>();
+        command.add("git");
+        command.add("diff");
+        command.add("--no-color");
+        command.add("--unified=0");
+        if(wordDiff)
+            command.add("--word-diff");
+        command.add("-M");
+        if(ignoreWhiteSpace) {
+            command.add("--ignore-submodules");
+            command.add("--ignore-all-space");
+        }
+        command.add(beforeCommit);
+        command.add(afterCommit);
+        command.add("--");
+        if(files == null)
+            command.add("*.java");
+        else {
+            Set<String> paths = new LinkedHashSet<>();
+            for(GitFilePath f: files) {
+                paths.add(f.oldFilePath.toString());
+                paths.add(f.filePath.toString());
+            }
+            command.addAll(paths);
+        }
+
+        int timeout_sec = (files == null) ? TIMEOUT_SEC : CmdRunner.ScaledTimeout(DIFF_MIN_TIMEOUT_SEC, files.size(), DIFF_FILES_PER_SEC, DIFF_MAX_TIMEOUT_SEC);
+        int res = CmdRunner.getInstance().RunCommand_StreamOutput(command, repoPath, null, timeout_sec, sections);
+        sections.Finish();
+        return res == CmdRunner.RETURN_CODE_SUCCESS;
+    }
+
+    /**
+     * Splits a `git diff` of many files by its "diff --git" headers, and gives lines of each file's section (header
+     * included) to a consumer of its own
+     */
+    private static class DiffSectionSplitter<T extends CmdRunner.LineConsumer> implements CmdRunner.LineConsumer {
+        private static final char[] SECTION_START = "diff --git ".toCharArray();
+
+        private final Supplier<T> newSectionConsumer;
+        final Map<Path, T> sections = new HashMap<>(); // new file path -> consumer of its section
+        final Map<Path, GitFilePath> paths = new HashMap<>();
+        private T current = null;
+        private StringBuilder currentHeader = null; // lines before the first hunk, where we find file paths
+        private boolean inHeader = false;
+
+        DiffSectionSplitter(Supplier<T> newSectionConsumer) {
+            this.newSectionConsumer = newSectionConsumer;
+        }
+
+        @Override
+        public void AcceptLine(char[] buf, int start, int end) {
+            if(IsSectionStart(buf, start, end)) {
+                Finish();
+                current = newSectionConsumer.get();
+                currentHeader = new StringBuilder();
+                inHeader = true;
+            }
+            if(current == null)
+                return; // nothing before the first section
+            if(inHeader) {
+                if(end - start >= 2 && buf[start] == '@' && buf[start + 1] == '@')
+                    inHeader = false;
+                else
+                    currentHeader.append(buf, start, end - start).append('\n');
+            }
+            current.AcceptLine(buf, start, end);
+        }
+
+        /**
+         * Ends the current section. Also call it at the end of the output, for the last one.
+         */
+        void Finish() {
+            if(current == null)
+                return;
+            GitFilePath path = ParseDiffSectionPaths(currentHeader.toString());
+            if(path == null)
+                logger.error("Failed extracting file path from git diff section: {}", currentHeader.toString().lines().findFirst().orElse(""));
+            else {
+                sections.put(path.filePath, current);
+                paths.put(path.filePath, path);
+            }
+            current = null;
+            currentHeader = null;
+        }
+
+        private static boolean IsSectionStart(char[] buf, int start, int end) {
+            if(end - start < SECTION_START.length)
+                return false;
+            for(int i = 0; i < SECTION_START.length; i++)
+                if(buf[start + i] != SECTION_START[i])
+                    return false;
+            return true;
+        }
+    }
+
+    /**
+     * Keeps only lines of a (line) diff which may add or remove an import, for `ParseImportsChanges`
+     */
+    private static class ImportLines implements CmdRunner.LineConsumer {
+        final StringBuilder lines = new StringBuilder();
+
+        @Override
+        public void AcceptLine(char[] buf, int start, int end) {
+            String line = new String(buf, start, end - start);
+            if(line.contains("+import ") || line.contains("-import "))
+                lines.append(line).append('\n');
+        }
+    }
+
+    /**
+     * Paths are taken from "rename from/to" lines if any, otherwise from "---"/"+++" lines, otherwise (e.g., only mode
+     * changed) from the "diff --git" line. Git quotes paths with special/non-ASCII characters and ends "---"/"+++"
+     * paths having a space with a TAB, so they can't be just cut after "a/" or "b/".
+     * @return  null for added/deleted files and if paths are not found
+     */
+    private static GitFilePath ParseDiffSectionPaths(String section)
+    {
+        String oldPath = null, newPath = null; // from "---"/"+++"
+        String renamedFrom = null, renamedTo = null;
+        String[] gitLinePaths = null;
+        boolean added = false, deleted = false;
+        for(String line: section.split("\n")) {
+            if(line.startsWith("@@"))
+                break;
+            if(line.startsWith("diff --git "))
+                gitLinePaths = ParseDiffGitLinePaths(line.substring("diff --git ".length()));
+            else if(line.startsWith("rename from "))
+                renamedFrom = UnquotePath(line.substring("rename from ".length()));
+            else if(line.startsWith("rename to "))
+                renamedTo = UnquotePath(line.substring("rename to ".length()));
+            else if(line.startsWith("new file mode"))
+                added = true;
+            else if(line.startsWith("deleted file mode"))
+                deleted = true;
+            else if(line.startsWith("--- "))
+                oldPath = StripPrefix(UnquotePath(StripTrailingTab(line.substring("--- ".length()))), "a/");
+            else if(line.startsWith("+++ "))
+                newPath = StripPrefix(UnquotePath(StripTrailingTab(line.substring("+++ ".length()))), "b/");
+        }
+        if(added || deleted)
+            return null;
+        if(renamedFrom != null && renamedTo != null) {
+            oldPath = renamedFrom;
+            newPath = renamedTo;
+        }
+        if((oldPath == null || newPath == null) && gitLinePaths != null) {
+            oldPath = gitLinePaths[0];
+            newPath = gitLinePaths[1];
+        }
+        if(oldPath == null || newPath == null)
+            return null;
+        return new GitFilePath(ToPath(oldPath), ToPath(newPath));
+    }
+
+    /**
+     * @param paths "a/old b/new" part of a "diff --git" line, each path may be quoted
+     * @return  [old, new] without "a/" and "b/", or null if it can't be told where the first path ends (unquoted paths
+     *          with spaces, but then paths differ only on renames, and "rename from/to" lines give them)
+     */
+    private static String[] ParseDiffGitLinePaths(String paths)
+    {
+        String oldPath, newPath;
+        if(paths.startsWith("\"")) {
+            int end = EndOfQuotedPath(paths, 0);
+            if(end == -1 || end + 1 >= paths.length())
+                return null;
+            oldPath = UnquotePath(paths.substring(0, end + 1));
+            newPath = UnquotePath(paths.substring(end + 2));
+        }
+        else if(paths.endsWith("\"") && paths.contains(" \"b/")) {
+            int split = paths.lastIndexOf(" \"b/");
+            oldPath = paths.substring(0, split);
+            newPath = UnquotePath(paths.substring(split + 1));
+        }
+        else {
+            // "a/<path> b/<path>": same path twice
+            if((paths.length() - 1) % 2 != 0)
+                return null;
+            int half = (paths.length() - 1) / 2;
+            oldPath = paths.substring(0, half);
+            newPath = paths.substring(half + 1);
+            if(paths.charAt(half) != ' ' || !oldPath.substring(2).equals(newPath.substring(2)))
+                return null;
+        }
+        oldPath = StripPrefix(oldPath, "a/");
+        newPath = StripPrefix(newPath, "b/");
+        if(oldPath == null || newPath == null)
+            return null;
+        return new String[]{oldPath, newPath};
+    }
+
+    /**
+     * @return  index of the closing quote of the quoted path starting at `start`, or -1
+     */
+    private static int EndOfQuotedPath(String s, int start)
+    {
+        for(int i = start + 1; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if(c == '\\')
+                i++;
+            else if(c == '"')
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Undoes git's quoting of paths (core.quotePath): "src/caf\303\251.java" -> src/cafe.java with an acute
+     * e (octal escapes are bytes of the UTF-8 encoded path). Unquoted paths are returned as they are.
+     */
+    public static String UnquotePath(String path)
+    {
+        if(path.length() < 2 || path.charAt(0) != '"' || path.charAt(path.length() - 1) != '"')
+            return path;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(path.length());
+        for(int i = 1; i < path.length() - 1; i++) {
+            char c = path.charAt(i);
+            if(c != '\\' || i + 1 >= path.length() - 1) {
+                byte[] b = String.valueOf(c).getBytes(StandardCharsets.UTF_8);
+                bytes.write(b, 0, b.length);
+                continue;
+            }
+            char e = path.charAt(++i);
+            if(e >= '0' && e <= '7' && i + 2 < path.length() - 1) { // \ooo: one byte of the UTF-8 encoded path
+                bytes.write(Integer.parseInt(path.substring(i, i + 3), 8));
+                i += 2;
+                continue;
+            }
+            switch (e) {
+                case 'a': bytes.write(7); break;
+                case 'b': bytes.write('\b'); break;
+                case 't': bytes.write('\t'); break;
+                case 'n': bytes.write('\n'); break;
+                case 'v': bytes.write(11); break;
+                case 'f': bytes.write('\f'); break;
+                case 'r': bytes.write('\r'); break;
+                default:  bytes.write(e); // \" and \\
+            }
+        }
+        return bytes.toString(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Redoes git's quoting of paths, see `UnquotePath`
+     */
+    private static String QuotePath(String path)
+    {
+        byte[] bytes = path.getBytes(StandardCharsets.UTF_8);
+        StringBuilder quoted = new StringBuilder(bytes.length + 2).append('"');
+        boolean needed = false;
+        for(byte b: bytes) {
+            int c = b & 0xff;
+            String escape;
+            switch (c) {
+                case 7:    escape = "\\a"; break;
+                case '\b': escape = "\\b"; break;
+                case '\t': escape = "\\t"; break;
+                case '\n': escape = "\\n"; break;
+                case 11:   escape = "\\v"; break;
+                case '\f': escape = "\\f"; break;
+                case '\r': escape = "\\r"; break;
+                case '"':  escape = "\\\""; break;
+                case '\\': escape = "\\\\"; break;
+                default:   escape = (c < 0x20 || c >= 0x7f) ? String.format("\\%03o", c) : null;
+            }
+            if(escape == null)
+                quoted.append((char) c);
+            else {
+                quoted.append(escape);
+                needed = true;
+            }
+        }
+        return needed ? quoted.append('"').toString() : path;
+    }
+
+    /**
+     * `Path.of` of an unquoted git path. If the file system encoding can't hold its characters (non-ASCII path while
+     * running with the POSIX locale, i.e. `sun.jnu.encoding` is ANSI_X3.4-1968), git's quoted form is kept instead:
+     * that file can't be read or diffed, but the other files of the commit still are.
+     */
+    private static Path ToPath(String path)
+    {
+        try {
+            return Path.of(path);
+        } catch (InvalidPathException e) {
+            String quoted = QuotePath(path);
+            logger.warn("Can't use path with file system encoding {}, kept it quoted: {}", System.getProperty("sun.jnu.encoding"), quoted);
+            return Path.of(quoted);
+        }
+    }
+
+    private static String StripTrailingTab(String s)
+    {
+        return s.endsWith("\t") ? s.substring(0, s.length() - 1) : s;
+    }
+
+    /**
+     * @return  null if `s` doesn't start with `prefix` (like "/dev/null")
+     */
+    private static String StripPrefix(String s, String prefix)
+    {
+        return s.startsWith(prefix) ? s.substring(prefix.length()) : null;
+    }
+
+
     /**
      * Using `git diff`, returns diff hunks.
      * @param filePath_old  Useful when file is renamed, otherwise pass either `null` or the same filePath_new value
@@ -528,18 +898,131 @@ public class GitCmdRunner {
     }
 
 
+    /**
+     * Checks `git_diff_CommitWordDiff` gives the same as diffing files one by one (`git_diff_JustChanges` and
+     * `git_diff_JustImportsChanges`), for all commits of a repository:
+     *      GitCmdRunner [repository path] [max commits]
+     * Without a repository, it makes a small one whose file paths git quotes or ends with a TAB in its diff output
+     * (space, non-ASCII, double quote, renamed with a space), and also checks none of its files is lost. Run it with
+     * `LC_ALL=C` too: then the non-ASCII path can't be used, but the other files must still be there.
+     */
+    public static void main(String[] args) throws java.io.IOException {
+        Path repoPath = args.length > 0 ? Path.of(args[0]) : MakeRepoWithTrickyPaths();
+        int maxCommits = args.length > 1 ? Integer.parseInt(args[1]) : Integer.MAX_VALUE;
+        List<String> commits = git_log(repoPath);
+        if(commits == null)
+            return;
+        int nCommits = 0, nFiles = 0, nDifferent = 0;
+        for(String commit: commits.subList(0, Math.min(commits.size(), maxCommits))) {
+            String parent = commit + "^";
+            FilesStatus status = git_diff_GetFilesStatus(repoPath, parent, commit, "java", true);
+            List<GitFilePath> files = new ArrayList<>();
+            status.modified.forEach(f -> files.add(new GitFilePath(f)));
+            files.addAll(status.renamed_from_to);
+            if(files.isEmpty())
+                continue;
+            nCommits++;
+            Map<Path, FileDiff> batched = git_diff_CommitWordDiff(true, repoPath, parent, commit, files, true);
+            for(GitFilePath f: files) {
+                nFiles++;
+                List<CodeReplacement> expected = git_diff_JustChanges(true, repoPath, parent, commit, f.oldFilePath, f.filePath, true);
+                ImportStatementChanges expectedImports = git_diff_JustImportsChanges(repoPath, parent, commit, f.oldFilePath, f.filePath, true);
+                FileDiff actual = batched.get(f.filePath);
+                List<CodeReplacement> actualChanges = actual == null ? new ArrayList<>() : actual.codeReplacements;
+                boolean same = SameReplacements(expected, actualChanges);
+                if(actual != null)
+                    same &= expectedImports.addedImports.equals(actual.importChanges.addedImports)
+                            && expectedImports.removedImports.equals(actual.importChanges.removedImports);
+                else
+                    same &= expectedImports.addedImports.isEmpty() && expectedImports.removedImports.isEmpty();
+                if(!same) {
+                    nDifferent++;
+                    logger.error("{} {}: batched diff differs ({} vs {} replacements)", commit, f, expected.size(), actualChanges.size());
+                }
+            }
+        }
+        logger.info("{}: {} commits, {} files, {} different", repoPath, nCommits, nFiles, nDifferent);
+        if(args.length == 0 && nFiles != TRICKY_PATHS.length)
+            logger.error("Expected {} modified/renamed files, got {}", TRICKY_PATHS.length, nFiles);
+    }
+
+    private static boolean SameReplacements(List<CodeReplacement> a, List<CodeReplacement> b) {
+        if(a.size() != b.size())
+            return false;
+        for(int i = 0; i < a.size(); i++) {
+            CodeReplacement x = a.get(i), y = b.get(i);
+            if(x.lineStart_before != y.lineStart_before || x.lineStart_after != y.lineStart_after
+                    || !Objects.equals(x.removedCode, y.removedCode) || !Objects.equals(x.addedCode, y.addedCode))
+                return false;
+        }
+        return true;
+    }
+
+    private static final String[] TRICKY_PATHS = {"src/Plain.java", "src/My File.java", "src/Caf\u00e9.java", "src/\"Quoted\".java", "src/Old Name.java"};
+
+    /**
+     * Commits are written with `git fast-import`, not through the file system: that works under any locale
+     */
+    private static Path MakeRepoWithTrickyPaths() throws java.io.IOException {
+        Path repo = java.nio.file.Files.createTempDirectory("tricky-paths");
+        RunGit(repo, null, "init", "-q");
+        StringBuilder stream = new StringBuilder();
+        AddCommit(stream, "first", null, TRICKY_PATHS, "StringUtils.isEmpty(s)");
+        String[] renamed = TRICKY_PATHS.clone();
+        renamed[renamed.length - 1] = "src/New Name.java";
+        AddCommit(stream, "second", "src/Old Name.java", renamed, "StringUtils.isBlank(s)");
+        RunGit(repo, stream.toString().getBytes(StandardCharsets.UTF_8), "fast-import", "--quiet");
+        return repo;
+    }
+
+    private static void AddCommit(StringBuilder stream, String message, String deletedPath, String[] paths, String call) {
+        stream.append("commit refs/heads/master\ncommitter x <x> 0 +0000\n");
+        stream.append("data ").append(message.length()).append('\n').append(message).append('\n');
+        if(deletedPath != null)
+            stream.append("D ").append(deletedPath).append('\n');
+        String content = "import org.apache.commons.lang3.StringUtils;\n\nclass A {\n    boolean f(String s) {\n        return "
+                + call + ";\n    }\n}\n";
+        for(String p: paths) // paths are the last field: spaces and quotes inside need no quoting
+            stream.append("M 100644 inline ").append(p).append("\ndata ").append(content.length()).append('\n').append(content).append('\n');
+    }
+
+    private static void RunGit(Path repo, byte[] stdin, String... args) {
+        List<String> command = new ArrayList<>();
+        command.add("git");
+        command.addAll(Arrays.asList(args));
+        CmdRunner.CmdRunnerResult result = CmdRunner.getInstance().RunCommand(command, repo, null, TIMEOUT_SEC, stdin);
+        if(result.returnCode != CmdRunner.RETURN_CODE_SUCCESS)
+            logger.error("{} failed: {}", command, result.err);
+    }
+
+
     public static class CodeReplacement {
         public int lineStart_before, lineStart_after;
         public String removedCode, addedCode;
 
         public CodeReplacement(String _removedCode, String _addedCode, int _lineStart_before, int _lineStart_after) {
-            this.removedCode = _removedCode.trim();
-            this.addedCode = _addedCode.trim();
+            this.removedCode = _removedCode==null ? null : _removedCode.trim(); // null when `onlyPairs` is false
+            this.addedCode = _addedCode==null ? null : _addedCode.trim();
             this.lineStart_before = _lineStart_before;
             this.lineStart_after = _lineStart_after;
         }
     }
 
+    /**
+     * Diff of one file, see `git_diff_CommitWordDiff`
+     */
+    public static class FileDiff {
+        public GitFilePath path;
+        public List<CodeReplacement> codeReplacements;
+        public ImportStatementChanges importChanges;
+
+        public FileDiff(GitFilePath path, List<CodeReplacement> codeReplacements, ImportStatementChanges importChanges) {
+            this.path = path;
+            this.codeReplacements = codeReplacements;
+            this.importChanges = importChanges;
+        }
+    }
+
     public static class DiffChunk {
         public String code;
         public int start, end;
@@ -564,6 +1047,7 @@ public class GitCmdRunner {
         public List<Path> modified = new ArrayList<>();
         public List<GitFilePath> renamed_from_to = new ArrayList<>();
         public List<Path> other = new ArrayList<>();
+        public Map<Path, String> blobSHAs = new HashMap<>(); // (new) path -> blob SHA after the change, for all but deleted files
 
         @Override
         public String toString() {
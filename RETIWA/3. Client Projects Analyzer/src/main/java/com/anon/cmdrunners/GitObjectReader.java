@@ -0,0 +1,212 @@
+package com.anon.cmdrunners;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.concurrent.*;
+
+/**
+ * Keeps one `git cat-file --batch` process open per repository, so reading a file at some commit doesn't need to fork
+ * `git show sha:path` every time. Requests are written to its stdin, and blobs are read back from its stdout.
+ *
+ * Usage: `Open()` before processing a repository and `Close()` afterwards. In between, `GitCmdRunner.GetFileContentAtSpecificCommit`
+ * (and `GetFileHeaderAtSpecificCommit`) is served by the open reader of that repository.
+ *
+ * If a request takes more than `GitCmdRunner.TIMEOUT_SEC`, the process is killed and a new one is started on next request.
+ */
+public class GitObjectReader implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(GitObjectReader.class);
+    private static final ConcurrentHashMap<Path, GitObjectReader> openReaders = new ConcurrentHashMap<>();
+
+    private final Path repoPath;
+    private final ExecutorService ioThread; // we read pipes on a separate thread, so we can give up after a timeout
+    private Process process;
+    private OutputStream stdin;
+    private InputStream stdout;
+
+    public static GitObjectReader Open(Path repoPath) {
+        return openReaders.computeIfAbsent(repoPath, GitObjectReader::new);
+    }
+
+    /**
+     * @return  null if no reader is open for this repository
+     */
+    public static GitObjectReader Get(Path repoPath) {
+        return openReaders.get(repoPath);
+    }
+
+    public static void Close(Path repoPath) {
+        GitObjectReader reader = openReaders.remove(repoPath);
+        if(reader!=null)
+            reader.close();
+    }
+
+    private GitObjectReader(Path repoPath) {
+        this.repoPath = repoPath;
+        this.ioThread = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "cat-file-" + repoPath.getFileName());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Same output as `git show commitSHA:filepath`
+     * @return  null if file doesn't exist at that commit (or reading failed)
+     */
+    public String ReadFile(String commitSHA, Path filepath) {
+        return ReadBlob(String.format("%s:%s", commitSHA, filepath.toString()));
+    }
+
+    /**
+     * Like `ReadFile`, but only returns the file header (see `FileHeader`). The rest of the blob is skipped, not decoded.
+     * @return  null if file doesn't exist at that commit (or reading failed)
+     */
+    public String ReadFileHeader(String commitSHA, Path filepath) {
+        return ReadBlob(String.format("%s:%s", commitSHA, filepath.toString()), true);
+    }
+
+    /**
+     * @param objectName    anything `git cat-file` understands, like a blob SHA or "sha:path"
+     * @return  null if object is missing or is not a blob
+     */
+    public String ReadBlob(String objectName) {
+        return ReadBlob(objectName, false);
+    }
+
+    private synchronized String ReadBlob(String objectName, boolean headerOnly) {
+        if(objectName.indexOf('\n') != -1)
+            return null; // can't be sent over --batch
+        if(process==null || !process.isAlive()) {
+            if(!Start())
+                return null;
+        }
+
+        Future<String> request = ioThread.submit(() -> Request(objectName, headerOnly));
+        try {
+            String content = request.get(GitCmdRunner.TIMEOUT_SEC, TimeUnit.SECONDS);
+            return content == null ? null : DropCR(content);
+        } catch (TimeoutException e) {
+            logger.error("{} git cat-file timed out reading {}. Restarting it...", repoPath, objectName);
+            Stop();
+        } catch (ExecutionException | InterruptedException e) {
+            logger.error("{} git cat-file failed reading {}. Restarting it...", repoPath, objectName, e);
+            Stop();
+        }
+        request.cancel(true);
+        return null;
+    }
+
+    @Override
+    public synchronized void close() {
+        Stop();
+        ioThread.shutdownNow();
+    }
+
+    private boolean Start() {
+        try {
+            ProcessBuilder pb = new ProcessBuilder("git", "cat-file", "--batch");
+            pb.directory(repoPath.toFile());
+            pb.redirectError(ProcessBuilder.Redirect.DISCARD);
+            process = pb.start();
+            stdin = new BufferedOutputStream(process.getOutputStream());
+            stdout = new BufferedInputStream(process.getInputStream());
+            return true;
+        } catch (IOException e) {
+            logger.error("{} Failed to start git cat-file", repoPath, e);
+            process = null;
+            return false;
+        }
+    }
+
+    private void Stop() {
+        if(process == null)
+            return;
+        try {
+            stdin.close(); // git exits on EOF
+        } catch (IOException ignored) {
+        }
+        try {
+            if(!process.waitFor(1, TimeUnit.SECONDS))
+                process.destroyForcibly();
+        } catch (InterruptedException e) {
+            process.destroyForcibly();
+        }
+        process = null;
+    }
+
+    /**
+     * Protocol: we send "<object>\n". We receive "<sha> <type> <size>\n<content>\n" or "<object> missing\n"
+     * We always consume the whole answer, so the next request starts at its own header.
+     */
+    private String Request(String objectName, boolean headerOnly) throws IOException {
+        stdin.write(objectName.getBytes(StandardCharsets.UTF_8));
+        stdin.write('\n');
+        stdin.flush();
+
+        String header = ReadLine();
+        if(header == null)
+            throw new EOFException("git cat-file closed its output");
+        if(header.endsWith(" missing") || header.endsWith(" ambiguous"))
+            return null;
+        String[] parts = header.split(" ");
+        if(parts.length != 3)
+            throw new IOException("Unexpected git cat-file header: " + header);
+
+        boolean isBlob = parts[1].equals("blob");
+        long size = Long.parseLong(parts[2]);
+        String content = null;
+        if(isBlob && headerOnly) {
+            FileHeader fileHeader = FileHeader.Read(stdout, size);
+            Skip(size - fileHeader.BytesRead());
+            content = fileHeader.toString();
+        }
+        else if(isBlob) {
+            byte[] bytes = stdout.readNBytes(Math.toIntExact(size));
+            if(bytes.length != size)
+                throw new EOFException("git cat-file output ended unexpectedly");
+            content = new String(bytes, Charset.defaultCharset());
+        }
+        else
+            Skip(size);
+        if(stdout.read() != '\n')
+            throw new EOFException("git cat-file output ended unexpectedly");
+        return content;
+    }
+
+    /**
+     * Reads and drops `n` bytes. `InputStream.skip` can't be used, as it seeks and stdout is a pipe.
+     */
+    private void Skip(long n) throws IOException {
+        byte[] scratch = new byte[8192];
+        while(n > 0) {
+            int r = stdout.read(scratch, 0, (int) Math.min(scratch.length, n));
+            if(r == -1)
+                throw new EOFException("git cat-file output ended unexpectedly");
+            n -= r;
+        }
+    }
+
+    private String ReadLine() throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while((b = stdout.read()) != -1 && b != '\n')
+            line.write(b);
+        if(b == -1)
+            return null;
+        return line.toString(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Same as `CmdRunner`: we don't keep CR characters
+     */
+    private static String DropCR(String s) {
+        if(s.indexOf('\r') == -1)
+            return s;
+        return s.replace("\r", "");
+    }
+}
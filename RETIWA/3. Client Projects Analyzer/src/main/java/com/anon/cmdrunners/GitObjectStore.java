@@ -0,0 +1,487 @@
+package com.anon.cmdrunners;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Reads git objects directly from `.git/objects` (loose objects and packfiles), with no git process at all.
+ * It serves `GitCmdRunner.GetFileContentAtSpecificCommit`, `ListFilesAtSpecificCommit` and
+ * `GetListOfCommits_withMessage_FirstParent` when it's open for a repository (see `Main`'s "--git" option).
+ *
+ * Methods throw IOException when they hit something they don't support (unknown revision syntax, corrupt or
+ * unsupported object format, ...). `GitCmdRunner` then falls back to the git command.
+ *
+ * To compare with git on a local repository: java ... GitObjectStore path/to/repo [commit]
+ */
+public class GitObjectStore implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(GitObjectStore.class);
+    private static final ConcurrentHashMap<Path, GitObjectStore> openStores = new ConcurrentHashMap<>();
+
+    private final Path gitDir;
+    private final Path objectsDir;
+    private final Map<Path, GitPackFile> packs = new LinkedHashMap<>();
+
+    public static void main(String[] args) throws IOException {
+        Path repo = Path.of(args[0]);
+        String rev = args.length > 1 ? args[1] : "HEAD";
+        int nFiles = 0, nMismatches = 0;
+        try (GitObjectStore store = new GitObjectStore(repo)) {
+            for (String f : store.ListFiles(rev)) {
+                String viaGit = CmdRunner.getInstance().RunCommand_ReturnOutput(List.of("git", "show", rev + ":" + f), repo, null, GitCmdRunner.TIMEOUT_SEC);
+                if (!Objects.equals(viaGit, store.ReadFile(rev, Path.of(f)))) {
+                    logger.error("MISMATCH: {}", f);
+                    nMismatches++;
+                }
+                nFiles++;
+            }
+            logger.info("{} files compared, {} mismatches. {} commits in first-parent history.", nFiles, nMismatches, store.GetFirstParentHistory(rev).size());
+        }
+    }
+
+    /**
+     * @return  null if repository can't be opened
+     */
+    public static GitObjectStore Open(Path repoPath) {
+        return openStores.computeIfAbsent(repoPath, p -> {
+            try {
+                return new GitObjectStore(p);
+            } catch (IOException e) {
+                logger.error("{} Failed to open git object store", p, e);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * @return  null if no store is open for this repository
+     */
+    public static GitObjectStore Get(Path repoPath) {
+        return openStores.get(repoPath);
+    }
+
+    public static void Close(Path repoPath) {
+        GitObjectStore store = openStores.remove(repoPath);
+        if (store != null)
+            store.close();
+    }
+
+    public GitObjectStore(Path repoPath) throws IOException {
+        Path dotGit = repoPath.resolve(".git");
+        this.gitDir = Files.isDirectory(dotGit) ? dotGit : repoPath; // bare repositories have no ".git"
+        this.objectsDir = gitDir.resolve("objects");
+        if (!Files.isDirectory(objectsDir))
+            throw new IOException("Not a git repository: " + repoPath);
+        if (Files.exists(objectsDir.resolve("info").resolve("alternates")))
+            throw new IOException("Repositories with alternates are not supported: " + repoPath);
+        LoadNewPacks();
+    }
+
+    /**
+     * Same output as `git show rev:filepath`
+     * @return  null if file doesn't exist at that revision
+     */
+    public synchronized String ReadFile(String rev, Path filepath) throws IOException {
+        byte[] sha = FindBlob(rev, filepath);
+        if (sha == null)
+            return null;
+        RawObject blob = ReadRaw(sha);
+        if (blob == null || blob.type != GitPackFile.OBJ_BLOB)
+            return null;
+        String content = new String(blob.data, Charset.defaultCharset());
+        return content.indexOf('\r') == -1 ? content : content.replace("\r", "");
+    }
+
+    /**
+     * Like `ReadFile`, but only returns the file header (see `FileHeader`). Unless the blob is deltified in a pack, we
+     * stop inflating it right after the header.
+     * @return  null if file doesn't exist at that revision
+     */
+    public synchronized String ReadFileHeader(String rev, Path filepath) throws IOException {
+        byte[] sha = FindBlob(rev, filepath);
+        if (sha == null)
+            return null;
+        FileHeader header = ReadBlobHeader(sha);
+        return header == null ? null : header.toString();
+    }
+
+    /**
+     * Same output as `git ls-tree -r --name-only --full-name rev`
+     */
+    public synchronized List<String> ListFiles(String rev) throws IOException {
+        byte[] tree = PeelToTree(Resolve(rev));
+        if (tree == null)
+            throw new IOException("Unknown revision " + rev);
+        List<String> res = new ArrayList<>();
+        ListTree(tree, "", res);
+        return res;
+    }
+
+    /**
+     * Same commits as `git log rev --first-parent`, newest first
+     */
+    public synchronized List<Commit> GetFirstParentHistory(String rev) throws IOException {
+        List<Commit> res = new ArrayList<>();
+        byte[] sha = PeelToCommit(Resolve(rev));
+        while (sha != null) {
+            RawObject obj = ReadRaw(sha);
+            if (obj == null)
+                break; // shallow clone
+            Commit c = ParseCommit(ToHex(sha), obj.data);
+            res.add(c);
+            sha = c.parents.isEmpty() ? null : FromHex(c.parents.get(0));
+        }
+        return res;
+    }
+
+    @Override
+    public synchronized void close() {
+        for (GitPackFile p : packs.values()) {
+            try {
+                p.close();
+            } catch (IOException e) {
+                logger.error("Failed closing {}", p.packPath, e);
+            }
+        }
+        packs.clear();
+    }
+
+    /**
+     * @return  null if object doesn't exist
+     */
+    synchronized RawObject ReadRaw(byte[] sha) throws IOException {
+        RawObject obj = ReadFromPacks(sha);
+        if (obj != null)
+            return obj;
+
+        String hex = ToHex(sha);
+        Path loose = objectsDir.resolve(hex.substring(0, 2)).resolve(hex.substring(2));
+        if (Files.exists(loose))
+            return ReadLooseObject(loose);
+
+        // Maybe it's in a pack created after we opened the repository
+        if (LoadNewPacks())
+            return ReadFromPacks(sha);
+        return null;
+    }
+
+    /**
+     * @return  null if object doesn't exist or is not a blob
+     */
+    private FileHeader ReadBlobHeader(byte[] sha) throws IOException {
+        for (GitPackFile p : packs.values()) {
+            long offset = p.FindOffset(sha);
+            if (offset != -1)
+                return p.ReadHeader(offset);
+        }
+
+        String hex = ToHex(sha);
+        Path loose = objectsDir.resolve(hex.substring(0, 2)).resolve(hex.substring(2));
+        if (Files.exists(loose))
+            return ReadLooseBlobHeader(loose);
+
+        if (LoadNewPacks())
+            return ReadBlobHeader(sha);
+        return null;
+    }
+
+    /**
+     * @return  sha of the blob at `filepath`, or null if there's nothing at that path
+     */
+    private byte[] FindBlob(String rev, Path filepath) throws IOException {
+        byte[] sha = PeelToTree(Resolve(rev));
+        if (sha == null)
+            return null;
+        for (Path part : filepath) {
+            RawObject dir = ReadRaw(sha);
+            if (dir == null || dir.type != GitPackFile.OBJ_TREE)
+                return null;
+            sha = FindTreeEntry(dir.data, part.toString());
+            if (sha == null)
+                return null;
+        }
+        return sha;
+    }
+
+    private RawObject ReadFromPacks(byte[] sha) throws IOException {
+        for (GitPackFile p : packs.values()) {
+            long offset = p.FindOffset(sha);
+            if (offset != -1)
+                return p.Read(offset);
+        }
+        return null;
+    }
+
+    private boolean LoadNewPacks() throws IOException {
+        Path packDir = objectsDir.resolve("pack");
+        if (!Files.isDirectory(packDir))
+            return false;
+        boolean loaded = false;
+        try (Stream<Path> files = Files.list(packDir)) {
+            for (Path idx : (Iterable<Path>) files::iterator) {
+                String name = idx.getFileName().toString();
+                if (!name.endsWith(".idx"))
+                    continue;
+                Path pack = packDir.resolve(name.substring(0, name.length() - 4) + ".pack");
+                if (packs.containsKey(pack) || !Files.exists(pack))
+                    continue;
+                packs.put(pack, new GitPackFile(idx, pack, this));
+                loaded = true;
+            }
+        }
+        return loaded;
+    }
+
+    private static RawObject ReadLooseObject(Path path) throws IOException {
+        byte[] raw;
+        try (InputStream in = new InflaterInputStream(Files.newInputStream(path))) {
+            raw = in.readAllBytes();
+        }
+        // "<type> <size>\0<content>"
+        int space = IndexOf(raw, (byte) ' ', 0), nul = IndexOf(raw, (byte) 0, 0);
+        if (space == -1 || nul == -1 || space > nul)
+            throw new IOException("Corrupt loose object " + path);
+        String type = new String(raw, 0, space, StandardCharsets.US_ASCII);
+        int typeId;
+        switch (type) {
+            case "commit": typeId = GitPackFile.OBJ_COMMIT; break;
+            case "tree": typeId = GitPackFile.OBJ_TREE; break;
+            case "blob": typeId = GitPackFile.OBJ_BLOB; break;
+            case "tag": typeId = GitPackFile.OBJ_TAG; break;
+            default: throw new IOException("Unknown object type " + type + " in " + path);
+        }
+        return new RawObject(typeId, Arrays.copyOfRange(raw, nul + 1, raw.length));
+    }
+
+    private static FileHeader ReadLooseBlobHeader(Path path) throws IOException {
+        try (InputStream in = new InflaterInputStream(Files.newInputStream(path))) {
+            // "blob <size>\0<content>"
+            StringBuilder header = new StringBuilder();
+            int b;
+            while ((b = in.read()) > 0 && header.length() < 32)
+                header.append((char) b);
+            if (b != 0 || !header.toString().startsWith("blob "))
+                return null;
+            try {
+                return FileHeader.Read(in, Long.parseLong(header.substring(5)));
+            } catch (NumberFormatException e) {
+                throw new IOException("Corrupt loose object " + path);
+            }
+        }
+    }
+
+    /**
+     * Supports full SHAs and branch/tag names (the way `git rev-parse` looks them up)
+     */
+    private byte[] Resolve(String rev) throws IOException {
+        if (rev.length() == 40 && rev.chars().allMatch(c -> Character.digit(c, 16) != -1))
+            return FromHex(rev);
+
+        List<String> candidates = List.of(rev, "refs/" + rev, "refs/tags/" + rev, "refs/heads/" + rev,
+                "refs/remotes/" + rev, "refs/remotes/" + rev + "/HEAD");
+        for (String ref : candidates) {
+            String sha = ReadRef(ref, 0);
+            if (sha != null)
+                return FromHex(sha);
+        }
+        throw new IOException("Unsupported revision: " + rev);
+    }
+
+    private String ReadRef(String ref, int depth) throws IOException {
+        if (depth > 5)
+            return null;
+        Path loose = gitDir.resolve(ref);
+        if (Files.isRegularFile(loose)) {
+            String content = Files.readString(loose).trim();
+            if (content.startsWith("ref: "))
+                return ReadRef(content.substring(5).trim(), depth + 1);
+            return content;
+        }
+        Path packedRefs = gitDir.resolve("packed-refs");
+        if (Files.isRegularFile(packedRefs)) {
+            for (String line : Files.readAllLines(packedRefs)) {
+                if (line.startsWith("#") || line.startsWith("^"))
+                    continue;
+                int space = line.indexOf(' ');
+                if (space != -1 && line.substring(space + 1).equals(ref))
+                    return line.substring(0, space);
+            }
+        }
+        return null;
+    }
+
+    private byte[] PeelToCommit(byte[] sha) throws IOException {
+        RawObject obj = ReadRaw(sha);
+        while (obj != null && obj.type == GitPackFile.OBJ_TAG) {
+            sha = FromHex(HeaderField(obj.data, "object"));
+            obj = ReadRaw(sha);
+        }
+        return (obj != null && obj.type == GitPackFile.OBJ_COMMIT) ? sha : null;
+    }
+
+    /**
+     * Accepts commits, tags and trees (like `GitCmdRunner.EMPTY_TREE_SHA`)
+     */
+    private byte[] PeelToTree(byte[] sha) throws IOException {
+        RawObject obj = ReadRaw(sha);
+        while (obj != null && obj.type != GitPackFile.OBJ_TREE) {
+            if (obj.type == GitPackFile.OBJ_TAG)
+                sha = FromHex(HeaderField(obj.data, "object"));
+            else if (obj.type == GitPackFile.OBJ_COMMIT)
+                sha = FromHex(HeaderField(obj.data, "tree"));
+            else
+                return null;
+            obj = ReadRaw(sha);
+        }
+        if (obj == null) {
+            if (Arrays.equals(sha, FromHex(GitCmdRunner.EMPTY_TREE_SHA)))
+                return sha; // git knows the empty tree even if it's not stored
+            return null;
+        }
+        return sha;
+    }
+
+    /**
+     * Tree entries: "<mode> <name>\0<20-byte sha>"
+     */
+    private static byte[] FindTreeEntry(byte[] tree, String name) {
+        if (tree.length == 0)
+            return null;
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        int i = 0;
+        while (i < tree.length) {
+            int space = IndexOf(tree, (byte) ' ', i);
+            int nul = IndexOf(tree, (byte) 0, space);
+            if (nul - space - 1 == nameBytes.length && Arrays.equals(tree, space + 1, nul, nameBytes, 0, nameBytes.length))
+                return Arrays.copyOfRange(tree, nul + 1, nul + 21);
+            i = nul + 21;
+        }
+        return null;
+    }
+
+    private void ListTree(byte[] treeSha, String prefix, List<String> res) throws IOException {
+        RawObject tree = ReadRaw(treeSha);
+        if (tree == null)
+            return;
+        byte[] data = tree.data;
+        int i = 0;
+        while (i < data.length) {
+            int space = IndexOf(data, (byte) ' ', i);
+            int nul = IndexOf(data, (byte) 0, space);
+            String mode = new String(data, i, space - i, StandardCharsets.US_ASCII);
+            String path = prefix + new String(data, space + 1, nul - space - 1, StandardCharsets.UTF_8);
+            if (mode.equals("40000"))
+                ListTree(Arrays.copyOfRange(data, nul + 1, nul + 21), path + "/", res);
+            else
+                res.add(path); // blobs, symlinks and submodules
+            i = nul + 21;
+        }
+    }
+
+    private static Commit ParseCommit(String sha, byte[] data) {
+        String text = new String(data, StandardCharsets.UTF_8);
+        int bodyStart = text.indexOf("\n\n");
+        String header = bodyStart == -1 ? text : text.substring(0, bodyStart);
+        String message = bodyStart == -1 ? "" : text.substring(bodyStart + 2);
+
+        String tree = null;
+        List<String> parents = new ArrayList<>();
+        for (String line : header.split("\n")) {
+            if (line.startsWith("tree "))
+                tree = line.substring(5);
+            else if (line.startsWith("parent "))
+                parents.add(line.substring(7));
+        }
+        return new Commit(sha, tree, parents, message);
+    }
+
+    private static String HeaderField(byte[] data, String field) throws IOException {
+        String text = new String(data, StandardCharsets.UTF_8);
+        for (String line : text.split("\n")) {
+            if (line.isEmpty())
+                break;
+            if (line.startsWith(field + " "))
+                return line.substring(field.length() + 1).trim();
+        }
+        throw new IOException("Object has no '" + field + "' field");
+    }
+
+    private static int IndexOf(byte[] data, byte b, int from) {
+        for (int i = from; i < data.length; i++)
+            if (data[i] == b)
+                return i;
+        return -1;
+    }
+
+    static String ToHex(byte[] sha) {
+        StringBuilder sb = new StringBuilder(40);
+        for (byte b : sha)
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        return sb.toString();
+    }
+
+    static byte[] FromHex(String hex) throws IOException {
+        if (hex.length() != 40)
+            throw new IOException("Invalid SHA: " + hex);
+        byte[] res = new byte[20];
+        for (int i = 0; i < 20; i++) {
+            int hi = Character.digit(hex.charAt(2 * i), 16), lo = Character.digit(hex.charAt(2 * i + 1), 16);
+            if (hi == -1 || lo == -1)
+                throw new IOException("Invalid SHA: " + hex);
+            res[i] = (byte) ((hi << 4) | lo);
+        }
+        return res;
+    }
+
+    static class RawObject {
+        final int type;
+        final byte[] data;
+
+        RawObject(int type, byte[] data) {
+            this.type = type;
+            this.data = data;
+        }
+    }
+
+    public static class Commit {
+        public final String sha;
+        public final String tree;
+        public final List<String> parents;
+        public final String message;
+
+        public Commit(String sha, String tree, List<String> parents, String message) {
+            this.sha = sha;
+            this.tree = tree;
+            this.parents = parents;
+            this.message = message;
+        }
+
+        /**
+         * Same as git's "%s": lines of the first paragraph joined with a space
+         */
+        public String GetSubject() {
+            StringBuilder sb = new StringBuilder();
+            for (String line : message.split("\n")) {
+                if (line.trim().isEmpty()) {
+                    if (sb.length() > 0)
+                        break;
+                    continue;
+                }
+                if (sb.length() > 0)
+                    sb.append(' ');
+                sb.append(line.strip());
+            }
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,372 @@
+package com.anon.cmdrunners;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * A `.pack` file and its `.idx` (version 1 or 2), both memory-mapped. See https://git-scm.com/docs/pack-format
+ *
+ * Packs bigger than 2GB can't be mapped at once; those are read with positional reads instead.
+ */
+class GitPackFile implements AutoCloseable {
+    static final int OBJ_COMMIT = 1, OBJ_TREE = 2, OBJ_BLOB = 3, OBJ_TAG = 4, OBJ_OFS_DELTA = 6, OBJ_REF_DELTA = 7;
+    private static final int IDX_V2_MAGIC = 0xff744f63;
+    private static final long MAX_CACHED_BYTES = 16 << 20; // Resolved objects are cached, as many deltas share the same base
+    private static final int READ_BLOCK = 64 * 1024;
+
+    final Path packPath;
+    private final GitObjectStore store; // for REF_DELTA bases which are not in this pack
+    private final FileChannel packChannel;
+    private final MappedByteBuffer pack; // null for huge packs
+    private final long packSize;
+    private final MappedByteBuffer idx;
+    private final int idxVersion;
+    private final int nObjects;
+    private final int shaTableStart, offsetTableStart, largeOffsetTableStart;
+
+    private final LinkedHashMap<Long, GitObjectStore.RawObject> cache = new LinkedHashMap<>(64, 0.75f, true);
+    private long cachedBytes = 0;
+
+    GitPackFile(Path idxPath, Path packPath, GitObjectStore store) throws IOException {
+        this.packPath = packPath;
+        this.store = store;
+
+        try (FileChannel idxChannel = FileChannel.open(idxPath, StandardOpenOption.READ)) {
+            idx = idxChannel.map(FileChannel.MapMode.READ_ONLY, 0, idxChannel.size());
+        }
+        if (idx.getInt(0) == IDX_V2_MAGIC) {
+            idxVersion = idx.getInt(4);
+            if (idxVersion != 2)
+                throw new IOException("Unsupported pack index version " + idxVersion + ": " + idxPath);
+            nObjects = idx.getInt(8 + 255 * 4);
+            shaTableStart = 8 + 256 * 4;
+            offsetTableStart = shaTableStart + nObjects * 24; // sha (20) and crc (4) tables
+            largeOffsetTableStart = offsetTableStart + nObjects * 4;
+        } else {
+            idxVersion = 1;
+            nObjects = idx.getInt(255 * 4);
+            shaTableStart = 256 * 4 + 4; // entries are "offset (4) + sha (20)"
+            offsetTableStart = largeOffsetTableStart = -1;
+        }
+
+        packChannel = FileChannel.open(packPath, StandardOpenOption.READ);
+        packSize = packChannel.size();
+        pack = (packSize <= Integer.MAX_VALUE) ? packChannel.map(FileChannel.MapMode.READ_ONLY, 0, packSize) : null;
+    }
+
+    /**
+     * @return offset of the object in the pack, or -1 if the object is not in this pack
+     */
+    synchronized long FindOffset(byte[] sha) {
+        int first = sha[0] & 0xff;
+        int lo = (first == 0) ? 0 : Fanout(first - 1);
+        int hi = Fanout(first);
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = CompareSha(mid, sha);
+            if (cmp == 0)
+                return Offset(mid);
+            if (cmp < 0)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return -1;
+    }
+
+    /**
+     * Reads the object at `offset`, resolving the delta chain if needed
+     */
+    synchronized GitObjectStore.RawObject Read(long offset) throws IOException {
+        GitObjectStore.RawObject cached = cache.get(offset);
+        if (cached != null)
+            return cached;
+
+        // Walk down the delta chain until we reach a full object, then apply deltas on the way back
+        Deque<byte[]> deltas = new ArrayDeque<>();
+        GitObjectStore.RawObject base = null;
+        long cur = offset;
+        while (base == null) {
+            if (cur != offset && (base = cache.get(cur)) != null)
+                break;
+
+            byte[] h = ReadBytes(cur, (int) Math.min(64, packSize - cur));
+            int p = 0;
+            int c = h[p++] & 0xff;
+            int type = (c >> 4) & 7;
+            long size = c & 0x0f;
+            for (int shift = 4; (c & 0x80) != 0; shift += 7) {
+                c = h[p++] & 0xff;
+                size |= (long) (c & 0x7f) << shift;
+            }
+
+            switch (type) {
+                case OBJ_COMMIT:
+                case OBJ_TREE:
+                case OBJ_BLOB:
+                case OBJ_TAG:
+                    base = new GitObjectStore.RawObject(type, Inflate(cur + p, size));
+                    break;
+                case OBJ_OFS_DELTA: {
+                    c = h[p++] & 0xff;
+                    long baseDistance = c & 0x7f;
+                    while ((c & 0x80) != 0) {
+                        c = h[p++] & 0xff;
+                        baseDistance = ((baseDistance + 1) << 7) | (c & 0x7f);
+                    }
+                    deltas.push(Inflate(cur + p, size));
+                    cur -= baseDistance;
+                    break;
+                }
+                case OBJ_REF_DELTA: {
+                    byte[] baseSha = new byte[20];
+                    System.arraycopy(h, p, baseSha, 0, 20);
+                    p += 20;
+                    deltas.push(Inflate(cur + p, size));
+                    long baseOffset = FindOffset(baseSha);
+                    if (baseOffset != -1) {
+                        cur = baseOffset;
+                    } else {
+                        base = store.ReadRaw(baseSha);
+                        if (base == null)
+                            throw new IOException("Missing delta base " + GitObjectStore.ToHex(baseSha) + " in " + packPath);
+                    }
+                    break;
+                }
+                default:
+                    throw new IOException("Unknown object type " + type + " at " + cur + " in " + packPath);
+            }
+        }
+
+        byte[] data = base.data;
+        while (!deltas.isEmpty())
+            data = ApplyDelta(data, deltas.pop());
+        GitObjectStore.RawObject res = (data == base.data) ? base : new GitObjectStore.RawObject(base.type, data);
+        AddToCache(offset, res);
+        return res;
+    }
+
+    /**
+     * Header of the blob at `offset` (see `FileHeader`). A full blob is inflated only up to the end of its header;
+     * deltified blobs need their base anyway, so they are read with `Read`.
+     * @return  null if the object is not a blob
+     */
+    synchronized FileHeader ReadHeader(long offset) throws IOException {
+        GitObjectStore.RawObject obj = cache.get(offset);
+        if (obj == null) {
+            byte[] h = ReadBytes(offset, (int) Math.min(64, packSize - offset));
+            int p = 0;
+            int c = h[p++] & 0xff;
+            int type = (c >> 4) & 7;
+            long size = c & 0x0f;
+            for (int shift = 4; (c & 0x80) != 0; shift += 7) {
+                c = h[p++] & 0xff;
+                size |= (long) (c & 0x7f) << shift;
+            }
+            if (type == OBJ_BLOB) {
+                try (InputStream in = new InflaterInputStream(new PackStream(offset + p))) {
+                    return FileHeader.Read(in, size);
+                }
+            }
+            if (type != OBJ_OFS_DELTA && type != OBJ_REF_DELTA)
+                return null;
+            obj = Read(offset);
+        }
+        if (obj.type != OBJ_BLOB)
+            return null;
+        return FileHeader.Read(new ByteArrayInputStream(obj.data), obj.data.length);
+    }
+
+    @Override
+    public void close() throws IOException {
+        packChannel.close();
+    }
+
+    private int Fanout(int i) {
+        return idx.getInt((idxVersion == 2 ? 8 : 0) + i * 4);
+    }
+
+    private int CompareSha(int entry, byte[] sha) {
+        int pos = (idxVersion == 2) ? shaTableStart + entry * 20 : shaTableStart + entry * 24;
+        for (int i = 0; i < 20; i++) {
+            int a = idx.get(pos + i) & 0xff, b = sha[i] & 0xff;
+            if (a != b)
+                return a - b;
+        }
+        return 0;
+    }
+
+    private long Offset(int entry) {
+        if (idxVersion == 1)
+            return idx.getInt(256 * 4 + entry * 24) & 0xffffffffL;
+        int off = idx.getInt(offsetTableStart + entry * 4);
+        if ((off & 0x80000000) == 0)
+            return off;
+        return idx.getLong(largeOffsetTableStart + (off & 0x7fffffff) * 8);
+    }
+
+    private byte[] ReadBytes(long pos, int n) throws IOException {
+        byte[] res = new byte[n];
+        if (pack != null) {
+            pack.duplicate().position((int) pos).get(res);
+        } else {
+            ByteBuffer buf = ByteBuffer.wrap(res);
+            while (buf.hasRemaining() && packChannel.read(buf, pos + buf.position()) > 0) ;
+        }
+        return res;
+    }
+
+    private byte[] Inflate(long pos, long size) throws IOException {
+        if (size > Integer.MAX_VALUE - 8)
+            throw new IOException("Object too big (" + size + " bytes) in " + packPath);
+        byte[] out = new byte[(int) size];
+        Inflater inflater = new Inflater();
+        try {
+            ByteBuffer in;
+            if (pack != null) {
+                in = pack.duplicate();
+                in.position((int) pos);
+            } else {
+                in = ByteBuffer.allocate(READ_BLOCK);
+                packChannel.read(in, pos);
+                pos += in.position();
+                in.flip();
+            }
+            inflater.setInput(in);
+
+            int n = 0;
+            while (n < out.length) {
+                int r = inflater.inflate(out, n, out.length - n);
+                n += r;
+                if (r == 0) {
+                    if (inflater.finished() || inflater.needsDictionary() || pack != null)
+                        break;
+                    if (inflater.needsInput()) {
+                        in = ByteBuffer.allocate(READ_BLOCK);
+                        if (packChannel.read(in, pos) <= 0)
+                            break;
+                        pos += in.position();
+                        in.flip();
+                        inflater.setInput(in);
+                    }
+                }
+            }
+            if (n != out.length)
+                throw new IOException("Truncated object at " + pos + " in " + packPath);
+            return out;
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt object at " + pos + " in " + packPath, e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Raw pack bytes from a position on, to inflate an object incrementally
+     */
+    private class PackStream extends InputStream {
+        private long pos;
+
+        PackStream(long pos) {
+            this.pos = pos;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            len = (int) Math.min(len, packSize - pos);
+            if (len <= 0)
+                return -1;
+            if (pack != null)
+                pack.duplicate().position((int) pos).get(b, off, len);
+            else
+                len = packChannel.read(ByteBuffer.wrap(b, off, len), pos);
+            if (len > 0)
+                pos += len;
+            return len;
+        }
+    }
+
+    /**
+     * Delta format: base size, result size (both varints), then instructions to copy from base or insert new bytes
+     */
+    static byte[] ApplyDelta(byte[] base, byte[] delta) throws IOException {
+        int[] p = {0};
+        long baseSize = ReadVarint(delta, p);
+        long resultSize = ReadVarint(delta, p);
+        if (baseSize != base.length)
+            throw new IOException("Delta base size mismatch");
+
+        byte[] res = new byte[(int) resultSize];
+        int out = 0;
+        int i = p[0];
+        while (i < delta.length) {
+            int cmd = delta[i++] & 0xff;
+            if ((cmd & 0x80) != 0) { // copy from base
+                long copyOffset = 0;
+                int copySize = 0;
+                for (int b = 0; b < 4; b++)
+                    if ((cmd & (1 << b)) != 0)
+                        copyOffset |= (long) (delta[i++] & 0xff) << (8 * b);
+                for (int b = 0; b < 3; b++)
+                    if ((cmd & (0x10 << b)) != 0)
+                        copySize |= (delta[i++] & 0xff) << (8 * b);
+                if (copySize == 0)
+                    copySize = 0x10000;
+                System.arraycopy(base, (int) copyOffset, res, out, copySize);
+                out += copySize;
+            } else if (cmd != 0) { // insert
+                System.arraycopy(delta, i, res, out, cmd);
+                i += cmd;
+                out += cmd;
+            } else {
+                throw new IOException("Invalid delta instruction");
+            }
+        }
+        if (out != res.length)
+            throw new IOException("Delta result size mismatch");
+        return res;
+    }
+
+    private static long ReadVarint(byte[] data, int[] p) {
+        long res = 0;
+        int shift = 0;
+        int c;
+        do {
+            c = data[p[0]++] & 0xff;
+            res |= (long) (c & 0x7f) << shift;
+            shift += 7;
+        } while ((c & 0x80) != 0);
+        return res;
+    }
+
+    private void AddToCache(long offset, GitObjectStore.RawObject obj) {
+        if (obj.data.length > MAX_CACHED_BYTES / 4)
+            return;
+        if (cache.put(offset, obj) == null)
+            cachedBytes += obj.data.length;
+        Iterator<GitObjectStore.RawObject> it = cache.values().iterator();
+        while (cachedBytes > MAX_CACHED_BYTES && it.hasNext()) {
+            cachedBytes -= it.next().data.length;
+            it.remove();
+        }
+    }
+}
@@ -1,30 +1,25 @@
 package com.anon.cmdrunners;
 
+import com.anon.helpers.IO;
 import com.anonymous.parser.parser.ds.MethodDeclarationInfo;
 import com.anonymous.parser.parser.ds.MethodInvocationInfo;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.xml.sax.InputSource;
-import org.xml.sax.SAXException;
-
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import java.io.IOException;
 import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Objects;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import static org.w3c.dom.Node.*;
-
 /**
  * Always check for latest version of this class at: https://gist.github.com/emadpres/2334cc71e27ccc5055b062538c25f111
  *
@@ -36,7 +31,25 @@ import static org.w3c.dom.Node.*;
  */
 public class SrcMLCmdRunner {
     private static final Logger logger = LoggerFactory.getLogger(SrcMLCmdRunner.class);
-    private static final int TIMEOUT_SEC = 120;
+    // srcML is fast (MBs per second) on normal code, but may hang on some generated code. Timeouts grow with the
+    // input size, so a hung run on a small file doesn't stall a thread for minutes.
+    private static final int MIN_TIMEOUT_SEC = 10;
+    private static final int MAX_TIMEOUT_SEC = 300;
+    private static final long BYTES_PER_SEC = 50_000; // pessimistic: one more second for every 50KB
+    private static final String METHOD_DECLS_XPATH = "//*[name()='function' or name()='constructor' or name()='function_decl']";
+    private static final String METHOD_DECLS_UNDER_CLASS_XPATH = "//*[name()='enum' or name()='class' or name()='interface']/src:block/*[name()='function' or name()='constructor' or name()='function_decl']";
+    private static final String CLASS_DECLS_XPATH = "//*[name()='enum' or name()='class' or name()='interface']/src:name/text()|//*[name()='enum' or name()='class' or name()='interface']/@*";
+    private static final String METHOD_CALLS_XPATH = "//src:call";
+    // Files srcml failed to read from stdin but not from a temp file, in a row. One may be a bad blob (or a hiccup): only
+    // after a few we think srcml can't read stdin at all, and stop trying it.
+    private static final int MAX_STDIN_FAILURES = 5;
+    private static final AtomicInteger stdinFailuresInARow = new AtomicInteger();
+    // Factories are not thread-safe to configure and costly to look up, so each thread keeps its own
+    private static final ThreadLocal<XMLInputFactory> xmlInputFactory = ThreadLocal.withInitial(() -> {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, false); // like DocumentBuilderFactory: names keep their prefix ("pos:start")
+        return factory;
+    });
 
     public static void main(String[] args) {
         List<MethodInvocationInfo> res = ExtractMethodsCallsFromText("BBB.CCC<ct>.Function<Generic.Type>(12)", "Java", null);
@@ -44,6 +57,256 @@ public class SrcMLCmdRunner {
     }
 
 
+    /**
+     * Same as calling `ExtractMethodsDeclarations()`, `ExtractClassDeclarations()` and `ExtractMethodsCalls()` on one file.
+     */
+    public static ParsedFile ExtractFromFile(Path codeFile, String languageExtension, Path realFilePath, boolean onlyMethodsUnderClass) {
+        return new ParsedFile(ExtractMethodsDeclarations(codeFile, languageExtension, realFilePath, onlyMethodsUnderClass),
+                ExtractClassDeclarations(codeFile, languageExtension, realFilePath),
+                ExtractMethodsCalls(codeFile, languageExtension, realFilePath));
+    }
+
+    /**
+     * Batch version of `ExtractFromFile()`: all files are parsed by one srcml process into a srcML archive, and then each
+     * XPath query runs once over the whole archive. That's 4 processes for any number of files (instead of 3 per file).
+     * Results are split back per file using the "filename" attribute of the result units. A file whose results show a
+     * srcML error (see `SrcMLOutputHasError()`) is parsed again alone.
+     *
+     * @param codeFiles    file to be parsed -> real file path (to be added to the results)
+     * @return  results for each file of `codeFiles` (same keys), or null if srcml failed. In that case, caller can
+     *          fall back to `ExtractFromFile()` for each file.
+     */
+    public static Map<Path, ParsedFile> ExtractFromFilesBatch(Map<Path, Path> codeFiles, String languageExtension, boolean onlyMethodsUnderClass) {
+        if(codeFiles.isEmpty())
+            return new HashMap<>();
+        if(SrcMLWorkerPool.Get() != null) {
+            // Workers have no start-up cost to amortize, so file by file is as fast (and needs no temp archive)
+            Map<Path, ParsedFile> res = new HashMap<>();
+            for(Map.Entry<Path, Path> f: codeFiles.entrySet())
+                res.put(f.getKey(), ExtractFromFile(f.getKey(), languageExtension, f.getValue(), onlyMethodsUnderClass));
+            return res;
+        }
+
+        long inputBytes = 0;
+        for(Path p: codeFiles.keySet())
+            inputBytes += SizeOf(p);
+        int timeout_sec = CmdRunner.ScaledTimeout(MIN_TIMEOUT_SEC, inputBytes, BYTES_PER_SEC, MAX_TIMEOUT_SEC);
+        Path filesList = null, archive = null;
+        try {
+            StringBuilder sb = new StringBuilder();
+            for(Path p: codeFiles.keySet())
+                sb.append(p).append('\n');
+            filesList = IO.WriteStringOnTempFile(sb.toString(), "srcml-files-", ".txt");
+            archive = IO.CreateTempFile("srcml-archive-", ".xml");
+
+            List<String> command = new ArrayList<>();
+            command.add("srcml");
+            command.add("--files-from");
+            command.add(filesList.toString());
+            if(languageExtension!=null && !languageExtension.isEmpty())
+            {
+                command.add("--language");
+                command.add(languageExtension);
+            }
+            command.add("--position");
+            command.add("-o");
+            command.add(archive.toString());
+            int returnCode = CmdRunner.getInstance().RunCommand_ReturnErrCode(command, null, null, timeout_sec);
+            if(returnCode != CmdRunner.RETURN_CODE_SUCCESS || Files.size(archive) == 0) {
+                logger.error("Failed creating srcML archive of {} files (code={})", codeFiles.size(), returnCode);
+                return null;
+            }
+
+            Map<String, String> declsOutput = RunXPathOnArchive(archive, onlyMethodsUnderClass ?
+                    METHOD_DECLS_UNDER_CLASS_XPATH : METHOD_DECLS_XPATH, timeout_sec);
+            Map<String, String> classesOutput = RunXPathOnArchive(archive, CLASS_DECLS_XPATH, timeout_sec);
+            Map<String, String> callsOutput = RunXPathOnArchive(archive, METHOD_CALLS_XPATH, timeout_sec);
+            if(declsOutput==null || classesOutput==null || callsOutput==null)
+                return null;
+
+            Map<Path, ParsedFile> res = new HashMap<>();
+            for(Map.Entry<Path, Path> f: codeFiles.entrySet())
+            {
+                String key = f.getKey().toString();
+                String decls = declsOutput.get(key), classes = classesOutput.get(key), calls = callsOutput.get(key);
+                if((decls!=null && SrcMLOutputHasError(decls)) || (classes!=null && SrcMLOutputHasError(classes)) || (calls!=null && SrcMLOutputHasError(calls))) {
+                    // e.g., a "parser error" in its units: srcml alone on this file tells what's wrong, like without batch
+                    logger.warn("srcML error in batch results of {}. Parsing it alone...", f.getValue());
+                    res.put(f.getKey(), ExtractFromFile(f.getKey(), languageExtension, f.getValue(), onlyMethodsUnderClass));
+                    continue;
+                }
+                res.put(f.getKey(), new ParsedFile(
+                        (decls==null || SrcMLOutputHasError(decls)) ? new ArrayList<>() : _ProcessExtractedMethodDeclarations(decls, f.getValue()),
+                        (classes==null || SrcMLOutputHasError(classes)) ? new ArrayList<>() : _ProcessExtractedClassDeclarations(classes, f.getValue()),
+                        (calls==null || SrcMLOutputHasError(calls)) ? new ArrayList<>() : _ProcessExtractedMethodCalls(calls, f.getValue())));
+            }
+            return res;
+        } catch (IOException e) {
+            logger.error("Failed batch srcML extraction of {} files", codeFiles.size(), e);
+            return null;
+        } finally {
+            if(filesList!=null)
+                filesList.toFile().delete();
+            if(archive!=null)
+                archive.toFile().delete();
+        }
+    }
+
+    /**
+     * Same as `ExtractFromFile()`, for content which is not in a file (e.g., a file at some commit). Content is piped to
+     * srcml (or sent to a `SrcMLWorkerPool` worker), so there's no temp file to write, read and delete. If srcml fails
+     * to read it from stdin, we fall back to a temp file (in `IO.TEMP_DIR`), and after `MAX_STDIN_FAILURES` such files
+     * in a row, we only use temp files.
+     *
+     * @param content   raw bytes of the file
+     * @param languageExtension     Case-sensitive; Allowable values:  C, C++, C#, and Java. Required, as there's no file name.
+     * @param realFilePath  file path to be added to the results
+     */
+    public static ParsedFile ExtractFromContent(byte[] content, String languageExtension, Path realFilePath, boolean onlyMethodsUnderClass) {
+        boolean piped = stdinFailuresInARow.get() < MAX_STDIN_FAILURES || SrcMLWorkerPool.Get() != null;
+        if(piped) {
+            int timeout_sec = CmdRunner.ScaledTimeout(MIN_TIMEOUT_SEC, content.length, BYTES_PER_SEC, MAX_TIMEOUT_SEC);
+            String decls = RunQueryOnContent(content, languageExtension, onlyMethodsUnderClass ? METHOD_DECLS_UNDER_CLASS_XPATH : METHOD_DECLS_XPATH, timeout_sec);
+            String classes = decls == null ? null : RunQueryOnContent(content, languageExtension, CLASS_DECLS_XPATH, timeout_sec);
+            String calls = classes == null ? null : RunQueryOnContent(content, languageExtension, METHOD_CALLS_XPATH, timeout_sec);
+            if(calls != null) {
+                stdinFailuresInARow.set(0);
+                return new ParsedFile(
+                        SrcMLOutputHasError(decls) ? new ArrayList<>() : _ProcessExtractedMethodDeclarations(decls, realFilePath),
+                        SrcMLOutputHasError(classes) ? new ArrayList<>() : _ProcessExtractedClassDeclarations(classes, realFilePath),
+                        SrcMLOutputHasError(calls) ? new ArrayList<>() : _ProcessExtractedMethodCalls(calls, realFilePath));
+            }
+        }
+
+        Path tmp = IO.WriteBytesOnTempFile(content, "srcml-", ".code");
+        if(tmp == null)
+            return new ParsedFile(new ArrayList<>(), new ArrayList<>(), new ArrayList<>());
+        try {
+            ParsedFile parsed = ExtractFromFile(tmp, languageExtension, realFilePath, onlyMethodsUnderClass);
+            if(piped && !(parsed.methodDeclarations.isEmpty() && parsed.classes.isEmpty() && parsed.methodCalls.isEmpty())) {
+                int failures = stdinFailuresInARow.incrementAndGet();
+                logger.warn("srcml failed reading code of {} from stdin, but not from a file ({} in a row)", realFilePath, failures);
+                if(failures == MAX_STDIN_FAILURES)
+                    logger.warn("srcml seems unable to read code from stdin. Using temp files from now on.");
+            }
+            return parsed;
+        } finally {
+            tmp.toFile().delete();
+        }
+    }
+
+    /**
+     * Batch version of `ExtractFromContent()`. Parsing many files at once needs them on disk (see `ExtractFromFilesBatch()`),
+     * so they're written in `IO.TEMP_DIR` (better be a tmpfs). A single file, or all files if workers are running, is
+     * parsed from memory.
+     *
+     * @param contents  real file path (to be added to the results) -> raw bytes of the file
+     * @return  results for each file of `contents` (same keys)
+     */
+    public static Map<Path, ParsedFile> ExtractFromContentsBatch(Map<Path, byte[]> contents, String languageExtension, boolean onlyMethodsUnderClass) {
+        Map<Path, ParsedFile> res = new HashMap<>();
+        if(contents.size() > 1 && SrcMLWorkerPool.Get() == null) {
+            Map<Path, Path> tmpFiles = new HashMap<>(); // temp file -> real file path
+            try {
+                for(Map.Entry<Path, byte[]> f: contents.entrySet()) {
+                    Path tmp = IO.WriteBytesOnTempFile(f.getValue(), "srcml-", ".code");
+                    if(tmp != null)
+                        tmpFiles.put(tmp, f.getKey());
+                }
+                Map<Path, ParsedFile> parsed = ExtractFromFilesBatch(tmpFiles, languageExtension, onlyMethodsUnderClass);
+                if(parsed != null)
+                    for(Map.Entry<Path, Path> f: tmpFiles.entrySet())
+                        res.put(f.getValue(), parsed.get(f.getKey()));
+                else
+                    logger.warn("Batch srcML extraction of {} files failed. Extracting file by file...", tmpFiles.size());
+            } finally {
+                for(Path tmp: tmpFiles.keySet())
+                    tmp.toFile().delete();
+            }
+        }
+
+        for(Map.Entry<Path, byte[]> f: contents.entrySet())
+            if(res.get(f.getKey()) == null)
+                res.put(f.getKey(), ExtractFromContent(f.getValue(), languageExtension, f.getKey(), onlyMethodsUnderClass));
+        return res;
+    }
+
+    /**
+     * Like running `srcml <file> ... --xpath <xpath>`, with the file content given on stdin
+     * @return  srcml output (maybe an error output, see `SrcMLOutputHasError()`), or null if srcml failed to run on it
+     */
+    private static String RunQueryOnContent(byte[] content, String languageExtension, String xpath, int timeout_sec)
+    {
+        SrcMLWorkerPool workers = SrcMLWorkerPool.Get();
+        if(workers != null) {
+            String output = workers.Query(languageExtension, xpath, content, timeout_sec);
+            if(output != null)
+                return output;
+        }
+
+        List<String> command = List.of("srcml", "--language", languageExtension, "--position", "--no-xml-declaration", "--xpath", xpath);
+        CmdRunner.CmdRunnerResult result = CmdRunner.getInstance().RunCommand(command, null, null, timeout_sec, content);
+        if(result.returnCode == CmdRunner.RETURN_TIMEOUT || result.returnCode == CmdRunner.RETURN_OUTPUT_TOO_LARGE)
+            return "srcML translator error: " + result.returnCode; // srcml did read it, a temp file won't help
+        if(result.returnCode != CmdRunner.RETURN_CODE_SUCCESS)
+            return null;
+        return result.output;
+    }
+
+    /**
+     * @return  srcml output split per input file (filename -> output as if srcml was run only on that file), or null on failure
+     */
+    private static Map<String, String> RunXPathOnArchive(Path archive, String xpath, int timeout_sec) {
+        List<String> command = List.of("srcml", archive.toString(), "--no-xml-declaration", "--xpath", xpath);
+        String output = CmdRunner.getInstance().RunCommand_ReturnOutput(command, null, null, timeout_sec);
+        if(output==null || output.startsWith("srcml: Unable to open file") || output.startsWith("srcML translator error")) {
+            logger.error("Failed running XPath on srcML archive: {}", xpath);
+            return null;
+        }
+        Map<String, String> res = SplitOutputByFile(output);
+        if(res == null)
+            logger.error("srcML error outside of result units, running XPath on srcML archive: {}", xpath);
+        return res;
+    }
+
+    private static final Pattern ROOT_UNIT_TAG = Pattern.compile("<unit[^>]*>");
+    private static final Pattern RESULT_UNIT_TAG = Pattern.compile("<unit [^>]*filename=\"([^\"]*)\"[^>]*>");
+
+    /**
+     * Result units (<unit filename="..." item="N">...</unit>) never nest, so each one ends at the first "</unit>" after it.
+     * For each file we keep the root tag (it declares the namespaces) and its result units, one per line, as `_Process*`
+     * methods expect. An error inside a unit stays in its file's output (see `SrcMLOutputHasError`).
+     * @return  null if there's an error (like "parser error") between units: we can't tell which file it's about
+     */
+    private static Map<String, String> SplitOutputByFile(String srcmlOutput) {
+        Map<String, String> res = new HashMap<>();
+        Matcher root = ROOT_UNIT_TAG.matcher(srcmlOutput);
+        if(!root.find())
+            return res;
+
+        Map<String, StringBuilder> units = new HashMap<>();
+        Matcher unit = RESULT_UNIT_TAG.matcher(srcmlOutput);
+        int pos = root.end();
+        while(unit.find(pos))
+        {
+            if(SrcMLOutputHasError(srcmlOutput.substring(pos, unit.start())))
+                return null;
+            int end = srcmlOutput.indexOf("</unit>", unit.end());
+            if(end == -1)
+                break;
+            end += "</unit>".length();
+            units.computeIfAbsent(unit.group(1), k -> new StringBuilder()).append(srcmlOutput, unit.start(), end).append('\n');
+            pos = end;
+        }
+        if(SrcMLOutputHasError(srcmlOutput.substring(pos)))
+            return null;
+
+        for(Map.Entry<String, StringBuilder> e: units.entrySet())
+            res.put(e.getKey(), root.group() + "\n" + e.getValue() + "</unit>\n");
+        return res;
+    }
+
+
     /**
      * If the `codeFile` has an explicit extension (like, .java), you do not need to pass `languageExtension`.
      * @param realFilePath  file path to be added to the results (for cases when parsed file is in a temp location)
@@ -65,12 +328,9 @@ public class SrcMLCmdRunner {
         command.add("--position");
         command.add("--no-xml-declaration");
         command.add("--xpath");
-        if(onlyMethodsUnderClass)
-            command.add("//*[name()='enum' or name()='class' or name()='interface']/src:block/*[name()='function' or name()='constructor' or name()='function_decl']");
-        else
-            command.add("//*[name()='function' or name()='constructor' or name()='function_decl']");
+        command.add(onlyMethodsUnderClass ? METHOD_DECLS_UNDER_CLASS_XPATH : METHOD_DECLS_XPATH);
 
-        String output = CmdRunner.getInstance().RunCommand_ReturnOutput(command, null,null, TIMEOUT_SEC);
+        String output = RunQuery(command, codeFile, languageExtension);
         if(SrcMLOutputHasError(output))
             return new ArrayList<>();
 
@@ -78,7 +338,7 @@ public class SrcMLCmdRunner {
         return res;
     }
 
-    private static List<MethodDeclarationInfo> _ProcessExtractedMethodDeclarations(String srcmlOutput, Path _filePath)
+    static List<MethodDeclarationInfo> _ProcessExtractedMethodDeclarations(String srcmlOutput, Path _filePath)
     {
         /** ----------------------
          *  Sample srcmlOutput:
@@ -113,68 +373,164 @@ public class SrcMLCmdRunner {
         if(srcmlOutput.lines().count()==1)
             return res;
 
-        DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-        DocumentBuilder db;
+        // Same results as a DOM of the output with `getElementsByTagName("unit")`, but nothing is kept except what we
+        // need. Units may nest (then each one sees the events of inner ones), so results are put back in document order.
+        List<DeclarationUnit> units = new ArrayList<>();
+        List<DeclarationUnit> openUnits = new ArrayList<>();
+        XMLStreamReader reader = null;
         try {
-            db = dbf.newDocumentBuilder();
-            Document doc = db.parse(new InputSource(new StringReader(srcmlOutput)));
-            doc.getDocumentElement().normalize();
-            Node rootUnit = doc.getFirstChild();
-            NodeList units = ((Element) rootUnit).getElementsByTagName("unit");
-            for(int i=0; i<units.getLength(); i++)
+            reader = xmlInputFactory.get().createXMLStreamReader(new StringReader(srcmlOutput));
+            int depth = 0;
+            while(reader.hasNext())
             {
-                try {
-                    Node item = units.item(i);
-                    Node aMethodDecl = item.getFirstChild();
-
-                    String start = ((Element) aMethodDecl).getAttributeNode("pos:start").getValue().split(":")[0];
-                    String end = ((Element) aMethodDecl).getAttributeNode("pos:end").getValue().split(":")[0];
-
-                    String name = null;
-                    int nParams = -1;
-                    boolean nArgsVariable = false;
-                    NodeList children = aMethodDecl.getChildNodes();
-                    for(int j=0; j<children.getLength(); j++)
-                    {
-                        Node aChild = children.item(j);
-                        if(aChild.getNodeType() != ELEMENT_NODE)
-                            continue;
-                        if( ((Element)aChild).getTagName().equals("name") )
-                            name = aChild.getTextContent();
-                        else if( ((Element)aChild).getTagName().equals("parameter_list") ) {
-                            nParams = ((Element) aChild).getElementsByTagName("parameter").getLength();
-                            nArgsVariable = aChild.getTextContent().contains("...");
-                            if(nArgsVariable)
-                                nParams -= 1; //the variable with "..." is 0 or more
-                        }
-                    }
-                    if(name!=null && nParams!=-1) { // there are bad examples where srcML fails to parse
-                        try {
-                            int ls = Integer.parseInt(start);
-                            int le = Integer.parseInt(end);
-                            MethodDeclarationInfo mdi = new MethodDeclarationInfo(null, null, name, nParams, null, ls, le, -1);
-                            mdi.fileRelativePath = String.valueOf(_filePath);
-                            mdi.arbitraryNumberOfArguments=nArgsVariable;
-                            res.add(mdi);
-                        } catch (Exception e)
-                        {
-                            logger.error("Failed parsing method call: {}-{}--{}(#{}) FILE={}",start, end, name,nParams, _filePath, e);
-                        }
+                int event = reader.next();
+                if(event == XMLStreamConstants.START_ELEMENT) {
+                    depth++;
+                    String tag = ElementName(reader);
+                    for(DeclarationUnit u: openUnits)
+                        u.StartElement(reader, tag, depth);
+                    if(depth > 1 && tag.equals("unit")) {
+                        DeclarationUnit u = new DeclarationUnit(units.size(), depth);
+                        units.add(u);
+                        openUnits.add(u);
                     }
                 }
-                catch (Exception e)
-                {
-                    logger.error("Failed parsing method declarations unit #{} FILE={}", i, _filePath, e);
+                else if(event == XMLStreamConstants.END_ELEMENT) {
+                    if(!openUnits.isEmpty() && openUnits.get(openUnits.size()-1).depth == depth)
+                        openUnits.remove(openUnits.size()-1);
+                    for(DeclarationUnit u: openUnits)
+                        u.EndElement(depth);
+                    depth--;
+                }
+                else if(IsText(event)) {
+                    for(DeclarationUnit u: openUnits)
+                        u.Text(reader, depth);
+                }
+                else if(event == XMLStreamConstants.COMMENT || event == XMLStreamConstants.PROCESSING_INSTRUCTION) {
+                    for(DeclarationUnit u: openUnits)
+                        u.OtherNode(depth);
                 }
             }
-
-        } catch (ParserConfigurationException | IOException | SAXException e) {
+        } catch (XMLStreamException e) {
             logger.error("Failed parsing method declarations FILE={}",_filePath, e);
+            return res;
+        } finally {
+            Close(reader);
+        }
+
+        for(DeclarationUnit u: units)
+        {
+            if(u.failed || u.start == null) {
+                logger.error("Failed parsing method declarations unit #{} FILE={}", u.index, _filePath);
+                continue;
+            }
+            if(u.name!=null && u.nParams!=-1) { // there are bad examples where srcML fails to parse
+                try {
+                    int ls = Integer.parseInt(u.start);
+                    int le = Integer.parseInt(u.end);
+                    MethodDeclarationInfo mdi = new MethodDeclarationInfo(null, null, u.name, u.nParams, null, ls, le, -1);
+                    mdi.fileRelativePath = String.valueOf(_filePath);
+                    mdi.arbitraryNumberOfArguments=u.nArgsVariable;
+                    res.add(mdi);
+                } catch (Exception e)
+                {
+                    logger.error("Failed parsing method call: {}-{}--{}(#{}) FILE={}",u.start, u.end, u.name,u.nParams, _filePath, e);
+                }
+            }
         }
 
         return res;
     }
 
+    /**
+     * A result unit of the method declarations query: <unit><function pos:start=".." pos:end=".."><name>..</name><parameter_list>..</parameter_list>..
+     * Its first child is the declaration. We keep the text of its <name> and <parameter_list> children (the last ones,
+     * if many), and count the <parameter> elements in the latter.
+     */
+    private static class DeclarationUnit {
+        final int index, depth;
+        boolean failed = false; // first child is not an element, or has no position
+        String start = null, end = null;
+        String name = null;
+        int nParams = -1;
+        boolean nArgsVariable = false;
+
+        private boolean firstChildSeen = false, inDeclaration = false;
+        private StringBuilder nameText = null, paramsText = null; // while inside <name> or <parameter_list>
+        private int nParamsSeen = 0;
+
+        DeclarationUnit(int index, int depth) {
+            this.index = index;
+            this.depth = depth;
+        }
+
+        void StartElement(XMLStreamReader reader, String tag, int elementDepth) {
+            if(failed)
+                return;
+            if(elementDepth == depth + 1) {
+                if(firstChildSeen)
+                    return; // only the first child is the declaration
+                firstChildSeen = true;
+                inDeclaration = true;
+                try {
+                    start = AttributeValue(reader, "pos:start").split(":")[0];
+                    end = AttributeValue(reader, "pos:end").split(":")[0];
+                } catch (RuntimeException e) {
+                    failed = true;
+                }
+            }
+            else if(elementDepth == depth + 2 && inDeclaration) {
+                if(tag.equals("name"))
+                    nameText = new StringBuilder();
+                else if(tag.equals("parameter_list")) {
+                    paramsText = new StringBuilder();
+                    nParamsSeen = 0;
+                }
+            }
+            else if(paramsText != null && tag.equals("parameter"))
+                nParamsSeen++;
+        }
+
+        void EndElement(int elementDepth) {
+            if(failed)
+                return;
+            if(elementDepth == depth + 1)
+                inDeclaration = false;
+            else if(elementDepth == depth + 2 && nameText != null) {
+                name = nameText.toString();
+                nameText = null;
+            }
+            else if(elementDepth == depth + 2 && paramsText != null) {
+                nParams = nParamsSeen;
+                nArgsVariable = paramsText.toString().contains("...");
+                if(nArgsVariable)
+                    nParams -= 1; //the variable with "..." is 0 or more
+                paramsText = null;
+            }
+        }
+
+        void Text(XMLStreamReader reader, int textDepth) {
+            if(failed)
+                return;
+            if(textDepth == depth)
+                OtherNode(textDepth);
+            else if(nameText != null)
+                nameText.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+            else if(paramsText != null)
+                paramsText.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+        }
+
+        /**
+         * Text, comment or processing instruction, whose parent is at `nodeDepth`
+         */
+        void OtherNode(int nodeDepth) {
+            if(nodeDepth == depth && !firstChildSeen) {
+                firstChildSeen = true;
+                failed = true;
+            }
+        }
+    }
+
 
     /**
      * If the `codeFile` has an explicit extension (like, .java), you do not need to pass `languageExtension`.
@@ -193,9 +549,9 @@ public class SrcMLCmdRunner {
         command.add("--position");
         command.add("--no-xml-declaration");
         command.add("--xpath");
-        command.add("//*[name()='enum' or name()='class' or name()='interface']/src:name/text()|//*[name()='enum' or name()='class' or name()='interface']/@*");
+        command.add(CLASS_DECLS_XPATH);
 
-        String output = CmdRunner.getInstance().RunCommand_ReturnOutput(command, null,null, TIMEOUT_SEC);
+        String output = RunQuery(command, codeFile, languageExtension);
         if(SrcMLOutputHasError(output))
             return new ArrayList<>();
 
@@ -297,7 +653,7 @@ public class SrcMLCmdRunner {
         else
             command.add("//*[name()='function' or name()='constructor' or name()='function_decl']/src:name/text()|//*[name()='function' or name()='constructor' or name()='function_decl']/@*");
 
-        String output = CmdRunner.getInstance().RunCommand_ReturnOutput(command, null,null, TIMEOUT_SEC);
+        String output = CmdRunner.getInstance().RunCommand_ReturnOutput(command, null,null, TimeoutFor(codeFile));
         if(SrcMLOutputHasError(output))
             return new ArrayList<>();
 
@@ -377,9 +733,9 @@ public class SrcMLCmdRunner {
         command.add("--no-xml-declaration");
         command.add("--xpath");
 //        command.add("//src:call/src:name/text()|//src:call/src:name/src:name[last()]/text()");
-        command.add("//src:call");
+        command.add(METHOD_CALLS_XPATH);
 
-        String output = CmdRunner.getInstance().RunCommand_ReturnOutput(command, null,null, TIMEOUT_SEC);
+        String output = RunQuery(command, codeFile, languageExtension);
         if(SrcMLOutputHasError(output))
             return new ArrayList<>();
 
@@ -391,6 +747,15 @@ public class SrcMLCmdRunner {
      * @param languageExtension     Case-sensitive; Allowable values:  C, C++, C#, and Java
      */
     public static List<MethodInvocationInfo> ExtractMethodsCallsFromText(String codeText, String languageExtension, Path filePath) {
+        List<MethodInvocationInfo> res = TryExtractMethodsCallsFromText(codeText, languageExtension, filePath);
+        return res == null ? new ArrayList<>() : res;
+    }
+
+    /**
+     * Like `ExtractMethodsCallsFromText()`, but null if srcml failed (error, timeout, ...), so caller can tell it apart
+     * from a snippet with no call
+     */
+    public static List<MethodInvocationInfo> TryExtractMethodsCallsFromText(String codeText, String languageExtension, Path filePath) {
         List<String> command = new ArrayList<>();
         command.add("srcml");
         command.add(String.format("--text=%s", codeText));
@@ -399,18 +764,22 @@ public class SrcMLCmdRunner {
         command.add("--position");
         command.add("--no-xml-declaration");
         command.add("--xpath");
-        command.add("//src:call");
+        command.add(METHOD_CALLS_XPATH);
         //String output = CmdRunner.getInstance().RunCommandAndReturnOutput(command, null, 30);
-        String output = CmdRunner.getInstance().RunCommand_ReturnOutput(command, null,null, TIMEOUT_SEC);
+        int timeout_sec = CmdRunner.ScaledTimeout(MIN_TIMEOUT_SEC, codeText.length(), BYTES_PER_SEC, MAX_TIMEOUT_SEC);
+        SrcMLWorkerPool workers = SrcMLWorkerPool.Get();
+        String output = workers == null ? null : workers.Query(languageExtension, METHOD_CALLS_XPATH, codeText.getBytes(StandardCharsets.UTF_8), timeout_sec);
+        if(output == null)
+            output = CmdRunner.getInstance().RunCommand_ReturnOutput(command, null,null, timeout_sec);
         if(SrcMLOutputHasError(output))
-            return new ArrayList<>();
+            return null;
 
         List<MethodInvocationInfo> res = _ProcessExtractedMethodCalls(output, filePath);
         return res;
     }
 
 
-    private static List<MethodInvocationInfo> _ProcessExtractedMethodCalls(String srcmlOutput, Path _filePath)
+    static List<MethodInvocationInfo> _ProcessExtractedMethodCalls(String srcmlOutput, Path _filePath)
     {
         /**
          *  Sample Input 1:
@@ -475,95 +844,266 @@ public class SrcMLCmdRunner {
         if(srcmlOutput.lines().count()==1)
             return res;
 
-        DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-        DocumentBuilder db = null;
+        // Same results as a DOM of the output, but nothing is kept except what we need. Each child element of the root
+        // is a result unit, whose first child is the call.
+        List<CallUnit> units = new ArrayList<>();
+        CallUnit unit = null; // the open one
+        XMLStreamReader reader = null;
         try {
-            db = dbf.newDocumentBuilder();
-            Document doc = db.parse(new InputSource(new StringReader(srcmlOutput)));
-            doc.getDocumentElement().normalize();
-            Node rootUnit = doc.getFirstChild();
-            NodeList unitCalls = rootUnit.getChildNodes();
-            for(int i=0; i<unitCalls.getLength(); i++)
+            reader = xmlInputFactory.get().createXMLStreamReader(new StringReader(srcmlOutput));
+            int depth = 0;
+            while(reader.hasNext())
             {
-                try {
-                    Node aUnitCall = unitCalls.item(i);
-                    if (aUnitCall.getNodeType() != ELEMENT_NODE) //ELEMENT_NODE refers to a <Tag>...</Tag>
-                        continue;
-
-                    Node aCall = aUnitCall.getFirstChild();
-
-                    String methodName = null, startLine = null;
-                    int nArgs = -1;
-
-                    // aCall has two children: 1.name, 2.argument_list
-                    for (Node callChild = aCall.getFirstChild(); callChild != null; callChild = callChild.getNextSibling()) {
-                        if (!(callChild instanceof Element))
-                            continue;
-
-                        if (callChild.getNodeName().equals("name")) {
-                            // 1/2 child: name
-                            Node nameNode = callChild;
-                            methodName = nameNode.getTextContent();
-                            // Loop below checks if <name> has children; if so, it finds the last <name> children and uses
-                            // its TEXT and repeat the process until <name> has no children
-                            while (nameNode != null) {
-                                NodeList nameChildren = nameNode.getChildNodes();
-                                nameNode = null;
-                                for (int j = nameChildren.getLength() - 1; j >= 0; j--) {
-                                    Node nameChild = nameChildren.item(j);
-                                    if (nameChild.getNodeName().equals("name")) {
-                                        nameNode = nameChild;
-                                        methodName = nameNode.getTextContent();
-                                        break;
-                                    }
-                                }
-                            }
-                            if (methodName.contains("."))
-                                System.err.printf("\n\n************** CHECK _ProcessExtractedMethodCalls method; output=%s for input: %s\n**********************\n\n", methodName, srcmlOutput);
-
-                        } else if (callChild.getNodeName().equals("argument_list")) {
-                            // 2/2 child: argument_list
-                            Element argNode = (Element) callChild;
-                            startLine = argNode.getAttributeNode("pos:start").getValue().split(":")[0];
-                            //endLine = argNode.getAttributeNode("pos:end").getValue().split(":")[0];
-
-                            nArgs = 0;
-                            NodeList args = argNode.getChildNodes();
-                            for (int j = 0; j < args.getLength(); j++) {
-                                Node aArg = args.item(j);
-                                if (aArg.getNodeType() != ELEMENT_NODE)
-                                    continue;
-                                if (((Element) aArg).getTagName().equals("argument"))
-                                    nArgs++;
-                            }
-                        }
-                    }
-
-                    if(methodName!=null && startLine!=null && nArgs!=-1) {
-                        try {
-                            int ls = Integer.parseInt(startLine);
-                            MethodInvocationInfo mii = new MethodInvocationInfo(null, null, methodName, nArgs, null);
-                            mii.lineNumbers.add(ls);
-                            mii.fileRelativePath = String.valueOf(_filePath);
-                            res.add(mii);
-                        } catch (Exception e)
-                        {
-                            logger.error("Failed parsing method call: {}--{} FILE={}",startLine, methodName, _filePath, e);
-                        }
+                int event = reader.next();
+                if(event == XMLStreamConstants.START_ELEMENT) {
+                    depth++;
+                    if(depth == 2) {
+                        unit = new CallUnit(units.size());
+                        units.add(unit);
                     }
+                    else if(unit != null)
+                        unit.StartElement(reader, ElementName(reader), depth);
+                }
+                else if(event == XMLStreamConstants.END_ELEMENT) {
+                    if(depth == 2)
+                        unit = null;
+                    else if(unit != null)
+                        unit.EndElement(depth);
+                    depth--;
+                }
+                else if(unit != null && IsText(event))
+                    unit.Text(reader, depth);
+                else if(unit != null && (event == XMLStreamConstants.COMMENT || event == XMLStreamConstants.PROCESSING_INSTRUCTION))
+                    unit.OtherNode(depth);
+            }
+        } catch (XMLStreamException e) {
+            logger.error("Failed parsing method calls FILE={}",_filePath, e);
+            return res;
+        } finally {
+            Close(reader);
+        }
 
+        for(CallUnit u: units)
+        {
+            for(String dottedName: u.dottedNames) // printed now, as we may have found out the XML is broken
+                System.err.printf("\n\n************** CHECK _ProcessExtractedMethodCalls method; output=%s for input: %s\n**********************\n\n", dottedName, srcmlOutput);
+            if(u.failed || !u.firstChildSeen) {
+                logger.error("Failed parsing method calls: unitCalls #{} FILE={}", u.index, _filePath);
+                continue;
+            }
+            if(u.methodName!=null && u.startLine!=null && u.nArgs!=-1) {
+                try {
+                    int ls = Integer.parseInt(u.startLine);
+                    MethodInvocationInfo mii = new MethodInvocationInfo(null, null, u.methodName, u.nArgs, null);
+                    mii.lineNumbers.add(ls);
+                    mii.fileRelativePath = String.valueOf(_filePath);
+                    res.add(mii);
                 } catch (Exception e)
                 {
-                    logger.error("Failed parsing method calls: unitCalls #{} FILE={}",i, _filePath, e);
+                    logger.error("Failed parsing method call: {}--{} FILE={}",u.startLine, u.methodName, _filePath, e);
                 }
+            }
+        }
 
+        return res;
+    }
+
+    /**
+     * A result unit of the method calls query: <unit><call><name>..</name><argument_list pos:start="..">..</argument_list></call></unit>
+     * Depths: unit=2, call=3, its children=4.
+     */
+    private static class CallUnit {
+        final int index;
+        boolean failed = false; // empty unit, or <argument_list> has no position
+        boolean firstChildSeen = false;
+        String methodName = null, startLine = null;
+        int nArgs = -1;
+        final List<String> dottedNames = new ArrayList<>(); // each <name> of the call, if we couldn't get a simple name
+
+        private boolean inCall = false; // inside the first child, if it's an element
+        private final Deque<NameElement> names = new ArrayDeque<>(); // open elements in <name>, outermost first
+        private boolean inArguments = false;
+
+        CallUnit(int index) {
+            this.index = index;
+        }
+
+        void StartElement(XMLStreamReader reader, String tag, int depth) {
+            if(failed)
+                return;
+            if(depth == 3) {
+                if(!firstChildSeen)
+                    inCall = true;
+                firstChildSeen = true;
+            }
+            else if(!inCall)
+                return;
+            else if(!names.isEmpty())
+                names.push(new NameElement(tag));
+            else if(depth == 4 && tag.equals("name"))
+                names.push(new NameElement(tag));
+            else if(depth == 4 && tag.equals("argument_list")) {
+                try {
+                    startLine = AttributeValue(reader, "pos:start").split(":")[0];
+                } catch (RuntimeException e) {
+                    failed = true;
+                    return;
+                }
+                nArgs = 0;
+                inArguments = true;
             }
+            else if(depth == 5 && inArguments && tag.equals("argument"))
+                nArgs++;
+        }
 
-        } catch (ParserConfigurationException | IOException | SAXException e) {
-            logger.error("Failed parsing method calls FILE={}",_filePath, e);
+        void EndElement(int depth) {
+            if(failed || !inCall)
+                return;
+            if(depth == 3)
+                inCall = false;
+            else if(!names.isEmpty()) {
+                NameElement e = names.pop();
+                // Like the DOM version: text of <name>, or of its last <name> child (and so on, while there's one)
+                String text = e.text.toString();
+                String chain = e.lastNameChild != null ? e.lastNameChild : text;
+                NameElement parent = names.peek();
+                if(parent != null) {
+                    parent.text.append(text);
+                    if(e.tag.equals("name"))
+                        parent.lastNameChild = chain;
+                }
+                else {
+                    methodName = chain;
+                    if (methodName.contains("."))
+                        dottedNames.add(methodName);
+                }
+            }
+            else if(depth == 4)
+                inArguments = false;
         }
 
-        return res;
+        void Text(XMLStreamReader reader, int depth) {
+            if(failed)
+                return;
+            if(depth == 2)
+                OtherNode(depth);
+            else if(inCall && !names.isEmpty())
+                names.peek().text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+        }
+
+        /**
+         * Text, comment or processing instruction, whose parent is at `depth`. As first child, there's no call.
+         */
+        void OtherNode(int depth) {
+            if(depth == 2)
+                firstChildSeen = true;
+        }
+
+        private static class NameElement {
+            final String tag;
+            final StringBuilder text = new StringBuilder();
+            String lastNameChild = null; // its text (or the one of its own last <name> child)
+
+            NameElement(String tag) {
+                this.tag = tag;
+            }
+        }
+    }
+
+    /**
+     * Runs a single-file query (`command` is "srcml <codeFile> ... --xpath <xpath>") on a `SrcMLWorkerPool` worker if
+     * there is one, or runs `command` otherwise (or if the worker failed).
+     */
+    private static String RunQuery(List<String> command, Path codeFile, String languageExtension)
+    {
+        int timeout_sec = TimeoutFor(codeFile);
+        SrcMLWorkerPool workers = SrcMLWorkerPool.Get();
+        String language = (languageExtension!=null && !languageExtension.isEmpty()) ? languageExtension : LanguageOf(codeFile);
+        if(workers != null && language != null) {
+            try {
+                String output = workers.Query(language, command.get(command.size()-1), Files.readAllBytes(codeFile), timeout_sec);
+                if(output != null)
+                    return output;
+            } catch (IOException e) {
+                // srcml will tell us it can't open the file
+            }
+        }
+        return CmdRunner.getInstance().RunCommand_ReturnOutput(command, null,null, timeout_sec);
+    }
+
+    /**
+     * Same guess as srcml, for the languages we use
+     * @return  null if unknown
+     */
+    private static String LanguageOf(Path codeFile)
+    {
+        String name = codeFile.getFileName().toString();
+        String ext = name.substring(name.lastIndexOf('.') + 1);
+        switch (ext) {
+            case "java": return "Java";
+            case "cs": return "C#";
+            case "c": return "C";
+            case "cpp": case "cc": case "cxx": case "hpp": case "hh": case "h": return "C++";
+            default: return null;
+        }
+    }
+
+    private static int TimeoutFor(Path codeFile)
+    {
+        return CmdRunner.ScaledTimeout(MIN_TIMEOUT_SEC, SizeOf(codeFile), BYTES_PER_SEC, MAX_TIMEOUT_SEC);
+    }
+
+    /**
+     * @return  0 if unknown
+     */
+    private static long SizeOf(Path file)
+    {
+        try {
+            return Files.size(file);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Element name with its prefix, like "pos:start" (the reader isn't namespace aware)
+     */
+    private static String ElementName(XMLStreamReader reader)
+    {
+        String prefix = reader.getPrefix();
+        return (prefix == null || prefix.isEmpty()) ? reader.getLocalName() : prefix + ":" + reader.getLocalName();
+    }
+
+    /**
+     * @param name  with its prefix, like "pos:start"
+     * @return  null if the current element doesn't have it
+     */
+    private static String AttributeValue(XMLStreamReader reader, String name)
+    {
+        for(int i=0; i<reader.getAttributeCount(); i++)
+        {
+            String prefix = reader.getAttributePrefix(i);
+            String localName = reader.getAttributeLocalName(i);
+            if(prefix == null || prefix.isEmpty() ? localName.equals(name) :
+                    name.length() == prefix.length() + 1 + localName.length() && name.startsWith(prefix) && name.charAt(prefix.length()) == ':' && name.endsWith(localName))
+                return reader.getAttributeValue(i);
+        }
+        return null;
+    }
+
+    private static boolean IsText(int event)
+    {
+        return event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA || event == XMLStreamConstants.SPACE;
+    }
+
+    private static void Close(XMLStreamReader reader)
+    {
+        if(reader == null)
+            return;
+        try {
+            reader.close();
+        } catch (XMLStreamException ignored) {
+        }
     }
 
     /**
@@ -582,6 +1122,18 @@ public class SrcMLCmdRunner {
         return false;
     }
 
+    public static class ParsedFile {
+        public final List<MethodDeclarationInfo> methodDeclarations;
+        public final List<ClassInfo> classes;
+        public final List<MethodInvocationInfo> methodCalls;
+
+        public ParsedFile(List<MethodDeclarationInfo> methodDeclarations, List<ClassInfo> classes, List<MethodInvocationInfo> methodCalls) {
+            this.methodDeclarations = methodDeclarations;
+            this.classes = classes;
+            this.methodCalls = methodCalls;
+        }
+    }
+
     public static class ClassInfo {
         public Path filePath;
         public String className;
@@ -0,0 +1,391 @@
+package com.anon.cmdrunners;
+
+import com.anonymous.parser.parser.ds.MethodDeclarationInfo;
+import com.anonymous.parser.parser.ds.MethodInvocationInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.w3c.dom.Node.ELEMENT_NODE;
+
+/**
+ * Checks the StAX parsers of srcml query outputs in `SrcMLCmdRunner` against the DOM ones they replaced, kept here: same
+ * results, and same "CHECK" warnings printed on stderr. Not used by the analysis.
+ */
+public class SrcMLParserCheck {
+    private static final Logger logger = LoggerFactory.getLogger(SrcMLParserCheck.class);
+
+    /**
+     * Usage:
+     *      java ... SrcMLParserCheck decls out1.xml calls out2.xml ...   srcml outputs of METHOD_DECLS_XPATH / METHOD_CALLS_XPATH (also timed)
+     *      java ... SrcMLParserCheck [N]                                 N generated outputs (default 10000): srcML-like and random XML,
+     *                                                                  truncated or with trailing junk sometimes
+     */
+    public static void main(String[] args) throws IOException {
+        Path filePath = Path.of("a/B.java");
+        if(args.length >= 2) {
+            final int ROUNDS = 10;
+            for(int i = 0; i + 1 < args.length; i += 2) {
+                boolean calls = args[i].equals("calls");
+                String output = Files.readString(Path.of(args[i + 1]));
+                String diff = CompareWithDOM(output, calls, filePath);
+                long domNs = 0, staxNs = 0;
+                for(int r = 0; r < ROUNDS; r++) {
+                    long t0 = System.nanoTime();
+                    if(calls) _ProcessExtractedMethodCalls_WithDOM(output, filePath); else _ProcessExtractedMethodDeclarations_WithDOM(output, filePath);
+                    long t1 = System.nanoTime();
+                    if(calls) SrcMLCmdRunner._ProcessExtractedMethodCalls(output, filePath); else SrcMLCmdRunner._ProcessExtractedMethodDeclarations(output, filePath);
+                    long t2 = System.nanoTime();
+                    if(r >= ROUNDS / 2) { // first rounds are warm-up
+                        domNs += t1 - t0;
+                        staxNs += t2 - t1;
+                    }
+                }
+                logger.info("{} ({}): {}. DOM: {} ms, StAX: {} ms", args[i + 1], args[i], diff == null ? "same" : "DIFFERENT\n" + diff,
+                        domNs / (ROUNDS / 2) / 1_000_000.0, staxNs / (ROUNDS / 2) / 1_000_000.0);
+            }
+            return;
+        }
+
+        int n = args.length == 1 ? Integer.parseInt(args[0]) : 10_000, nDifferent = 0;
+        for(int seed = 0; seed < n; seed++) {
+            Random rnd = new Random(seed);
+            for(boolean calls: new boolean[]{false, true}) {
+                String output = seed % 3 == 0 ? GenerateRandomXML(rnd) : GenerateSrcMLOutput(rnd, calls);
+                String diff = CompareWithDOM(output, calls, filePath);
+                if(diff != null && ++nDifferent <= 5)
+                    logger.error("seed {} ({}): DIFFERENT\n{}", seed, calls ? "calls" : "decls", diff);
+            }
+        }
+        logger.info("{} generated outputs: {} different", 2 * n, nDifferent);
+    }
+
+    /**
+     * The previous DOM-based version of `_ProcessExtractedMethodDeclarations`. Kept to check the StAX one
+     * against it.
+     */
+    private static List<MethodDeclarationInfo> _ProcessExtractedMethodDeclarations_WithDOM(String srcmlOutput, Path _filePath)
+    {
+        ArrayList<MethodDeclarationInfo> res = new ArrayList<>();
+        if(srcmlOutput.lines().count()==1)
+            return res;
+
+        DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+        DocumentBuilder db;
+        try {
+            db = dbf.newDocumentBuilder();
+            Document doc = db.parse(new InputSource(new StringReader(srcmlOutput)));
+            doc.getDocumentElement().normalize();
+            Node rootUnit = doc.getFirstChild();
+            NodeList units = ((Element) rootUnit).getElementsByTagName("unit");
+            for(int i=0; i<units.getLength(); i++)
+            {
+                try {
+                    Node item = units.item(i);
+                    Node aMethodDecl = item.getFirstChild();
+
+                    String start = ((Element) aMethodDecl).getAttributeNode("pos:start").getValue().split(":")[0];
+                    String end = ((Element) aMethodDecl).getAttributeNode("pos:end").getValue().split(":")[0];
+
+                    String name = null;
+                    int nParams = -1;
+                    boolean nArgsVariable = false;
+                    NodeList children = aMethodDecl.getChildNodes();
+                    for(int j=0; j<children.getLength(); j++)
+                    {
+                        Node aChild = children.item(j);
+                        if(aChild.getNodeType() != ELEMENT_NODE)
+                            continue;
+                        if( ((Element)aChild).getTagName().equals("name") )
+                            name = aChild.getTextContent();
+                        else if( ((Element)aChild).getTagName().equals("parameter_list") ) {
+                            nParams = ((Element) aChild).getElementsByTagName("parameter").getLength();
+                            nArgsVariable = aChild.getTextContent().contains("...");
+                            if(nArgsVariable)
+                                nParams -= 1; //the variable with "..." is 0 or more
+                        }
+                    }
+                    if(name!=null && nParams!=-1) { // there are bad examples where srcML fails to parse
+                        try {
+                            int ls = Integer.parseInt(start);
+                            int le = Integer.parseInt(end);
+                            MethodDeclarationInfo mdi = new MethodDeclarationInfo(null, null, name, nParams, null, ls, le, -1);
+                            mdi.fileRelativePath = String.valueOf(_filePath);
+                            mdi.arbitraryNumberOfArguments=nArgsVariable;
+                            res.add(mdi);
+                        } catch (Exception e)
+                        {
+                            logger.error("Failed parsing method call: {}-{}--{}(#{}) FILE={}",start, end, name,nParams, _filePath, e);
+                        }
+                    }
+                }
+                catch (Exception e)
+                {
+                    logger.error("Failed parsing method declarations unit #{} FILE={}", i, _filePath, e);
+                }
+            }
+
+        } catch (ParserConfigurationException | IOException | SAXException e) {
+            logger.error("Failed parsing method declarations FILE={}",_filePath, e);
+        }
+
+        return res;
+    }
+
+    /**
+     * The previous DOM-based version of `_ProcessExtractedMethodCalls`. Kept to check the StAX one against it.
+     */
+    private static List<MethodInvocationInfo> _ProcessExtractedMethodCalls_WithDOM(String srcmlOutput, Path _filePath)
+    {
+        ArrayList<MethodInvocationInfo> res = new ArrayList<>();
+        if(srcmlOutput.lines().count()==1)
+            return res;
+
+        DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+        DocumentBuilder db = null;
+        try {
+            db = dbf.newDocumentBuilder();
+            Document doc = db.parse(new InputSource(new StringReader(srcmlOutput)));
+            doc.getDocumentElement().normalize();
+            Node rootUnit = doc.getFirstChild();
+            NodeList unitCalls = rootUnit.getChildNodes();
+            for(int i=0; i<unitCalls.getLength(); i++)
+            {
+                try {
+                    Node aUnitCall = unitCalls.item(i);
+                    if (aUnitCall.getNodeType() != ELEMENT_NODE) //ELEMENT_NODE refers to a <Tag>...</Tag>
+                        continue;
+
+                    Node aCall = aUnitCall.getFirstChild();
+
+                    String methodName = null, startLine = null;
+                    int nArgs = -1;
+
+                    // aCall has two children: 1.name, 2.argument_list
+                    for (Node callChild = aCall.getFirstChild(); callChild != null; callChild = callChild.getNextSibling()) {
+                        if (!(callChild instanceof Element))
+                            continue;
+
+                        if (callChild.getNodeName().equals("name")) {
+                            // 1/2 child: name
+                            Node nameNode = callChild;
+                            methodName = nameNode.getTextContent();
+                            // Loop below checks if <name> has children; if so, it finds the last <name> children and uses
+                            // its TEXT and repeat the process until <name> has no children
+                            while (nameNode != null) {
+                                NodeList nameChildren = nameNode.getChildNodes();
+                                nameNode = null;
+                                for (int j = nameChildren.getLength() - 1; j >= 0; j--) {
+                                    Node nameChild = nameChildren.item(j);
+                                    if (nameChild.getNodeName().equals("name")) {
+                                        nameNode = nameChild;
+                                        methodName = nameNode.getTextContent();
+                                        break;
+                                    }
+                                }
+                            }
+                            if (methodName.contains("."))
+                                System.err.printf("\n\n************** CHECK _ProcessExtractedMethodCalls method; output=%s for input: %s\n**********************\n\n", methodName, srcmlOutput);
+
+                        } else if (callChild.getNodeName().equals("argument_list")) {
+                            // 2/2 child: argument_list
+                            Element argNode = (Element) callChild;
+                            startLine = argNode.getAttributeNode("pos:start").getValue().split(":")[0];
+                            //endLine = argNode.getAttributeNode("pos:end").getValue().split(":")[0];
+
+                            nArgs = 0;
+                            NodeList args = argNode.getChildNodes();
+                            for (int j = 0; j < args.getLength(); j++) {
+                                Node aArg = args.item(j);
+                                if (aArg.getNodeType() != ELEMENT_NODE)
+                                    continue;
+                                if (((Element) aArg).getTagName().equals("argument"))
+                                    nArgs++;
+                            }
+                        }
+                    }
+
+                    if(methodName!=null && startLine!=null && nArgs!=-1) {
+                        try {
+                            int ls = Integer.parseInt(startLine);
+                            MethodInvocationInfo mii = new MethodInvocationInfo(null, null, methodName, nArgs, null);
+                            mii.lineNumbers.add(ls);
+                            mii.fileRelativePath = String.valueOf(_filePath);
+                            res.add(mii);
+                        } catch (Exception e)
+                        {
+                            logger.error("Failed parsing method call: {}--{} FILE={}",startLine, methodName, _filePath, e);
+                        }
+                    }
+
+                } catch (Exception e)
+                {
+                    logger.error("Failed parsing method calls: unitCalls #{} FILE={}",i, _filePath, e);
+                }
+
+            }
+
+        } catch (ParserConfigurationException | IOException | SAXException e) {
+            logger.error("Failed parsing method calls FILE={}",_filePath, e);
+        }
+
+        return res;
+    }
+
+    /**
+     * @return  null if the StAX and DOM parsers give the same results and "CHECK" warnings, otherwise what they give
+     */
+    private static String CompareWithDOM(String srcmlOutput, boolean calls, Path filePath)
+    {
+        // Warnings for dotted call names are printed on stderr: we count them (logs may go there too, and they differ)
+        PrintStream stderr = System.err;
+        ByteArrayOutputStream domErr = new ByteArrayOutputStream(), staxErr = new ByteArrayOutputStream();
+        String dom, stax;
+        try {
+            System.setErr(new PrintStream(domErr, true));
+            dom = Describe(calls ? _ProcessExtractedMethodCalls_WithDOM(srcmlOutput, filePath) : _ProcessExtractedMethodDeclarations_WithDOM(srcmlOutput, filePath));
+            System.setErr(new PrintStream(staxErr, true));
+            stax = Describe(calls ? SrcMLCmdRunner._ProcessExtractedMethodCalls(srcmlOutput, filePath) : SrcMLCmdRunner._ProcessExtractedMethodDeclarations(srcmlOutput, filePath));
+        } finally {
+            System.setErr(stderr);
+        }
+        dom += CountWarnings(domErr.toString()) + " warnings";
+        stax += CountWarnings(staxErr.toString()) + " warnings";
+        if(dom.equals(stax))
+            return null;
+        return String.format("input: %s\nDOM : %s\nStAX: %s", srcmlOutput, dom, stax);
+    }
+
+    private static int CountWarnings(String stderr)
+    {
+        int n = 0;
+        for(int i = stderr.indexOf("* CHECK "); i != -1; i = stderr.indexOf("* CHECK ", i + 1))
+            n++;
+        return n;
+    }
+
+    private static String Describe(List<?> parsed)
+    {
+        StringBuilder sb = new StringBuilder();
+        for(Object o: parsed) {
+            if(o instanceof MethodDeclarationInfo) {
+                MethodDeclarationInfo m = (MethodDeclarationInfo) o;
+                sb.append(String.format("%s/%d/%d-%d/%b/%s; ", m.name, m.nArgs, m.lineStart, m.lineEnd, m.arbitraryNumberOfArguments, m.fileRelativePath));
+            }
+            else {
+                MethodInvocationInfo m = (MethodInvocationInfo) o;
+                sb.append(String.format("%s/%d/%s/%s; ", m.name, m.nArgs, m.lineNumbers, m.fileRelativePath));
+            }
+        }
+        return sb.toString();
+    }
+
+    private static final String[] GENERATED_TAGS = {"unit", "function", "constructor", "function_decl", "name", "parameter_list", "parameter",
+            "call", "argument_list", "argument", "expr", "block", "decl", "type", "operator", "literal"};
+    private static final String[] GENERATED_TEXTS = {"foo", "Bar", "a.b", "...", "(", ")", ",", "&lt;", "&gt;", "&amp;", " ", "\n", "x y", "12", "."};
+
+    /**
+     * Like srcml outputs: a root unit with one unit per result (a declaration, or a call with a possibly dotted name)
+     */
+    private static String GenerateSrcMLOutput(Random rnd, boolean calls)
+    {
+        StringBuilder sb = new StringBuilder("<unit xmlns=\"http://www.srcML.org/srcML/src\" xmlns:pos=\"http://www.srcML.org/srcML/position\" revision=\"1.0.0\" pos:tabs=\"8\">\n");
+        int n = rnd.nextInt(6);
+        for(int i = 0; i < n; i++) {
+            sb.append("<unit revision=\"1.0.0\" language=\"Java\" item=\"").append(i + 1).append("\">");
+            int nArgs = rnd.nextInt(4);
+            if(calls) {
+                sb.append("<call").append(GeneratePositions(rnd)).append("><name").append(GeneratePositions(rnd)).append('>');
+                if(rnd.nextInt(3) == 0)
+                    sb.append('f').append(i);
+                else
+                    sb.append("<name>A</name><operator>.</operator><name><name>B").append(i).append("</name><argument_list type=\"generic\">&lt;<argument><name>T</name></argument>&gt;</argument_list></name>");
+                sb.append("</name><argument_list").append(GeneratePositions(rnd)).append(">(");
+                for(int j = 0; j < nArgs; j++)
+                    sb.append(j > 0 ? "," : "").append("<argument><expr><literal type=\"number\">1</literal></expr></argument>");
+                sb.append(")</argument_list></call>");
+            }
+            else {
+                String tag = rnd.nextBoolean() ? "function" : "constructor";
+                sb.append('<').append(tag).append(GeneratePositions(rnd)).append("><type><name>void</name></type> <name").append(GeneratePositions(rnd)).append(">m").append(i).append("</name><parameter_list>(");
+                for(int j = 0; j < nArgs; j++)
+                    sb.append(j > 0 ? "," : "").append("<parameter><decl><type><name>int</name>").append(rnd.nextInt(5) == 0 ? "..." : "").append("</type> <name>p</name></decl></parameter>");
+                sb.append(")</parameter_list> <block>{ <block_content/> }</block></").append(tag).append('>');
+            }
+            sb.append("</unit>\n");
+        }
+        return sb.append("</unit>\n").toString();
+    }
+
+    /**
+     * Any nesting of srcML tags, text and comments, sometimes truncated or followed by junk
+     */
+    private static String GenerateRandomXML(Random rnd)
+    {
+        StringBuilder sb = new StringBuilder("<unit xmlns:pos=\"p\">\n");
+        int n = rnd.nextInt(5);
+        for(int i = 0; i < n; i++) {
+            if(rnd.nextInt(4) == 0)
+                sb.append('\n');
+            GenerateRandomNode(rnd, sb, 1, rnd.nextBoolean());
+        }
+        sb.append("</unit>");
+        String xml = sb.toString();
+        if(rnd.nextInt(20) == 0)
+            xml = xml.substring(0, rnd.nextInt(xml.length()));
+        if(rnd.nextInt(30) == 0)
+            xml = xml + "junk";
+        return xml;
+    }
+
+    private static void GenerateRandomNode(Random rnd, StringBuilder sb, int depth, boolean element)
+    {
+        int r = rnd.nextInt(12);
+        if(!element && (depth > 6 || r < 3)) {
+            sb.append(GENERATED_TEXTS[rnd.nextInt(GENERATED_TEXTS.length)]);
+            return;
+        }
+        if(!element && r == 3) {
+            sb.append("<!-- c -->");
+            return;
+        }
+        String tag = GENERATED_TAGS[rnd.nextInt(GENERATED_TAGS.length)];
+        sb.append('<').append(tag).append(GeneratePositions(rnd)).append('>');
+        int n = rnd.nextInt(5);
+        for(int i = 0; i < n; i++)
+            GenerateRandomNode(rnd, sb, depth + 1, false);
+        sb.append("</").append(tag).append('>');
+    }
+
+    /**
+     * Usually good positions, sometimes missing, bad or under another prefix
+     */
+    private static String GeneratePositions(Random rnd)
+    {
+        switch(rnd.nextInt(10)) {
+            case 6: return " pos:end=\"4:4\"";
+            case 7: return " pos:start=\"x:1\" pos:end=\":\"";
+            case 8: return " start=\"3:3\" q:start=\"5:5\"";
+            case 9: return "";
+            default: return String.format(" pos:start=\"%d:%d\" pos:end=\"%d:3\"", 1 + rnd.nextInt(99), rnd.nextInt(9), 1 + rnd.nextInt(99));
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.anon.cmdrunners;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Reference srcML worker for `SrcMLWorkerPool` (see there for the protocol):
+ *      --srcml-worker "java -cp miner-4.1-beta-jar-with-dependencies.jar com.anon.cmdrunners.SrcMLWorker"
+ * It answers each query by piping the source to srcml, so it still starts one srcml process per query: it saves no
+ * time by itself. It's what a worker built on libsrcml (parsing in-process) must answer, byte for byte, and a way to
+ * try `--srcml-worker` end to end. Exits on EOF.
+ */
+public class SrcMLWorker {
+    private static final int QUERY_TIMEOUT_SEC = 300; // the pool kills us (and srcml) first, if it gives up earlier
+
+    public static void main(String[] args) throws IOException {
+        // stdout carries the protocol only: logs (log4j prints on the console) go to stderr, which the pool discards
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(FileDescriptor.out));
+        System.setOut(System.err);
+        InputStream in = new BufferedInputStream(System.in);
+
+        String header;
+        while((header = ReadLine(in)) != null) {
+            if(header.equals("ping")) {
+                out.write("pong\n".getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                continue;
+            }
+            String[] parts = header.split(" ");
+            if(parts.length != 3)
+                System.exit(1); // we can't tell where the next request starts: the pool restarts us
+            byte[] xpath = ReadBytes(in, Integer.parseInt(parts[1]));
+            byte[] source = ReadBytes(in, Integer.parseInt(parts[2]));
+
+            List<String> command = List.of("srcml", "--language", parts[0], "--position", "--no-xml-declaration", "--xpath", new String(xpath, StandardCharsets.UTF_8));
+            CmdRunner.CmdRunnerResult result = CmdRunner.getInstance().RunCommand(command, null, null, QUERY_TIMEOUT_SEC, source);
+            if(result.returnCode == CmdRunner.RETURN_CODE_SUCCESS)
+                Answer(out, "ok", result.output);
+            else
+                Answer(out, "error", "srcml returned " + result.returnCode + (result.err == null ? "" : ": " + result.err.trim()));
+        }
+    }
+
+    private static void Answer(OutputStream out, String status, String text) throws IOException {
+        byte[] body = text.getBytes(StandardCharsets.UTF_8);
+        out.write(String.format("%s %d\n", status, body.length).getBytes(StandardCharsets.UTF_8));
+        out.write(body);
+        out.flush();
+    }
+
+    private static byte[] ReadBytes(InputStream in, int length) throws IOException {
+        byte[] bytes = in.readNBytes(length);
+        if(bytes.length != length)
+            throw new EOFException("request ended unexpectedly");
+        return bytes;
+    }
+
+    private static String ReadLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while((b = in.read()) != -1 && b != '\n')
+            line.write(b);
+        if(b == -1)
+            return null;
+        return line.toString(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,282 @@
+package com.anon.cmdrunners;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Long-lived srcML workers, so `SrcMLCmdRunner` doesn't need to start a srcml process for every query. The srcml
+ * command line has no server mode, so a worker is any program speaking the protocol below on its stdin/stdout (e.g., a
+ * small resident program on top of libsrcml). Its output for a query must be what
+ * `srcml <file> --language <language> --position --no-xml-declaration --xpath <xpath>` prints. `SrcMLWorker` is a
+ * reference one (running srcml for each query).
+ *
+ * Protocol (all lengths in bytes; text is UTF-8, the source is sent as it is on disk):
+ *  - query:  we send "<language> <xpath length> <source length>\n<xpath><source>"
+ *            we receive "ok <length>\n<srcml output>" or "error <length>\n<message>"
+ *  - health check: we send "ping\n" and receive "pong\n"
+ *
+ * Usage: `Start()` once, then `SrcMLCmdRunner` sends its queries to `Get()` when it's not null. Workers are shared by
+ * all threads (and all repositories). Each one serves one query at a time; a thread waits if all of them are busy.
+ * A worker which crashes, times out or answers garbage is killed, and a new one is started on its next query.
+ * A worker is pinged right after it's started (so a command which doesn't speak the protocol counts as a failed start)
+ * and when it was idle for a while. If `null` is returned, caller falls back to srcml.
+ */
+public class SrcMLWorkerPool {
+    private static final Logger logger = LoggerFactory.getLogger(SrcMLWorkerPool.class);
+    private static final int PING_AFTER_IDLE_SEC = 60;
+    private static final int PING_TIMEOUT_SEC = 5;
+    private static final int MAX_FAILED_STARTS = 3; // in a row: then the worker command is surely wrong, we give up
+    private static volatile SrcMLWorkerPool instance = null;
+
+    private final List<String> command;
+    private final BlockingQueue<Worker> idleWorkers;
+    private final AtomicLong nQueries = new AtomicLong(0), nFailures = new AtomicLong(0), nStarts = new AtomicLong(0);
+    private int nFailedStarts = 0;
+    private volatile boolean disabled = false;
+
+    /**
+     * @param command   how to start a worker, like ["my-srcml-worker", "--some-option"]
+     * @param size      max number of workers (they're started on demand)
+     */
+    public static synchronized void Start(List<String> command, int size) {
+        if(instance != null)
+            instance.Close();
+        instance = new SrcMLWorkerPool(command, size);
+    }
+
+    /**
+     * @return  null if no pool is started (or it gave up)
+     */
+    public static SrcMLWorkerPool Get() {
+        SrcMLWorkerPool pool = instance;
+        return (pool == null || pool.disabled) ? null : pool;
+    }
+
+    public static synchronized void Stop() {
+        if(instance != null)
+            instance.Close();
+        instance = null;
+    }
+
+    private SrcMLWorkerPool(List<String> command, int size) {
+        this.command = new ArrayList<>(command);
+        this.idleWorkers = new ArrayBlockingQueue<>(size);
+        for(int i=0; i<size; i++)
+            idleWorkers.add(new Worker(i + 1));
+    }
+
+    /**
+     * @param language  like "Java" (never empty: workers don't know file names)
+     * @param source    raw bytes of the file, like srcml reads them
+     * @return  srcml output, or null if the query failed (then caller runs srcml itself)
+     */
+    public String Query(String language, String xpath, byte[] source, int timeout_sec) {
+        if(disabled)
+            return null;
+        Worker worker;
+        try {
+            worker = idleWorkers.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        try {
+            if(!worker.Ready())
+                return null;
+            nQueries.incrementAndGet();
+            String output = worker.Query(language, xpath, source, timeout_sec);
+            if(output == null)
+                nFailures.incrementAndGet();
+            return output;
+        } finally {
+            if(disabled)
+                worker.Close(); // pool was stopped (or gave up) while we were using it
+            idleWorkers.add(worker);
+        }
+    }
+
+    public String Stats() {
+        return String.format("%d queries, %d failed, %d workers started", nQueries.get(), nFailures.get(), nStarts.get());
+    }
+
+    private void Close() {
+        disabled = true;
+        for(Worker w: new ArrayList<>(idleWorkers))
+            w.Close();
+    }
+
+    private synchronized void StartSucceeded(boolean succeeded) {
+        if(succeeded) {
+            nStarts.incrementAndGet();
+            nFailedStarts = 0;
+        }
+        else if(++nFailedStarts >= MAX_FAILED_STARTS && !disabled) {
+            disabled = true;
+            logger.error("srcML workers failed to start {} times in a row: {}. Running srcml for each query instead.", nFailedStarts, command);
+        }
+    }
+
+    /**
+     * One worker process. Only used by the thread which took it from `idleWorkers`, so no locking.
+     */
+    private class Worker {
+        private final int id;
+        private final ExecutorService ioThread; // we read pipes on a separate thread, so we can give up after a timeout
+        private Process process;
+        private OutputStream stdin;
+        private InputStream stdout;
+        private long lastUsed;
+
+        Worker(int id) {
+            this.id = id;
+            this.ioThread = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "srcml-worker-" + id);
+                t.setDaemon(true);
+                return t;
+            });
+        }
+
+        /**
+         * Starts the process if it's not running (never started, crashed, or killed after a failure), or checks it's
+         * still answering if it was idle for a while.
+         */
+        boolean Ready() {
+            if(process != null && !process.isAlive()) {
+                logger.warn("srcML worker #{} exited with code {}. Restarting it...", id, process.exitValue());
+                Stop();
+            }
+            if(process == null) {
+                boolean started = Start();
+                StartSucceeded(started);
+                return started;
+            }
+            if(System.nanoTime() - lastUsed > TimeUnit.SECONDS.toNanos(PING_AFTER_IDLE_SEC)) {
+                if(Call(this::Ping, PING_TIMEOUT_SEC, "idle ping") == null) {
+                    boolean started = Start();
+                    StartSucceeded(started);
+                    return started;
+                }
+            }
+            return true;
+        }
+
+        String Query(String language, String xpath, byte[] source, int timeout_sec) {
+            return Call(() -> Request(language, xpath, source), timeout_sec, xpath);
+        }
+
+        /**
+         * @return  null on failure, after killing the process
+         */
+        private String Call(Callable<String> request, int timeout_sec, String what) {
+            Future<String> future = ioThread.submit(request);
+            try {
+                String res = future.get(timeout_sec, TimeUnit.SECONDS);
+                lastUsed = System.nanoTime();
+                return res;
+            } catch (TimeoutException e) {
+                logger.error("srcML worker #{} timed out after {} seconds on {}. Restarting it...", id, timeout_sec, what);
+            } catch (ExecutionException e) {
+                logger.error("srcML worker #{} failed on {}: {}. Restarting it...", id, what, e.getCause().toString());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            Stop(); // also unblocks the I/O thread, if it's stuck on a pipe
+            future.cancel(true);
+            return null;
+        }
+
+        private String Request(String language, String xpath, byte[] source) throws IOException {
+            byte[] xpathBytes = xpath.getBytes(StandardCharsets.UTF_8);
+            stdin.write(String.format("%s %d %d\n", language, xpathBytes.length, source.length).getBytes(StandardCharsets.UTF_8));
+            stdin.write(xpathBytes);
+            stdin.write(source);
+            stdin.flush();
+
+            String header = ReadLine();
+            if(header == null)
+                throw new EOFException("worker closed its output");
+            String[] parts = header.split(" ");
+            if(parts.length != 2 || !(parts[0].equals("ok") || parts[0].equals("error")))
+                throw new IOException("Unexpected worker header: " + header);
+            int length = Integer.parseInt(parts[1]);
+            byte[] body = stdout.readNBytes(length);
+            if(body.length != length)
+                throw new EOFException("worker output ended unexpectedly");
+            String text = new String(body, StandardCharsets.UTF_8);
+            if(parts[0].equals("error")) {
+                // the worker is fine, only this input isn't: same as srcml printing an error, caller won't retry
+                logger.warn("srcML worker #{} couldn't run {}: {}", id, xpath, text);
+                return "srcML translator error: " + text;
+            }
+            return text.indexOf('\r') == -1 ? text : text.replace("\r", "");
+        }
+
+        private String Ping() throws IOException {
+            stdin.write("ping\n".getBytes(StandardCharsets.UTF_8));
+            stdin.flush();
+            String answer = ReadLine();
+            if(!"pong".equals(answer))
+                throw new IOException("Unexpected answer to ping: " + answer);
+            return answer;
+        }
+
+        private boolean Start() {
+            Stop();
+            try {
+                ProcessBuilder pb = new ProcessBuilder(command);
+                pb.redirectError(ProcessBuilder.Redirect.DISCARD);
+                process = pb.start();
+                stdin = new BufferedOutputStream(process.getOutputStream());
+                stdout = new BufferedInputStream(process.getInputStream());
+            } catch (IOException e) {
+                logger.error("Failed to start srcML worker #{}: {}", id, command, e);
+                process = null;
+                return false;
+            }
+            // Started isn't enough: e.g., plain `srcml` starts fine and then waits for the end of its input forever
+            if(Call(this::Ping, PING_TIMEOUT_SEC, "handshake ping") == null) {
+                logger.error("srcML worker #{} doesn't answer the handshake: {}", id, command);
+                return false; // `Call()` has killed it
+            }
+            return true;
+        }
+
+        private void Stop() {
+            if(process == null)
+                return;
+            try {
+                stdin.close(); // workers exit on EOF
+            } catch (IOException ignored) {
+            }
+            try {
+                if(!process.waitFor(1, TimeUnit.SECONDS))
+                    CmdRunner.DestroyTree(process);
+            } catch (InterruptedException e) {
+                CmdRunner.DestroyTree(process);
+            }
+            process = null;
+        }
+
+        void Close() {
+            Stop();
+            ioThread.shutdownNow();
+        }
+
+        private String ReadLine() throws IOException {
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            int b;
+            while((b = stdout.read()) != -1 && b != '\n')
+                line.write(b);
+            if(b == -1)
+                return null;
+            return line.toString(StandardCharsets.UTF_8);
+        }
+    }
+}
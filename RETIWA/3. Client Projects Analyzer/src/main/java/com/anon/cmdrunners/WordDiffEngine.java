@@ -0,0 +1,376 @@
+package com.anon.cmdrunners;
+
+import com.anon.datatype.ImportStatementChanges;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * In-JVM version of `git diff --unified=0 --word-diff [--ignore-all-space]` for one file, when we already have both
+ * versions of the file (e.g., from `GitObjectStore`). No git process is needed.
+ *
+ * It produces the same hunks text as git (apart from function names after "@@ ... @@"), so `WordDiffParser` gives the
+ * same `CodeReplacement`s as `GitCmdRunner.git_diff_JustChanges`:
+ * 1. Lines are diffed the way git does by default (`XDiff`: Myers + indent heuristic)
+ * 2. For each hunk, removed and added lines are split into words (runs of non-whitespace), words are diffed (again with
+ *    `XDiff`), and the hunk is written as "common [-removed-]{+added+} common" (see diff_words_show() in git's diff.c)
+ *
+ * Run `main` on a repository to compare with git.
+ */
+public class WordDiffEngine {
+    private static final Logger logger = LoggerFactory.getLogger(WordDiffEngine.class);
+    private static final int BINARY_CHECK_LENGTH = 8000; // git's buffer_is_binary() looks for NUL in first 8000 bytes
+    private static final int TAIL_BLOCK = 1024;
+
+    private final List<String> lines1 = new ArrayList<>(), lines2 = new ArrayList<>();
+    private boolean noNewlineAtEnd1, noNewlineAtEnd2;
+    private final List<XDiff.Change> hunks;
+
+    private WordDiffEngine(String before, String after, boolean ignoreWhiteSpace) {
+        noNewlineAtEnd1 = SplitLines(before, lines1);
+        noNewlineAtEnd2 = SplitLines(after, lines2);
+        TrimCommonTail(before, after);
+
+        // Lines get the same class iff they are equal (ignoring whitespace if asked)
+        Map<String, Integer> classes = new HashMap<>();
+        int[] ha1 = Classify(lines1, noNewlineAtEnd1, ignoreWhiteSpace, classes);
+        int[] ha2 = Classify(lines2, noNewlineAtEnd2, ignoreWhiteSpace, classes);
+        hunks = XDiff.Diff(ha1, ha2, classes.size(), Indents(lines1), Indents(lines2));
+    }
+
+    /**
+     * Same as `GitCmdRunner.git_diff_JustChanges` and `git_diff_JustImportsChanges` on the two given versions of a file
+     * @return  null if there's no hunk (or file is binary), like files missing from `git_diff_CommitWordDiff` result
+     */
+    public static GitCmdRunner.FileDiff Diff(boolean onlyPairs, GitCmdRunner.GitFilePath path, String before, String after, boolean ignoreWhiteSpace) {
+        if (IsBinary(before) || IsBinary(after))
+            return null;
+        WordDiffEngine engine = new WordDiffEngine(before, after, ignoreWhiteSpace);
+        if (engine.hunks.isEmpty())
+            return null;
+        List<GitCmdRunner.CodeReplacement> codeReplacements = WordDiffParser.Parse(engine.WordDiff(), onlyPairs);
+        ImportStatementChanges importChanges = GitCmdRunner.ParseImportsChanges(engine.LineDiff(), path.filePath);
+        return new GitCmdRunner.FileDiff(path, codeReplacements, importChanges);
+    }
+
+    /**
+     * Same as `GitCmdRunner.git_diff_CommitWordDiff`, but files are diffed in-process. Files whose content can't be
+     * fetched are diffed by git.
+     */
+    public static Map<Path, GitCmdRunner.FileDiff> CommitWordDiff(boolean onlyPairs, Path repoPath, String beforeCommit, String afterCommit, List<GitCmdRunner.GitFilePath> files, boolean ignoreWhiteSpace) {
+        Map<Path, GitCmdRunner.FileDiff> res = new HashMap<>();
+        List<GitCmdRunner.GitFilePath> failed = new ArrayList<>();
+        for (GitCmdRunner.GitFilePath f : files) {
+            String before = GitCmdRunner.GetFileContentAtSpecificCommit(repoPath, beforeCommit, f.oldFilePath);
+            String after = GitCmdRunner.GetFileContentAtSpecificCommit(repoPath, afterCommit, f.filePath);
+            if (before == null || after == null) {
+                failed.add(f);
+                continue;
+            }
+            GitCmdRunner.FileDiff fileDiff = Diff(onlyPairs, f, before, after, ignoreWhiteSpace);
+            if (fileDiff != null)
+                res.put(f.filePath, fileDiff);
+        }
+        if (!failed.isEmpty())
+            res.putAll(GitCmdRunner.git_diff_CommitWordDiff(onlyPairs, repoPath, beforeCommit, afterCommit, failed, ignoreWhiteSpace));
+        return res;
+    }
+
+    /**
+     * @return  hunks as printed by `git diff --unified=0` (without file header)
+     */
+    private String LineDiff() {
+        StringBuilder sb = new StringBuilder();
+        for (XDiff.Change c : hunks) {
+            AppendHunkHeader(sb, c);
+            for (int i = c.i1; i < c.i1 + c.chg1; i++)
+                AppendLine(sb, '-', lines1.get(i), noNewlineAtEnd1 && i == lines1.size() - 1);
+            for (int i = c.i2; i < c.i2 + c.chg2; i++)
+                AppendLine(sb, '+', lines2.get(i), noNewlineAtEnd2 && i == lines2.size() - 1);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return  hunks as printed by `git diff --unified=0 --word-diff` (without file header)
+     */
+    private String WordDiff() {
+        StringBuilder sb = new StringBuilder();
+        for (XDiff.Change c : hunks) {
+            AppendHunkHeader(sb, c);
+
+            // Each line ends with '\n', even the last line of a file without newline at end
+            StringBuilder minus = new StringBuilder(), plus = new StringBuilder();
+            for (int i = c.i1; i < c.i1 + c.chg1; i++)
+                minus.append(lines1.get(i)).append('\n');
+            for (int i = c.i2; i < c.i2 + c.chg2; i++)
+                plus.append(lines2.get(i)).append('\n');
+            AppendWordDiff(sb, minus.toString(), plus.toString());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * See diff_words_show() and fn_out_diff_words_aux() in git's diff.c
+     */
+    private static void AppendWordDiff(StringBuilder sb, String minus, String plus) {
+        if (plus.isEmpty()) { // special case: only removal
+            AppendPart(sb, "[-", "-]", minus, 0, minus.length());
+            return;
+        }
+
+        List<int[]> minusWords = SplitWords(minus), plusWords = SplitWords(plus);
+        Map<String, Integer> classes = new HashMap<>();
+        int[] ha1 = ClassifyWords(minus, minusWords, classes), ha2 = ClassifyWords(plus, plusWords, classes);
+
+        // git diffs words as a buffer of "word\n" lines, so the common tail is dropped here too
+        if (3 * Math.min(minus.length(), plus.length()) >= TAIL_BLOCK) {
+            byte[] b1 = WordsBuffer(minus, minusWords), b2 = WordsBuffer(plus, plusWords);
+            int n = CountNewlines(b1, b1.length - CommonTailLength(b1, b2));
+            ha1 = Arrays.copyOf(ha1, ha1.length - n);
+            ha2 = Arrays.copyOf(ha2, ha2.length - n);
+        }
+
+        int currentPlus = 0;
+        for (XDiff.Change c : XDiff.Diff(ha1, ha2, classes.size(), null, null)) {
+            int minusBegin, minusEnd, plusBegin, plusEnd;
+            if (c.chg1 > 0) {
+                minusBegin = minusWords.get(c.i1)[0];
+                minusEnd = minusWords.get(c.i1 + c.chg1 - 1)[1];
+            } else
+                minusBegin = minusEnd = (c.i1 == 0) ? 0 : minusWords.get(c.i1 - 1)[1];
+            if (c.chg2 > 0) {
+                plusBegin = plusWords.get(c.i2)[0];
+                plusEnd = plusWords.get(c.i2 + c.chg2 - 1)[1];
+            } else
+                plusBegin = plusEnd = (c.i2 == 0) ? 0 : plusWords.get(c.i2 - 1)[1];
+
+            if (currentPlus != plusBegin)
+                AppendPart(sb, "", "", plus, currentPlus, plusBegin);
+            if (minusBegin != minusEnd)
+                AppendPart(sb, "[-", "-]", minus, minusBegin, minusEnd);
+            if (plusBegin != plusEnd)
+                AppendPart(sb, "{+", "+}", plus, plusBegin, plusEnd);
+            currentPlus = plusEnd;
+        }
+        if (currentPlus != plus.length())
+            AppendPart(sb, "", "", plus, currentPlus, plus.length());
+    }
+
+    /**
+     * Writes text[from, to) with prefix/suffix around each line of it. See fn_out_diff_words_write_helper() in git's diff.c
+     */
+    private static void AppendPart(StringBuilder sb, String prefix, String suffix, String text, int from, int to) {
+        while (from < to) {
+            int p = text.indexOf('\n', from);
+            if (p >= to)
+                p = -1;
+            if (p != from) {
+                sb.append(prefix).append(text, from, p == -1 ? to : p).append(suffix);
+            }
+            if (p == -1)
+                return;
+            sb.append('\n');
+            from = p + 1;
+        }
+    }
+
+    /**
+     * @return  [begin, end) of each word. Words are separated by whitespace.
+     */
+    private static List<int[]> SplitWords(String text) {
+        List<int[]> words = new ArrayList<>();
+        int i = 0;
+        while (true) {
+            while (i < text.length() && XDiff.IsSpace(text.charAt(i)))
+                i++;
+            if (i >= text.length())
+                return words;
+            int j = i + 1;
+            while (j < text.length() && !XDiff.IsSpace(text.charAt(j)))
+                j++;
+            words.add(new int[]{i, j});
+            i = j;
+        }
+    }
+
+    private static byte[] WordsBuffer(String text, List<int[]> words) {
+        StringBuilder sb = new StringBuilder();
+        for (int[] w : words)
+            sb.append(text, w[0], w[1]).append('\n');
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int[] ClassifyWords(String text, List<int[]> words, Map<String, Integer> classes) {
+        int[] ha = new int[words.size()];
+        for (int i = 0; i < ha.length; i++)
+            ha[i] = classes.computeIfAbsent(text.substring(words.get(i)[0], words.get(i)[1]), k -> classes.size());
+        return ha;
+    }
+
+    private static void AppendHunkHeader(StringBuilder sb, XDiff.Change c) {
+        sb.append("@@ -").append(c.chg1 > 0 ? c.i1 + 1 : c.i1);
+        if (c.chg1 != 1)
+            sb.append(',').append(c.chg1);
+        sb.append(" +").append(c.chg2 > 0 ? c.i2 + 1 : c.i2);
+        if (c.chg2 != 1)
+            sb.append(',').append(c.chg2);
+        sb.append(" @@\n");
+    }
+
+    private static void AppendLine(StringBuilder sb, char prefix, String line, boolean noNewlineAtEnd) {
+        sb.append(prefix).append(line).append('\n');
+        if (noNewlineAtEnd)
+            sb.append("\\ No newline at end of file\n");
+    }
+
+    /**
+     * @return  true if the last line has no '\n' at its end
+     */
+    private static boolean SplitLines(String text, List<String> lines) {
+        int start = 0;
+        while (start < text.length()) {
+            int end = text.indexOf('\n', start);
+            if (end == -1) {
+                lines.add(text.substring(start));
+                return true;
+            }
+            lines.add(text.substring(start, end));
+            start = end + 1;
+        }
+        return false;
+    }
+
+    /**
+     * With --unified=0, git drops the common tail of the two files before diffing, which also limits how far down a
+     * change can slide. See trim_common_tail() in git's xdiff-interface.c
+     */
+    private void TrimCommonTail(String before, String after) {
+        if (3 * Math.min(before.length(), after.length()) < TAIL_BLOCK)
+            return;
+        byte[] b1 = before.getBytes(StandardCharsets.UTF_8), b2 = after.getBytes(StandardCharsets.UTF_8);
+        int tail = CommonTailLength(b1, b2);
+        if (tail == 0)
+            return;
+        // Dropped part is whole lines, the same in both files
+        int n = CountNewlines(b1, b1.length - tail) + (noNewlineAtEnd1 ? 1 : 0);
+        lines1.subList(lines1.size() - n, lines1.size()).clear();
+        lines2.subList(lines2.size() - n, lines2.size()).clear();
+        noNewlineAtEnd1 = noNewlineAtEnd2 = false;
+    }
+
+    /**
+     * @return  number of bytes git drops from the end of both buffers: common 1KB blocks, minus the part before the
+     *          first '\n' in them
+     */
+    private static int CommonTailLength(byte[] a, byte[] b) {
+        int trimmed = 0, recovered = 0, smaller = Math.min(a.length, b.length);
+        while (TAIL_BLOCK + trimmed <= smaller
+                && Arrays.equals(a, a.length - trimmed - TAIL_BLOCK, a.length - trimmed, b, b.length - trimmed - TAIL_BLOCK, b.length - trimmed))
+            trimmed += TAIL_BLOCK;
+        while (recovered < trimmed)
+            if (a[a.length - trimmed + recovered++] == '\n')
+                break;
+        return trimmed - recovered;
+    }
+
+    private static int CountNewlines(byte[] buf, int from) {
+        int n = 0;
+        for (int i = from; i < buf.length; i++)
+            if (buf[i] == '\n')
+                n++;
+        return n;
+    }
+
+    private static int[] Classify(List<String> lines, boolean noNewlineAtEnd, boolean ignoreWhiteSpace, Map<String, Integer> classes) {
+        int[] ha = new int[lines.size()];
+        StringBuilder key = new StringBuilder();
+        for (int i = 0; i < ha.length; i++) {
+            String line = lines.get(i);
+            key.setLength(0);
+            if (ignoreWhiteSpace) {
+                for (int k = 0; k < line.length(); k++)
+                    if (!XDiff.IsSpace(line.charAt(k)))
+                        key.append(line.charAt(k));
+            } else {
+                key.append(line);
+                if (!(noNewlineAtEnd && i == ha.length - 1))
+                    key.append('\n');
+            }
+            ha[i] = classes.computeIfAbsent(key.toString(), k -> classes.size());
+        }
+        return ha;
+    }
+
+    private static int[] Indents(List<String> lines) {
+        int[] indent = new int[lines.size()];
+        for (int i = 0; i < indent.length; i++)
+            indent[i] = XDiff.GetIndent(lines.get(i));
+        return indent;
+    }
+
+    private static boolean IsBinary(String text) {
+        int n = Math.min(text.length(), BINARY_CHECK_LENGTH);
+        for (int i = 0; i < n; i++)
+            if (text.charAt(i) == '\0')
+                return true;
+        return false;
+    }
+
+    /**
+     * Differential test against git. Usage: java ... WordDiffEngine path/to/repo [maxCommits]
+     * For each modified/renamed Java file between consecutive commits of `git log`, compares with `git diff`.
+     */
+    public static void main(String[] args) {
+        Path repoPath = Path.of(args[0]);
+        int maxCommits = args.length > 1 ? Integer.parseInt(args[1]) : Integer.MAX_VALUE;
+
+        List<String> commits = GitCmdRunner.git_log(repoPath);
+        int nFiles = 0, nMismatches = 0;
+        long gitNs = 0, jvmNs = 0;
+        for (int i = 0; i + 1 < commits.size() && i < maxCommits; i++) {
+            String after = commits.get(i), before = commits.get(i + 1);
+            GitCmdRunner.FilesStatus status = GitCmdRunner.git_diff_GetFilesStatus(repoPath, before, after, "java", true);
+            List<GitCmdRunner.GitFilePath> files = new ArrayList<>(status.renamed_from_to);
+            for (Path p : status.modified)
+                files.add(new GitCmdRunner.GitFilePath(p));
+
+            for (GitCmdRunner.GitFilePath f : files) {
+                String beforeContent = GitCmdRunner.GetFileContentAtSpecificCommit(repoPath, before, f.oldFilePath);
+                String afterContent = GitCmdRunner.GetFileContentAtSpecificCommit(repoPath, after, f.filePath);
+                if (beforeContent == null || afterContent == null)
+                    continue;
+                nFiles++;
+
+                long t0 = System.nanoTime();
+                List<GitCmdRunner.CodeReplacement> expected = GitCmdRunner.git_diff_JustChanges(false, repoPath, before, after, f.oldFilePath, f.filePath, true);
+                ImportStatementChanges expectedImports = GitCmdRunner.git_diff_JustImportsChanges(repoPath, before, after, f.oldFilePath, f.filePath, true);
+                long t1 = System.nanoTime();
+                GitCmdRunner.FileDiff actual = Diff(false, f, beforeContent, afterContent, true);
+                long t2 = System.nanoTime();
+                gitNs += t1 - t0;
+                jvmNs += t2 - t1;
+
+                List<GitCmdRunner.CodeReplacement> actualReplacements = actual == null ? new ArrayList<>() : actual.codeReplacements;
+                ImportStatementChanges actualImports = actual == null ? new ImportStatementChanges(f.filePath) : actual.importChanges;
+                if (!Describe(expected).equals(Describe(actualReplacements))
+                        || !expectedImports.addedImports.equals(actualImports.addedImports)
+                        || !expectedImports.removedImports.equals(actualImports.removedImports)) {
+                    nMismatches++;
+                    logger.error("Mismatch: {} {}..{}\n\tgit: {}\n\tjvm: {}", f.filePath, before, after, Describe(expected), Describe(actualReplacements));
+                }
+            }
+        }
+        logger.info("{} files compared, {} mismatches. git: {} ms, jvm: {} ms", nFiles, nMismatches, gitNs / 1_000_000, jvmNs / 1_000_000);
+    }
+
+    private static String Describe(List<GitCmdRunner.CodeReplacement> replacements) {
+        StringBuilder sb = new StringBuilder();
+        for (GitCmdRunner.CodeReplacement r : replacements)
+            sb.append(String.format("[%d,%d: %s -> %s] ", r.lineStart_before, r.lineStart_after, r.removedCode, r.addedCode));
+        return sb.toString();
+    }
+}
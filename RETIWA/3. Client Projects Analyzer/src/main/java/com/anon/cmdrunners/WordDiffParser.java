@@ -0,0 +1,448 @@
+package com.anon.cmdrunners;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Parses `git diff --word-diff` output line by line into `CodeReplacement`s (see `GitCmdRunner.git_diff_JustChanges`).
+ * Lines can be fed while git is still writing them (it's a `CmdRunner.LineConsumer`), and we only create strings for
+ * the reported [-XXX-] and {+YYY+} parts.
+ *
+ * It's a hand-written version of `ParseWithRegex` (the regex-based parser we used before) and gives exactly the same
+ * output, including its corner cases: a [-XXX-] part can't contain "[-", and a {+YYY+} part can't contain "{+". Run
+ * `main` to compare the two on the recorded diffs in "samples/word-diff" and on generated ones.
+ */
+public class WordDiffParser implements CmdRunner.LineConsumer {
+    private static final Logger logger = LoggerFactory.getLogger(WordDiffParser.class);
+
+    private final boolean onlyPairs;
+    private final List<GitCmdRunner.CodeReplacement> res = new ArrayList<>();
+    private int before_startLine = -1, after_startLine = -1;
+    private boolean foundHunkHeader = false;
+
+    /**
+     * @param onlyPairs if true, we only report [-XXX-]{+YYY+}, and not single [-XXX-] or {+YYY+} parts
+     */
+    public WordDiffParser(boolean onlyPairs) {
+        this.onlyPairs = onlyPairs;
+    }
+
+    public static List<GitCmdRunner.CodeReplacement> Parse(String wordDiffCode, boolean onlyPairs) {
+        WordDiffParser parser = new WordDiffParser(onlyPairs);
+        char[] chars = wordDiffCode.toCharArray();
+        int start = 0;
+        for (int i = 0; i < chars.length; i++) {
+            if (chars[i] == '\n') {
+                parser.AcceptLine(chars, start, i);
+                start = i + 1;
+            }
+        }
+        if (start < chars.length)
+            parser.AcceptLine(chars, start, chars.length);
+        return parser.GetResult();
+    }
+
+    public List<GitCmdRunner.CodeReplacement> GetResult() {
+        return res;
+    }
+
+    @Override
+    public void AcceptLine(char[] buf, int s, int e) {
+        // strip()
+        while (s < e && Character.isWhitespace(buf[s]))
+            s++;
+        while (e > s && Character.isWhitespace(buf[e - 1]))
+            e--;
+
+        if (StartsWith(buf, s, e, "diff --git") || StartsWith(buf, s, e, "---") || StartsWith(buf, s, e, "+++")) {
+            foundHunkHeader = false; // now we start ignoring header lines until we get to hunks part
+            return;
+        }
+
+        if (StartsWith(buf, s, e, "@@")) {
+            if (!ParseHunkHeader(buf, s, e))
+                logger.error("Failed extract line numbers from git diff chunk: {}", new String(buf, s, e - s));
+            return;
+        }
+        if (!foundHunkHeader)
+            return;
+
+        if (before_startLine == -1 || after_startLine == -1) {
+            logger.error("Line information is missing");
+            return;
+        }
+
+        if (s == e) {
+            before_startLine++;
+            after_startLine++;
+            return;
+        }
+
+        FindPairs(buf, s, e);
+        if (!onlyPairs) {
+            FindRemovedOnly(buf, s, e);
+            FindAddedOnly(buf, s, e);
+        }
+
+        boolean startsWithAdd = StartsWith(buf, s, e, "{+"), startsWithRm = StartsWith(buf, s, e, "[-");
+        boolean endsWithAdd = e - s >= 2 && buf[e - 2] == '+' && buf[e - 1] == '}';
+        boolean endsWithRm = e - s >= 2 && buf[e - 2] == '-' && buf[e - 1] == ']';
+        if (startsWithAdd && endsWithAdd)
+            after_startLine++;
+        else if (startsWithRm && endsWithRm)
+            before_startLine++;
+        else {
+            before_startLine++;
+            after_startLine++;
+        }
+    }
+
+    /**
+     * Looks for "@@ -A[,n] +B[,m] @@" anywhere in the line
+     */
+    private boolean ParseHunkHeader(char[] buf, int s, int e) {
+        for (int p = s; p + 4 <= e; p++) {
+            if (buf[p] != '@' || buf[p + 1] != '@' || buf[p + 2] != ' ' || buf[p + 3] != '-')
+                continue;
+            int aStart = p + 4, aEnd = SkipDigits(buf, aStart, e);
+            if (aEnd == aStart)
+                continue;
+            int k = SkipOptionalCount(buf, aEnd, e);
+            if (k + 2 > e || buf[k] != ' ' || buf[k + 1] != '+')
+                continue;
+            int bStart = k + 2, bEnd = SkipDigits(buf, bStart, e);
+            if (bEnd == bStart)
+                continue;
+            k = SkipOptionalCount(buf, bEnd, e);
+            if (k + 3 > e || buf[k] != ' ' || buf[k + 1] != '@' || buf[k + 2] != '@')
+                continue;
+
+            before_startLine = Integer.parseInt(new String(buf, aStart, aEnd - aStart));
+            after_startLine = Integer.parseInt(new String(buf, bStart, bEnd - bStart));
+            foundHunkHeader = true;
+            return true;
+        }
+        return false;
+    }
+
+    private static int SkipDigits(char[] buf, int i, int e) {
+        while (i < e && buf[i] >= '0' && buf[i] <= '9')
+            i++;
+        return i;
+    }
+
+    /**
+     * Skips ",123" if it's there
+     */
+    private static int SkipOptionalCount(char[] buf, int i, int e) {
+        if (i + 1 < e && buf[i] == ',' && buf[i + 1] >= '0' && buf[i + 1] <= '9')
+            return SkipDigits(buf, i + 1, e);
+        return i;
+    }
+
+    /**
+     * [-XXX-]{+YYY+}
+     */
+    private void FindPairs(char[] buf, int s, int e) {
+        int p = s;
+        while (p + 1 < e) {
+            if (!Is(buf, p, e, '[', '-')) {
+                p++;
+                continue;
+            }
+            int matchEnd = -1;
+            // Where [-XXX-] can end. Usually the first "-]", but it's extended to next ones if no {+YYY+} follows.
+            for (int rmEnd = NextRemovedEnd(buf, p + 2, e); rmEnd != -1; rmEnd = NextRemovedEnd(buf, rmEnd + 1, e)) {
+                int addStart = rmEnd + 2;
+                if (!Is(buf, addStart, e, '{', '+'))
+                    continue;
+                int addEnd = AddedEnd(buf, addStart + 2, e);
+                if (addEnd == -1)
+                    continue;
+                res.add(new GitCmdRunner.CodeReplacement(new String(buf, p + 2, rmEnd - p - 2),
+                        new String(buf, addStart + 2, addEnd - addStart - 2), before_startLine, after_startLine));
+                matchEnd = addEnd + 2;
+                break;
+            }
+            p = (matchEnd == -1) ? p + 1 : matchEnd;
+        }
+    }
+
+    /**
+     * [-XXX-] not followed by "{"
+     */
+    private void FindRemovedOnly(char[] buf, int s, int e) {
+        int p = s;
+        while (p + 1 < e) {
+            if (!Is(buf, p, e, '[', '-')) {
+                p++;
+                continue;
+            }
+            int matchEnd = -1;
+            for (int rmEnd = NextRemovedEnd(buf, p + 2, e); rmEnd != -1; rmEnd = NextRemovedEnd(buf, rmEnd + 1, e)) {
+                if (rmEnd + 2 < e && buf[rmEnd + 2] == '{')
+                    continue;
+                res.add(new GitCmdRunner.CodeReplacement(new String(buf, p + 2, rmEnd - p - 2), null, before_startLine, after_startLine));
+                matchEnd = rmEnd + 2;
+                break;
+            }
+            p = (matchEnd == -1) ? p + 1 : matchEnd;
+        }
+    }
+
+    /**
+     * {+YYY+} not preceded by "]"
+     */
+    private void FindAddedOnly(char[] buf, int s, int e) {
+        int p = s;
+        while (p + 1 < e) {
+            if (!Is(buf, p, e, '{', '+') || (p > s && buf[p - 1] == ']')) {
+                p++;
+                continue;
+            }
+            int addEnd = AddedEnd(buf, p + 2, e);
+            if (addEnd == -1) {
+                p++;
+                continue;
+            }
+            res.add(new GitCmdRunner.CodeReplacement(null, new String(buf, p + 2, addEnd - p - 2), before_startLine, after_startLine));
+            p = addEnd + 2;
+        }
+    }
+
+    /**
+     * @param from  a position inside a [-XXX-] part
+     * @return  position of the next "-]" which can close it, or -1 if there's none before a "[-"
+     */
+    private static int NextRemovedEnd(char[] buf, int from, int e) {
+        for (int k = from; k < e; k++) {
+            if (Is(buf, k, e, '-', ']'))
+                return k;
+            if (Is(buf, k, e, '[', '-') || IsLineTerminator(buf[k]))
+                return -1;
+        }
+        return -1;
+    }
+
+    /**
+     * @param from  start of YYY in a {+YYY+} part
+     * @return  position of the "+}" closing it, or -1 if there's none before a "{+"
+     */
+    private static int AddedEnd(char[] buf, int from, int e) {
+        for (int k = from; k < e; k++) {
+            if (Is(buf, k, e, '+', '}'))
+                return k;
+            if (Is(buf, k, e, '{', '+') || IsLineTerminator(buf[k]))
+                return -1;
+        }
+        return -1;
+    }
+
+    private static boolean Is(char[] buf, int i, int e, char c1, char c2) {
+        return i + 1 < e && buf[i] == c1 && buf[i + 1] == c2;
+    }
+
+    /**
+     * Characters which regex "." doesn't match
+     */
+    private static boolean IsLineTerminator(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+
+    private static boolean StartsWith(char[] buf, int s, int e, String prefix) {
+        if (e - s < prefix.length())
+            return false;
+        for (int i = 0; i < prefix.length(); i++)
+            if (buf[s + i] != prefix.charAt(i))
+                return false;
+        return true;
+    }
+
+
+    /**
+     * The previous regex-based parser. Kept to check `WordDiffParser` against it, see `main`.
+     */
+    static List<GitCmdRunner.CodeReplacement> ParseWithRegex(String WordDiffCode, boolean onlyPairs)
+    {
+        List<GitCmdRunner.CodeReplacement> res = new ArrayList<>();
+
+        String GIT_DIFF__RM_PATTERN = "\\[-((?:(?!\\[-).)*?)-\\]"; // See https://stackoverflow.com/questions/70386440
+        String GIT_DIFF__ADD_PATTERN = "\\{\\+((?:(?!\\{\\+).)*?)\\+\\}";
+
+        Pattern line_numbers_pattern = Pattern.compile("@@ \\-(\\d+)(?:,\\d+)? \\+(\\d+)(?:,\\d+)? @@");
+        Pattern rm_add_pattern = Pattern.compile(String.format("%s%s", GIT_DIFF__RM_PATTERN, GIT_DIFF__ADD_PATTERN));
+        Pattern rm_pattern = Pattern.compile(String.format("%s(?!\\{)", GIT_DIFF__RM_PATTERN));
+        Pattern add_pattern = Pattern.compile(String.format("(?<!\\])%s", GIT_DIFF__ADD_PATTERN));
+
+        int before_startLine=-1, after_startLine=-1;
+        boolean foundHunkHeader = false;
+        for (String line : WordDiffCode.split("\n")) {
+            line = line.strip();
+            if(line.startsWith("diff --git") || line.startsWith("---") || line.startsWith("+++")) {
+                foundHunkHeader =  false;
+                continue;
+            }
+
+            if(line.startsWith("@@"))
+            {
+                Matcher line_matcher = line_numbers_pattern.matcher(line);
+                if(line_matcher.find())
+                {
+                    before_startLine = Integer.parseInt(line_matcher.group(1));
+                    after_startLine = Integer.parseInt(line_matcher.group(2));
+                    foundHunkHeader =  true;
+                }
+            }
+            else if(foundHunkHeader)
+            {
+                if(before_startLine==-1 || after_startLine==-1)
+                    continue;
+
+                if(line.strip().isEmpty())
+                {
+                    before_startLine++;
+                    after_startLine++;
+                }
+                else {
+                    Matcher regex_rm_add_pair = rm_add_pattern.matcher(line);
+                    while (regex_rm_add_pair.find())
+                        res.add(new GitCmdRunner.CodeReplacement(regex_rm_add_pair.group(1), regex_rm_add_pair.group(2), before_startLine, after_startLine));
+
+                    if (onlyPairs == false) {
+                        Matcher regex_rm = rm_pattern.matcher(line);
+                        Matcher regex_add = add_pattern.matcher(line);
+                        while (regex_rm.find())
+                            res.add(new GitCmdRunner.CodeReplacement(regex_rm.group(1), null, before_startLine, after_startLine));
+                        while (regex_add.find())
+                            res.add(new GitCmdRunner.CodeReplacement(null, regex_add.group(1), before_startLine, after_startLine));
+                    }
+
+                    if (line.startsWith("{+") && line.endsWith("+}"))
+                        after_startLine++;
+                    else if (line.startsWith("[-") && line.endsWith("-]"))
+                        before_startLine++;
+                    else {
+                        before_startLine++;
+                        after_startLine++;
+                    }
+                }
+            }
+        }
+
+        return res;
+    }
+
+    /**
+     * Compares with `ParseWithRegex`, from the project directory:
+     *      java ... WordDiffParser                         recorded diffs of "samples/word-diff", and 2000 generated ones
+     *      java ... WordDiffParser diff1.txt diff2.txt ... other `git diff --unified=0 --word-diff` outputs
+     *      java ... WordDiffParser --generated N           N generated diffs only (seeds 0..N-1)
+     * Recorded diffs are also timed.
+     */
+    public static void main(String[] args) throws IOException {
+        int nGenerated = 2000;
+        List<Path> files = new ArrayList<>();
+        if (args.length == 2 && args[0].equals("--generated"))
+            nGenerated = Integer.parseInt(args[1]);
+        else if (args.length > 0) {
+            nGenerated = 0;
+            for (String arg : args)
+                files.add(Path.of(arg));
+        }
+        else {
+            try (Stream<Path> list = Files.list(Path.of("samples", "word-diff"))) {
+                list.filter(f -> f.toString().endsWith(".diff")).sorted().forEach(files::add);
+            }
+        }
+
+        final int ROUNDS = 20;
+        for (Path file : files) {
+            String diff = Files.readString(file);
+            for (boolean onlyPairs : new boolean[]{true, false}) {
+                List<GitCmdRunner.CodeReplacement> expected = ParseWithRegex(diff, onlyPairs), actual = Parse(diff, onlyPairs);
+                int firstMismatch = FirstMismatch(expected, actual);
+                if (firstMismatch != -1)
+                    logger.error("{} (onlyPairs={}): different at replacement #{} ({} vs {} replacements)", file, onlyPairs, firstMismatch, expected.size(), actual.size());
+
+                long regexNs = 0, stateMachineNs = 0;
+                for (int r = 0; r < ROUNDS; r++) {
+                    long t0 = System.nanoTime();
+                    ParseWithRegex(diff, onlyPairs);
+                    long t1 = System.nanoTime();
+                    Parse(diff, onlyPairs);
+                    long t2 = System.nanoTime();
+                    if (r >= ROUNDS / 2) { // first rounds are warm-up
+                        regexNs += t1 - t0;
+                        stateMachineNs += t2 - t1;
+                    }
+                }
+                logger.info("{} (onlyPairs={}, {} lines): {} replacements, {}. regex: {} ms, state machine: {} ms", file, onlyPairs,
+                        diff.chars().filter(c -> c == '\n').count(), expected.size(), firstMismatch == -1 ? "same" : "DIFFERENT",
+                        regexNs / (ROUNDS / 2) / 1_000_000.0, stateMachineNs / (ROUNDS / 2) / 1_000_000.0);
+            }
+        }
+
+        long nLines = 0;
+        int nDifferent = 0;
+        for (int seed = 0; seed < nGenerated; seed++) {
+            String diff = GenerateWordDiff(new Random(seed));
+            nLines += diff.chars().filter(c -> c == '\n').count();
+            for (boolean onlyPairs : new boolean[]{true, false}) {
+                int firstMismatch = FirstMismatch(ParseWithRegex(diff, onlyPairs), Parse(diff, onlyPairs));
+                if (firstMismatch != -1 && ++nDifferent <= 5)
+                    logger.error("seed {} (onlyPairs={}): different at replacement #{} of:\n{}", seed, onlyPairs, firstMismatch, diff);
+            }
+        }
+        if (nGenerated > 0)
+            logger.info("{} generated diffs ({} lines): {} different", nGenerated, nLines, nDifferent);
+    }
+
+    private static final String[] GENERATED_PIECES = {"[-", "-]", "{+", "+}", "[-a-]", "{+b+}", "[-x y-]{+z+}", "]", "{", "[", "}",
+            "-", "+", "foo", "(", ")", ";", " ", "  ", "\t", "\r", "\u2028", "@@", "@@ -1 +1 @@"};
+
+    /**
+     * Like `git diff --unified=0 --word-diff` outputs, but lines of hunks are random pieces of [-XXX-] and {+YYY+} parts,
+     * and there are random (sometimes bad) hunk headers and file headers
+     */
+    private static String GenerateWordDiff(Random rnd) {
+        StringBuilder sb = new StringBuilder();
+        int nLines = rnd.nextInt(300);
+        for (int i = 0; i < nLines; i++) {
+            int r = rnd.nextInt(40);
+            if (r == 0)
+                sb.append("diff --git a/A.java b/A.java\nindex 1111111..2222222 100644\n--- a/A.java\n+++ b/A.java");
+            else if (r < 4)
+                sb.append(String.format("@@ -%d%s +%d%s @@%s", rnd.nextInt(500), rnd.nextBoolean() ? "," + rnd.nextInt(9) : "",
+                        rnd.nextInt(500), rnd.nextBoolean() ? "," + rnd.nextInt(9) : "", rnd.nextInt(4) == 0 ? " class A {" : ""));
+            else if (r == 4)
+                sb.append(rnd.nextBoolean() ? "@@ -x +1 @@" : "   ");
+            else {
+                int nPieces = rnd.nextInt(12);
+                for (int j = 0; j < nPieces; j++)
+                    sb.append(GENERATED_PIECES[rnd.nextInt(GENERATED_PIECES.length)]);
+            }
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static int FirstMismatch(List<GitCmdRunner.CodeReplacement> a, List<GitCmdRunner.CodeReplacement> b) {
+        for (int i = 0; i < Math.min(a.size(), b.size()); i++) {
+            GitCmdRunner.CodeReplacement x = a.get(i), y = b.get(i);
+            if (!String.valueOf(x.removedCode).equals(String.valueOf(y.removedCode)) || !String.valueOf(x.addedCode).equals(String.valueOf(y.addedCode))
+                    || x.lineStart_before != y.lineStart_before || x.lineStart_after != y.lineStart_after)
+                return i;
+        }
+        return a.size() == b.size() ? -1 : Math.min(a.size(), b.size());
+    }
+}
@@ -0,0 +1,686 @@
+package com.anon.cmdrunners;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Java port of the parts of git's xdiff (xprepare.c, xdiffi.c) which a default `git diff` goes through: Myers' algorithm
+ * with xdiff's speed-up heuristics, then sliding change groups up/down (optionally with the "indent heuristic").
+ * `WordDiffEngine` needs exactly the same hunks as git, so this follows the C code closely, names included.
+ *
+ * Lines are given as class ids: two lines have the same id iff they are considered equal (e.g., ignoring whitespace).
+ */
+class XDiff {
+    private static final int XDL_MAX_COST_MIN = 256, XDL_HEUR_MIN_COST = 256, XDL_SNAKE_CNT = 20, XDL_K_HEUR = 4;
+    private static final int XDL_MAX_EQLIMIT = 1024, XDL_SIMSCAN_WINDOW = 100, XDL_KPDIS_RUN = 4;
+    private static final long XDL_LINE_MAX = Long.MAX_VALUE;
+
+    // Indent heuristic, see xdiffi.c
+    private static final int MAX_INDENT = 200, MAX_BLANKS = 20;
+    private static final int START_OF_FILE_PENALTY = 1, END_OF_FILE_PENALTY = 21;
+    private static final int TOTAL_BLANK_WEIGHT = -30, POST_BLANK_WEIGHT = 6;
+    private static final int RELATIVE_INDENT_PENALTY = -4, RELATIVE_INDENT_WITH_BLANK_PENALTY = 10;
+    private static final int RELATIVE_OUTDENT_PENALTY = 24, RELATIVE_OUTDENT_WITH_BLANK_PENALTY = 17;
+    private static final int RELATIVE_DEDENT_PENALTY = 23, RELATIVE_DEDENT_WITH_BLANK_PENALTY = 17;
+    private static final int INDENT_WEIGHT = 60, INDENT_HEURISTIC_MAX_SLIDING = 100;
+
+    /**
+     * Lines [i1, i1+chg1) of file 1 are replaced by lines [i2, i2+chg2) of file 2 (0-based)
+     */
+    static class Change {
+        final int i1, i2, chg1, chg2;
+
+        Change(int i1, int i2, int chg1, int chg2) {
+            this.i1 = i1;
+            this.i2 = i2;
+            this.chg1 = chg1;
+            this.chg2 = chg2;
+        }
+    }
+
+    private static class XdFile {
+        final int nrec;
+        final int[] ha;         // class of each line
+        final int[] indent;     // see `GetIndent`, null if indent heuristic is off
+        final byte[] rchg;      // rchg[i + 1] is 1 if line i is changed. rchg[0] and rchg[nrec + 1] are sentinels.
+        int dstart, dend;       // lines outside [dstart, dend] are common prefix/suffix
+        int[] rindex, rha;      // lines which go through Myers (the others are already decided)
+        int nreff;
+
+        XdFile(int[] ha, int[] indent) {
+            this.nrec = ha.length;
+            this.ha = ha;
+            this.indent = indent;
+            this.rchg = new byte[nrec + 2];
+        }
+
+        boolean Changed(int i) {
+            return i >= -1 && i <= nrec && rchg[i + 1] != 0;
+        }
+
+        void SetChanged(int i, boolean changed) {
+            rchg[i + 1] = (byte) (changed ? 1 : 0);
+        }
+    }
+
+    private static class Split {
+        int i1, i2;
+        boolean min_lo, min_hi;
+    }
+
+    private final XdFile xdf1, xdf2;
+    private long[] kvdf, kvdb;
+    private int koff;
+    private long mxcost;
+
+    /**
+     * @param indent1   indentation of lines (see `GetIndent`) to use the indent heuristic, or null
+     * @return  changes, in order
+     */
+    static List<Change> Diff(int[] ha1, int[] ha2, int nClasses, int[] indent1, int[] indent2) {
+        XDiff x = new XDiff(ha1, ha2, indent1, indent2);
+        x.Optimize(nClasses);
+        x.DoDiff();
+        boolean indentHeuristic = indent1 != null && indent2 != null;
+        ChangeCompact(x.xdf1, x.xdf2, indentHeuristic);
+        ChangeCompact(x.xdf2, x.xdf1, indentHeuristic);
+        return BuildScript(x.xdf1, x.xdf2);
+    }
+
+    /**
+     * Same as xdiff's get_indent(): number of leading spaces (tab = up to next multiple of 8), -1 for blank lines
+     */
+    static int GetIndent(CharSequence line) {
+        int ret = 0;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (!IsSpace(c))
+                return ret;
+            else if (c == ' ')
+                ret += 1;
+            else if (c == '\t')
+                ret += 8 - ret % 8;
+            // ignore other whitespace characters
+
+            if (ret >= MAX_INDENT)
+                return MAX_INDENT;
+        }
+        return -1; // The line contains only whitespace
+    }
+
+    /**
+     * git's isspace()
+     */
+    static boolean IsSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r';
+    }
+
+    private XDiff(int[] ha1, int[] ha2, int[] indent1, int[] indent2) {
+        xdf1 = new XdFile(ha1, indent1);
+        xdf2 = new XdFile(ha2, indent2);
+    }
+
+    // *************************************************************************
+    // ******************* xprepare.c: reduce the problem **********************
+    // *************************************************************************
+
+    private void Optimize(int nClasses) {
+        TrimEnds();
+        CleanupRecords(nClasses);
+    }
+
+    private void TrimEnds() {
+        int i, lim = Math.min(xdf1.nrec, xdf2.nrec);
+        for (i = 0; i < lim; i++)
+            if (xdf1.ha[i] != xdf2.ha[i])
+                break;
+        xdf1.dstart = xdf2.dstart = i;
+
+        lim -= i;
+        for (i = 0; i < lim; i++)
+            if (xdf1.ha[xdf1.nrec - 1 - i] != xdf2.ha[xdf2.nrec - 1 - i])
+                break;
+        xdf1.dend = xdf1.nrec - i - 1;
+        xdf2.dend = xdf2.nrec - i - 1;
+    }
+
+    /**
+     * Lines with no match in the other file are changed for sure. Lines with many matches are also discarded when
+     * they are among such lines.
+     */
+    private void CleanupRecords(int nClasses) {
+        int[] len1 = new int[nClasses], len2 = new int[nClasses];
+        for (int h : xdf1.ha)
+            len1[h]++;
+        for (int h : xdf2.ha)
+            len2[h]++;
+
+        byte[] dis1 = new byte[xdf1.nrec + 1], dis2 = new byte[xdf2.nrec + 1];
+        long mlim = Math.min(BogoSqrt(xdf1.nrec), XDL_MAX_EQLIMIT);
+        for (int i = xdf1.dstart; i <= xdf1.dend; i++) {
+            int nm = len2[xdf1.ha[i]];
+            dis1[i] = (byte) ((nm == 0) ? 0 : (nm >= mlim) ? 2 : 1);
+        }
+        mlim = Math.min(BogoSqrt(xdf2.nrec), XDL_MAX_EQLIMIT);
+        for (int i = xdf2.dstart; i <= xdf2.dend; i++) {
+            int nm = len1[xdf2.ha[i]];
+            dis2[i] = (byte) ((nm == 0) ? 0 : (nm >= mlim) ? 2 : 1);
+        }
+
+        KeepRecords(xdf1, dis1);
+        KeepRecords(xdf2, dis2);
+    }
+
+    private static void KeepRecords(XdFile xdf, byte[] dis) {
+        int size = Math.max(0, xdf.dend - xdf.dstart + 1);
+        xdf.rindex = new int[size];
+        xdf.rha = new int[size];
+        int nreff = 0;
+        for (int i = xdf.dstart; i <= xdf.dend; i++) {
+            if (dis[i] == 1 || (dis[i] == 2 && !CleanMMatch(dis, i, xdf.dstart, xdf.dend))) {
+                xdf.rindex[nreff] = i;
+                xdf.rha[nreff] = xdf.ha[i];
+                nreff++;
+            } else
+                xdf.SetChanged(i, true);
+        }
+        xdf.nreff = nreff;
+    }
+
+    /**
+     * @return  true if line `i` (which has many matches) is in the middle of a run of lines with no match
+     */
+    private static boolean CleanMMatch(byte[] dis, int i, int s, int e) {
+        if (i - s > XDL_SIMSCAN_WINDOW)
+            s = i - XDL_SIMSCAN_WINDOW;
+        if (e - i > XDL_SIMSCAN_WINDOW)
+            e = i + XDL_SIMSCAN_WINDOW;
+
+        int r, rdis0, rpdis0, rdis1, rpdis1;
+        for (r = 1, rdis0 = 0, rpdis0 = 1; (i - r) >= s; r++) {
+            if (dis[i - r] == 0)
+                rdis0++;
+            else if (dis[i - r] == 2)
+                rpdis0++;
+            else
+                break;
+        }
+        if (rdis0 == 0)
+            return false;
+        for (r = 1, rdis1 = 0, rpdis1 = 1; (i + r) <= e; r++) {
+            if (dis[i + r] == 0)
+                rdis1++;
+            else if (dis[i + r] == 2)
+                rpdis1++;
+            else
+                break;
+        }
+        if (rdis1 == 0)
+            return false;
+        rdis1 += rdis0;
+        rpdis1 += rpdis0;
+
+        return rpdis1 * XDL_KPDIS_RUN < (rpdis1 + rdis1);
+    }
+
+    private static long BogoSqrt(long n) {
+        long i;
+        for (i = 1; n > 0; n >>= 2)
+            i <<= 1;
+        return i;
+    }
+
+    // *************************************************************************
+    // ************************* xdiffi.c: Myers *******************************
+    // *************************************************************************
+
+    private void DoDiff() {
+        int ndiags = xdf1.nreff + xdf2.nreff + 3;
+        kvdf = new long[ndiags];
+        kvdb = new long[ndiags];
+        koff = xdf2.nreff + 1;
+
+        mxcost = Math.max(BogoSqrt(ndiags), XDL_MAX_COST_MIN);
+
+        // xdl_recs_cmp() is recursive. Same order here, with a stack.
+        Deque<int[]> boxes = new ArrayDeque<>();
+        boxes.push(new int[]{0, xdf1.nreff, 0, xdf2.nreff, 0});
+        while (!boxes.isEmpty()) {
+            int[] box = boxes.pop();
+            int off1 = box[0], lim1 = box[1], off2 = box[2], lim2 = box[3];
+            int[] ha1 = xdf1.rha, ha2 = xdf2.rha;
+
+            // Shrink the box by walking through each diagonal snake (SW and NE)
+            for (; off1 < lim1 && off2 < lim2 && ha1[off1] == ha2[off2]; off1++, off2++) ;
+            for (; off1 < lim1 && off2 < lim2 && ha1[lim1 - 1] == ha2[lim2 - 1]; lim1--, lim2--) ;
+
+            // If one dimension is empty, then all records on the other one must be obviously changed
+            if (off1 == lim1) {
+                for (; off2 < lim2; off2++)
+                    xdf2.SetChanged(xdf2.rindex[off2], true);
+            } else if (off2 == lim2) {
+                for (; off1 < lim1; off1++)
+                    xdf1.SetChanged(xdf1.rindex[off1], true);
+            } else {
+                Split spl = new Split();
+                Split(ha1, off1, lim1, ha2, off2, lim2, box[4] != 0, spl);
+                boxes.push(new int[]{spl.i1, lim1, spl.i2, lim2, spl.min_hi ? 1 : 0});
+                boxes.push(new int[]{off1, spl.i1, off2, spl.i2, spl.min_lo ? 1 : 0});
+            }
+        }
+    }
+
+    /**
+     * Finds where to split the box in two, by running the forward and backward paths until they meet (or until
+     * heuristics say it's good enough). See xdl_split() in xdiffi.c.
+     */
+    private long Split(int[] ha1, int off1, int lim1, int[] ha2, int off2, int lim2, boolean need_min, Split spl) {
+        long dmin = off1 - lim2, dmax = lim1 - off2;
+        long fmid = off1 - off2, bmid = lim1 - lim2;
+        boolean odd = ((fmid - bmid) & 1) != 0;
+        long fmin = fmid, fmax = fmid;
+        long bmin = bmid, bmax = bmid;
+        long ec, d, i1, i2, prev1, best, dd, v, k;
+
+        // Set initial diagonal values for both forward and backward path
+        kvdf[(int) (fmid + koff)] = off1;
+        kvdb[(int) (bmid + koff)] = lim1;
+
+        for (ec = 1; ; ec++) {
+            boolean got_snake = false;
+
+            // Extend the diagonal "domain" by one, or shrink it if it would go out of the box
+            if (fmin > dmin)
+                kvdf[(int) (--fmin - 1 + koff)] = -1;
+            else
+                ++fmin;
+            if (fmax < dmax)
+                kvdf[(int) (++fmax + 1 + koff)] = -1;
+            else
+                --fmax;
+
+            for (d = fmax; d >= fmin; d -= 2) {
+                if (kvdf[(int) (d - 1 + koff)] >= kvdf[(int) (d + 1 + koff)])
+                    i1 = kvdf[(int) (d - 1 + koff)] + 1;
+                else
+                    i1 = kvdf[(int) (d + 1 + koff)];
+                prev1 = i1;
+                i2 = i1 - d;
+                for (; i1 < lim1 && i2 < lim2 && ha1[(int) i1] == ha2[(int) i2]; i1++, i2++) ;
+                if (i1 - prev1 > XDL_SNAKE_CNT)
+                    got_snake = true;
+                kvdf[(int) (d + koff)] = i1;
+                if (odd && bmin <= d && d <= bmax && kvdb[(int) (d + koff)] <= i1) {
+                    spl.i1 = (int) i1;
+                    spl.i2 = (int) i2;
+                    spl.min_lo = spl.min_hi = true;
+                    return ec;
+                }
+            }
+
+            if (bmin > dmin)
+                kvdb[(int) (--bmin - 1 + koff)] = XDL_LINE_MAX;
+            else
+                ++bmin;
+            if (bmax < dmax)
+                kvdb[(int) (++bmax + 1 + koff)] = XDL_LINE_MAX;
+            else
+                --bmax;
+
+            for (d = bmax; d >= bmin; d -= 2) {
+                if (kvdb[(int) (d - 1 + koff)] < kvdb[(int) (d + 1 + koff)])
+                    i1 = kvdb[(int) (d - 1 + koff)];
+                else
+                    i1 = kvdb[(int) (d + 1 + koff)] - 1;
+                prev1 = i1;
+                i2 = i1 - d;
+                for (; i1 > off1 && i2 > off2 && ha1[(int) (i1 - 1)] == ha2[(int) (i2 - 1)]; i1--, i2--) ;
+                if (prev1 - i1 > XDL_SNAKE_CNT)
+                    got_snake = true;
+                kvdb[(int) (d + koff)] = i1;
+                if (!odd && fmin <= d && d <= fmax && i1 <= kvdf[(int) (d + koff)]) {
+                    spl.i1 = (int) i1;
+                    spl.i2 = (int) i2;
+                    spl.min_lo = spl.min_hi = true;
+                    return ec;
+                }
+            }
+
+            if (need_min)
+                continue;
+
+            // If the edit cost is above the heuristic trigger and we got a good snake, we check whether some of the
+            // current diagonals have reached an "interesting" path
+            if (got_snake && ec > XDL_HEUR_MIN_COST) {
+                for (best = 0, d = fmax; d >= fmin; d -= 2) {
+                    dd = d > fmid ? d - fmid : fmid - d;
+                    i1 = kvdf[(int) (d + koff)];
+                    i2 = i1 - d;
+                    v = (i1 - off1) + (i2 - off2) - dd;
+
+                    if (v > XDL_K_HEUR * ec && v > best &&
+                            off1 + XDL_SNAKE_CNT <= i1 && i1 < lim1 &&
+                            off2 + XDL_SNAKE_CNT <= i2 && i2 < lim2) {
+                        for (k = 1; ha1[(int) (i1 - k)] == ha2[(int) (i2 - k)]; k++)
+                            if (k == XDL_SNAKE_CNT) {
+                                best = v;
+                                spl.i1 = (int) i1;
+                                spl.i2 = (int) i2;
+                                break;
+                            }
+                    }
+                }
+                if (best > 0) {
+                    spl.min_lo = true;
+                    spl.min_hi = false;
+                    return ec;
+                }
+
+                for (best = 0, d = bmax; d >= bmin; d -= 2) {
+                    dd = d > bmid ? d - bmid : bmid - d;
+                    i1 = kvdb[(int) (d + koff)];
+                    i2 = i1 - d;
+                    v = (lim1 - i1) + (lim2 - i2) - dd;
+
+                    if (v > XDL_K_HEUR * ec && v > best &&
+                            off1 < i1 && i1 <= lim1 - XDL_SNAKE_CNT &&
+                            off2 < i2 && i2 <= lim2 - XDL_SNAKE_CNT) {
+                        for (k = 0; ha1[(int) (i1 + k)] == ha2[(int) (i2 + k)]; k++)
+                            if (k == XDL_SNAKE_CNT - 1) {
+                                best = v;
+                                spl.i1 = (int) i1;
+                                spl.i2 = (int) i2;
+                                break;
+                            }
+                    }
+                }
+                if (best > 0) {
+                    spl.min_lo = false;
+                    spl.min_hi = true;
+                    return ec;
+                }
+            }
+
+            // Enough is enough: take the furthest reaching path using the (i1 + i2) measure
+            if (ec >= mxcost) {
+                long fbest, fbest1, bbest, bbest1;
+
+                fbest = fbest1 = -1;
+                for (d = fmax; d >= fmin; d -= 2) {
+                    i1 = Math.min(kvdf[(int) (d + koff)], lim1);
+                    i2 = i1 - d;
+                    if (lim2 < i2) {
+                        i1 = lim2 + d;
+                        i2 = lim2;
+                    }
+                    if (fbest < i1 + i2) {
+                        fbest = i1 + i2;
+                        fbest1 = i1;
+                    }
+                }
+
+                bbest = bbest1 = XDL_LINE_MAX;
+                for (d = bmax; d >= bmin; d -= 2) {
+                    i1 = Math.max(off1, kvdb[(int) (d + koff)]);
+                    i2 = i1 - d;
+                    if (i2 < off2) {
+                        i1 = off2 + d;
+                        i2 = off2;
+                    }
+                    if (i1 + i2 < bbest) {
+                        bbest = i1 + i2;
+                        bbest1 = i1;
+                    }
+                }
+
+                if ((lim1 + lim2) - bbest < fbest - (off1 + off2)) {
+                    spl.i1 = (int) fbest1;
+                    spl.i2 = (int) (fbest - fbest1);
+                    spl.min_lo = true;
+                    spl.min_hi = false;
+                } else {
+                    spl.i1 = (int) bbest1;
+                    spl.i2 = (int) (bbest - bbest1);
+                    spl.min_lo = false;
+                    spl.min_hi = true;
+                }
+                return ec;
+            }
+        }
+    }
+
+    // *************************************************************************
+    // ************* xdiffi.c: slide change groups, build script ***************
+    // *************************************************************************
+
+    /**
+     * A group of changed lines [start, end), possibly empty
+     */
+    private static class Group {
+        int start, end;
+
+        void Init(XdFile xdf) {
+            start = end = 0;
+            while (xdf.Changed(end))
+                end++;
+        }
+
+        boolean Next(XdFile xdf) {
+            if (end == xdf.nrec)
+                return false;
+            start = end + 1;
+            for (end = start; xdf.Changed(end); end++) ;
+            return true;
+        }
+
+        boolean Previous(XdFile xdf) {
+            if (start == 0)
+                return false;
+            end = start - 1;
+            for (start = end; xdf.Changed(start - 1); start--) ;
+            return true;
+        }
+
+        boolean SlideDown(XdFile xdf) {
+            if (end < xdf.nrec && xdf.ha[start] == xdf.ha[end]) {
+                xdf.SetChanged(start++, false);
+                xdf.SetChanged(end++, true);
+                while (xdf.Changed(end))
+                    end++;
+                return true;
+            }
+            return false;
+        }
+
+        boolean SlideUp(XdFile xdf) {
+            if (start > 0 && xdf.ha[start - 1] == xdf.ha[end - 1]) {
+                xdf.SetChanged(--start, true);
+                xdf.SetChanged(--end, false);
+                while (xdf.Changed(start - 1))
+                    start--;
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Move change groups up/down, merging them when they bump into each other, for a consistent and pretty output.
+     * See xdl_change_compact() in xdiffi.c.
+     */
+    private static void ChangeCompact(XdFile xdf, XdFile xdfo, boolean indentHeuristic) {
+        Group g = new Group(), go = new Group();
+        int earliest_end, end_matching_other, groupsize;
+
+        g.Init(xdf);
+        go.Init(xdfo);
+
+        while (true) {
+            if (g.end != g.start) {
+                // Shift the change up and then down as far as possible, merging it with other changes it bumps into
+                do {
+                    groupsize = g.end - g.start;
+                    end_matching_other = -1;
+
+                    while (g.SlideUp(xdf))
+                        if (!go.Previous(xdfo))
+                            throw new IllegalStateException("group sync broken sliding up");
+
+                    earliest_end = g.end;
+                    if (go.end > go.start)
+                        end_matching_other = g.end;
+
+                    while (true) {
+                        if (!g.SlideDown(xdf))
+                            break;
+                        if (!go.Next(xdfo))
+                            throw new IllegalStateException("group sync broken sliding down");
+                        if (go.end > go.start)
+                            end_matching_other = g.end;
+                    }
+                } while (groupsize != g.end - g.start);
+
+                // The group is now as far down as possible, below we only shift it up
+                if (g.end == earliest_end) {
+                    // no shifting was possible
+                } else if (end_matching_other != -1) {
+                    // Line up with the last group of changes from the other file that it can align with
+                    while (go.end == go.start) {
+                        if (!g.SlideUp(xdf))
+                            throw new IllegalStateException("match disappeared");
+                        if (!go.Previous(xdfo))
+                            throw new IllegalStateException("group sync broken sliding to match");
+                    }
+                } else if (indentHeuristic) {
+                    // Pick the position with the best score for its two splits (before and after the group)
+                    int shift, best_shift = -1;
+                    int[] best_score = null;
+
+                    shift = earliest_end;
+                    if (g.end - groupsize - 1 > shift)
+                        shift = g.end - groupsize - 1;
+                    if (g.end - INDENT_HEURISTIC_MAX_SLIDING > shift)
+                        shift = g.end - INDENT_HEURISTIC_MAX_SLIDING;
+                    for (; shift <= g.end; shift++) {
+                        int[] score = {0, 0}; // {effective_indent, penalty}
+                        ScoreAddSplit(MeasureSplit(xdf, shift), score);
+                        ScoreAddSplit(MeasureSplit(xdf, shift - groupsize), score);
+                        if (best_shift == -1 || ScoreCmp(score, best_score) <= 0) {
+                            best_score = score;
+                            best_shift = shift;
+                        }
+                    }
+
+                    while (g.end > best_shift) {
+                        if (!g.SlideUp(xdf))
+                            throw new IllegalStateException("best shift unreached");
+                        if (!go.Previous(xdfo))
+                            throw new IllegalStateException("group sync broken sliding to blank line");
+                    }
+                }
+            }
+
+            // Move past the just-processed group
+            if (!g.Next(xdf))
+                break;
+            if (!go.Next(xdfo))
+                throw new IllegalStateException("group sync broken moving to next group");
+        }
+    }
+
+    /**
+     * @return  {end_of_file, indent, pre_blank, pre_indent, post_blank, post_indent} of a split above line `split`
+     */
+    private static int[] MeasureSplit(XdFile xdf, int split) {
+        int end_of_file, indent, pre_blank = 0, pre_indent = -1, post_blank = 0, post_indent = -1;
+        if (split >= xdf.nrec) {
+            end_of_file = 1;
+            indent = -1;
+        } else {
+            end_of_file = 0;
+            indent = xdf.indent[split];
+        }
+
+        for (int i = split - 1; i >= 0; i--) {
+            pre_indent = xdf.indent[i];
+            if (pre_indent != -1)
+                break;
+            pre_blank += 1;
+            if (pre_blank == MAX_BLANKS) {
+                pre_indent = 0;
+                break;
+            }
+        }
+
+        for (int i = split + 1; i < xdf.nrec; i++) {
+            post_indent = xdf.indent[i];
+            if (post_indent != -1)
+                break;
+            post_blank += 1;
+            if (post_blank == MAX_BLANKS) {
+                post_indent = 0;
+                break;
+            }
+        }
+        return new int[]{end_of_file, indent, pre_blank, pre_indent, post_blank, post_indent};
+    }
+
+    private static void ScoreAddSplit(int[] m, int[] s) {
+        int end_of_file = m[0], m_indent = m[1], pre_blank = m[2], pre_indent = m[3], m_post_blank = m[4], post_indent = m[5];
+        int post_blank, total_blank, indent;
+        boolean any_blanks;
+
+        if (pre_indent == -1 && pre_blank == 0)
+            s[1] += START_OF_FILE_PENALTY;
+        if (end_of_file != 0)
+            s[1] += END_OF_FILE_PENALTY;
+
+        // Number of blank lines following the split, including the line immediately after it
+        post_blank = (m_indent == -1) ? 1 + m_post_blank : 0;
+        total_blank = pre_blank + post_blank;
+
+        s[1] += TOTAL_BLANK_WEIGHT * total_blank;
+        s[1] += POST_BLANK_WEIGHT * post_blank;
+
+        indent = (m_indent != -1) ? m_indent : post_indent;
+        any_blanks = (total_blank != 0);
+
+        s[0] += indent; // the effective indent is -1 at the end of the file
+
+        if (indent == -1 || pre_indent == -1) {
+            // No additional adjustments needed
+        } else if (indent > pre_indent) {
+            s[1] += any_blanks ? RELATIVE_INDENT_WITH_BLANK_PENALTY : RELATIVE_INDENT_PENALTY;
+        } else if (indent == pre_indent) {
+            // No additional adjustments needed
+        } else if (post_indent != -1 && post_indent > indent) {
+            // Likely the start of a block
+            s[1] += any_blanks ? RELATIVE_OUTDENT_WITH_BLANK_PENALTY : RELATIVE_OUTDENT_PENALTY;
+        } else {
+            // Likely the end of a block
+            s[1] += any_blanks ? RELATIVE_DEDENT_WITH_BLANK_PENALTY : RELATIVE_DEDENT_PENALTY;
+        }
+    }
+
+    private static int ScoreCmp(int[] s1, int[] s2) {
+        int cmp_indents = Integer.compare(s1[0], s2[0]);
+        return INDENT_WEIGHT * cmp_indents + (s1[1] - s2[1]);
+    }
+
+    private static List<Change> BuildScript(XdFile xdf1, XdFile xdf2) {
+        List<Change> res = new ArrayList<>();
+        for (int i1 = xdf1.nrec, i2 = xdf2.nrec; i1 >= 0 || i2 >= 0; i1--, i2--) {
+            if (xdf1.Changed(i1 - 1) || xdf2.Changed(i2 - 1)) {
+                int l1 = i1, l2 = i2;
+                for (; xdf1.Changed(i1 - 1); i1--) ;
+                for (; xdf2.Changed(i2 - 1); i2--) ;
+                res.add(new Change(i1, i2, l1 - i1, l2 - i2));
+            }
+        }
+        Collections.reverse(res);
+        return res;
+    }
+}
@@ -0,0 +1,343 @@
+package com.anon.datatype;
+
+import java.util.*;
+
+/**
+ * An immutable hash map (Hash Array Mapped Trie) where `With()` and `Without()` return a new map sharing all untouched
+ * nodes with the old one. An update costs O(log32 n) node copies instead of copying the whole map, which is what we
+ * need to keep a snapshot of project methods for every commit.
+ *
+ * Being a `java.util.Map`, it can be read like any other map. Mutators of `Map` (put, remove, ...) are not supported.
+ * Null keys are not supported.
+ */
+public final class PersistentHashMap<K, V> extends AbstractMap<K, V> {
+    private static final PersistentHashMap<?, ?> EMPTY = new PersistentHashMap<>(null, 0);
+
+    private final Node root;
+    private final int size;
+
+    private PersistentHashMap(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <K, V> PersistentHashMap<K, V> Empty() {
+        return (PersistentHashMap<K, V>) EMPTY;
+    }
+
+    /**
+     * @return a map which has `key` mapped to `value`, and is otherwise identical to this one
+     */
+    public PersistentHashMap<K, V> With(K key, V value) {
+        Objects.requireNonNull(key);
+        Node base = (root == null) ? BitmapIndexedNode.EMPTY : root;
+        boolean[] addedLeaf = new boolean[1];
+        Node newRoot = base.With(0, Hash(key), key, value, addedLeaf);
+        if (newRoot == root)
+            return this;
+        return new PersistentHashMap<>(newRoot, addedLeaf[0] ? size + 1 : size);
+    }
+
+    /**
+     * @return a map which has no mapping for `key`, and is otherwise identical to this one
+     */
+    public PersistentHashMap<K, V> Without(K key) {
+        if (root == null || key == null)
+            return this;
+        Node newRoot = root.Without(0, Hash(key), key);
+        if (newRoot == root)
+            return this;
+        return new PersistentHashMap<>(newRoot, size - 1);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        if (root == null || key == null)
+            return null;
+        return (V) root.Find(0, Hash(key), key, null);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        if (root == null || key == null)
+            return false;
+        return root.Find(0, Hash(key), key, NOT_FOUND) != NOT_FOUND;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Entry<K, V>> iterator() {
+                return new EntryIterator<>(root);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    private static final Object NOT_FOUND = new Object();
+
+    private static int Hash(Object key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private static int Mask(int hash, int shift) {
+        return (hash >>> shift) & 0x1f;
+    }
+
+    private static int BitPos(int hash, int shift) {
+        return 1 << Mask(hash, shift);
+    }
+
+    private static abstract class Node {
+        abstract Object Find(int shift, int hash, Object key, Object notFound);
+
+        abstract Node With(int shift, int hash, Object key, Object value, boolean[] addedLeaf);
+
+        /**
+         * @return `this` if key is not found; `null` if the node becomes empty
+         */
+        abstract Node Without(int shift, int hash, Object key);
+    }
+
+    /**
+     * `array` holds a (key, value) pair for each bit set in `bitmap`. If key is null, value is a sub-node.
+     */
+    private static final class BitmapIndexedNode extends Node {
+        static final BitmapIndexedNode EMPTY = new BitmapIndexedNode(0, new Object[0]);
+
+        final int bitmap;
+        final Object[] array;
+
+        BitmapIndexedNode(int bitmap, Object[] array) {
+            this.bitmap = bitmap;
+            this.array = array;
+        }
+
+        private int Index(int bit) {
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+
+        @Override
+        Object Find(int shift, int hash, Object key, Object notFound) {
+            int bit = BitPos(hash, shift);
+            if ((bitmap & bit) == 0)
+                return notFound;
+            int idx = Index(bit);
+            Object keyOrNull = array[2 * idx];
+            Object valOrNode = array[2 * idx + 1];
+            if (keyOrNull == null)
+                return ((Node) valOrNode).Find(shift + 5, hash, key, notFound);
+            if (key.equals(keyOrNull))
+                return valOrNode;
+            return notFound;
+        }
+
+        @Override
+        Node With(int shift, int hash, Object key, Object value, boolean[] addedLeaf) {
+            int bit = BitPos(hash, shift);
+            int idx = Index(bit);
+            if ((bitmap & bit) != 0) {
+                Object keyOrNull = array[2 * idx];
+                Object valOrNode = array[2 * idx + 1];
+                if (keyOrNull == null) {
+                    Node n = ((Node) valOrNode).With(shift + 5, hash, key, value, addedLeaf);
+                    if (n == valOrNode)
+                        return this;
+                    return new BitmapIndexedNode(bitmap, CloneAndSet(array, 2 * idx + 1, n));
+                }
+                if (key.equals(keyOrNull)) {
+                    if (value == valOrNode)
+                        return this;
+                    return new BitmapIndexedNode(bitmap, CloneAndSet(array, 2 * idx + 1, value));
+                }
+                addedLeaf[0] = true;
+                Node sub = CreateNode(shift + 5, keyOrNull, valOrNode, hash, key, value);
+                Object[] newArray = array.clone();
+                newArray[2 * idx] = null;
+                newArray[2 * idx + 1] = sub;
+                return new BitmapIndexedNode(bitmap, newArray);
+            }
+
+            addedLeaf[0] = true;
+            int n = Integer.bitCount(bitmap);
+            Object[] newArray = new Object[2 * (n + 1)];
+            System.arraycopy(array, 0, newArray, 0, 2 * idx);
+            newArray[2 * idx] = key;
+            newArray[2 * idx + 1] = value;
+            System.arraycopy(array, 2 * idx, newArray, 2 * (idx + 1), 2 * (n - idx));
+            return new BitmapIndexedNode(bitmap | bit, newArray);
+        }
+
+        @Override
+        Node Without(int shift, int hash, Object key) {
+            int bit = BitPos(hash, shift);
+            if ((bitmap & bit) == 0)
+                return this;
+            int idx = Index(bit);
+            Object keyOrNull = array[2 * idx];
+            Object valOrNode = array[2 * idx + 1];
+            if (keyOrNull == null) {
+                Node n = ((Node) valOrNode).Without(shift + 5, hash, key);
+                if (n == valOrNode)
+                    return this;
+                if (n != null)
+                    return new BitmapIndexedNode(bitmap, CloneAndSet(array, 2 * idx + 1, n));
+                return RemovePair(bit, idx);
+            }
+            if (key.equals(keyOrNull))
+                return RemovePair(bit, idx);
+            return this;
+        }
+
+        private Node RemovePair(int bit, int idx) {
+            if (bitmap == bit)
+                return null;
+            Object[] newArray = new Object[array.length - 2];
+            System.arraycopy(array, 0, newArray, 0, 2 * idx);
+            System.arraycopy(array, 2 * (idx + 1), newArray, 2 * idx, newArray.length - 2 * idx);
+            return new BitmapIndexedNode(bitmap ^ bit, newArray);
+        }
+    }
+
+    /**
+     * Keys with the very same (full 32-bit) hash
+     */
+    private static final class HashCollisionNode extends Node {
+        final int hash;
+        final Object[] array;
+
+        HashCollisionNode(int hash, Object[] array) {
+            this.hash = hash;
+            this.array = array;
+        }
+
+        private int FindIndex(Object key) {
+            for (int i = 0; i < array.length; i += 2)
+                if (key.equals(array[i]))
+                    return i;
+            return -1;
+        }
+
+        @Override
+        Object Find(int shift, int hash, Object key, Object notFound) {
+            int idx = FindIndex(key);
+            return (idx < 0) ? notFound : array[idx + 1];
+        }
+
+        @Override
+        Node With(int shift, int hash, Object key, Object value, boolean[] addedLeaf) {
+            if (hash == this.hash) {
+                int idx = FindIndex(key);
+                if (idx != -1) {
+                    if (array[idx + 1] == value)
+                        return this;
+                    return new HashCollisionNode(hash, CloneAndSet(array, idx + 1, value));
+                }
+                addedLeaf[0] = true;
+                Object[] newArray = Arrays.copyOf(array, array.length + 2);
+                newArray[array.length] = key;
+                newArray[array.length + 1] = value;
+                return new HashCollisionNode(hash, newArray);
+            }
+            // Nest this node in a bitmap node and let it place the new key
+            return new BitmapIndexedNode(BitPos(this.hash, shift), new Object[]{null, this})
+                    .With(shift, hash, key, value, addedLeaf);
+        }
+
+        @Override
+        Node Without(int shift, int hash, Object key) {
+            int idx = FindIndex(key);
+            if (idx == -1)
+                return this;
+            if (array.length == 2)
+                return null;
+            Object[] newArray = new Object[array.length - 2];
+            System.arraycopy(array, 0, newArray, 0, idx);
+            System.arraycopy(array, idx + 2, newArray, idx, newArray.length - idx);
+            return new HashCollisionNode(hash, newArray);
+        }
+    }
+
+    private static Node CreateNode(int shift, Object key1, Object val1, int key2hash, Object key2, Object val2) {
+        int key1hash = Hash(key1);
+        if (key1hash == key2hash)
+            return new HashCollisionNode(key1hash, new Object[]{key1, val1, key2, val2});
+        boolean[] dummy = new boolean[1];
+        return BitmapIndexedNode.EMPTY
+                .With(shift, key1hash, key1, val1, dummy)
+                .With(shift, key2hash, key2, val2, dummy);
+    }
+
+    private static Object[] CloneAndSet(Object[] array, int i, Object a) {
+        Object[] clone = array.clone();
+        clone[i] = a;
+        return clone;
+    }
+
+    private static final class EntryIterator<K, V> implements Iterator<Entry<K, V>> {
+        // Stack of (array, next position) of nodes being visited
+        private final Deque<Object[]> arrays = new ArrayDeque<>();
+        private final Deque<Integer> positions = new ArrayDeque<>();
+        private Entry<K, V> next;
+
+        EntryIterator(Node root) {
+            if (root != null)
+                Push(root);
+            Advance();
+        }
+
+        private void Push(Node n) {
+            arrays.push((n instanceof BitmapIndexedNode) ? ((BitmapIndexedNode) n).array : ((HashCollisionNode) n).array);
+            positions.push(0);
+        }
+
+        @SuppressWarnings("unchecked")
+        private void Advance() {
+            next = null;
+            while (!arrays.isEmpty()) {
+                Object[] array = arrays.peek();
+                int pos = positions.pop();
+                if (pos >= array.length) {
+                    arrays.pop();
+                    continue;
+                }
+                positions.push(pos + 2);
+                Object keyOrNull = array[pos];
+                Object valOrNode = array[pos + 1];
+                if (keyOrNull == null) {
+                    Push((Node) valOrNode);
+                } else {
+                    next = new SimpleImmutableEntry<>((K) keyOrNull, (V) valOrNode);
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Entry<K, V> next() {
+            if (next == null)
+                throw new NoSuchElementException();
+            Entry<K, V> res = next;
+            Advance();
+            return res;
+        }
+    }
+}
@@ -4,31 +4,142 @@ import com.anonymous.parser.parser.ds.MethodDeclarationInfo;
 import com.anonymous.parser.parser.ds.MethodInvocationInfo;
 
 import java.nio.file.Path;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Set;
+import java.util.*;
 
+/**
+ * All maps are persistent (see `PersistentHashMap`): copying a ProjectMethods is O(1), and the copy shares everything
+ * but the changed files with the original. So we can afford a snapshot per commit (`projectMethodsBefore`).
+ *
+ * NOTE: To update, use `RemoveFile()`, `PutMethodDeclarations()` and `PutMethodCalls()`. They keep the indices in sync.
+ */
 public class ProjectMethods {
-    public Map<Path, Set<MethodDeclarationInfo>> methodsDeclarationsInEachFile;
-    public Map<Path, Set<MethodInvocationInfo>> methodsCallsInEachFile;
+    public PersistentHashMap<Path, Set<MethodDeclarationInfo>> methodsDeclarationsInEachFile;
+    public PersistentHashMap<Path, Set<MethodInvocationInfo>> methodsCallsInEachFile;
+
+    // Secondary index over "methodsDeclarationsInEachFile". Method declarations with "..." are kept in a separate
+    // index keyed only by name (nArgs=VARARGS), since they match invocations with nArgs >= their own nArgs.
+    private PersistentHashMap<MethodKey, PersistentHashMap<Path, List<MethodDeclarationInfo>>> declarationsByNameAndNArgs;
+    private PersistentHashMap<MethodKey, PersistentHashMap<Path, List<MethodDeclarationInfo>>> varargsDeclarationsByName;
+    // Multiset over "methodsCallsInEachFile": for each method invocation, number of files calling it
+    private PersistentHashMap<MethodInvocationInfo, Integer> nFilesCallingMethod;
 
     public ProjectMethods() {
-        this.methodsDeclarationsInEachFile = new HashMap<>();
-        this.methodsCallsInEachFile = new HashMap<>();
+        this.methodsDeclarationsInEachFile = PersistentHashMap.Empty();
+        this.methodsCallsInEachFile = PersistentHashMap.Empty();
+        this.declarationsByNameAndNArgs = PersistentHashMap.Empty();
+        this.varargsDeclarationsByName = PersistentHashMap.Empty();
+        this.nFilesCallingMethod = PersistentHashMap.Empty();
     }
 
     public ProjectMethods(ProjectMethods rh) {
+        this();
         if(rh != null) {
-            this.methodsDeclarationsInEachFile = new HashMap<>(rh.methodsDeclarationsInEachFile);
-            this.methodsCallsInEachFile = new HashMap<>(rh.methodsCallsInEachFile);
+            this.methodsDeclarationsInEachFile = rh.methodsDeclarationsInEachFile;
+            this.methodsCallsInEachFile = rh.methodsCallsInEachFile;
+            this.declarationsByNameAndNArgs = rh.declarationsByNameAndNArgs;
+            this.varargsDeclarationsByName = rh.varargsDeclarationsByName;
+            this.nFilesCallingMethod = rh.nFilesCallingMethod;
+        }
+    }
+
+    /**
+     * Wipe out all method declarations and calls of the given file
+     */
+    public void RemoveFile(Path filePath)
+    {
+        Set<MethodDeclarationInfo> oldDeclarations = methodsDeclarationsInEachFile.get(filePath);
+        if(oldDeclarations != null) {
+            methodsDeclarationsInEachFile = methodsDeclarationsInEachFile.Without(filePath);
+            RemoveFromIndex(filePath, oldDeclarations);
         }
-        else
-        {
-            this.methodsDeclarationsInEachFile = new HashMap<>();
-            this.methodsCallsInEachFile = new HashMap<>();
+        Set<MethodInvocationInfo> oldCalls = methodsCallsInEachFile.get(filePath);
+        if(oldCalls != null) {
+            methodsCallsInEachFile = methodsCallsInEachFile.Without(filePath);
+            RemoveFromCallCounts(oldCalls);
         }
     }
 
+    public void PutMethodDeclarations(Path filePath, Set<MethodDeclarationInfo> declarations)
+    {
+        Set<MethodDeclarationInfo> oldDeclarations = methodsDeclarationsInEachFile.get(filePath);
+        if(oldDeclarations != null)
+            RemoveFromIndex(filePath, oldDeclarations);
+        methodsDeclarationsInEachFile = methodsDeclarationsInEachFile.With(filePath, declarations);
+        AddToIndex(filePath, declarations);
+    }
+
+    public void PutMethodCalls(Path filePath, Set<MethodInvocationInfo> calls)
+    {
+        Set<MethodInvocationInfo> oldCalls = methodsCallsInEachFile.get(filePath);
+        if(oldCalls != null)
+            RemoveFromCallCounts(oldCalls);
+        methodsCallsInEachFile = methodsCallsInEachFile.With(filePath, calls);
+        for(MethodInvocationInfo m: calls)
+            nFilesCallingMethod = nFilesCallingMethod.With(m, nFilesCallingMethod.getOrDefault(m, 0) + 1);
+    }
+
+    /**
+     * Check if given method is among declared/implemented methods of the project (therefore, it is not an API from a library)
+     * @return true if such method is found, otherwise false.
+     */
+    public boolean IsMethodDeclared(MethodInvocationInfo methodInfo)
+    {
+        for(Map<Path, List<MethodDeclarationInfo>> bucket: GetCandidateBuckets(methodInfo))
+            for(List<MethodDeclarationInfo> declarations: bucket.values())
+                for(MethodDeclarationInfo aDec: declarations)
+                    if(aDec.MatchMethodInvocation(methodInfo))
+                        return true;
+        return false;
+    }
+
+    /**
+     * Return the method declaration matching the given invocation, or null if there is no such declaration.
+     * If several declarations match, we return the one a full scan over `methodsDeclarationsInEachFile` would find first.
+     */
+    public MethodDeclarationInfo FindMethodDeclaration(MethodInvocationInfo methodInfo)
+    {
+        Set<Path> candidateFiles = new HashSet<>();
+        for(Map<Path, List<MethodDeclarationInfo>> bucket: GetCandidateBuckets(methodInfo))
+            for(Map.Entry<Path, List<MethodDeclarationInfo>> entry: bucket.entrySet())
+                for(MethodDeclarationInfo aDec: entry.getValue())
+                    if(aDec.MatchMethodInvocation(methodInfo)) {
+                        candidateFiles.add(entry.getKey());
+                        break;
+                    }
+
+        if(candidateFiles.isEmpty())
+            return null;
+
+        // Walk files (and methods within them) in the same order as a full scan would, but only look inside candidates
+        Iterable<Path> filesInScanOrder = candidateFiles;
+        if(candidateFiles.size() > 1)
+            filesInScanOrder = methodsDeclarationsInEachFile.keySet();
+        for (Path aFile : filesInScanOrder) {
+            if(candidateFiles.contains(aFile)==false)
+                continue;
+            for (MethodDeclarationInfo m : methodsDeclarationsInEachFile.get(aFile))
+                if (m.MatchMethodInvocation(methodInfo))
+                    return m;
+        }
+        return null;
+    }
+
+    /**
+     * Check if given method is among method invocations of the project
+     */
+    public boolean IsMethodCalled(MethodInvocationInfo methodInfo)
+    {
+        return nFilesCallingMethod.containsKey(methodInfo);
+    }
+
+    /**
+     * @return number of project files calling the given method (0 if it is not called anywhere)
+     */
+    public int CountFilesCallingMethod(MethodInvocationInfo methodInfo)
+    {
+        return nFilesCallingMethod.getOrDefault(methodInfo, 0);
+    }
+
     public int CountTotalMethodDeclarations()
     {
         int nTotalMethodDecls = 0;
@@ -44,4 +155,99 @@ public class ProjectMethods {
             nTotalMethodCalls += t.size();
         return nTotalMethodCalls;
     }
+
+    private List<Map<Path, List<MethodDeclarationInfo>>> GetCandidateBuckets(MethodInvocationInfo methodInfo)
+    {
+        List<Map<Path, List<MethodDeclarationInfo>>> buckets = new ArrayList<>(2);
+        Map<Path, List<MethodDeclarationInfo>> exact = declarationsByNameAndNArgs.get(new MethodKey(methodInfo.name, methodInfo.nArgs));
+        if(exact != null)
+            buckets.add(exact);
+        Map<Path, List<MethodDeclarationInfo>> varargs = varargsDeclarationsByName.get(new MethodKey(methodInfo.name, MethodKey.VARARGS));
+        if(varargs != null)
+            buckets.add(varargs);
+        return buckets;
+    }
+
+    private void RemoveFromCallCounts(Set<MethodInvocationInfo> calls)
+    {
+        for(MethodInvocationInfo m: calls) {
+            Integer count = nFilesCallingMethod.get(m);
+            if(count == null)
+                continue;
+            if(count == 1)
+                nFilesCallingMethod = nFilesCallingMethod.Without(m);
+            else
+                nFilesCallingMethod = nFilesCallingMethod.With(m, count - 1);
+        }
+    }
+
+    private void AddToIndex(Path filePath, Set<MethodDeclarationInfo> declarations)
+    {
+        Map<MethodKey, List<MethodDeclarationInfo>> exactGroups = new HashMap<>();
+        Map<MethodKey, List<MethodDeclarationInfo>> varargsGroups = new HashMap<>();
+        for(MethodDeclarationInfo m: declarations) {
+            if(m.arbitraryNumberOfArguments)
+                varargsGroups.computeIfAbsent(new MethodKey(m.name, MethodKey.VARARGS), k -> new ArrayList<>()).add(m);
+            else
+                exactGroups.computeIfAbsent(new MethodKey(m.name, m.nArgs), k -> new ArrayList<>()).add(m);
+        }
+
+        for(Map.Entry<MethodKey, List<MethodDeclarationInfo>> group: exactGroups.entrySet())
+            declarationsByNameAndNArgs = AddToBucket(declarationsByNameAndNArgs, group.getKey(), filePath, group.getValue());
+        for(Map.Entry<MethodKey, List<MethodDeclarationInfo>> group: varargsGroups.entrySet())
+            varargsDeclarationsByName = AddToBucket(varargsDeclarationsByName, group.getKey(), filePath, group.getValue());
+    }
+
+    private void RemoveFromIndex(Path filePath, Set<MethodDeclarationInfo> declarations)
+    {
+        for(MethodDeclarationInfo m: declarations) {
+            if(m.arbitraryNumberOfArguments)
+                varargsDeclarationsByName = RemoveFromBucket(varargsDeclarationsByName, new MethodKey(m.name, MethodKey.VARARGS), filePath);
+            else
+                declarationsByNameAndNArgs = RemoveFromBucket(declarationsByNameAndNArgs, new MethodKey(m.name, m.nArgs), filePath);
+        }
+    }
+
+    private static PersistentHashMap<MethodKey, PersistentHashMap<Path, List<MethodDeclarationInfo>>> AddToBucket(
+            PersistentHashMap<MethodKey, PersistentHashMap<Path, List<MethodDeclarationInfo>>> index, MethodKey key,
+            Path filePath, List<MethodDeclarationInfo> declarations)
+    {
+        PersistentHashMap<Path, List<MethodDeclarationInfo>> bucket = index.getOrDefault(key, PersistentHashMap.Empty());
+        return index.With(key, bucket.With(filePath, declarations));
+    }
+
+    private static PersistentHashMap<MethodKey, PersistentHashMap<Path, List<MethodDeclarationInfo>>> RemoveFromBucket(
+            PersistentHashMap<MethodKey, PersistentHashMap<Path, List<MethodDeclarationInfo>>> index, MethodKey key, Path filePath)
+    {
+        PersistentHashMap<Path, List<MethodDeclarationInfo>> bucket = index.get(key);
+        if(bucket == null || bucket.containsKey(filePath)==false)
+            return index;
+        bucket = bucket.Without(filePath);
+        return bucket.isEmpty() ? index.Without(key) : index.With(key, bucket);
+    }
+
+    private static class MethodKey {
+        static final int VARARGS = -1;
+
+        final String name;
+        final int nArgs;
+
+        MethodKey(String name, int nArgs) {
+            this.name = name;
+            this.nArgs = nArgs;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            MethodKey that = (MethodKey) o;
+            return nArgs == that.nArgs && Objects.equals(name, that.name);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(name, nArgs);
+        }
+    }
 }
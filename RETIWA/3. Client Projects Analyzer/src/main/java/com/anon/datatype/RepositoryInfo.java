@@ -6,6 +6,7 @@ public class RepositoryInfo {
     private int index; // for logging purposes
     private String fullName, defaultBranch;
     private Path path; // local path
+    private long sizeEstimate = 0; // e.g., number of commits, only to process bigger repositories first
     public RepositoryInfo(String _repoFullName, String _defaultBranch)
     {
         this.fullName = _repoFullName;
@@ -17,6 +18,14 @@ public class RepositoryInfo {
         this.index = _index;
     }
 
+    public void SetSizeEstimate(long _sizeEstimate) {
+        this.sizeEstimate = _sizeEstimate;
+    }
+
+    public long GetSizeEstimate() {
+        return sizeEstimate;
+    }
+
     public void SetPath(Path _path)
     {
         this.path = _path;
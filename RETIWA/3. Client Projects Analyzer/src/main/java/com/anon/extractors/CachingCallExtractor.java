@@ -0,0 +1,236 @@
+package com.anon.extractors;
+
+import com.anonymous.parser.parser.ds.MethodInvocationInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers calls extracted from recent snippets, in front of another `CallExtractor`. The same snippets (like
+ * "StringUtils.isEmpty(x)") come up again and again across commits and repositories, so it saves a lot of srcML runs.
+ *
+ * One instance is shared by all threads. It's an LRU split into segments (each with its own lock), so threads
+ * rarely wait for each other. Keys are the snippets themselves, so different snippets never share an entry.
+ * Results don't depend on the file, so we keep only calls (name, nArgs, lines) and set the file path on each hit.
+ *
+ * Failed extractions (e.g., srcML timed out) are not cached, so they're tried again next time instead of being
+ * remembered as "no call".
+ *
+ * The cache can be saved at the end of a run and loaded at the beginning of the next one (see `Save` and `Load`). The
+ * file records which extractor filled it, as extractors don't give exactly the same calls.
+ */
+public class CachingCallExtractor implements CallExtractor {
+    private static final Logger logger = LoggerFactory.getLogger(CachingCallExtractor.class);
+    private static final int N_SEGMENTS = 16;
+    private static final int FILE_MAGIC = 0x43414c4c; // "CALL"
+    private static final int FILE_VERSION = 2; // 2: extractor name after the version
+
+    private final CallExtractor extractor;
+    private final Segment[] segments = new Segment[N_SEGMENTS];
+    private final AtomicLong hits = new AtomicLong(0), misses = new AtomicLong(0);
+
+    /**
+     * @param capacity  max number of snippets to remember
+     */
+    public CachingCallExtractor(CallExtractor extractor, int capacity) {
+        this.extractor = extractor;
+        for (int i = 0; i < N_SEGMENTS; i++)
+            segments[i] = new Segment(Math.max(1, capacity / N_SEGMENTS));
+    }
+
+    @Override
+    public List<MethodInvocationInfo> ExtractMethodsCallsFromText(String codeText, Path filePath) {
+        if (codeText == null)
+            return extractor.ExtractMethodsCallsFromText(null, filePath);
+
+        Segment segment = SegmentOf(codeText);
+        Call[] calls;
+        synchronized (segment) {
+            calls = segment.get(codeText);
+        }
+        if (calls != null) {
+            hits.incrementAndGet();
+        } else {
+            // Not under the lock: it may fork srcML. Two threads may extract the same snippet, which is fine.
+            misses.incrementAndGet();
+            List<MethodInvocationInfo> extracted = extractor.TryExtractMethodsCallsFromText(codeText, filePath);
+            if (extracted == null)
+                return new ArrayList<>();
+            calls = new Call[extracted.size()];
+            for (int i = 0; i < calls.length; i++)
+                calls[i] = new Call(extracted.get(i));
+            synchronized (segment) {
+                segment.put(codeText, calls);
+            }
+            return extracted;
+        }
+
+        // Callers may modify what we return, so they always get new objects
+        List<MethodInvocationInfo> res = new ArrayList<>(calls.length);
+        for (Call c : calls)
+            res.add(c.ToMethodInvocationInfo(filePath));
+        return res;
+    }
+
+    @Override
+    public String Name() {
+        return extractor.Name();
+    }
+
+    public String Stats() {
+        long h = hits.get(), m = misses.get();
+        int size = 0;
+        for (Segment s : segments) {
+            synchronized (s) {
+                size += s.size();
+            }
+        }
+        return String.format("%d hits, %d misses (hit rate %.1f%%), %d snippets cached", h, m, (h + m) == 0 ? 0 : 100.0 * h / (h + m), size);
+    }
+
+    /**
+     * Reads snippets saved by `Save`. A missing file is fine (first run); a corrupt or outdated one, or one filled by
+     * another extractor, is ignored.
+     */
+    public void Load(Path path) {
+        if (!Files.isRegularFile(path))
+            return;
+        int n = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16))) {
+            if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION) {
+                logger.warn("Ignoring call cache {}: unknown format", path);
+                return;
+            }
+            String savedBy = ReadString(in);
+            if (!savedBy.equals(extractor.Name())) {
+                logger.warn("Ignoring call cache {}: filled by the \"{}\" extractor, not \"{}\"", path, savedBy, extractor.Name());
+                return;
+            }
+            int count = in.readInt();
+            for (; n < count; n++) {
+                String snippet = ReadString(in);
+                Call[] calls = new Call[in.readInt()];
+                for (int i = 0; i < calls.length; i++) {
+                    String name = ReadString(in);
+                    int nArgs = in.readInt();
+                    int[] lines = new int[in.readInt()];
+                    for (int k = 0; k < lines.length; k++)
+                        lines[k] = in.readInt();
+                    calls[i] = new Call(name, nArgs, lines);
+                }
+                Segment segment = SegmentOf(snippet);
+                synchronized (segment) {
+                    segment.put(snippet, calls);
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("Failed reading call cache {} (read {} snippets)", path, n, e);
+        }
+        logger.info("Loaded {} snippets from call cache {}", n, path);
+    }
+
+    /**
+     * Least recently used snippets are written first, so loading them back keeps the LRU order
+     */
+    public void Save(Path path) {
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        int n = 0;
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+                List<Map.Entry<String, Call[]>> entries = new ArrayList<>();
+                for (Segment s : segments) {
+                    synchronized (s) {
+                        entries.addAll(new ArrayList<>(s.entrySet()));
+                    }
+                }
+                out.writeInt(FILE_MAGIC);
+                out.writeInt(FILE_VERSION);
+                WriteString(out, extractor.Name());
+                out.writeInt(entries.size());
+                for (Map.Entry<String, Call[]> e : entries) {
+                    WriteString(out, e.getKey());
+                    out.writeInt(e.getValue().length);
+                    for (Call c : e.getValue()) {
+                        WriteString(out, c.name);
+                        out.writeInt(c.nArgs);
+                        out.writeInt(c.lines.length);
+                        for (int line : c.lines)
+                            out.writeInt(line);
+                    }
+                    n++;
+                }
+            }
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING);
+            logger.info("Saved {} snippets in call cache {}", n, path);
+        } catch (IOException e) {
+            logger.error("Failed saving call cache {}", path, e);
+        }
+    }
+
+    private Segment SegmentOf(String codeText) {
+        int h = codeText.hashCode();
+        return segments[((h ^ (h >>> 16)) & 0x7fffffff) % N_SEGMENTS];
+    }
+
+    // writeUTF() is limited to 64KB, snippets can be bigger
+    private static void WriteString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String ReadString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static class Segment extends LinkedHashMap<String, Call[]> {
+        private static final long serialVersionUID = 1L; // never serialized, but LinkedHashMap is Serializable
+        private final int capacity;
+
+        Segment(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Call[]> eldest) {
+            return size() > capacity;
+        }
+    }
+
+    private static class Call {
+        final String name;
+        final int nArgs;
+        final int[] lines;
+
+        Call(String name, int nArgs, int[] lines) {
+            this.name = name;
+            this.nArgs = nArgs;
+            this.lines = lines;
+        }
+
+        Call(MethodInvocationInfo m) {
+            this(m.name, m.nArgs, m.lineNumbers.stream().mapToInt(Integer::intValue).toArray());
+        }
+
+        /**
+         * Same as what extractors create
+         */
+        MethodInvocationInfo ToMethodInvocationInfo(Path filePath) {
+            MethodInvocationInfo mii = new MethodInvocationInfo(null, null, name, nArgs, null);
+            for (int line : lines)
+                mii.lineNumbers.add(line);
+            mii.fileRelativePath = String.valueOf(filePath);
+            return mii;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.anon.extractors;
+
+import com.anonymous.parser.parser.ds.MethodInvocationInfo;
+
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Extracts method calls (name + number of arguments) from a Java code snippet, in order of appearance.
+ * Snippets come from git word-diff and usually are not compilable code.
+ */
+public interface CallExtractor {
+    /**
+     * @param filePath  file path to be added to the results
+     */
+    List<MethodInvocationInfo> ExtractMethodsCallsFromText(String codeText, Path filePath);
+
+    /**
+     * Like `ExtractMethodsCallsFromText`, but null if extraction failed (then the empty list we'd get means nothing)
+     */
+    default List<MethodInvocationInfo> TryExtractMethodsCallsFromText(String codeText, Path filePath) {
+        return ExtractMethodsCallsFromText(codeText, filePath);
+    }
+
+    /**
+     * @return  what `ForName` takes to create the same extractor
+     */
+    String Name();
+
+    /**
+     * @param name  "srcml" or "jvm"
+     * @return null if name is unknown
+     */
+    static CallExtractor ForName(String name) {
+        switch (name.toLowerCase()) {
+            case "srcml":
+                return new SrcMLCallExtractor();
+            case "jvm":
+                return new TokenizerCallExtractor();
+            default:
+                return null;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.anon.extractors;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.anon.extractors.JavaTokenizer.Kind.IDENTIFIER;
+import static com.anon.extractors.JavaTokenizer.Kind.LITERAL;
+
+/**
+ * Lexical check of a word-diff pair (removed code -> added code) before running the call extractor on both sides.
+ * It rejects pairs that can't give a method-to-API replacement:
+ * - one side has no "(" at all, so the extractor finds no call on that side
+ * - both sides have the same tokens, except for literals and for identifiers which are not call names (i.e., not
+ *   followed by "(" or "<"). Then both sides have the same calls, which `CheckForCustomImplReplacement` skips anyway.
+ *
+ * It's conservative on purpose (e.g., keywords, non-ASCII names or unterminated strings must be identical on both
+ * sides), so results are the same with or without it, whichever extractor is used.
+ */
+public class CallPreFilter {
+    // Not keywords for our tokenizer, but srcML may parse them differently from other names
+    private static final Set<String> CONTEXTUAL_KEYWORDS = Set.of(
+            "var", "yield", "record", "sealed", "non", "permits", "module", "open", "requires", "exports", "opens", "to",
+            "uses", "provides", "with", "transitive");
+
+    public static final AtomicLong nPairs = new AtomicLong(0);
+    public static final AtomicLong nRejected_NoCallSyntax = new AtomicLong(0);
+    public static final AtomicLong nRejected_SameCalls = new AtomicLong(0);
+
+    /**
+     * @return  false if the pair surely has no replacement
+     */
+    public static boolean MayHaveReplacement(String removedCode, String addedCode) {
+        nPairs.incrementAndGet();
+        if (removedCode.indexOf('(') == -1 || addedCode.indexOf('(') == -1) {
+            nRejected_NoCallSyntax.incrementAndGet();
+            return false;
+        }
+        if (HaveSameCalls(JavaTokenizer.Tokenize(removedCode), JavaTokenizer.Tokenize(addedCode))) {
+            nRejected_SameCalls.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    public static String Stats() {
+        long n = nPairs.get(), noCall = nRejected_NoCallSyntax.get(), sameCalls = nRejected_SameCalls.get();
+        return String.format("%d pairs checked, %d rejected (%d with no call syntax, %d with the same calls)",
+                n, noCall + sameCalls, noCall, sameCalls);
+    }
+
+    private static boolean HaveSameCalls(List<JavaTokenizer.Token> before, List<JavaTokenizer.Token> after) {
+        if (before.size() != after.size())
+            return false;
+        for (int i = 0; i < before.size(); i++) {
+            JavaTokenizer.Token a = before.get(i), b = after.get(i);
+            if (a.kind != b.kind)
+                return false;
+            if (a.text.equals(b.text))
+                continue;
+
+            if (a.kind == LITERAL) {
+                if (!IsTerminatedLiteral(a.text) || !IsTerminatedLiteral(b.text))
+                    return false;
+            } else if (a.kind == IDENTIFIER) {
+                if (i + 1 < before.size() && (before.get(i + 1).Is("(") || before.get(i + 1).Is("<")))
+                    return false; // maybe a call name (or a generic call like "Function<T>(x)")
+                if (!IsPlainName(a.text) || !IsPlainName(b.text))
+                    return false;
+            } else {
+                return false; // keywords and symbols shape the code
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Numbers, and string/char literals with their closing quote
+     */
+    private static boolean IsTerminatedLiteral(String literal) {
+        char quote = literal.charAt(0);
+        if (quote != '"' && quote != '\'')
+            return true;
+        for (int i = 1; i < literal.length(); i++) {
+            char c = literal.charAt(i);
+            if (c == '\\')
+                i++;
+            else if (c == quote)
+                return i == literal.length() - 1;
+        }
+        return false;
+    }
+
+    private static boolean IsPlainName(String name) {
+        if (CONTEXTUAL_KEYWORDS.contains(name))
+            return false;
+        for (int i = 0; i < name.length(); i++)
+            if (name.charAt(i) > 127)
+                return false;
+        return true;
+    }
+}
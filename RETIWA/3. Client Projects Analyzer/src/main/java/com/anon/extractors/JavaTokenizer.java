@@ -0,0 +1,103 @@
+package com.anon.extractors;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A small and forgiving Java tokenizer. Comments and whitespace are dropped, string/char/number literals become a single
+ * LITERAL token, and every other non-identifier character is its own SYMBOL token (so ">>" is two ">" tokens, which
+ * makes detecting nested generics easy).
+ *
+ * It never fails: we feed it with word-diff fragments, which are rarely valid Java.
+ */
+public class JavaTokenizer {
+
+    public enum Kind {IDENTIFIER, KEYWORD, LITERAL, SYMBOL}
+
+    public static final Set<String> KEYWORDS = Set.of(
+            "abstract", "assert", "boolean", "break", "byte", "case", "catch", "char", "class", "const", "continue",
+            "default", "do", "double", "else", "enum", "extends", "final", "finally", "float", "for", "goto", "if",
+            "implements", "import", "instanceof", "int", "interface", "long", "native", "new", "package", "private",
+            "protected", "public", "return", "short", "static", "strictfp", "super", "switch", "synchronized", "this",
+            "throw", "throws", "transient", "try", "void", "volatile", "while", "true", "false", "null");
+
+    public static final Set<String> PRIMITIVE_TYPES = Set.of(
+            "boolean", "byte", "char", "double", "float", "int", "long", "short", "void");
+
+    public static class Token {
+        public final Kind kind;
+        public final String text;
+        public final int line; // 1-based
+        public final int offset; // char index in the tokenized text
+
+        public Token(Kind kind, String text, int line, int offset) {
+            this.kind = kind;
+            this.text = text;
+            this.line = line;
+            this.offset = offset;
+        }
+
+        public boolean Is(String s) {
+            return text.equals(s);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s(%s)@%d", kind, text, line);
+        }
+    }
+
+    public static List<Token> Tokenize(String code) {
+        List<Token> tokens = new ArrayList<>();
+        int n = code.length();
+        int line = 1;
+        int i = 0;
+        while (i < n) {
+            char c = code.charAt(i);
+
+            if (c == '\n') {
+                line++;
+                i++;
+            } else if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '/' && i + 1 < n && code.charAt(i + 1) == '/') {
+                while (i < n && code.charAt(i) != '\n')
+                    i++;
+            } else if (c == '/' && i + 1 < n && code.charAt(i + 1) == '*') {
+                i += 2;
+                while (i < n && !(code.charAt(i) == '*' && i + 1 < n && code.charAt(i + 1) == '/')) {
+                    if (code.charAt(i) == '\n')
+                        line++;
+                    i++;
+                }
+                i = Math.min(n, i + 2);
+            } else if (c == '"' || c == '\'') {
+                int start = i++;
+                while (i < n && code.charAt(i) != c && code.charAt(i) != '\n') {
+                    if (code.charAt(i) == '\\')
+                        i++;
+                    i++;
+                }
+                i = Math.min(n, i + 1);
+                tokens.add(new Token(Kind.LITERAL, code.substring(start, Math.min(i, n)), line, start));
+            } else if (Character.isDigit(c) || (c == '.' && i + 1 < n && Character.isDigit(code.charAt(i + 1)))) {
+                int start = i;
+                while (i < n && (Character.isLetterOrDigit(code.charAt(i)) || code.charAt(i) == '.' || code.charAt(i) == '_'
+                        || ((code.charAt(i) == '+' || code.charAt(i) == '-') && (code.charAt(i - 1) == 'e' || code.charAt(i - 1) == 'E'))))
+                    i++;
+                tokens.add(new Token(Kind.LITERAL, code.substring(start, i), line, start));
+            } else if (Character.isJavaIdentifierStart(c)) {
+                int start = i;
+                while (i < n && Character.isJavaIdentifierPart(code.charAt(i)))
+                    i++;
+                String word = code.substring(start, i);
+                tokens.add(new Token(KEYWORDS.contains(word) ? Kind.KEYWORD : Kind.IDENTIFIER, word, line, start));
+            } else {
+                tokens.add(new Token(Kind.SYMBOL, String.valueOf(c), line, i));
+                i++;
+            }
+        }
+        return tokens;
+    }
+}
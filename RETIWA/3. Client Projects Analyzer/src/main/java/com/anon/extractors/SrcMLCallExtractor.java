@@ -0,0 +1,27 @@
+package com.anon.extractors;
+
+import com.anon.cmdrunners.SrcMLCmdRunner;
+import com.anonymous.parser.parser.ds.MethodInvocationInfo;
+
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Runs one `srcml` process per snippet.
+ */
+public class SrcMLCallExtractor implements CallExtractor {
+    @Override
+    public List<MethodInvocationInfo> ExtractMethodsCallsFromText(String codeText, Path filePath) {
+        return SrcMLCmdRunner.ExtractMethodsCallsFromText(codeText, "Java", filePath);
+    }
+
+    @Override
+    public List<MethodInvocationInfo> TryExtractMethodsCallsFromText(String codeText, Path filePath) {
+        return SrcMLCmdRunner.TryExtractMethodsCallsFromText(codeText, "Java", filePath);
+    }
+
+    @Override
+    public String Name() {
+        return "srcml";
+    }
+}
@@ -0,0 +1,289 @@
+package com.anon.extractors;
+
+import com.anonymous.parser.parser.ds.MethodInvocationInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static com.anon.extractors.JavaTokenizer.Kind.IDENTIFIER;
+import static com.anon.extractors.JavaTokenizer.Kind.KEYWORD;
+
+/**
+ * In-JVM replacement for `SrcMLCallExtractor`, so we don't fork a `srcml` process for every word-diff snippet.
+ *
+ * It mimics what srcML reports for "//src:call":
+ * - `a.b.foo(x)`, `foo(x).bar()`, `new Foo(x)`, `super(x)`, `this(x)` and `X.<T>foo()` are calls (named foo, bar, Foo, ...)
+ * - `Function<A>(12)` is a call named "Function"
+ * - calls are listed in order of appearance, so an outer call comes before calls in its arguments
+ * - method/constructor declarations (`void foo(int x)`, `public Foo(int x)`) and annotations (`@Foo(x)`) are not calls
+ * - number of arguments is the number of top-level commas + 1 (commas inside (), [], {} and generics don't count)
+ *
+ * `main` checks it against srcML results stored for the samples in "samples/call-extractor"; differences we accept
+ * are listed with their reason in "accepted-differences.tsv" there.
+ */
+public class TokenizerCallExtractor implements CallExtractor {
+    private static final Logger logger = LoggerFactory.getLogger(TokenizerCallExtractor.class);
+
+    private static final int MAX_GENERIC_TOKENS = 100;
+    private static final Set<String> MODIFIERS = Set.of(
+            "public", "private", "protected", "static", "final", "abstract", "synchronized", "native", "strictfp");
+
+    public static void main(String[] args) throws IOException {
+        // Differential check with srcML on the checked-in samples (see `CheckSamples`), from the project directory:
+        //      java ... TokenizerCallExtractor --record samples/call-extractor     (needs srcml)
+        //      java ... TokenizerCallExtractor --compare samples/call-extractor
+        if (args.length == 2 && (args[0].equals("--record") || args[0].equals("--compare"))) {
+            CheckSamples(Path.of(args[1]), args[0].equals("--record"));
+            return;
+        }
+
+        // Quick way to compare with srcML: java ... TokenizerCallExtractor "snippet1" "snippet2" ...
+        List<String> snippets = args.length > 0 ? Arrays.asList(args) : List.of(
+                "BBB.CCC<ct>.Function<Generic.Type>(12)",
+                "obj.X().X().obj.Y().foo().Z()",
+                "new HashMap<String, List<Integer>>(map.size(), 0.75f)",
+                "public static <T> List<T> foo(int a, T... rest) { return Collections.<T>emptyList(); }");
+        CallExtractor srcml = new SrcMLCallExtractor(), jvm = new TokenizerCallExtractor();
+        for (String s : snippets) {
+            logger.info("{}\n\tsrcml: {}\n\tjvm  : {}", s, Describe(srcml.ExtractMethodsCallsFromText(s, null)),
+                    Describe(jvm.ExtractMethodsCallsFromText(s, null)));
+        }
+    }
+
+    /**
+     * Samples are `*.java` files (one sample each) and `*.snippets` files (one sample per line, like word-diff snippets).
+     * With `record`, calls srcML finds in each sample are stored in "srcml-calls.tsv", next to them. Otherwise, samples
+     * where we find other calls than the stored ones are printed, unless listed in "accepted-differences.tsv" (sample,
+     * TAB, why we accept it).
+     */
+    private static void CheckSamples(Path dir, boolean record) throws IOException {
+        Map<String, String> samples = new TreeMap<>(); // like "Calls.java" or "word-diff.snippets:3" -> code
+        List<Path> files;
+        try (Stream<Path> list = Files.list(dir)) {
+            files = list.sorted().collect(Collectors.toList());
+        }
+        for (Path f : files) {
+            String name = f.getFileName().toString();
+            if (name.endsWith(".java")) {
+                samples.put(name, Files.readString(f));
+            } else if (name.endsWith(".snippets")) {
+                List<String> lines = Files.readAllLines(f);
+                for (int i = 0; i < lines.size(); i++)
+                    if (!lines.get(i).isBlank())
+                        samples.put(String.format("%s:%03d", name, i + 1), lines.get(i));
+            }
+        }
+
+        Path stored = dir.resolve("srcml-calls.tsv");
+        if (record) {
+            CallExtractor srcml = new SrcMLCallExtractor();
+            List<String> lines = new ArrayList<>();
+            for (Map.Entry<String, String> e : samples.entrySet()) {
+                List<MethodInvocationInfo> calls = srcml.TryExtractMethodsCallsFromText(e.getValue(), null);
+                if (calls == null) {
+                    logger.error("srcML failed on {}: nothing recorded", e.getKey());
+                    return;
+                }
+                lines.add(e.getKey() + "\t" + Describe(calls));
+            }
+            Files.write(stored, lines);
+            logger.info("Recorded srcML calls of {} samples in {}", lines.size(), stored);
+            return;
+        }
+
+        if (!Files.isRegularFile(stored)) {
+            logger.error("No srcML calls stored in {}: run with --record first (needs srcml)", stored);
+            return;
+        }
+        Map<String, String> expected = ReadTsv(stored), accepted = ReadTsv(dir.resolve("accepted-differences.tsv"));
+        CallExtractor jvm = new TokenizerCallExtractor();
+        int nSame = 0, nAccepted = 0, nDifferent = 0;
+        for (Map.Entry<String, String> e : samples.entrySet()) {
+            String srcmlCalls = expected.get(e.getKey());
+            if (srcmlCalls == null) {
+                logger.warn("{}: not recorded", e.getKey());
+                continue;
+            }
+            String jvmCalls = Describe(jvm.ExtractMethodsCallsFromText(e.getValue(), null));
+            if (jvmCalls.equals(srcmlCalls)) {
+                nSame++;
+            } else if (accepted.containsKey(e.getKey())) {
+                nAccepted++;
+                logger.info("{}: accepted difference ({})", e.getKey(), accepted.get(e.getKey()));
+            } else {
+                nDifferent++;
+                logger.error("{}\n\tsrcml: {}\n\tjvm  : {}", e.getKey(), srcmlCalls, jvmCalls);
+            }
+        }
+        logger.info("{} samples: {} same, {} accepted differences, {} different", samples.size(), nSame, nAccepted, nDifferent);
+    }
+
+    /**
+     * @return  first column -> second column. Lines starting with '#' are comments.
+     */
+    private static Map<String, String> ReadTsv(Path file) throws IOException {
+        Map<String, String> res = new HashMap<>();
+        if (!Files.isRegularFile(file))
+            return res;
+        for (String line : Files.readAllLines(file)) {
+            if (line.isEmpty() || line.startsWith("#"))
+                continue;
+            String[] columns = line.split("\t", 2);
+            res.put(columns[0], columns.length > 1 ? columns[1] : "");
+        }
+        return res;
+    }
+
+    /**
+     * Like "foo(2)@1 bar(0)@3": name, number of arguments and line of each call
+     */
+    private static String Describe(List<MethodInvocationInfo> calls) {
+        StringJoiner sj = new StringJoiner(" ");
+        for (MethodInvocationInfo m : calls) {
+            StringJoiner lines = new StringJoiner(",");
+            for (Integer line : m.lineNumbers)
+                lines.add(String.valueOf(line));
+            sj.add(m.name + "(" + m.nArgs + ")@" + lines);
+        }
+        return sj.toString();
+    }
+
+    @Override
+    public String Name() {
+        return "jvm";
+    }
+
+    @Override
+    public List<MethodInvocationInfo> ExtractMethodsCallsFromText(String codeText, Path filePath) {
+        List<MethodInvocationInfo> res = new ArrayList<>();
+        if (codeText == null)
+            return res;
+
+        List<JavaTokenizer.Token> tokens = JavaTokenizer.Tokenize(codeText);
+        int n = tokens.size();
+
+        // Find generic blocks ("<...>") once, so we can tell them apart from "<" and ">" operators
+        Map<Integer, Integer> genericEndOfStart = new HashMap<>(), genericStartOfEnd = new HashMap<>();
+        for (int s = 1; s < n; s++) {
+            if (!tokens.get(s).Is("<"))
+                continue;
+            JavaTokenizer.Token prev = tokens.get(s - 1);
+            if (prev.kind != IDENTIFIER && !prev.Is("."))
+                continue;
+            int e = MatchGenericBlock(tokens, s);
+            if (e != -1) {
+                genericEndOfStart.put(s, e);
+                genericStartOfEnd.put(e, s);
+            }
+        }
+
+        for (int i = 0; i < n; i++) {
+            JavaTokenizer.Token t = tokens.get(i);
+            if (t.kind != IDENTIFIER && !t.Is("this") && !t.Is("super"))
+                continue;
+
+            int j = i + 1;
+            if (j < n && genericEndOfStart.containsKey(j))
+                j = genericEndOfStart.get(j) + 1;
+            if (j >= n || !tokens.get(j).Is("("))
+                continue;
+
+            if (IsDeclarationOrAnnotation(tokens, i, genericStartOfEnd))
+                continue;
+
+            MethodInvocationInfo mii = new MethodInvocationInfo(null, null, t.text, CountArguments(tokens, j, genericEndOfStart), null);
+            mii.lineNumbers.add(tokens.get(j).line);
+            mii.fileRelativePath = String.valueOf(filePath);
+            res.add(mii);
+        }
+        return res;
+    }
+
+    /**
+     * @param s index of a "<" token
+     * @return index of the matching ">" if tokens in between look like type arguments, otherwise -1
+     */
+    private static int MatchGenericBlock(List<JavaTokenizer.Token> tokens, int s) {
+        int depth = 0;
+        for (int k = s; k < tokens.size() && k - s <= MAX_GENERIC_TOKENS; k++) {
+            JavaTokenizer.Token t = tokens.get(k);
+            if (t.Is("<")) {
+                depth++;
+            } else if (t.Is(">")) {
+                depth--;
+                if (depth == 0)
+                    return k;
+            } else if (t.kind == IDENTIFIER || JavaTokenizer.PRIMITIVE_TYPES.contains(t.text)
+                    || t.Is("extends") || t.Is("super") || t.Is(".") || t.Is(",") || t.Is("?") || t.Is("[") || t.Is("]")) {
+                // part of a type
+            } else if (t.Is("&")) {
+                if (tokens.get(k - 1).Is("&"))
+                    return -1; // "a < b && c > d"
+            } else {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param i index of a name followed by "(" (maybe with type arguments in between)
+     */
+    private static boolean IsDeclarationOrAnnotation(List<JavaTokenizer.Token> tokens, int i, Map<Integer, Integer> genericStartOfEnd) {
+        // @Foo(x) or @a.b.Foo(x)
+        int k = i - 1;
+        while (k >= 1 && tokens.get(k).Is(".") && tokens.get(k - 1).kind == IDENTIFIER)
+            k -= 2;
+        if (k >= 0 && tokens.get(k).Is("@"))
+            return true;
+
+        if (i == 0)
+            return false;
+        JavaTokenizer.Token prev = tokens.get(i - 1);
+
+        if (genericStartOfEnd.containsKey(i - 1)) {
+            // "X.<T>foo(" is a call, but "List<T> foo(" and "<T> foo(" are declarations
+            int s = genericStartOfEnd.get(i - 1);
+            return s == 0 || !tokens.get(s - 1).Is(".");
+        }
+
+        if (prev.kind == IDENTIFIER || prev.Is("]"))
+            return true; // String foo(...) or String[] foo(...)
+        if (prev.kind == KEYWORD && (JavaTokenizer.PRIMITIVE_TYPES.contains(prev.text) || MODIFIERS.contains(prev.text)))
+            return true; // void foo(...) or public Foo(...)
+        return false;
+    }
+
+    /**
+     * @param open index of the "(" starting the argument list. The list may be left open in a snippet.
+     */
+    private static int CountArguments(List<JavaTokenizer.Token> tokens, int open, Map<Integer, Integer> genericEndOfStart) {
+        int depth = 0, nCommas = 0;
+        boolean empty = true;
+        for (int k = open + 1; k < tokens.size(); k++) {
+            JavaTokenizer.Token t = tokens.get(k);
+            if (genericEndOfStart.containsKey(k)) {
+                k = genericEndOfStart.get(k);
+                empty = false;
+                continue;
+            }
+            if (t.Is("(") || t.Is("[") || t.Is("{")) {
+                depth++;
+            } else if (t.Is(")") || t.Is("]") || t.Is("}")) {
+                if (depth == 0)
+                    break;
+                depth--;
+            } else if (t.Is(",") && depth == 0) {
+                nCommas++;
+            }
+            empty = false;
+        }
+        return empty ? 0 : nCommas + 1;
+    }
+}
@@ -0,0 +1,122 @@
+package com.anon.helpers;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Binary snapshot of the API database written by the API Extractor (APISnapshotWriter), see there for the layout.
+ * The file is memory-mapped and APIs are read in place, so startup doesn't depend on the size of the database.
+ */
+public class APISnapshot {
+    private static final Logger logger = LoggerFactory.getLogger(APISnapshot.class);
+
+    private static final int MAGIC = 0x41504953; // "APIS"
+    private static final int VERSION = 1;
+    private static final int HEADER_INTS = 6;
+
+    private final APIStore apis;
+    private final List<String> packages;
+
+    private APISnapshot(APIStore apis, List<String> packages) {
+        this.apis = apis;
+        this.packages = packages;
+    }
+
+    /**
+     * @return  true if the file starts with the snapshot magic number (otherwise, it's most likely a SQLite database)
+     */
+    public static boolean IsSnapshot(Path path) {
+        if (!Files.isRegularFile(path))
+            return false;
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(4);
+            return ch.read(header, 0) == 4 && header.getInt(0) == MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return  null if the file can't be read or is not a snapshot of a supported version
+     */
+    public static APISnapshot Map(Path path) {
+        MappedByteBuffer buf;
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()); // mapping remains valid after closing the channel
+        } catch (IOException e) {
+            logger.error("Failed to map API snapshot {}", path, e);
+            return null;
+        }
+
+        if (buf.capacity() < HEADER_INTS * 4 || buf.getInt(0) != MAGIC) {
+            logger.error("Not an API snapshot: {}", path);
+            return null;
+        }
+        int version = buf.getInt(4);
+        if (version != VERSION) {
+            logger.error("API snapshot {} has version {}, expected {}. Regenerate it with APISnapshotWriter.", path, version, VERSION);
+            return null;
+        }
+        int nStrings = buf.getInt(8), blobLength = buf.getInt(12), nAPIs = buf.getInt(16), nPackages = buf.getInt(20);
+
+        long expectedSize = HEADER_INTS * 4L + (nStrings + 1) * 4L + (blobLength + 3) / 4 * 4L + 5L * nAPIs * 4 + nPackages * 4L;
+        if (buf.capacity() != expectedSize) {
+            logger.error("API snapshot {} is truncated or corrupt ({} bytes, expected {})", path, buf.capacity(), expectedSize);
+            return null;
+        }
+
+        int pos = HEADER_INTS * 4;
+        IntBuffer stringOffsets = IntSlice(buf, pos, nStrings + 1);
+        pos += (nStrings + 1) * 4;
+        ByteBuffer blob = Slice(buf, pos, blobLength);
+        pos += (blobLength + 3) / 4 * 4;
+        IntBuffer[] columns = new IntBuffer[5];
+        for (int c = 0; c < columns.length; c++) {
+            columns[c] = IntSlice(buf, pos, nAPIs);
+            pos += nAPIs * 4;
+        }
+        IntBuffer packageCodes = IntSlice(buf, pos, nPackages);
+
+        // columns[4] (project names) is skipped: APIs are already in project order
+        APIStore apis = new APIStore(nAPIs, columns[0], columns[1], columns[2], columns[3],
+                new String[nStrings], stringOffsets, blob);
+        List<String> packages = new ArrayList<>(nPackages);
+        for (int i = 0; i < nPackages; i++)
+            packages.add(apis.GetString(packageCodes.get(i)));
+
+        logger.info("Mapped API snapshot {}: {} APIs, {} packages", path, nAPIs, nPackages);
+        return new APISnapshot(apis, packages);
+    }
+
+    public APIStore GetAPIs() {
+        return apis;
+    }
+
+    /**
+     * @return  base package of each target library, same as TargetApacheCommonsAPIHelper.LoadPackages() on the database
+     */
+    public List<String> GetPackages() {
+        return packages;
+    }
+
+    private static ByteBuffer Slice(ByteBuffer buf, int pos, int length) {
+        ByteBuffer dup = buf.duplicate();
+        dup.position(pos).limit(pos + length);
+        return dup.slice();
+    }
+
+    private static IntBuffer IntSlice(ByteBuffer buf, int pos, int length) {
+        return Slice(buf, pos, length * 4).asIntBuffer();
+    }
+}
@@ -0,0 +1,221 @@
+package com.anon.helpers;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.*;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Public APIs of target libraries, stored column by column with only what the analyzer needs (no javadoc, body, ...).
+ * Strings (names, classes) are stored once in `strings` and columns keep their index (-1 for null).
+ * Columns are either arrays read from SQLite or views of a memory-mapped `APISnapshot`. In the latter case, strings
+ * are decoded from the snapshot on first use.
+ * It's immutable after loading (apart from the decoded strings cache), so all analyzer threads share one instance.
+ */
+public class APIStore {
+    private static final Logger logger = LoggerFactory.getLogger(APIStore.class);
+
+    private static final String TABLE_DECLARATIONS_MAIN = "MethodDeclaration";
+
+    private final int size;
+    private final IntBuffer ids;
+    private final IntBuffer names;
+    private final IntBuffer nArgs;
+    private final IntBuffer qualifiedClassNames;
+    private final String[] strings;
+    // Only for snapshots: strings[i] is decoded from blob[stringOffsets[i], stringOffsets[i+1])
+    private final IntBuffer stringOffsets;
+    private final ByteBuffer blob;
+
+    APIStore(int size, IntBuffer ids, IntBuffer names, IntBuffer nArgs, IntBuffer qualifiedClassNames,
+             String[] strings, IntBuffer stringOffsets, ByteBuffer blob) {
+        this.size = size;
+        this.ids = ids;
+        this.names = names;
+        this.nArgs = nArgs;
+        this.qualifiedClassNames = qualifiedClassNames;
+        this.strings = strings;
+        this.stringOffsets = stringOffsets;
+        this.blob = blob;
+    }
+
+    private APIStore(int size, int[] ids, int[] names, int[] nArgs, int[] qualifiedClassNames, String[] strings) {
+        this(size, IntBuffer.wrap(ids), IntBuffer.wrap(names), IntBuffer.wrap(nArgs), IntBuffer.wrap(qualifiedClassNames),
+                strings, null, null);
+    }
+
+    public static APIStore Empty() {
+        return new APIStore(0, new int[0], new int[0], new int[0], new int[0], new String[0]);
+    }
+
+    /**
+     * Reads public method declarations (isPublic=1) from the API Extractor database.
+     * APIs come in the same order as MethodDeclarationInfoDB.ReadFromSqlite(), i.e., grouped by project.
+     */
+    public static APIStore ReadFromSqlite(Path DB_PATH) {
+        if (!Files.isRegularFile(DB_PATH)) {
+            logger.error("Database not found at {}", DB_PATH);
+            return Empty();
+        }
+
+        Builder builder = new Builder();
+        Connection conn = null;
+        try {
+            conn = DriverManager.getConnection("jdbc:sqlite:" + DB_PATH);
+            Statement stmt = conn.createStatement();
+            ResultSet rs = stmt.executeQuery(String.format("SELECT method_decl_id, project_name, qualified_class_name, method_name, n_args " +
+                    "FROM %s WHERE isPublic=1 ORDER BY rowid", TABLE_DECLARATIONS_MAIN));
+            while (rs.next())
+                builder.Add(rs.getInt(1), rs.getString(2), rs.getString(3), rs.getString(4), rs.getInt(5));
+        } catch (SQLException e) {
+            e.printStackTrace();
+        } finally {
+            if (conn != null) {
+                try {
+                    conn.close();
+                } catch (SQLException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        APIStore store = builder.Build();
+        logger.info("Loaded {} public APIs ({} distinct strings)", store.size, store.strings.length);
+        return store;
+    }
+
+    public int Size() {
+        return size;
+    }
+
+    /**
+     * @return  number of distinct strings, i.e., all codes are in [-1, StringCount())
+     */
+    public int StringCount() {
+        return strings.length;
+    }
+
+    public int GetId(int i) {
+        return ids.get(i);
+    }
+
+    public String GetName(int i) {
+        return GetString(names.get(i));
+    }
+
+    /**
+     * @return  same for all APIs with the same name
+     */
+    public int GetNameCode(int i) {
+        return names.get(i);
+    }
+
+    public int GetNArgs(int i) {
+        return nArgs.get(i);
+    }
+
+    public String GetQualifiedClassName(int i) {
+        return GetString(qualifiedClassNames.get(i));
+    }
+
+    /**
+     * @return  same for all APIs of a class, so callers can check a class once
+     */
+    public int GetQualifiedClassNameCode(int i) {
+        return qualifiedClassNames.get(i);
+    }
+
+    String GetString(int code) {
+        if (code < 0)
+            return null;
+        String s = strings[code];
+        if (s == null && blob != null) {
+            // Racing threads decode the same string, whichever is stored is fine
+            int from = stringOffsets.get(code), to = stringOffsets.get(code + 1);
+            byte[] bytes = new byte[to - from];
+            blob.duplicate().position(from).get(bytes);
+            s = new String(bytes, StandardCharsets.UTF_8);
+            strings[code] = s;
+        }
+        return s;
+    }
+
+    private static class Builder {
+        int size = 0;
+        int[] ids = new int[1024], names = new int[1024], nArgs = new int[1024], classes = new int[1024], projects = new int[1024];
+        Map<String, Integer> dictionary = new HashMap<>();
+        // Only keys are used: ReadFromSqlite_GroupByProject() keeps projects in a HashMap, and we want the same order
+        Map<String, Boolean> projectsOrder = new HashMap<>();
+
+        void Add(int id, String projectName, String qualifiedClassName, String name, int n) {
+            if (size == ids.length) {
+                int newLength = ids.length * 2;
+                ids = Arrays.copyOf(ids, newLength);
+                names = Arrays.copyOf(names, newLength);
+                nArgs = Arrays.copyOf(nArgs, newLength);
+                classes = Arrays.copyOf(classes, newLength);
+                projects = Arrays.copyOf(projects, newLength);
+            }
+            projectsOrder.putIfAbsent(projectName, Boolean.TRUE);
+            ids[size] = id;
+            names[size] = Code(name);
+            nArgs[size] = n;
+            classes[size] = Code(qualifiedClassName);
+            projects[size] = Code(projectName);
+            size++;
+        }
+
+        int Code(String s) {
+            if (s == null)
+                return -1;
+            return dictionary.computeIfAbsent(s, k -> dictionary.size());
+        }
+
+        APIStore Build() {
+            String[] strings = new String[dictionary.size()];
+            for (Map.Entry<String, Integer> e : dictionary.entrySet())
+                strings[e.getValue()] = e.getKey();
+
+            // Stable counting sort of rows by their project's position in projectsOrder
+            int[] rankOfCode = new int[strings.length];
+            int rank = 0;
+            int nullProjectRank = 0;
+            for (String p : projectsOrder.keySet()) {
+                if (p == null)
+                    nullProjectRank = rank++;
+                else
+                    rankOfCode[dictionary.get(p)] = rank++;
+            }
+            int[] start = new int[rank + 1];
+            for (int i = 0; i < size; i++)
+                start[Rank(projects[i], rankOfCode, nullProjectRank) + 1]++;
+            for (int r = 0; r < rank; r++)
+                start[r + 1] += start[r];
+            int[] order = new int[size];
+            for (int i = 0; i < size; i++)
+                order[start[Rank(projects[i], rankOfCode, nullProjectRank)]++] = i;
+
+            return new APIStore(size, Permute(ids, order), Permute(names, order), Permute(nArgs, order),
+                    Permute(classes, order), strings);
+        }
+
+        static int Rank(int projectCode, int[] rankOfCode, int nullProjectRank) {
+            return projectCode < 0 ? nullProjectRank : rankOfCode[projectCode];
+        }
+
+        static int[] Permute(int[] column, int[] order) {
+            int[] res = new int[order.length];
+            for (int i = 0; i < order.length; i++)
+                res[i] = column[order[i]];
+            return res;
+        }
+    }
+}
@@ -6,10 +6,13 @@ import org.apache.commons.io.FileUtils;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.List;
 
 public class IO {
+    public static Path TEMP_DIR = null; // where temp files go; null for the default one (java.io.tmpdir)
+
     public static void WriteCSV_SingleColumn(List<String> data, Path writeAt){
         CSVWriter writer = null;
         try {
@@ -57,7 +60,7 @@ public class IO {
     {
         File file = null;
         try {
-            file = File.createTempFile(tempFilePrefix, tempFileSuffix);
+            file = CreateTempFile(tempFilePrefix, tempFileSuffix).toFile();
             FileUtils.writeStringToFile(file, content, "UTF-8");
         } catch (IOException e) {
             e.printStackTrace();
@@ -66,4 +69,34 @@ public class IO {
 //        file.deleteOnExit();
         return file.toPath();
     }
+
+    /**
+     * Same as `WriteStringOnTempFile`, for content which is already encoded
+     * @return  null if the file couldn't be written
+     */
+    public static Path WriteBytesOnTempFile(byte[] content, String tempFilePrefix, String tempFileSuffix)
+    {
+        Path file = null;
+        try {
+            file = CreateTempFile(tempFilePrefix, tempFileSuffix);
+            Files.write(file, content);
+            return file;
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.err.println("Failed to create SrcML temp file");
+            if(file != null)
+                file.toFile().delete();
+            return null;
+        }
+    }
+
+    /**
+     * Empty temp file in `TEMP_DIR`
+     */
+    public static Path CreateTempFile(String tempFilePrefix, String tempFileSuffix) throws IOException
+    {
+        if(TEMP_DIR == null)
+            return Files.createTempFile(tempFilePrefix, tempFileSuffix);
+        return Files.createTempFile(TEMP_DIR, tempFilePrefix, tempFileSuffix);
+    }
 }
@@ -0,0 +1,145 @@
+package com.anon.helpers;
+
+import java.util.*;
+
+/**
+ * Finds which target packages a Java file imports, in one pass over the file header (Aho-Corasick automaton over the
+ * package names plus "import", "class " and "interface ").
+ *
+ * Same result as the line-by-line check it replaces:
+ *  - stop at the first line containing "class " or "interface " (most likely the end of import statements)
+ *  - skip lines not containing "import"
+ *  - otherwise add the first package (in list order) that the line contains
+ * Immutable once built, so one instance is shared by all analyzer threads.
+ */
+public class ImportScanner {
+    private static final int FLAG_IMPORT = 1, FLAG_STOP = 2;
+    private static final int NO_PACKAGE = Integer.MAX_VALUE;
+
+    private final String[] packages;
+    private final boolean hasEmptyPackage; // "" is contained in any line
+    private final int emptyPackageIndex;
+    private final int[] alphabet; // char -> symbol, 0 for chars not in any pattern
+    private final int nSymbols;
+    private final int[][] next; // DFA: node -> symbol -> node
+    private final int[] minPackage; // smallest package index ending at node (through suffix links)
+    private final int[] flags;
+
+    public ImportScanner(List<String> packages) {
+        this.packages = packages.toArray(new String[0]);
+
+        int empty = NO_PACKAGE;
+        for (int i = 0; i < this.packages.length && empty == NO_PACKAGE; i++)
+            if (this.packages[i] != null && this.packages[i].isEmpty())
+                empty = i;
+        hasEmptyPackage = empty != NO_PACKAGE;
+        emptyPackageIndex = empty;
+
+        List<String> patterns = new ArrayList<>();
+        List<Integer> patternPackage = new ArrayList<>(), patternFlags = new ArrayList<>();
+        for (int i = 0; i < this.packages.length; i++)
+            if (this.packages[i] != null && !this.packages[i].isEmpty()) {
+                patterns.add(this.packages[i]);
+                patternPackage.add(i);
+                patternFlags.add(0);
+            }
+        for (String w : new String[]{"import", "class ", "interface "}) {
+            patterns.add(w);
+            patternPackage.add(NO_PACKAGE);
+            patternFlags.add(w.equals("import") ? FLAG_IMPORT : FLAG_STOP);
+        }
+
+        // Symbols: only chars used by patterns, everything else goes back to root
+        int maxChar = 0;
+        for (String p : patterns)
+            for (int k = 0; k < p.length(); k++)
+                maxChar = Math.max(maxChar, p.charAt(k));
+        alphabet = new int[maxChar + 1];
+        int symbols = 1;
+        for (String p : patterns)
+            for (int k = 0; k < p.length(); k++)
+                if (alphabet[p.charAt(k)] == 0)
+                    alphabet[p.charAt(k)] = symbols++;
+        nSymbols = symbols;
+
+        // Trie
+        List<int[]> trie = new ArrayList<>();
+        List<Integer> nodeMin = new ArrayList<>(), nodeFlags = new ArrayList<>();
+        trie.add(new int[nSymbols]);
+        nodeMin.add(NO_PACKAGE);
+        nodeFlags.add(0);
+        for (int pi = 0; pi < patterns.size(); pi++) {
+            String p = patterns.get(pi);
+            int node = 0;
+            for (int k = 0; k < p.length(); k++) {
+                int s = alphabet[p.charAt(k)];
+                if (trie.get(node)[s] == 0) {
+                    trie.get(node)[s] = trie.size();
+                    trie.add(new int[nSymbols]);
+                    nodeMin.add(NO_PACKAGE);
+                    nodeFlags.add(0);
+                }
+                node = trie.get(node)[s];
+            }
+            nodeMin.set(node, Math.min(nodeMin.get(node), patternPackage.get(pi)));
+            nodeFlags.set(node, nodeFlags.get(node) | patternFlags.get(pi));
+        }
+
+        // Suffix links (BFS) turn the trie into a DFA and merge outputs of suffixes
+        next = trie.toArray(new int[0][]);
+        minPackage = new int[next.length];
+        flags = new int[next.length];
+        for (int i = 0; i < next.length; i++) {
+            minPackage[i] = nodeMin.get(i);
+            flags[i] = nodeFlags.get(i);
+        }
+        int[] fail = new int[next.length];
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        for (int s = 1; s < nSymbols; s++)
+            if (next[0][s] != 0)
+                queue.add(next[0][s]);
+        while (!queue.isEmpty()) {
+            int node = queue.poll();
+            minPackage[node] = Math.min(minPackage[node], minPackage[fail[node]]);
+            flags[node] |= flags[fail[node]];
+            for (int s = 1; s < nSymbols; s++) {
+                int child = next[node][s];
+                if (child != 0) {
+                    fail[child] = next[fail[node]][s];
+                    queue.add(child);
+                } else
+                    next[node][s] = next[fail[node]][s];
+            }
+        }
+    }
+
+    /**
+     * @return  target packages imported by the file
+     */
+    public Set<String> Scan(CharSequence content) {
+        Set<String> imported = new HashSet<>();
+        int node = 0, lineFlags = 0, lineMin = NO_PACKAGE;
+        int n = content.length();
+        for (int i = 0; i <= n; i++) {
+            char c = i < n ? content.charAt(i) : '\n';
+            if (c == '\n') {
+                if ((lineFlags & FLAG_STOP) != 0)
+                    break;
+                if ((lineFlags & FLAG_IMPORT) != 0) {
+                    int p = hasEmptyPackage ? Math.min(lineMin, emptyPackageIndex) : lineMin;
+                    if (p != NO_PACKAGE)
+                        imported.add(packages[p]);
+                }
+                node = 0;
+                lineFlags = 0;
+                lineMin = NO_PACKAGE;
+                continue;
+            }
+            node = next[node][c < alphabet.length ? alphabet[c] : 0];
+            lineFlags |= flags[node];
+            if (minPackage[node] < lineMin)
+                lineMin = minPackage[node];
+        }
+        return imported;
+    }
+}
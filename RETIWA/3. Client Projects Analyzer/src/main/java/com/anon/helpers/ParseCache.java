@@ -0,0 +1,295 @@
+package com.anon.helpers;
+
+import com.anon.cmdrunners.SrcMLCmdRunner;
+import com.anonymous.parser.parser.ds.MethodDeclarationInfo;
+import com.anonymous.parser.parser.ds.MethodInvocationInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * srcML results (method declarations, classes and method calls) of Java files, by git blob SHA. Identical blobs come up
+ * all the time (reverts, cherry-picks, merged branches, files shared by forks), and each one is parsed only once.
+ *
+ * Two tiers, both shared by all threads:
+ *  - memory: LRU of the most recent blobs
+ *  - disk (optional): one small file per blob in a directory (like .git/objects: "ab/cdef..."), which also survives
+ *    between runs
+ * Results don't depend on where the blob is, so we keep them without file paths and set the path on each hit.
+ * Only results of `SrcMLCmdRunner.ExtractFromFile(..., onlyMethodsUnderClass=false)` (or its batch version) belong here.
+ */
+public class ParseCache {
+    private static final Logger logger = LoggerFactory.getLogger(ParseCache.class);
+    private static final int FILE_MAGIC = 0x50415253; // "PARS"
+    private static final int FILE_VERSION = 1;
+
+    private final Map<String, CachedParse> memory;
+    private final Path diskDir; // null if no disk tier
+    private final AtomicLong memoryHits = new AtomicLong(0), diskHits = new AtomicLong(0), misses = new AtomicLong(0);
+
+    /**
+     * @param capacity  number of blobs kept in memory
+     * @param diskDir   null for no disk tier
+     */
+    public ParseCache(int capacity, Path diskDir) {
+        this.memory = new LinkedHashMap<>(1024, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedParse> eldest) {
+                return size() > capacity;
+            }
+        };
+        this.diskDir = diskDir;
+    }
+
+    /**
+     * @param filePath  file path to be added to the results
+     * @return  null if the blob was never parsed
+     */
+    public SrcMLCmdRunner.ParsedFile Get(String blobSHA, Path filePath) {
+        CachedParse e;
+        synchronized (memory) {
+            e = memory.get(blobSHA);
+        }
+        if (e != null) {
+            memoryHits.incrementAndGet();
+            return e.ToParsedFile(filePath);
+        }
+
+        if (diskDir != null) {
+            e = ReadFromDisk(blobSHA);
+            if (e != null) {
+                diskHits.incrementAndGet();
+                synchronized (memory) {
+                    memory.put(blobSHA, e);
+                }
+                return e.ToParsedFile(filePath);
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Empty results are not kept: that's also what a srcML failure looks like, and we don't want to remember failures.
+     */
+    public void Put(String blobSHA, SrcMLCmdRunner.ParsedFile parsed) {
+        if (parsed.methodDeclarations.isEmpty() && parsed.classes.isEmpty() && parsed.methodCalls.isEmpty())
+            return;
+        CachedParse e = new CachedParse(parsed);
+        synchronized (memory) {
+            memory.put(blobSHA, e);
+        }
+        if (diskDir != null)
+            WriteOnDisk(blobSHA, e);
+    }
+
+    public String Stats() {
+        long m = memoryHits.get(), d = diskHits.get(), miss = misses.get(), total = m + d + miss;
+        return String.format("%d hits in memory, %d hits on disk, %d misses (hit rate %.1f%%)", m, d, miss, total == 0 ? 0 : 100.0 * (m + d) / total);
+    }
+
+    private Path DiskPath(String blobSHA) {
+        return diskDir.resolve(blobSHA.substring(0, 2)).resolve(blobSHA.substring(2));
+    }
+
+    private CachedParse ReadFromDisk(String blobSHA) {
+        Path path = DiskPath(blobSHA);
+        if (!Files.isRegularFile(path))
+            return null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION)
+                return null;
+            return CachedParse.Read(in);
+        } catch (IOException e) {
+            logger.warn("Failed reading parse cache entry {}", path, e);
+            return null;
+        }
+    }
+
+    /**
+     * Written next to the target and moved, so concurrent writers (or readers) of the same blob never see half a file
+     */
+    private void WriteOnDisk(String blobSHA, CachedParse e) {
+        Path path = DiskPath(blobSHA);
+        Path tmp = null;
+        try {
+            Files.createDirectories(path.getParent());
+            tmp = Files.createTempFile(path.getParent(), blobSHA.substring(2), ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeInt(FILE_MAGIC);
+                out.writeInt(FILE_VERSION);
+                e.Write(out);
+            }
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException ex) {
+            logger.warn("Failed writing parse cache entry {}", path, ex);
+            if (tmp != null)
+                tmp.toFile().delete();
+        }
+    }
+
+    /**
+     * What we need to rebuild a `ParsedFile`, as created by `SrcMLCmdRunner`
+     */
+    private static class CachedParse {
+        String[] declNames;
+        int[] declNArgs, declLineStart, declLineEnd;
+        boolean[] declVarArgs;
+        String[] classNames;
+        int[] classLineStart, classLineEnd;
+        String[] callNames;
+        int[] callNArgs;
+        int[][] callLines;
+
+        private CachedParse() {
+        }
+
+        CachedParse(SrcMLCmdRunner.ParsedFile parsed) {
+            int n = parsed.methodDeclarations.size();
+            declNames = new String[n];
+            declNArgs = new int[n];
+            declLineStart = new int[n];
+            declLineEnd = new int[n];
+            declVarArgs = new boolean[n];
+            for (int i = 0; i < n; i++) {
+                MethodDeclarationInfo m = parsed.methodDeclarations.get(i);
+                declNames[i] = m.name;
+                declNArgs[i] = m.nArgs;
+                declLineStart[i] = m.lineStart;
+                declLineEnd[i] = m.lineEnd;
+                declVarArgs[i] = m.arbitraryNumberOfArguments;
+            }
+
+            n = parsed.classes.size();
+            classNames = new String[n];
+            classLineStart = new int[n];
+            classLineEnd = new int[n];
+            for (int i = 0; i < n; i++) {
+                SrcMLCmdRunner.ClassInfo c = parsed.classes.get(i);
+                classNames[i] = c.className;
+                classLineStart[i] = c.lineStart;
+                classLineEnd[i] = c.lineEnd;
+            }
+
+            n = parsed.methodCalls.size();
+            callNames = new String[n];
+            callNArgs = new int[n];
+            callLines = new int[n][];
+            for (int i = 0; i < n; i++) {
+                MethodInvocationInfo m = parsed.methodCalls.get(i);
+                callNames[i] = m.name;
+                callNArgs[i] = m.nArgs;
+                callLines[i] = m.lineNumbers.stream().mapToInt(Integer::intValue).toArray();
+            }
+        }
+
+        SrcMLCmdRunner.ParsedFile ToParsedFile(Path filePath) {
+            List<MethodDeclarationInfo> decls = new ArrayList<>(declNames.length);
+            for (int i = 0; i < declNames.length; i++) {
+                MethodDeclarationInfo mdi = new MethodDeclarationInfo(null, null, declNames[i], declNArgs[i], null, declLineStart[i], declLineEnd[i], -1);
+                mdi.fileRelativePath = String.valueOf(filePath);
+                mdi.arbitraryNumberOfArguments = declVarArgs[i];
+                decls.add(mdi);
+            }
+
+            List<SrcMLCmdRunner.ClassInfo> classes = new ArrayList<>(classNames.length);
+            for (int i = 0; i < classNames.length; i++)
+                classes.add(new SrcMLCmdRunner.ClassInfo(filePath, classNames[i], classLineStart[i], classLineEnd[i]));
+
+            List<MethodInvocationInfo> calls = new ArrayList<>(callNames.length);
+            for (int i = 0; i < callNames.length; i++) {
+                MethodInvocationInfo mii = new MethodInvocationInfo(null, null, callNames[i], callNArgs[i], null);
+                for (int line : callLines[i])
+                    mii.lineNumbers.add(line);
+                mii.fileRelativePath = String.valueOf(filePath);
+                calls.add(mii);
+            }
+            return new SrcMLCmdRunner.ParsedFile(decls, classes, calls);
+        }
+
+        void Write(DataOutputStream out) throws IOException {
+            out.writeInt(declNames.length);
+            for (int i = 0; i < declNames.length; i++) {
+                WriteString(out, declNames[i]);
+                out.writeInt(declNArgs[i]);
+                out.writeInt(declLineStart[i]);
+                out.writeInt(declLineEnd[i]);
+                out.writeBoolean(declVarArgs[i]);
+            }
+            out.writeInt(classNames.length);
+            for (int i = 0; i < classNames.length; i++) {
+                WriteString(out, classNames[i]);
+                out.writeInt(classLineStart[i]);
+                out.writeInt(classLineEnd[i]);
+            }
+            out.writeInt(callNames.length);
+            for (int i = 0; i < callNames.length; i++) {
+                WriteString(out, callNames[i]);
+                out.writeInt(callNArgs[i]);
+                out.writeInt(callLines[i].length);
+                for (int line : callLines[i])
+                    out.writeInt(line);
+            }
+        }
+
+        static CachedParse Read(DataInputStream in) throws IOException {
+            CachedParse e = new CachedParse();
+            int n = in.readInt();
+            e.declNames = new String[n];
+            e.declNArgs = new int[n];
+            e.declLineStart = new int[n];
+            e.declLineEnd = new int[n];
+            e.declVarArgs = new boolean[n];
+            for (int i = 0; i < n; i++) {
+                e.declNames[i] = ReadString(in);
+                e.declNArgs[i] = in.readInt();
+                e.declLineStart[i] = in.readInt();
+                e.declLineEnd[i] = in.readInt();
+                e.declVarArgs[i] = in.readBoolean();
+            }
+            n = in.readInt();
+            e.classNames = new String[n];
+            e.classLineStart = new int[n];
+            e.classLineEnd = new int[n];
+            for (int i = 0; i < n; i++) {
+                e.classNames[i] = ReadString(in);
+                e.classLineStart[i] = in.readInt();
+                e.classLineEnd[i] = in.readInt();
+            }
+            n = in.readInt();
+            e.callNames = new String[n];
+            e.callNArgs = new int[n];
+            e.callLines = new int[n][];
+            for (int i = 0; i < n; i++) {
+                e.callNames[i] = ReadString(in);
+                e.callNArgs[i] = in.readInt();
+                e.callLines[i] = new int[in.readInt()];
+                for (int k = 0; k < e.callLines[i].length; k++)
+                    e.callLines[i][k] = in.readInt();
+            }
+            return e;
+        }
+
+        private static void WriteString(DataOutputStream out, String s) throws IOException {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+
+        private static String ReadString(DataInputStream in) throws IOException {
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+}
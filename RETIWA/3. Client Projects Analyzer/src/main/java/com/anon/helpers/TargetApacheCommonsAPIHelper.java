@@ -1,38 +1,146 @@
 package com.anon.helpers;
 
-import com.anonymous.parser.parser.db.MethodDeclarationInfoDB;
 import com.anonymous.parser.parser.db.PackagesDeclarationDB;
-import com.anonymous.parser.parser.ds.MethodDeclarationInfo;
 import com.anonymous.parser.parser.ds.MethodInvocationInfo;
 import com.anonymous.parser.parser.ds.PackageDeclarationInfo;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.nio.file.Path;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
-import java.util.Set;
+import java.util.*;
 
 public class TargetApacheCommonsAPIHelper {
 
     private static final Logger logger = LoggerFactory.getLogger(TargetApacheCommonsAPIHelper.class);
 
-    public static List<MethodDeclarationInfo> allAPIs = new ArrayList<>(); //only public method declarations (APIs)
+    public static APIStore allAPIs = APIStore.Empty(); //only public method declarations (APIs)
     public static List<String/*base package name*/> packages = new ArrayList<>();
+    // Built from `packages` by LoadPackages, shared by all analyzer threads
+    private static volatile ImportScanner importScanner = new ImportScanner(Collections.emptyList());
+    // name -> [nArgs] -> APIs. Built once by LoadAPIs and only read afterwards, so all analyzer threads share it
+    private static volatile Map<String, SameSignatureAPIs[]> apisByNameAndArity = Collections.emptyMap();
+    // Mapped (and checked) once, for both LoadAPIs and LoadPackages
+    private static Path snapshotPath = null;
+    private static APISnapshot snapshot = null;
 
+    /**
+     * APIs with the same name and number of arguments, in the order they were loaded. Many of them are overloads in
+     * the same class, so import matching is done once per distinct class.
+     */
+    private static class SameSignatureAPIs {
+        final int[] ids; // database id of each API
+        final String[] classNames; // distinct qualifiedClassName of APIs
+        final int[] classOf; // API i is in classNames[classOf[i]]
+
+        /**
+         * @param classSlot     scratch array indexed by class name code, all -1. It's left all -1 again.
+         */
+        SameSignatureAPIs(APIStore store, int[] rows, int from, int to, int[] classSlot) {
+            this.ids = new int[to - from];
+            this.classOf = new int[to - from];
+            List<String> names = new ArrayList<>();
+            List<Integer> usedSlots = new ArrayList<>();
+            for (int i = 0; i < ids.length; i++) {
+                int row = rows[from + i];
+                ids[i] = store.GetId(row);
+                int code = store.GetQualifiedClassNameCode(row) + 1; // +1 for null
+                if (classSlot[code] == -1) {
+                    classSlot[code] = names.size();
+                    usedSlots.add(code);
+                    names.add(store.GetQualifiedClassName(row));
+                }
+                classOf[i] = classSlot[code];
+            }
+            for (int code : usedSlots)
+                classSlot[code] = -1;
+            this.classNames = names.toArray(new String[0]);
+        }
+    }
+
+    /**
+     * @param DB_PATH   API database (SQLite) or its snapshot (see APISnapshot)
+     */
     public static void LoadAPIs(Path DB_PATH)
     {
-        TargetApacheCommonsAPIHelper.allAPIs.clear();
-        List<MethodDeclarationInfo> apis = MethodDeclarationInfoDB.ReadFromSqlite(DB_PATH);
-        for(MethodDeclarationInfo m: apis)
-            if(m.isPublic==1)
-                allAPIs.add(m);
+        long start = System.currentTimeMillis();
+        if(APISnapshot.IsSnapshot(DB_PATH)) {
+            APISnapshot snapshot = MapSnapshot(DB_PATH);
+            allAPIs = snapshot==null ? APIStore.Empty() : snapshot.GetAPIs();
+        }
+        else
+            allAPIs = APIStore.ReadFromSqlite(DB_PATH);
+        BuildIndex(allAPIs);
+        logger.info("APIs loaded in {} ms", System.currentTimeMillis() - start);
+    }
+
+    private static synchronized APISnapshot MapSnapshot(Path DB_PATH)
+    {
+        if(!DB_PATH.equals(snapshotPath)) {
+            snapshot = APISnapshot.Map(DB_PATH);
+            snapshotPath = DB_PATH;
+        }
+        return snapshot;
+    }
+
+    private static void BuildIndex(APIStore store)
+    {
+        // Rows grouped by name (stable counting sort on name codes), then by nArgs within each name
+        int n = store.Size(), nCodes = store.StringCount();
+        int[] start = new int[nCodes + 2];
+        for(int row=0; row<n; row++)
+            start[store.GetNameCode(row) + 2]++;
+        for(int c=0; c<=nCodes; c++)
+            start[c + 1] += start[c];
+        int[] rows = new int[n];
+        int[] next = Arrays.copyOf(start, start.length);
+        for(int row=0; row<n; row++)
+            rows[next[store.GetNameCode(row) + 1]++] = row;
+
+        int[] classSlot = new int[nCodes + 1];
+        Arrays.fill(classSlot, -1);
+        Map<String, SameSignatureAPIs[]> index = new HashMap<>();
+        for(int c=0; c<nCodes; c++) {
+            int from = start[c + 1], to = start[c + 2]; // c+1: rows with null name (code -1) come first and are skipped
+            if(from==to)
+                continue;
+            int maxArgs = -1;
+            for(int i=from; i<to; i++)
+                maxArgs = Math.max(maxArgs, store.GetNArgs(rows[i]));
+            if(maxArgs<0)
+                continue;
+
+            int[] arityStart = new int[maxArgs + 2];
+            for(int i=from; i<to; i++)
+                if(store.GetNArgs(rows[i])>=0)
+                    arityStart[store.GetNArgs(rows[i]) + 1]++;
+            for(int a=0; a<=maxArgs; a++)
+                arityStart[a + 1] += arityStart[a];
+            int[] byArityRows = new int[arityStart[maxArgs + 1]];
+            int[] arityNext = Arrays.copyOf(arityStart, arityStart.length);
+            for(int i=from; i<to; i++)
+                if(store.GetNArgs(rows[i])>=0)
+                    byArityRows[arityNext[store.GetNArgs(rows[i])]++] = rows[i];
+
+            SameSignatureAPIs[] arr = new SameSignatureAPIs[maxArgs + 1];
+            for(int a=0; a<=maxArgs; a++)
+                if(arityStart[a]!=arityStart[a + 1])
+                    arr[a] = new SameSignatureAPIs(store, byArityRows, arityStart[a], arityStart[a + 1], classSlot);
+            index.put(store.GetName(rows[from]), arr);
+        }
+        apisByNameAndArity = Collections.unmodifiableMap(index);
+        logger.info("Indexed {} APIs by {} names", n, index.size());
     }
 
     public static void LoadPackages(Path DB_PATH)
     {
         TargetApacheCommonsAPIHelper.packages.clear();
+        if(APISnapshot.IsSnapshot(DB_PATH)) {
+            APISnapshot snapshot = MapSnapshot(DB_PATH);
+            if(snapshot!=null)
+                packages.addAll(snapshot.GetPackages());
+            importScanner = new ImportScanner(packages);
+            return;
+        }
         Map<String, Set<PackageDeclarationInfo>> allPackagesPerProject = PackagesDeclarationDB.ReadPackagesFromSqlite_GroupByProject(DB_PATH);
         for(Map.Entry<String, Set<PackageDeclarationInfo>> entry: allPackagesPerProject.entrySet())
         {
@@ -47,26 +155,47 @@ public class TargetApacheCommonsAPIHelper {
             }
             packages.add(minPackage);
         }
+        importScanner = new ImportScanner(packages);
         return;
     }
 
-    public static List<MethodDeclarationInfo> FindMatchingAPIs(MethodInvocationInfo method, Set<String> importedPackages)
+    /**
+     * @return  target packages (among `packages`) imported by a Java file (the whole file or just its header, see
+     * `GitCmdRunner.GetFileHeaderAtSpecificCommit`)
+     */
+    public static Set<String> FindImportedPackages(String fileContent)
+    {
+        return importScanner.Scan(fileContent);
+    }
+
+    /**
+     * @return  database ids of APIs with the same name and nArgs, in a class from one of the imported packages
+     */
+    public static List<Integer> FindMatchingAPIs(MethodInvocationInfo method, Set<String> importedPackages)
     {
         if(importedPackages==null)
             return null;
 
-        List<MethodDeclarationInfo> matches = new ArrayList<>();
-        for(MethodDeclarationInfo m: allAPIs)
-            if(m.name.equals(method.name) && m.nArgs==method.nArgs) {
-                boolean foundAImportMatch=false;
-                for(String anImportedPackage: importedPackages)
-                    if(m.qualifiedClassName.contains(anImportedPackage)) {
-                        foundAImportMatch = true;
-                        break;
-                    }
-                if(foundAImportMatch)
-                    matches.add(m);
-            }
+        List<Integer> matches = new ArrayList<>();
+        SameSignatureAPIs[] byArity = apisByNameAndArity.get(method.name);
+        if(byArity==null || method.nArgs<0 || method.nArgs>=byArity.length || byArity[method.nArgs]==null)
+            return matches;
+
+        SameSignatureAPIs candidates = byArity[method.nArgs];
+        boolean[] classMatches = new boolean[candidates.classNames.length];
+        for(int c=0; c<classMatches.length; c++)
+            classMatches[c] = IsImported(candidates.classNames[c], importedPackages);
+        for(int i=0; i<candidates.ids.length; i++)
+            if(classMatches[candidates.classOf[i]])
+                matches.add(candidates.ids[i]);
         return matches;
     }
+
+    private static boolean IsImported(String qualifiedClassName, Set<String> importedPackages)
+    {
+        for(String anImportedPackage: importedPackages)
+            if(qualifiedClassName.contains(anImportedPackage))
+                return true;
+        return false;
+    }
 }